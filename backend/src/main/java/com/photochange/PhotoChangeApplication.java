@@ -2,12 +2,14 @@ package com.photochange;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * 人物姿势改变应用的主应用类
  * 用于启动Spring Boot应用
  */
 @SpringBootApplication
+@EnableScheduling
 public class PhotoChangeApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,208 @@
+package com.photochange.api;
+
+import com.photochange.model.ExportResult;
+import com.photochange.service.DerivativeService;
+import com.photochange.service.ExportService;
+import com.photochange.service.ImageStorageService;
+import com.photochange.service.ImageStorageService.StoredFile;
+import com.photochange.service.TemplateAtlasService;
+import com.photochange.storage.ImageIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * 图片文件下载控制器
+ * 提供上传图片、结果图片、缩略图、模板图集和导出文件的下载，支持Range请求和条件请求
+ */
+@RestController
+@RequestMapping("/api/v1")
+@CrossOrigin(origins = "*", maxAge = 3600)
+public class MediaController {
+
+    /**
+     * 结果URL中版本号的长度（内容摘要的前16位）
+     */
+    private static final int VERSION_LENGTH = 16;
+
+    @Autowired
+    private ImageStorageService imageStorageService;
+
+    @Autowired
+    private ExportService exportService;
+
+    @Autowired
+    private DerivativeService derivativeService;
+
+    @Autowired
+    private TemplateAtlasService templateAtlasService;
+
+    /**
+     * 下载上传的图片
+     * @param file 图片文件名（图片ID，可带扩展名）
+     */
+    @GetMapping("/images/{file:.+}")
+    public void getImage(@PathVariable String file,
+                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        StoredFile stored = imageStorageService.getStoredFile(ImageIndex.Kind.UPLOAD, stripExtension(file));
+        if (stored == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "图片不存在");
+            return;
+        }
+        // 图片ID对应的内容不会改变，可以永久缓存
+        FileDownloadSupport.serve(request, response, stored, FileDownloadSupport.CACHE_IMMUTABLE, null);
+    }
+
+    /**
+     * 下载变换结果图片
+     * @param transformationId 变换任务ID
+     * @param version 内容版本（结果URL中携带），与当前内容一致时允许永久缓存
+     */
+    @GetMapping("/results/{transformationId}")
+    public void getResult(@PathVariable String transformationId,
+                          @RequestParam(value = "v", required = false) String version,
+                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        StoredFile stored = imageStorageService.getStoredFile(ImageIndex.Kind.RESULT, transformationId);
+        if (stored == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "结果图片不存在");
+            return;
+        }
+        // 更新关键点会重写同一任务的结果，只有带版本号的URL才能永久缓存
+        FileDownloadSupport.serve(request, response, stored, versionedCacheControl(stored, version), null);
+    }
+
+    /**
+     * 获取上传图片的缩略图
+     * @param imageId 图片ID
+     * @param width 最大宽度
+     * @param height 最大高度
+     */
+    @GetMapping("/images/{imageId}/thumbnail")
+    public void getImageThumbnail(@PathVariable String imageId,
+                                  @RequestParam(value = "width", defaultValue = "300") int width,
+                                  @RequestParam(value = "height", defaultValue = "300") int height,
+                                  HttpServletRequest request, HttpServletResponse response) throws IOException {
+        serveDerivative(() -> derivativeService.getThumbnail(ImageIndex.Kind.UPLOAD, imageId, width, height),
+                FileDownloadSupport.CACHE_IMMUTABLE, request, response);
+    }
+
+    /**
+     * 获取变换结果图片的缩略图
+     * @param transformationId 变换任务ID
+     * @param width 最大宽度
+     * @param height 最大高度
+     * @param version 源结果图片的内容版本
+     */
+    @GetMapping("/results/{transformationId}/thumbnail")
+    public void getResultThumbnail(@PathVariable String transformationId,
+                                   @RequestParam(value = "width", defaultValue = "300") int width,
+                                   @RequestParam(value = "height", defaultValue = "300") int height,
+                                   @RequestParam(value = "v", required = false) String version,
+                                   HttpServletRequest request, HttpServletResponse response) throws IOException {
+        StoredFile source = imageStorageService.getStoredFile(ImageIndex.Kind.RESULT, transformationId);
+        serveDerivative(() -> derivativeService.getThumbnail(ImageIndex.Kind.RESULT, transformationId, width, height),
+                versionedCacheControl(source, version), request, response);
+    }
+
+    /**
+     * 获取模板素材的预览图
+     * @param asset 模板素材文件名
+     * @param width 最大宽度
+     * @param height 最大高度
+     */
+    @GetMapping("/templates/previews/{asset:.+}")
+    public void getTemplatePreview(@PathVariable String asset,
+                                   @RequestParam(value = "width", defaultValue = "300") int width,
+                                   @RequestParam(value = "height", defaultValue = "300") int height,
+                                   HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // 素材文件可能被替换，依靠ETag重新验证
+        serveDerivative(() -> derivativeService.getTemplatePreview(asset, width, height),
+                FileDownloadSupport.CACHE_REVALIDATE, request, response);
+    }
+
+    /**
+     * 获取模板图集图片或位置清单
+     * @param file 文件名（版本号.webp或版本号.json），版本号为内容摘要
+     */
+    @GetMapping("/templates/atlases/{file:.+}")
+    public void getTemplateAtlas(@PathVariable String file,
+                                 HttpServletRequest request, HttpServletResponse response) throws IOException {
+        StoredFile stored = templateAtlasService.getAtlasFile(file);
+        if (stored == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "图集不存在");
+            return;
+        }
+        // 文件名随内容变化，可以永久缓存
+        FileDownloadSupport.serve(request, response, stored, FileDownloadSupport.CACHE_IMMUTABLE, null);
+    }
+
+    private void serveDerivative(Supplier<StoredFile> generator, String cacheControl,
+                                 HttpServletRequest request, HttpServletResponse response) throws IOException {
+        StoredFile derivative;
+        try {
+            derivative = generator.get();
+        } catch (IllegalArgumentException e) {
+            // 源文件不是可解码的图片
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, e.getMessage());
+            return;
+        }
+        if (derivative == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "图片不存在");
+            return;
+        }
+        FileDownloadSupport.serve(request, response, derivative, cacheControl, null);
+    }
+
+    /**
+     * 下载导出文件
+     * @param exportId 导出任务ID
+     */
+    @GetMapping("/exports/{exportId}/download")
+    public void downloadExport(@PathVariable String exportId,
+                               HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ExportResult result;
+        try {
+            result = exportService.getExportResult(exportId);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+            return;
+        }
+        if (!"completed".equals(result.getStatus())) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "导出任务未完成，无法下载");
+            return;
+        }
+
+        StoredFile stored = imageStorageService.getStoredFile(ImageIndex.Kind.EXPORT, exportId);
+        if (stored == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "导出文件不存在");
+            return;
+        }
+        String filename = stored.getPath().getFileName().toString();
+        FileDownloadSupport.serve(request, response, stored, FileDownloadSupport.CACHE_IMMUTABLE, filename);
+    }
+
+    /**
+     * 带版本号的URL的缓存策略：版本号完整且与当前内容摘要一致时永久缓存，
+     * 缺少、为空、被截短或已过期的版本号都要求重新验证
+     */
+    private static String versionedCacheControl(StoredFile stored, String version) {
+        boolean current = stored != null && stored.getContentHash() != null
+                && version != null && version.length() == VERSION_LENGTH
+                && stored.getContentHash().startsWith(version);
+        return current ? FileDownloadSupport.CACHE_IMMUTABLE : FileDownloadSupport.CACHE_REVALIDATE;
+    }
+
+    private static String stripExtension(String file) {
+        int dot = file.lastIndexOf('.');
+        return dot > 0 ? file.substring(0, dot) : file;
+    }
+}
@@ -1,17 +1,24 @@
 package com.photochange.api;
 
+import com.photochange.job.JobQueueFullException;
 import com.photochange.model.*;
 import com.photochange.service.ExportService;
 import com.photochange.service.PoseDetectionService;
 import com.photochange.service.PoseTransformationService;
 import com.photochange.service.ImageStorageService;
+import com.photochange.service.TemplateAtlasService;
+import com.photochange.service.TemplateService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -37,6 +44,15 @@ public class PoseController {
     @Autowired
     private ExportService exportService;
 
+    @Autowired
+    private TemplateService templateService;
+
+    @Autowired
+    private TemplateAtlasService templateAtlasService;
+
+    @Value("${app.image.upload.max-size:10485760}")
+    private long maxUploadSize;
+
     /**
      * 上传图片
      * @param file 上传的图片文件
@@ -48,23 +64,16 @@ public class PoseController {
             @RequestParam(value = "name", required = false) String name) {
         
         try {
-            // 验证文件类型
-            String contentType = file.getContentType();
-            if (contentType == null || !contentType.startsWith("image/")) {
-                return ResponseEntity.badRequest().body(new ImageUploadResponse(
-                        null, null, "不支持的文件类型，请上传图片文件"));
-            }
-            
             // 验证文件大小
-            if (file.getSize() > 10 * 1024 * 1024) { // 10MB
+            if (file.getSize() > maxUploadSize) {
                 return ResponseEntity.badRequest().body(new ImageUploadResponse(
-                        null, null, "文件过大，最大支持10MB"));
+                        null, null, "文件过大，最大支持" + (maxUploadSize / 1024 / 1024) + "MB"));
             }
             
             // 生成图片ID
             String imageId = "img_" + UUID.randomUUID().toString().replace("-", "");
             
-            // 存储图片
+            // 存储图片（文件类型由魔数校验，不信任客户端声明的Content-Type）
             String imageUrl = imageStorageService.storeImage(file, imageId);
             
             // 构建响应
@@ -76,6 +85,39 @@ public class PoseController {
             
             return ResponseEntity.ok(response);
             
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ImageUploadResponse(null, null, e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ImageUploadResponse(null, null, "图片上传失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 以请求体直接上传图片（不经过multipart解析）
+     * 请求体边读边校验，非图片或超过大小上限时立即拒绝，无需等待整个请求体到达
+     * @param request 请求，请求体为图片二进制数据
+     * @return 上传结果，包含图片ID和URL
+     */
+    @PostMapping(value = "/images/upload",
+            consumes = {"image/jpeg", "image/png", "image/gif", "image/webp"})
+    public ResponseEntity<ImageUploadResponse> uploadImageStream(HttpServletRequest request) {
+        
+        try {
+            // 根据Content-Length提前拒绝过大的请求
+            long contentLength = request.getContentLengthLong();
+            if (contentLength > maxUploadSize) {
+                return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(new ImageUploadResponse(
+                        null, null, "文件过大，最大支持" + (maxUploadSize / 1024 / 1024) + "MB"));
+            }
+            
+            String imageId = "img_" + UUID.randomUUID().toString().replace("-", "");
+            String imageUrl = imageStorageService.storeImage(request.getInputStream(), imageId);
+            
+            return ResponseEntity.ok(new ImageUploadResponse(imageId, imageUrl, "图片上传成功"));
+            
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ImageUploadResponse(null, null, e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(new ImageUploadResponse(null, null, "图片上传失败: " + e.getMessage()));
@@ -105,23 +147,14 @@ public class PoseController {
                         null, imageId, "failed", "图片不存在", null));
             }
             
-            // 创建检测任务
-            String detectionId = "det_" + UUID.randomUUID().toString().replace("-", "");
-            
-            // 异步执行姿势检测
-            poseDetectionService.detectPoseAsync(imageId, detectionId);
-            
-            // 构建响应
-            PoseDetectionResponse response = new PoseDetectionResponse(
-                    detectionId,
-                    imageId,
-                    "processing",
-                    "姿势检测任务已创建，正在处理中",
-                    5 // 预估处理时间（秒）
-            );
-            
+            // 创建检测任务（提交到检测队列后立即返回）
+            PoseDetectionResponse response = poseDetectionService.detectPose(request);
             return ResponseEntity.ok(response);
             
+        } catch (JobQueueFullException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(new PoseDetectionResponse(null, request.getImageId(), "failed", e.getMessage(), null));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(new PoseDetectionResponse(null, request.getImageId(), "failed", 
@@ -161,13 +194,18 @@ public class PoseController {
      * @param category 模板类别（可选）
      * @param page 页码（可选，默认1）
      * @param limit 每页数量（可选，默认20）
+     * @param sortBy 排序字段（可选，popularity、name或createdAt，默认createdAt；
+     *               popularity按模板自带的热度分排序，按近期使用排名见 /templates/popular）
+     * @param cursor 游标（可选，上一页响应中的nextCursor；指定时忽略page）
      * @return 模板列表
      */
     @GetMapping("/templates")
     public ResponseEntity<TemplateListResponse> getTemplates(
             @RequestParam(value = "category", required = false) String category,
             @RequestParam(value = "page", defaultValue = "1") int page,
-            @RequestParam(value = "limit", defaultValue = "20") int limit) {
+            @RequestParam(value = "limit", defaultValue = "20") int limit,
+            @RequestParam(value = "sortBy", required = false) String sortBy,
+            @RequestParam(value = "cursor", required = false) String cursor) {
         
         try {
             // 验证参数
@@ -176,27 +214,142 @@ public class PoseController {
             }
             
             // 获取模板列表
-            List<PoseTemplate> templates = poseTransformationService.getTemplates(category, page, limit);
-            int total = poseTransformationService.countTemplates(category);
-            int pages = (int) Math.ceil((double) total / limit);
-            
-            // 构建响应
-            TemplateListResponse response = new TemplateListResponse(
-                    templates,
-                    total,
-                    page,
-                    limit,
-                    pages
-            );
+            TemplateListResponse response = cursor != null
+                    ? templateService.getTemplatesAfter(cursor, limit, category, sortBy)
+                    : templateService.getTemplates(page, limit, category, sortBy);
             
             return ResponseEntity.ok(response);
             
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new TemplateListResponse(null, 0, page, limit, 0));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new TemplateListResponse(null, 0, page, limit, 0));
+        }
+    }
+
+    /**
+     * 搜索姿势模板（按名称、类别、描述的相关度排序）
+     * @param keyword 关键词
+     * @param page 页码（可选，默认1）
+     * @param limit 每页数量（可选，默认20）
+     * @return 模板列表
+     */
+    @GetMapping("/templates/search")
+    public ResponseEntity<TemplateListResponse> searchTemplates(
+            @RequestParam(value = "keyword", required = false) String keyword,
+            @RequestParam(value = "page", defaultValue = "1") int page,
+            @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        
+        try {
+            return ResponseEntity.ok(templateService.searchTemplates(keyword, page, Math.min(limit, 50)));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(new TemplateListResponse(null, 0, page, limit, 0));
         }
     }
 
+    /**
+     * 获取各类别的模板缩略图图集
+     * 每个类别一张图片，图片和位置清单的URL带内容摘要，可以永久缓存
+     * @return 图集列表（含各模板在图集中的位置）
+     */
+    @GetMapping("/templates/atlases")
+    public ResponseEntity<List<TemplateAtlas>> getTemplateAtlases() {
+        return ResponseEntity.ok(templateAtlasService.getAtlases());
+    }
+
+    /**
+     * 获取热门模板（按近期使用次数排名）
+     * @param limit 数量（可选，默认10）
+     * @return 热门模板列表
+     */
+    @GetMapping("/templates/popular")
+    public ResponseEntity<List<PoseTemplate>> getPopularTemplates(
+            @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        
+        try {
+            return ResponseEntity.ok(templateService.getPopularTemplates(Math.min(limit, 50)));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+    }
+
+    /**
+     * 获取推荐模板（各类别的热门模板）
+     * @param limit 数量（可选，默认10）
+     * @return 推荐模板列表
+     */
+    @GetMapping("/templates/recommended")
+    public ResponseEntity<List<PoseTemplate>> getRecommendedTemplates(
+            @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        
+        try {
+            return ResponseEntity.ok(templateService.getRecommendedTemplates(Math.min(limit, 50)));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+    }
+
+    /**
+     * 查找与检测到的姿势相似的模板
+     * @param detectionId 姿势检测任务ID
+     * @param limit 数量（可选，默认10）
+     * @param mirror 是否把左右镜像的姿势视为相同（可选，默认true）
+     * @return 按相似度从高到低排列的模板
+     */
+    @GetMapping("/templates/similar")
+    public ResponseEntity<List<SimilarTemplate>> getSimilarTemplates(
+            @RequestParam("detectionId") String detectionId,
+            @RequestParam(value = "limit", defaultValue = "10") int limit,
+            @RequestParam(value = "mirror", defaultValue = "true") boolean mirror) {
+        
+        try {
+            PoseDetectionResult detection = poseDetectionService.getDetectionResult(detectionId);
+            if (!"completed".equals(detection.getStatus())) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(null);
+            }
+            
+            // 检测关键点是按EXIF方向旋转后的像素坐标
+            ImageStorageService.ImageMetadata metadata = imageStorageService.getImageMetadata(detection.getImageId());
+            return ResponseEntity.ok(templateService.findSimilarTemplates(detection.getKeypoints(),
+                    metadata.getDisplayWidth(), metadata.getDisplayHeight(), Math.min(limit, 50), mirror));
+            
+        } catch (IllegalArgumentException e) {
+            // 检测任务或图片不存在
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+    }
+
+    /**
+     * 查找与指定模板姿势相似的其他模板
+     * @param templateId 模板ID
+     * @param limit 数量（可选，默认10）
+     * @param mirror 是否把左右镜像的姿势视为相同（可选，默认true）
+     * @return 按相似度从高到低排列的模板
+     */
+    @GetMapping("/templates/{templateId}/similar")
+    public ResponseEntity<List<SimilarTemplate>> getSimilarTemplatesOf(
+            @PathVariable String templateId,
+            @RequestParam(value = "limit", defaultValue = "10") int limit,
+            @RequestParam(value = "mirror", defaultValue = "true") boolean mirror) {
+        
+        try {
+            List<SimilarTemplate> similar = templateService.findSimilarTemplates(templateId, Math.min(limit, 50), mirror);
+            
+            if (similar == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+            }
+            
+            return ResponseEntity.ok(similar);
+            
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+    }
+
     /**
      * 获取姿势模板详情
      * @param templateId 模板ID
@@ -208,7 +361,7 @@ public class PoseController {
         
         try {
             // 获取模板详情
-            PoseTemplate template = poseTransformationService.getTemplateById(templateId);
+            PoseTemplate template = templateService.getTemplateById(templateId);
             
             if (template == null) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
@@ -248,35 +401,20 @@ public class PoseController {
                         null, request.getImageId(), request.getTemplateId(), "failed", "图片不存在", null, null));
             }
             
-            if (poseTransformationService.getTemplateById(request.getTemplateId()) == null) {
+            if (templateService.getTemplateById(request.getTemplateId()) == null) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new TransformationResponse(
                         null, request.getImageId(), request.getTemplateId(), "failed", "模板不存在", null, null));
             }
             
-            // 创建变换任务
-            String transformationId = "trans_" + UUID.randomUUID().toString().replace("-", "");
-            
-            // 异步执行姿势变换
-            poseTransformationService.transformPoseAsync(
-                    transformationId,
-                    request.getImageId(),
-                    request.getTemplateId(),
-                    request.getCustomKeypoints()
-            );
-            
-            // 构建响应
-            TransformationResponse response = new TransformationResponse(
-                    transformationId,
-                    request.getImageId(),
-                    request.getTemplateId(),
-                    "processing",
-                    "姿势变换任务已创建，正在处理中",
-                    15, // 预估处理时间（秒）
-                    System.currentTimeMillis()
-            );
-            
+            // 创建变换任务（提交到变换队列后立即返回）
+            TransformationResponse response = poseTransformationService.createTransformation(request);
             return ResponseEntity.ok(response);
             
+        } catch (JobQueueFullException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(new TransformationResponse(null, request.getImageId(), request.getTemplateId(),
+                            "failed", e.getMessage(), null, null));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(new TransformationResponse(null, request.getImageId(), request.getTemplateId(), 
@@ -353,6 +491,14 @@ public class PoseController {
                     "estimated_time", 10
             ));
             
+        } catch (JobQueueFullException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(Map.of(
+                            "error", e.getMessage(),
+                            "transformation_id", transformationId,
+                            "status", "failed"
+                    ));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
                     "error", "更新变换任务失败: " + e.getMessage(),
@@ -424,6 +570,10 @@ public class PoseController {
             ExportResponse response = exportService.createExport(request);
             return ResponseEntity.ok(response);
             
+        } catch (JobQueueFullException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(new ExportResponse(null, request.getTransformationId(), "failed", e.getMessage(), null));
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(new ExportResponse(
                     null, request.getTransformationId(), "failed", e.getMessage(), null));
@@ -494,42 +644,4 @@ public class PoseController {
                     ));
         }
     }
-    
-    /**
-     * 获取导出文件下载链接
-     * @param exportId 导出任务ID
-     * @return 下载链接
-     */
-    @GetMapping("/exports/{exportId}/download")
-    public ResponseEntity<Map<String, Object>> getDownloadUrl(
-            @PathVariable String exportId) {
-        
-        try {
-            String downloadUrl = exportService.getDownloadUrl(exportId);
-            
-            return ResponseEntity.ok(Map.of(
-                    "success", true,
-                    "download_url", downloadUrl
-            ));
-            
-        } catch (IllegalArgumentException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                    .body(Map.of(
-                            "success", false,
-                            "message", e.getMessage()
-                    ));
-        } catch (IllegalStateException e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(Map.of(
-                            "success", false,
-                            "message", e.getMessage()
-                    ));
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(Map.of(
-                            "success", false,
-                            "message", "获取下载链接失败: " + e.getMessage()
-                    ));
-        }
-    }
 }
\ No newline at end of file
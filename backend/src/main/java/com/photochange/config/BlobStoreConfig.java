@@ -0,0 +1,117 @@
+package com.photochange.config;
+
+import com.photochange.storage.BlobStore;
+import com.photochange.storage.LocalBlobStore;
+import com.photochange.storage.S3BlobStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+
+import java.net.URI;
+import java.nio.file.Paths;
+
+/**
+ * 对象存储后端配置
+ * app.storage.backend=local 时使用本地目录（默认即节点自身的内容目录，不做复制）；
+ * app.storage.backend=s3 时使用S3兼容存储，配置 endpoint 可对接MinIO等本地替身。
+ */
+@Configuration
+public class BlobStoreConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobStoreConfig.class);
+
+    @Value("${app.storage.backend:local}")
+    private String backend;
+
+    @Value("${app.image.storage.path}")
+    private String storageLocation;
+
+    @Value("${app.storage.local.path:}")
+    private String localPath;
+
+    @Value("${app.storage.s3.bucket:photo-change}")
+    private String bucket;
+
+    @Value("${app.storage.s3.prefix:}")
+    private String prefix;
+
+    @Value("${app.storage.s3.region:us-east-1}")
+    private String region;
+
+    @Value("${app.storage.s3.endpoint:}")
+    private String endpoint;
+
+    @Value("${app.storage.s3.path-style-access:false}")
+    private boolean pathStyleAccess;
+
+    @Value("${app.storage.s3.access-key:}")
+    private String accessKey;
+
+    @Value("${app.storage.s3.secret-key:}")
+    private String secretKey;
+
+    @Value("${app.storage.s3.create-bucket:false}")
+    private boolean createBucket;
+
+    @Value("${app.storage.s3.part-size:8388608}")
+    private long partSize;
+
+    @Value("${app.storage.s3.parallelism:4}")
+    private int parallelism;
+
+    @Bean
+    public BlobStore blobStore() {
+        if ("s3".equalsIgnoreCase(backend)) {
+            return s3BlobStore();
+        }
+        if (!"local".equalsIgnoreCase(backend)) {
+            throw new IllegalStateException("不支持的存储后端: " + backend);
+        }
+        if (localPath.isEmpty()) {
+            // 与内容存储目录相同，内容文件已在原位
+            return new LocalBlobStore(Paths.get(storageLocation).resolve(".blobs"), false);
+        }
+        logger.info("使用共享目录作为对象存储: {}", localPath);
+        return new LocalBlobStore(Paths.get(localPath), true);
+    }
+
+    private S3BlobStore s3BlobStore() {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentialsProvider())
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(pathStyleAccess).build());
+        if (!endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        S3Client client = builder.build();
+
+        if (createBucket) {
+            try {
+                client.headBucket(b -> b.bucket(bucket));
+            } catch (NoSuchBucketException e) {
+                client.createBucket(b -> b.bucket(bucket));
+                logger.info("已创建存储桶: {}", bucket);
+            }
+        }
+        logger.info("使用S3对象存储，存储桶: {}, 端点: {}", bucket, endpoint.isEmpty() ? "默认" : endpoint);
+        return new S3BlobStore(client, bucket, prefix, partSize, parallelism);
+    }
+
+    private AwsCredentialsProvider credentialsProvider() {
+        if (!accessKey.isEmpty()) {
+            return StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+        }
+        return DefaultCredentialsProvider.create();
+    }
+}
@@ -0,0 +1,63 @@
+package com.photochange.config;
+
+import com.photochange.job.JobQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 任务队列配置
+ * 姿势检测、姿势变换和导出各用一个有界队列，线程数按各阶段的开销设置：
+ * 检测和变换是CPU密集型，检测每个核一个线程，变换单个任务更重，默认只用一半的核；
+ * 导出主要是编码和写盘，少量线程即可。线程数配置为0时使用上述默认值。
+ */
+@Configuration
+public class JobQueueConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobQueueConfig.class);
+
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+    @Value("${app.jobs.detection.threads:0}")
+    private int detectionThreads;
+
+    @Value("${app.jobs.detection.queue-capacity:64}")
+    private int detectionCapacity;
+
+    @Value("${app.jobs.transformation.threads:0}")
+    private int transformationThreads;
+
+    @Value("${app.jobs.transformation.queue-capacity:32}")
+    private int transformationCapacity;
+
+    @Value("${app.jobs.export.threads:2}")
+    private int exportThreads;
+
+    @Value("${app.jobs.export.queue-capacity:32}")
+    private int exportCapacity;
+
+    @Bean(destroyMethod = "shutdown")
+    public JobQueue detectionJobs() {
+        return create("pose-detection", detectionThreads > 0 ? detectionThreads : PROCESSORS,
+                detectionCapacity, 1000);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public JobQueue transformationJobs() {
+        return create("pose-transformation",
+                transformationThreads > 0 ? transformationThreads : Math.max(1, PROCESSORS / 2),
+                transformationCapacity, 5000);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public JobQueue exportJobs() {
+        return create("export", Math.max(1, exportThreads), exportCapacity, 2000);
+    }
+
+    private static JobQueue create(String name, int threads, int capacity, long expectedMillis) {
+        logger.info("任务队列: {}, 线程数: {}, 队列容量: {}", name, threads, capacity);
+        return new JobQueue(name, threads, capacity, expectedMillis);
+    }
+}
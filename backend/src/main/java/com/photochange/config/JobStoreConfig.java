@@ -0,0 +1,177 @@
+package com.photochange.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.photochange.job.JobJournal;
+import com.photochange.job.JobStore;
+import com.photochange.model.ExportResult;
+import com.photochange.model.PoseDetectionResult;
+import com.photochange.model.Skeleton;
+import com.photochange.model.TransformationResult;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * 任务状态存储配置
+ * 检测、变换、导出各用一个存储，共用同一组上限和按状态的保留时间：
+ * 已完成的结果保留较久供客户端轮询和后续导出，失败和取消的只需保留到客户端看到为止，
+ * 处理中的保留时间用于兜底清理卡住的任务。
+ * 启用状态日志时，各存储的状态变化记入存储目录下的.jobs目录，重启后从日志恢复，
+ * 日志写入量超过阈值时压缩为快照文件。
+ */
+@Configuration
+public class JobStoreConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobStoreConfig.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${app.image.storage.path}")
+    private String storageLocation;
+
+    @Value("${app.jobs.journal.enabled:true}")
+    private boolean journalEnabled;
+
+    @Value("${app.jobs.journal.segment-size:16777216}")
+    private int journalSegmentSize;
+
+    @Value("${app.jobs.journal.compact-threshold:16777216}")
+    private long journalCompactThreshold;
+
+    @Value("${app.jobs.state.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${app.jobs.state.processing-ttl:1h}")
+    private Duration processingTtl;
+
+    @Value("${app.jobs.state.completed-ttl:24h}")
+    private Duration completedTtl;
+
+    @Value("${app.jobs.state.failed-ttl:1h}")
+    private Duration failedTtl;
+
+    @Value("${app.jobs.state.cancelled-ttl:10m}")
+    private Duration cancelledTtl;
+
+    private final List<JobStore<?>> stores = new CopyOnWriteArrayList<>();
+
+    @Bean(destroyMethod = "close")
+    public JobStore<PoseDetectionResult> detectionStore() {
+        return create("pose-detection", PoseDetectionResult.class,
+                PoseDetectionResult::getStatus, PoseDetectionResult::new);
+    }
+
+    @Bean(destroyMethod = "close")
+    public JobStore<TransformationResult> transformationStore() {
+        return create("pose-transformation", TransformationResult.class,
+                TransformationResult::getStatus, TransformationResult::new);
+    }
+
+    @Bean(destroyMethod = "close")
+    public JobStore<ExportResult> exportStore() {
+        return create("export", ExportResult.class, ExportResult::getStatus, ExportResult::new);
+    }
+
+    /**
+     * 定期清理过期的任务状态
+     */
+    @Scheduled(fixedDelayString = "${app.jobs.state.sweep-interval-ms:60000}")
+    public void evictExpired() {
+        for (JobStore<?> store : stores) {
+            int evicted = store.evictExpired();
+            if (evicted > 0) {
+                logger.debug("清理过期任务状态，存储: {}, 清理: {}, 剩余: {}", store.getName(), evicted, store.size());
+            }
+        }
+    }
+
+    /**
+     * 定期把状态日志刷到磁盘，写入量超过阈值时压缩
+     */
+    @Scheduled(fixedDelayString = "${app.jobs.journal.flush-interval-ms:1000}")
+    public void flushJournals() {
+        if (!journalEnabled) {
+            return;
+        }
+        for (JobStore<?> store : stores) {
+            store.flush();
+            try {
+                if (store.compactIfNeeded(journalCompactThreshold)) {
+                    logger.info("任务状态日志已压缩，存储: {}, 条目数: {}", store.getName(), store.size());
+                }
+            } catch (IOException e) {
+                logger.warn("任务状态日志压缩失败，存储: {}, 错误: {}", store.getName(), e.getMessage());
+            }
+        }
+    }
+
+    private <T> JobStore<T> create(String name, Class<T> type, Function<T, String> statusOf, UnaryOperator<T> copier) {
+        JobStore<T> store = new JobStore<>(name, maxEntries, statusOf, copier, Map.of(
+                "completed", completedTtl,
+                "failed", failedTtl,
+                "cancelled", cancelledTtl
+        ), processingTtl);
+        if (journalEnabled) {
+            attachJournal(store, type);
+        }
+        store.bindTo(meterRegistry);
+        stores.add(store);
+        return store;
+    }
+
+    /**
+     * 状态日志中的变换结果：自定义关键点不返回给客户端，但重启后重新执行任务需要它
+     */
+    private abstract static class JournaledTransformationResult {
+        @JsonIgnore(false)
+        @JsonProperty
+        abstract Skeleton getCustomKeypoints();
+    }
+
+    private <T> void attachJournal(JobStore<T> store, Class<T> type) {
+        ObjectMapper mapper = objectMapper.copy().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .addMixIn(TransformationResult.class, JournaledTransformationResult.class);
+        Path directory = Paths.get(storageLocation).resolve(".jobs").resolve(store.getName());
+        JobJournal<T> journal = new JobJournal<>(directory, journalSegmentSize, new JobJournal.Codec<T>() {
+            @Override
+            public byte[] encode(T snapshot) throws IOException {
+                return mapper.writeValueAsBytes(snapshot);
+            }
+
+            @Override
+            public T decode(byte[] data) throws IOException {
+                return mapper.readValue(data, type);
+            }
+        });
+        long start = System.currentTimeMillis();
+        try {
+            int restored = store.attach(journal);
+            logger.info("任务状态已从日志恢复，存储: {}, 任务数: {}, 耗时: {}ms",
+                    store.getName(), restored, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            throw new RuntimeException("无法恢复任务状态: " + e.getMessage(), e);
+        }
+    }
+}
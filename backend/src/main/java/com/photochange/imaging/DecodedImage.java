@@ -0,0 +1,50 @@
+package com.photochange.imaging;
+
+import org.opencv.core.Mat;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 解码图片的引用句柄
+ * 从解码缓存获取，持有期间像素数据不会被释放；使用完毕必须关闭（建议使用try-with-resources）。
+ * 像素矩阵由多个句柄共享，调用方不得修改或释放。
+ */
+public final class DecodedImage implements AutoCloseable {
+
+    private final DecodedImageCache cache;
+    private final DecodedImageCache.Entry entry;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    DecodedImage(DecodedImageCache cache, DecodedImageCache.Entry entry) {
+        this.cache = cache;
+        this.entry = entry;
+    }
+
+    /**
+     * 像素矩阵（BGR，只读）
+     */
+    public Mat getMat() {
+        if (closed.get()) {
+            throw new IllegalStateException("解码图片句柄已关闭");
+        }
+        return entry.mat;
+    }
+
+    public int getWidth() {
+        return entry.mat.cols();
+    }
+
+    public int getHeight() {
+        return entry.mat.rows();
+    }
+
+    /**
+     * 释放引用，重复关闭无影响
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            cache.release(entry);
+        }
+    }
+}
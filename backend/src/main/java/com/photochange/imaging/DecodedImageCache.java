@@ -0,0 +1,265 @@
+package com.photochange.imaging;
+
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 解码图片缓存
+ * 缓存解码后的像素矩阵（本地内存），同一图片在检测、变换、导出各阶段只解码一次。
+ * 条目按引用计数管理：被句柄持有的条目不会被淘汰，其余条目在超出字节预算时按LRU淘汰，
+ * 像素内存在最后一个句柄关闭或条目被淘汰时立即释放，不依赖GC回收本地内存。
+ */
+public class DecodedImageCache {
+
+    /**
+     * 解码函数
+     */
+    @FunctionalInterface
+    public interface Decoder {
+        Mat decode() throws IOException;
+    }
+
+    static final class Entry {
+        final String key;
+        final Mat mat;
+        final long bytes;
+        int refCount;
+        boolean evicted;
+
+        Entry(String key, Mat mat) {
+            this.key = key;
+            this.mat = mat;
+            this.bytes = mat.total() * mat.elemSize();
+        }
+    }
+
+    /**
+     * 一次进行中的解码
+     */
+    private static final class Load {
+        final CompletableFuture<Entry> future = new CompletableFuture<>();
+        // 解码期间条目被失效过，结果不能放入缓存（受对象锁保护）
+        boolean invalidated;
+    }
+
+    private final long maxBytes;
+
+    // 访问顺序的LinkedHashMap，所有引用计数和淘汰操作都在该对象锁内完成
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+
+    // 正在解码的图片：同一键的并发请求等待同一次解码
+    private final ConcurrentHashMap<String, Load> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxBytes 像素数据字节预算
+     */
+    public DecodedImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 获取解码图片，未缓存时调用解码函数
+     * @param key 缓存键
+     * @param decoder 解码函数，返回的Mat交由缓存管理
+     * @return 图片句柄，使用完毕必须关闭
+     * @throws IOException 解码失败
+     */
+    public DecodedImage acquire(String key, Decoder decoder) throws IOException {
+        DecodedImage cached = tryAcquire(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        Load created = new Load();
+        Load existing = loading.putIfAbsent(key, created);
+        if (existing != null) {
+            // 等待其他线程的解码结果，条目已在其完成时放入缓存
+            await(existing.future);
+            DecodedImage shared = tryAcquire(key);
+            if (shared != null) {
+                hits.increment();
+                return shared;
+            }
+            return acquire(key, decoder);
+        }
+
+        misses.increment();
+        try {
+            Entry entry = new Entry(key, decoder.decode());
+            List<Entry> released;
+            synchronized (this) {
+                entry.refCount = 1;
+                if (created.invalidated) {
+                    // 解码的可能是失效前的内容，只交给本次调用方使用，句柄关闭时释放
+                    entry.evicted = true;
+                    released = new ArrayList<>();
+                } else {
+                    Entry previous = entries.put(key, entry);
+                    totalBytes += entry.bytes;
+                    boolean freePrevious = previous != null && detach(previous);
+                    released = evictOverflow();
+                    if (freePrevious) {
+                        released.add(previous);
+                    }
+                }
+            }
+            releaseAll(released);
+            created.future.complete(entry);
+            return new DecodedImage(this, entry);
+        } catch (IOException | RuntimeException e) {
+            created.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, created);
+        }
+    }
+
+    /**
+     * 使缓存条目失效（源图片被重写或删除时调用）
+     * 正被持有的像素数据在句柄关闭后释放；正在进行的解码结果不再放入缓存，
+     * 之后的请求重新解码，不等待该次解码
+     */
+    public void invalidate(String key) {
+        Mat released = null;
+        synchronized (this) {
+            Load load = loading.get(key);
+            if (load != null) {
+                load.invalidated = true;
+                loading.remove(key, load);
+            }
+            Entry entry = entries.remove(key);
+            if (entry != null && detach(entry)) {
+                released = entry.mat;
+            }
+        }
+        if (released != null) {
+            released.release();
+        }
+    }
+
+    /**
+     * 释放所有未被持有的条目
+     */
+    public void clear() {
+        List<Entry> released = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                if (detach(entry)) {
+                    released.add(entry);
+                }
+            }
+            entries.clear();
+        }
+        releaseAll(released);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private DecodedImage tryAcquire(String key) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            entry.refCount++;
+            return new DecodedImage(this, entry);
+        }
+    }
+
+    /**
+     * 句柄关闭时调用
+     */
+    void release(Entry entry) {
+        boolean free;
+        List<Entry> released;
+        synchronized (this) {
+            entry.refCount--;
+            free = entry.evicted && entry.refCount == 0;
+            // 条目被持有期间可能暂时超出预算，解除持有后再检查一次
+            released = evictOverflow();
+        }
+        if (free) {
+            entry.mat.release();
+        }
+        releaseAll(released);
+    }
+
+    /**
+     * 将条目移出缓存记账，返回是否可以立即释放像素内存
+     * 调用方需持有锁
+     */
+    private boolean detach(Entry entry) {
+        entry.evicted = true;
+        totalBytes -= entry.bytes;
+        return entry.refCount == 0;
+    }
+
+    /**
+     * 按LRU顺序淘汰未被持有的条目，直到总字节数不超过预算
+     * 调用方需持有锁
+     */
+    private List<Entry> evictOverflow() {
+        List<Entry> released = new ArrayList<>();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.refCount > 0) {
+                continue;
+            }
+            iterator.remove();
+            detach(entry);
+            released.add(entry);
+        }
+        return released;
+    }
+
+    private static void releaseAll(List<Entry> released) {
+        for (Entry entry : released) {
+            entry.mat.release();
+        }
+    }
+
+    private static void await(CompletableFuture<Entry> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("解码图片失败", cause);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.photochange.imaging;
+
+import com.photochange.storage.MappedFiles;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * 图片编解码工具
+ * 解码结果为BGR三通道的OpenCV Mat，像素数据位于本地内存，调用方负责释放
+ */
+public final class ImageCodec {
+
+    private ImageCodec() {
+    }
+
+    /**
+     * 解码图片文件（已按EXIF方向旋转）
+     * 文件以内存映射方式交给解码器，压缩数据直接来自页缓存，不经过Java堆
+     * @param file 图片文件
+     * @return 解码后的像素矩阵
+     * @throws IOException 文件无法解码
+     */
+    public static Mat decode(Path file) throws IOException {
+        try {
+            return decode(MappedFiles.map(file));
+        } catch (IOException e) {
+            throw new IOException("无法解码图片: " + file.getFileName(), e);
+        }
+    }
+
+    /**
+     * 解码内存中的图片数据（已按EXIF方向旋转）
+     * @param data 图片数据
+     * @return 解码后的像素矩阵
+     * @throws IOException 数据无法解码
+     */
+    public static Mat decode(byte[] data) throws IOException {
+        OpenCvLoader.ensureLoaded();
+        MatOfByte buffer = new MatOfByte(data);
+        try {
+            Mat image = Imgcodecs.imdecode(buffer, Imgcodecs.IMREAD_COLOR);
+            if (image.empty()) {
+                image.release();
+                throw new IOException("无法解码图片数据");
+            }
+            return image;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * 解码缓冲区中的图片数据（已按EXIF方向旋转）
+     * 直接缓冲区（如内存映射文件）以零拷贝方式交给OpenCV，堆缓冲区先复制一份
+     * @param data 图片数据，解码剩余部分，不改变缓冲区位置
+     * @return 解码后的像素矩阵
+     * @throws IOException 数据无法解码
+     */
+    public static Mat decode(ByteBuffer data) throws IOException {
+        if (!data.isDirect()) {
+            byte[] copy = new byte[data.remaining()];
+            data.duplicate().get(copy);
+            return decode(copy);
+        }
+        if (!data.hasRemaining()) {
+            throw new IOException("无法解码图片数据");
+        }
+        OpenCvLoader.ensureLoaded();
+        // Mat直接引用缓冲区内存，解码期间保持对缓冲区的引用，防止映射被提前解除
+        ByteBuffer view = data.slice();
+        Mat buffer = new Mat(1, view.remaining(), CvType.CV_8UC1, view);
+        try {
+            Mat image = Imgcodecs.imdecode(buffer, Imgcodecs.IMREAD_COLOR);
+            if (image.empty()) {
+                image.release();
+                throw new IOException("无法解码图片数据");
+            }
+            return image;
+        } finally {
+            buffer.release();
+            Reference.reachabilityFence(view);
+        }
+    }
+
+    /**
+     * 校验并规范化编码格式（小写，jpeg记为jpg）
+     * 结果会用作文件扩展名，只接受可以编码的格式
+     * @param format 格式（jpg, jpeg, png, webp）
+     * @return 规范化后的格式
+     * @throws IllegalArgumentException 不支持的格式
+     */
+    public static String normalizeFormat(String format) {
+        String normalized = format != null ? format.toLowerCase(Locale.ROOT) : "";
+        switch (normalized) {
+            case "jpg":
+            case "jpeg":
+                return "jpg";
+            case "png":
+            case "webp":
+                return normalized;
+            default:
+                throw new IllegalArgumentException("不支持的图片格式: " + format);
+        }
+    }
+
+    /**
+     * 将像素矩阵编码为指定格式
+     * @param image 像素矩阵
+     * @param format 格式（jpg, jpeg, png, webp）
+     * @param quality 质量（1-100，对jpg和webp有效）
+     * @return 编码后的数据
+     * @throws IllegalArgumentException 不支持的格式
+     */
+    public static byte[] encode(Mat image, String format, int quality) throws IOException {
+        String extension = "." + normalizeFormat(format);
+        OpenCvLoader.ensureLoaded();
+        MatOfInt params;
+        if (".webp".equals(extension)) {
+            params = new MatOfInt(Imgcodecs.IMWRITE_WEBP_QUALITY, quality);
+        } else if (".png".equals(extension)) {
+            params = new MatOfInt();
+        } else {
+            params = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality);
+        }
+
+        MatOfByte buffer = new MatOfByte();
+        try {
+            if (!Imgcodecs.imencode(extension, image, buffer, params)) {
+                throw new IOException("图片编码失败，格式: " + format);
+            }
+            return buffer.toArray();
+        } finally {
+            buffer.release();
+            params.release();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.photochange.imaging;
+
+import com.photochange.storage.UnsupportedImageException;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 图片缩放工具
+ * 使用区域平均（INTER_AREA）缩小图片；JPEG源图远大于目标尺寸时先以1/2、1/4、1/8比例解码，减少解码开销。
+ */
+public final class ImageResizer {
+
+    private ImageResizer() {
+    }
+
+    /**
+     * 将图片等比缩小到目标框内并以JPEG写出（不放大）
+     * @param source 源图片文件
+     * @param target 目标文件（扩展名决定编码格式）
+     * @param sourceWidth 源图显示宽度（已应用EXIF方向）
+     * @param sourceHeight 源图显示高度（已应用EXIF方向）
+     * @param maxWidth 目标最大宽度
+     * @param maxHeight 目标最大高度
+     * @param quality JPEG质量（1-100）
+     */
+    public static void resize(Path source, Path target, int sourceWidth, int sourceHeight,
+                              int maxWidth, int maxHeight, int quality) throws IOException {
+        OpenCvLoader.ensureLoaded();
+
+        Mat decoded = Imgcodecs.imread(source.toString(),
+                reducedReadFlag(sourceWidth, sourceHeight, maxWidth, maxHeight));
+        if (decoded.empty()) {
+            decoded.release();
+            throw new UnsupportedImageException("无法解码图片: " + source.getFileName());
+        }
+        writeResized(decoded, target, maxWidth, maxHeight, quality);
+    }
+
+    /**
+     * 读取图片并等比缩小到目标框内（不放大），结果由调用方释放
+     * @param source 源图片文件
+     * @param sourceWidth 源图显示宽度（已应用EXIF方向）
+     * @param sourceHeight 源图显示高度（已应用EXIF方向）
+     * @param maxWidth 目标最大宽度
+     * @param maxHeight 目标最大高度
+     * @return 缩小后的像素矩阵
+     */
+    public static Mat readWithin(Path source, int sourceWidth, int sourceHeight,
+                                 int maxWidth, int maxHeight) throws IOException {
+        OpenCvLoader.ensureLoaded();
+
+        Mat decoded = Imgcodecs.imread(source.toString(),
+                reducedReadFlag(sourceWidth, sourceHeight, maxWidth, maxHeight));
+        if (decoded.empty()) {
+            decoded.release();
+            throw new UnsupportedImageException("无法解码图片: " + source.getFileName());
+        }
+        Mat resized = fitWithin(decoded, maxWidth, maxHeight);
+        if (resized != decoded) {
+            decoded.release();
+        }
+        return resized;
+    }
+
+    /**
+     * 将内存中的图片等比缩小到目标框内并以JPEG写出（不放大）
+     * @param source 源图片数据
+     * @see #resize(Path, Path, int, int, int, int, int)
+     */
+    public static void resize(byte[] source, Path target, int sourceWidth, int sourceHeight,
+                              int maxWidth, int maxHeight, int quality) throws IOException {
+        OpenCvLoader.ensureLoaded();
+
+        MatOfByte buffer = new MatOfByte(source);
+        Mat decoded = Imgcodecs.imdecode(buffer, reducedReadFlag(sourceWidth, sourceHeight, maxWidth, maxHeight));
+        buffer.release();
+        if (decoded.empty()) {
+            decoded.release();
+            throw new UnsupportedImageException("无法解码图片数据");
+        }
+        writeResized(decoded, target, maxWidth, maxHeight, quality);
+    }
+
+    /**
+     * 将已解码的图片等比缩小到目标框内并以JPEG写出（不放大），源图由调用方释放
+     * @param source 已按EXIF方向旋转的像素矩阵
+     * @param target 目标文件
+     * @param maxWidth 目标最大宽度
+     * @param maxHeight 目标最大高度
+     * @param quality JPEG质量（1-100）
+     */
+    public static void resize(Mat source, Path target, int maxWidth, int maxHeight, int quality) throws IOException {
+        OpenCvLoader.ensureLoaded();
+        Mat resized = fitWithin(source, maxWidth, maxHeight);
+        MatOfInt params = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality);
+        try {
+            if (!Imgcodecs.imwrite(target.toString(), resized, params)) {
+                throw new IOException("写入缩略图失败: " + target.getFileName());
+            }
+        } finally {
+            if (resized != source) {
+                resized.release();
+            }
+            params.release();
+        }
+    }
+
+    /**
+     * 缩放并写出，完成后释放解码结果
+     */
+    private static void writeResized(Mat decoded, Path target, int maxWidth, int maxHeight,
+                                     int quality) throws IOException {
+        try {
+            resize(decoded, target, maxWidth, maxHeight, quality);
+        } finally {
+            decoded.release();
+        }
+    }
+
+    /**
+     * 等比缩小到目标框内，源图已经足够小时直接返回源图
+     */
+    public static Mat fitWithin(Mat image, int maxWidth, int maxHeight) {
+        double scale = Math.min((double) maxWidth / image.cols(), (double) maxHeight / image.rows());
+        if (scale >= 1.0) {
+            return image;
+        }
+        int width = Math.max(1, (int) Math.round(image.cols() * scale));
+        int height = Math.max(1, (int) Math.round(image.rows() * scale));
+        Mat resized = new Mat();
+        Imgproc.resize(image, resized, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+        return resized;
+    }
+
+    /**
+     * 选择最大的缩小解码比例，保证解码结果仍不小于目标尺寸
+     */
+    private static int reducedReadFlag(int sourceWidth, int sourceHeight, int maxWidth, int maxHeight) {
+        double scale = Math.min((double) maxWidth / sourceWidth, (double) maxHeight / sourceHeight);
+        if (scale <= 1.0 / 8) {
+            return Imgcodecs.IMREAD_REDUCED_COLOR_8;
+        }
+        if (scale <= 1.0 / 4) {
+            return Imgcodecs.IMREAD_REDUCED_COLOR_4;
+        }
+        if (scale <= 1.0 / 2) {
+            return Imgcodecs.IMREAD_REDUCED_COLOR_2;
+        }
+        return Imgcodecs.IMREAD_COLOR;
+    }
+}
@@ -0,0 +1,27 @@
+package com.photochange.imaging;
+
+import nu.pattern.OpenCV;
+
+/**
+ * OpenCV本地库加载器
+ * 首次使用OpenCV前调用，保证进程内只加载一次
+ */
+public final class OpenCvLoader {
+
+    private static volatile boolean loaded;
+
+    private OpenCvLoader() {
+    }
+
+    public static void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (OpenCvLoader.class) {
+            if (!loaded) {
+                OpenCV.loadLocally();
+                loaded = true;
+            }
+        }
+    }
+}
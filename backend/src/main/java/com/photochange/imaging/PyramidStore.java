@@ -0,0 +1,206 @@
+package com.photochange.imaging;
+
+import com.photochange.storage.ShardedLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * 分块金字塔存储
+ * 金字塔按源内容摘要存放（.pyramids/ab/cd/摘要.tpyr），相同内容只转码一次，源图片重写后自然对应新文件。
+ * 转码在单独的后台线程中进行，队列已满时放弃，之后首次需要时再补做。
+ */
+public class PyramidStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(PyramidStore.class);
+
+    private static final String EXTENSION = ".tpyr";
+
+    /**
+     * 转码源图片
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * @return 已按EXIF方向旋转的解码图片，转码完成后关闭
+         */
+        DecodedImage open() throws IOException;
+    }
+
+    private final Path directory;
+    private final int tileSize;
+    private final int maxDimension;
+    private final boolean compress;
+    private final ThreadPoolExecutor executor;
+
+    // 已排队或正在转码的摘要
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param directory 金字塔目录
+     * @param tileSize 分块边长
+     * @param maxDimension 第0层最大边长
+     * @param compress 是否逐块压缩
+     * @param queueCapacity 转码队列容量
+     */
+    public PyramidStore(Path directory, int tileSize, int maxDimension, boolean compress, int queueCapacity) {
+        this.directory = directory;
+        this.tileSize = tileSize;
+        this.maxDimension = maxDimension;
+        this.compress = compress;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), runnable -> {
+                    Thread thread = new Thread(runnable, "pyramid-transcode");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+    }
+
+    /**
+     * 创建目录并清理遗留的临时文件
+     */
+    public void init() throws IOException {
+        Files.createDirectories(directory);
+        try (Stream<Path> stream = Files.walk(directory)) {
+            Iterator<Path> iterator = stream
+                    .filter(file -> file.getFileName().toString().startsWith(".pyramid-"))
+                    .iterator();
+            while (iterator.hasNext()) {
+                Files.deleteIfExists(iterator.next());
+            }
+        }
+    }
+
+    /**
+     * 打开已生成的金字塔
+     * @param hash 源内容摘要
+     * @return 尚未生成或文件损坏时返回null
+     */
+    public TiledPyramid get(String hash) {
+        Path file = pathOf(hash);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return TiledPyramid.open(file);
+        } catch (IOException e) {
+            logger.warn("金字塔文件无法读取，将重新生成，文件: {}, 错误: {}", file, e.getMessage());
+            deleteQuietly(file);
+            return null;
+        }
+    }
+
+    /**
+     * 安排后台转码，已生成或已在队列中时忽略
+     * @param hash 源内容摘要
+     * @param source 转码源图片
+     */
+    public void schedule(String hash, Source source) {
+        if (Files.exists(pathOf(hash)) || !scheduled.add(hash)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    build(hash, source);
+                } finally {
+                    scheduled.remove(hash);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            scheduled.remove(hash);
+            logger.debug("金字塔转码队列已满，摘要: {}", hash);
+        }
+    }
+
+    private void build(String hash, Source source) {
+        Path file = pathOf(hash);
+        if (Files.exists(file)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try (DecodedImage image = source.open()) {
+            Files.createDirectories(file.getParent());
+            TiledPyramid.write(image.getMat(), file, tileSize, maxDimension, compress);
+            logger.debug("金字塔转码完成，摘要: {}, 耗时: {}ms", hash, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("金字塔转码失败，摘要: {}, 错误: {}", hash, e.getMessage());
+        }
+    }
+
+    /**
+     * 删除源内容对应的金字塔
+     * @return 释放的字节数，金字塔不存在时为0
+     */
+    public long delete(String hash) {
+        Path file = pathOf(hash);
+        try {
+            long size = Files.size(file);
+            Files.delete(file);
+            return size;
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            logger.warn("删除金字塔文件失败，文件: {}", file);
+            return 0;
+        }
+    }
+
+    /**
+     * 删除源内容已不存在的金字塔
+     * @param live 判断源内容是否仍然存在
+     * @return 删除的文件数
+     */
+    public long sweep(Predicate<String> live) throws IOException {
+        long removed = 0;
+        try (Stream<Path> stream = Files.walk(directory)) {
+            Iterator<Path> iterator = stream.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                String name = file.getFileName().toString();
+                if (!name.endsWith(EXTENSION)) {
+                    continue;
+                }
+                if (!live.test(name.substring(0, name.length() - EXTENSION.length()))) {
+                    deleteQuietly(file);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private Path pathOf(String hash) {
+        return ShardedLayout.resolve(directory, hash, EXTENSION);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("删除金字塔文件失败，文件: {}", file);
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.photochange.imaging;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 分块多分辨率图片（内部格式）
+ * 上传图片只完整解码一次，按EXIF方向旋转后保存为逐级减半的金字塔，每级切成固定大小的BGR分块。
+ * 分块可以逐块压缩：先按行与左侧像素差分，再用Deflate最快档压缩，照片类内容一般能减小一半左右，
+ * 读取时只解压区域覆盖的分块。
+ * 读取时整个文件以只读方式映射到内存，按需只访问目标层级和区域覆盖的分块，不再重复解码源文件。
+ *
+ * 文件布局（大端）：
+ * 魔数 TPYR、版本、通道数、分块边长、源图宽高、层数、压缩方式，随后每层的宽、高、分块表偏移；
+ * 每层的分块表有（分块数+1）个绝对偏移，第i个分块的数据位于第i项与第i+1项之间。
+ * 第一层从4KB对齐处开始，同一层内分块按行优先排列，边缘分块以0填充到完整大小后再差分压缩。
+ */
+public final class TiledPyramid {
+
+    private static final int MAGIC = 0x54505952; // "TPYR"
+    private static final int VERSION = 2;
+    private static final int CHANNELS = 3;
+    private static final int HEADER_SIZE = 32;
+    private static final int LEVEL_ENTRY_SIZE = 16;
+    private static final int ALIGNMENT = 4096;
+
+    private static final int COMPRESSION_NONE = 0;
+    private static final int COMPRESSION_DEFLATE = 1;
+
+    private final MappedByteBuffer buffer;
+    private final int tileSize;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final boolean compressed;
+    private final int[] widths;
+    private final int[] heights;
+    private final long[] tables;
+
+    private TiledPyramid(MappedByteBuffer buffer, int tileSize, int sourceWidth, int sourceHeight,
+                         boolean compressed, int[] widths, int[] heights, long[] tables) {
+        this.buffer = buffer;
+        this.tileSize = tileSize;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.compressed = compressed;
+        this.widths = widths;
+        this.heights = heights;
+        this.tables = tables;
+    }
+
+    /**
+     * 映射金字塔文件
+     * 映射在对象被回收时解除，文件被删除不影响已打开的对象
+     * @param file 金字塔文件
+     * @throws IOException 文件不存在或格式不正确（包括旧版本格式）
+     */
+    public static TiledPyramid open(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(8) != CHANNELS) {
+            throw new IOException("不是有效的金字塔文件: " + file.getFileName());
+        }
+        int tileSize = buffer.getInt(12);
+        int levels = buffer.getInt(24);
+        int compression = buffer.getInt(28);
+        if (tileSize <= 0 || levels <= 0 || buffer.limit() < HEADER_SIZE + levels * LEVEL_ENTRY_SIZE
+                || (compression != COMPRESSION_NONE && compression != COMPRESSION_DEFLATE)) {
+            throw new IOException("金字塔文件不完整: " + file.getFileName());
+        }
+        int[] widths = new int[levels];
+        int[] heights = new int[levels];
+        long[] tables = new long[levels];
+        for (int level = 0; level < levels; level++) {
+            int position = HEADER_SIZE + level * LEVEL_ENTRY_SIZE;
+            widths[level] = buffer.getInt(position);
+            heights[level] = buffer.getInt(position + 4);
+            tables[level] = buffer.getLong(position + 8);
+            long tiles = (long) tilesOf(widths[level], tileSize) * tilesOf(heights[level], tileSize);
+            long tableEnd = tables[level] + (tiles + 1) * Long.BYTES;
+            if (tables[level] < 0 || tableEnd > buffer.limit()
+                    || buffer.getLong((int) (tableEnd - Long.BYTES)) > buffer.limit()) {
+                throw new IOException("金字塔文件不完整: " + file.getFileName());
+            }
+        }
+        return new TiledPyramid(buffer, tileSize, buffer.getInt(16), buffer.getInt(20),
+                compression == COMPRESSION_DEFLATE, widths, heights, tables);
+    }
+
+    /**
+     * 由已解码的图片生成金字塔文件
+     * 先写临时文件再原子替换，读者不会看到写了一半的文件
+     * @param image 已按EXIF方向旋转的BGR图片
+     * @param target 目标文件
+     * @param tileSize 分块边长
+     * @param maxDimension 第0层最大边长，源图更大时先缩小
+     * @param compress 是否逐块压缩
+     */
+    public static void write(Mat image, Path target, int tileSize, int maxDimension, boolean compress)
+            throws IOException {
+        List<Mat> levels = new ArrayList<>();
+        Mat level = ImageResizer.fitWithin(image, maxDimension, maxDimension);
+        levels.add(level);
+        while (level.cols() > tileSize || level.rows() > tileSize) {
+            level = ImageResizer.fitWithin(level, Math.max(1, level.cols() / 2), Math.max(1, level.rows() / 2));
+            levels.add(level);
+        }
+
+        Path temp = target.resolveSibling(".pyramid-" + UUID.randomUUID());
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + levels.size() * LEVEL_ENTRY_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(CHANNELS).putInt(tileSize)
+                    .putInt(image.cols()).putInt(image.rows()).putInt(levels.size())
+                    .putInt(compress ? COMPRESSION_DEFLATE : COMPRESSION_NONE);
+
+            // 压缩后的大小事先未知，先写各层，最后写文件头
+            long position = align(header.capacity());
+            for (Mat mat : levels) {
+                header.putInt(mat.cols()).putInt(mat.rows()).putLong(position);
+                position = writeLevel(channel, position, mat, tileSize, deflater);
+            }
+            header.flip();
+            writeFully(channel, header, 0);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            for (Mat mat : levels) {
+                if (mat != image) {
+                    mat.release();
+                }
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 写入一层：先预留分块表，逐个分块行组装（并压缩）后一次写出，最后回填分块表
+     * @return 该层之后的写入位置
+     */
+    private static long writeLevel(FileChannel channel, long tablePosition, Mat mat, int tileSize,
+                                   Deflater deflater) throws IOException {
+        int tilesX = tilesOf(mat.cols(), tileSize);
+        int tilesY = tilesOf(mat.rows(), tileSize);
+        int tileBytes = tileSize * tileSize * CHANNELS;
+        ByteBuffer table = ByteBuffer.allocate((tilesX * tilesY + 1) * Long.BYTES);
+        long position = tablePosition + table.capacity();
+
+        byte[] band = new byte[tilesX * tileBytes];
+        byte[] packed = deflater != null ? new byte[band.length + band.length / 64 + 64] : band;
+        byte[] row = new byte[mat.cols() * CHANNELS];
+        for (int ty = 0; ty < tilesY; ty++) {
+            Arrays.fill(band, (byte) 0);
+            int rows = Math.min(tileSize, mat.rows() - ty * tileSize);
+            for (int y = 0; y < rows; y++) {
+                mat.get(ty * tileSize + y, 0, row);
+                for (int tx = 0; tx < tilesX; tx++) {
+                    int columns = Math.min(tileSize, mat.cols() - tx * tileSize);
+                    System.arraycopy(row, tx * tileSize * CHANNELS,
+                            band, tx * tileBytes + y * tileSize * CHANNELS, columns * CHANNELS);
+                }
+            }
+
+            int length = 0;
+            for (int tx = 0; tx < tilesX; tx++) {
+                table.putLong(position + length);
+                if (deflater == null) {
+                    length += tileBytes;
+                    continue;
+                }
+                deltaEncode(band, tx * tileBytes, tileSize);
+                deflater.reset();
+                deflater.setInput(band, tx * tileBytes, tileBytes);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (length == packed.length) {
+                        packed = Arrays.copyOf(packed, packed.length * 2);
+                    }
+                    length += deflater.deflate(packed, length, packed.length - length);
+                }
+            }
+            writeFully(channel, ByteBuffer.wrap(packed, 0, length), position);
+            position += length;
+        }
+        table.putLong(position);
+        table.flip();
+        writeFully(channel, table, tablePosition);
+        return position;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    public int getLevelCount() {
+        return widths.length;
+    }
+
+    public int getWidth(int level) {
+        return widths[level];
+    }
+
+    public int getHeight(int level) {
+        return heights[level];
+    }
+
+    /**
+     * 源图宽高（已应用EXIF方向）
+     */
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * 第0层是否保留了源图的完整分辨率
+     */
+    public boolean isFullResolution() {
+        return widths[0] == sourceWidth && heights[0] == sourceHeight;
+    }
+
+    /**
+     * 选择能覆盖目标框的最小层级：从该层缩小到目标尺寸，读取的数据量最少且不损失清晰度
+     * @param maxWidth 目标最大宽度
+     * @param maxHeight 目标最大高度
+     */
+    public int levelFor(int maxWidth, int maxHeight) {
+        double scale = Math.min((double) maxWidth / widths[0], (double) maxHeight / heights[0]);
+        int targetWidth = (int) Math.ceil(widths[0] * Math.min(1.0, scale));
+        int targetHeight = (int) Math.ceil(heights[0] * Math.min(1.0, scale));
+        for (int level = widths.length - 1; level > 0; level--) {
+            if (widths[level] >= targetWidth && heights[level] >= targetHeight) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 读取整层
+     * @return BGR像素矩阵，调用方负责释放
+     */
+    public Mat readLevel(int level) {
+        return readRegion(level, 0, 0, widths[level], heights[level]);
+    }
+
+    /**
+     * 读取一层中的矩形区域，只访问（解压）区域覆盖的分块
+     * @param level 层级
+     * @param x 区域左上角横坐标
+     * @param y 区域左上角纵坐标
+     * @param width 区域宽度
+     * @param height 区域高度
+     * @return BGR像素矩阵，调用方负责释放
+     * @throws IllegalStateException 分块数据损坏
+     */
+    public Mat readRegion(int level, int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0
+                || x + width > widths[level] || y + height > heights[level]) {
+            throw new IllegalArgumentException("读取区域超出图片范围");
+        }
+        OpenCvLoader.ensureLoaded();
+        int tilesX = tilesOf(widths[level], tileSize);
+        int firstTile = x / tileSize;
+        int lastTile = (x + width - 1) / tileSize;
+        ByteBuffer source = buffer.duplicate();
+        byte[] tile = compressed ? new byte[tileSize * tileSize * CHANNELS] : null;
+        Inflater inflater = compressed ? new Inflater() : null;
+        Mat region = new Mat(height, width, CvType.CV_8UC3);
+        try {
+            // 逐个分块行组装后写入矩阵，每个分块只读取（解压）一次
+            for (int ty = y / tileSize; ty <= (y + height - 1) / tileSize; ty++) {
+                int top = Math.max(y, ty * tileSize);
+                int bottom = Math.min(y + height, (ty + 1) * tileSize);
+                byte[] band = new byte[(bottom - top) * width * CHANNELS];
+                for (int tx = firstTile; tx <= lastTile; tx++) {
+                    ByteBuffer data = tileData(source, level, ty * tilesX + tx, tile, inflater);
+                    int from = Math.max(x, tx * tileSize);
+                    int to = Math.min(x + width, (tx + 1) * tileSize);
+                    for (int py = top; py < bottom; py++) {
+                        data.position(((py - ty * tileSize) * tileSize + (from - tx * tileSize)) * CHANNELS);
+                        data.get(band, ((py - top) * width + (from - x)) * CHANNELS, (to - from) * CHANNELS);
+                    }
+                }
+                region.put(top - y, 0, band);
+            }
+            return region;
+        } catch (DataFormatException e) {
+            region.release();
+            throw new IllegalStateException("金字塔分块数据损坏: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            region.release();
+            throw e;
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * 定位分块数据：未压缩时直接返回映射区域的视图，压缩时解压到tile中
+     * @return 从0开始、包含完整分块像素的缓冲区
+     */
+    private ByteBuffer tileData(ByteBuffer source, int level, int index, byte[] tile, Inflater inflater)
+            throws DataFormatException {
+        int entry = (int) (tables[level] + (long) index * Long.BYTES);
+        int start = (int) source.getLong(entry);
+        int end = (int) source.getLong(entry + Long.BYTES);
+        ByteBuffer slice = source.duplicate();
+        slice.limit(end).position(start);
+        if (inflater == null) {
+            return slice.slice();
+        }
+        inflater.reset();
+        inflater.setInput(slice);
+        int length = inflater.inflate(tile);
+        if (length != tile.length || !inflater.finished()) {
+            throw new DataFormatException("分块长度不正确");
+        }
+        deltaDecode(tile, 0, tileSize);
+        return ByteBuffer.wrap(tile);
+    }
+
+    /**
+     * 每行内各通道改存与左侧像素的差值（同PNG的Sub滤波），相邻像素相近时差值集中在0附近，更容易压缩
+     */
+    private static void deltaEncode(byte[] tile, int offset, int tileSize) {
+        int stride = tileSize * CHANNELS;
+        for (int row = offset; row < offset + tileSize * stride; row += stride) {
+            for (int i = row + stride - 1; i >= row + CHANNELS; i--) {
+                tile[i] -= tile[i - CHANNELS];
+            }
+        }
+    }
+
+    private static void deltaDecode(byte[] tile, int offset, int tileSize) {
+        int stride = tileSize * CHANNELS;
+        for (int row = offset; row < offset + tileSize * stride; row += stride) {
+            for (int i = row + CHANNELS; i < row + stride; i++) {
+                tile[i] += tile[i - CHANNELS];
+            }
+        }
+    }
+
+    private static int tilesOf(int size, int tileSize) {
+        return (size + tileSize - 1) / tileSize;
+    }
+
+    private static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
@@ -0,0 +1,42 @@
+package com.photochange.job;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * 取消令牌
+ * 任务被取消时由 {@link JobQueue} 置位。中断对OpenCV的本地调用和纯计算循环不起作用，
+ * 处理流程需要在各阶段的边界（解码后、每轮迭代、每个分块、编码和保存前）主动检查，
+ * 检查到取消时抛出 {@link CancellationException}，已打开的资源随异常在try-with-resources中释放。
+ */
+public final class CancellationToken {
+
+    /**
+     * 不会被取消的令牌（不经过任务队列的同步调用使用）
+     */
+    public static final CancellationToken NONE = new CancellationToken();
+
+    private volatile boolean cancelled;
+
+    /**
+     * 取消任务
+     */
+    public void cancel() {
+        if (this != NONE) {
+            cancelled = true;
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 检查点：任务已被取消时抛出异常
+     * @throws CancellationException 任务已被取消
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("任务已取消");
+        }
+    }
+}
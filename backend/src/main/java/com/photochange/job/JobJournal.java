@@ -0,0 +1,379 @@
+package com.photochange.job;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * 任务状态日志
+ * 每次状态变化把完整快照追加到内存映射的日志段（journal-代号），写入进入页缓存后即可在进程崩溃后恢复；
+ * 日志段写满后切换到下一个代号。压缩时把当前全部快照写成快照文件（先写临时文件再原子替换），
+ * 再删除快照已覆盖的日志段。
+ * 启动时先加载快照文件，再按代号顺序重放其后的日志段；遇到长度为0、越界或校验失败的记录
+ * （未写完的尾部）即停止该段的重放。之后的写入接在最后一个日志段的有效记录之后，
+ * 未写完的尾部被覆盖，重启不会增加日志段。
+ *
+ * @param <T> 快照类型
+ */
+public class JobJournal<T> implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobJournal.class);
+
+    private static final int MAGIC = 0x4A4F424A; // "JOBJ"
+    private static final int VERSION = 1;
+
+    private static final String SNAPSHOT_FILE = "snapshot";
+    private static final String SEGMENT_PREFIX = "journal-";
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    // 记录头：长度 + CRC32
+    private static final int HEADER_BYTES = 8;
+
+    /**
+     * 快照编解码
+     */
+    public interface Codec<T> {
+        byte[] encode(T snapshot) throws IOException;
+
+        T decode(byte[] data) throws IOException;
+    }
+
+    /**
+     * 重放目标
+     */
+    public interface Replay<T> {
+        void put(String id, T snapshot, long updatedAt);
+
+        void remove(String id);
+    }
+
+    /**
+     * 压缩时写入快照文件的条目
+     */
+    public static final class Record<T> {
+        private final String id;
+        private final T snapshot;
+        private final long updatedAt;
+
+        public Record(String id, T snapshot, long updatedAt) {
+            this.id = id;
+            this.snapshot = snapshot;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Codec<T> codec;
+
+    // 当前日志段，所有写入都在该对象锁内完成
+    private long generation;
+    private MappedByteBuffer segment;
+    // 上次压缩以来写入日志的字节数
+    private long bytesSinceCompaction;
+    // 恢复时重放的日志字节数
+    private long replayedBytes;
+    // 最近重放的日志段中最后一条有效记录之后的位置
+    private int replayedEnd;
+
+    /**
+     * @param directory 日志目录
+     * @param segmentSize 日志段大小（字节）
+     * @param codec 快照编解码
+     */
+    public JobJournal(Path directory, int segmentSize, Codec<T> codec) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.codec = codec;
+    }
+
+    /**
+     * 从快照文件和日志段恢复，然后在最后一个日志段的有效记录之后继续写入（必须在追加记录之前调用）
+     * @return 重放的记录数
+     */
+    public synchronized int recover(Replay<T> target) throws IOException {
+        Files.createDirectories(directory);
+        long first = loadSnapshot(target);
+        replayedBytes = 0;
+        int replayed = 0;
+        long last = first - 1;
+        int end = 0;
+        for (long segmentGeneration : listSegments()) {
+            if (segmentGeneration < first) {
+                // 已被快照覆盖，压缩后未来得及删除
+                Files.deleteIfExists(segmentPath(segmentGeneration));
+                continue;
+            }
+            replayed += replaySegment(segmentPath(segmentGeneration), target);
+            last = segmentGeneration;
+            end = replayedEnd;
+        }
+        // 重放过的日志尚未压缩，计入写入量，日志较长时启动后尽快压缩
+        bytesSinceCompaction = replayedBytes;
+        if (last >= first) {
+            reopenSegment(last, end);
+        } else {
+            openSegment(first, segmentSize);
+        }
+        return replayed;
+    }
+
+    /**
+     * 追加一条状态变化
+     */
+    public synchronized void appendPut(String id, T snapshot, long updatedAt) throws IOException {
+        append(OP_PUT, id, updatedAt, codec.encode(snapshot));
+    }
+
+    /**
+     * 追加一条删除记录
+     */
+    public synchronized void appendRemove(String id) throws IOException {
+        append(OP_REMOVE, id, 0, new byte[0]);
+    }
+
+    private void append(byte op, String id, long updatedAt, byte[] payload) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 8 + 2 + idBytes.length + payload.length;
+        // 末尾保留一个长度为0的结束标记
+        int needed = HEADER_BYTES + length + 4;
+        if (segment.remaining() < needed) {
+            rollover(needed);
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        body.put(op).putLong(updatedAt).putShort((short) idBytes.length).put(idBytes).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        // 先写记录体和其后的结束标记，最后写长度，重放时不会读到只写了一半的记录，
+        // 也不会越过结束标记读到复用日志段中残留的旧数据
+        int start = segment.position();
+        segment.position(start + HEADER_BYTES);
+        segment.put(body.array());
+        segment.putInt(segment.position(), 0);
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putInt(start, length);
+        bytesSinceCompaction += HEADER_BYTES + length;
+    }
+
+    /**
+     * 切换到新的日志段
+     * @return 新日志段的代号
+     */
+    private long rollover(int minimumSize) throws IOException {
+        segment.force();
+        openSegment(generation + 1, Math.max(segmentSize, minimumSize));
+        return generation;
+    }
+
+    private void openSegment(long segmentGeneration, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segmentGeneration), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        generation = segmentGeneration;
+    }
+
+    /**
+     * 打开已有的日志段，从有效记录之后继续写入
+     * @param end 最后一条有效记录之后的位置
+     */
+    private void reopenSegment(long segmentGeneration, int end) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segmentGeneration),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int size = (int) Math.max(channel.size(), end + 4);
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        // 覆盖未写完的尾部：先放结束标记，之后的追加从这里开始
+        segment.putInt(end, 0);
+        segment.position(end);
+        generation = segmentGeneration;
+    }
+
+    /**
+     * 上次压缩以来写入日志的字节数
+     */
+    public synchronized long getBytesSinceCompaction() {
+        return bytesSinceCompaction;
+    }
+
+    /**
+     * 开始压缩：切换到新的日志段，调用方需在同一把锁内取得当前全部快照
+     * @return 快照文件对应的日志代号（从该代号开始重放）
+     */
+    public synchronized long beginCompaction() throws IOException {
+        bytesSinceCompaction = 0;
+        return rollover(0);
+    }
+
+    /**
+     * 完成压缩：写入快照文件并删除已被覆盖的日志段
+     * @param firstGeneration {@link #beginCompaction()} 返回的代号
+     * @param records 切换日志段时的全部快照
+     */
+    public void completeCompaction(long firstGeneration, List<Record<T>> records) throws IOException {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        Path temp = directory.resolve("." + SNAPSHOT_FILE + "-" + UUID.randomUUID());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(firstGeneration);
+            out.writeInt(records.size());
+            for (Record<T> record : records) {
+                byte[] payload = codec.encode(record.snapshot);
+                out.writeUTF(record.id);
+                out.writeLong(record.updatedAt);
+                out.writeInt(payload.length);
+                out.write(payload);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (long segmentGeneration : listSegments()) {
+            if (segmentGeneration < firstGeneration) {
+                Files.deleteIfExists(segmentPath(segmentGeneration));
+            }
+        }
+    }
+
+    /**
+     * 把当前日志段刷到磁盘（进程崩溃不需要刷盘，用于缩小断电时的丢失窗口）
+     */
+    public synchronized void flush() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+    }
+
+    /**
+     * 加载快照文件
+     * @return 需要从哪个代号开始重放日志
+     */
+    private long loadSnapshot(Replay<T> target) throws IOException {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("任务状态快照格式不正确: " + file);
+            }
+            long first = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String id = in.readUTF();
+                long updatedAt = in.readLong();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                T snapshot = decode(payload, id);
+                if (snapshot != null) {
+                    target.put(id, snapshot, updatedAt);
+                }
+            }
+            return first;
+        }
+    }
+
+    private int replaySegment(Path file, Replay<T> target) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int replayed = 0;
+        replayedEnd = 0;
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= HEADER_BYTES) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                logger.warn("任务状态日志记录校验失败，停止重放: {}, 位置: {}", file.getFileName(), start);
+                break;
+            }
+            ByteBuffer record = ByteBuffer.wrap(body);
+            byte op = record.get();
+            long updatedAt = record.getLong();
+            byte[] idBytes = new byte[record.getShort() & 0xFFFF];
+            record.get(idBytes);
+            String id = new String(idBytes, StandardCharsets.UTF_8);
+            if (op == OP_PUT) {
+                byte[] payload = new byte[record.remaining()];
+                record.get(payload);
+                T snapshot = decode(payload, id);
+                if (snapshot != null) {
+                    target.put(id, snapshot, updatedAt);
+                }
+            } else if (op == OP_REMOVE) {
+                target.remove(id);
+            }
+            replayedBytes += HEADER_BYTES + length;
+            replayedEnd = buffer.position();
+            replayed++;
+        }
+        return replayed;
+    }
+
+    private T decode(byte[] payload, String id) {
+        try {
+            return codec.decode(payload);
+        } catch (IOException e) {
+            logger.warn("任务状态无法解析，跳过: {}, 错误: {}", id, e.getMessage());
+            return null;
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*")) {
+            for (Path file : stream) {
+                try {
+                    generations.add(Long.parseLong(file.getFileName().toString().substring(SEGMENT_PREFIX.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn("忽略无法识别的任务状态日志文件: {}", file.getFileName());
+                }
+            }
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private Path segmentPath(long segmentGeneration) {
+        return directory.resolve(String.format("%s%016d", SEGMENT_PREFIX, segmentGeneration));
+    }
+}
@@ -0,0 +1,154 @@
+package com.photochange.job;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 有界任务队列
+ * 固定数量的工作线程加上固定容量的等待队列，队列已满时立即拒绝新任务（抛出 {@link JobQueueFullException}），
+ * 请求线程只负责提交，不会因为任务耗时而阻塞。各处理阶段使用各自的队列，互不挤占。
+ * 按最近任务的平均耗时估算排队任务全部完成所需的时间，作为拒绝时建议的重试等待时间。
+ */
+public class JobQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobQueue.class);
+
+    // 建议重试等待时间的上下限（秒）
+    private static final long MIN_RETRY_AFTER = 1;
+    private static final long MAX_RETRY_AFTER = 300;
+
+    private final String name;
+    private final int threads;
+    private final int capacity;
+    private final ThreadPoolExecutor executor;
+
+    // 任务平均耗时（纳秒，指数加权），并发更新时偶尔丢失一次样本不影响估算
+    private volatile long averageNanos;
+
+    /**
+     * @param name 队列名称（同时用作线程名前缀）
+     * @param threads 工作线程数
+     * @param capacity 等待队列容量（不含正在执行的任务）
+     * @param expectedMillis 尚无耗时样本时假定的单个任务耗时
+     */
+    public JobQueue(String name, int threads, int capacity, long expectedMillis) {
+        this.name = name;
+        this.threads = Math.max(1, threads);
+        this.capacity = Math.max(1, capacity);
+        this.averageNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, expectedMillis));
+        AtomicInteger sequence = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(this.capacity), runnable -> {
+                    Thread thread = new Thread(runnable, name + "-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 队列中执行的任务
+     */
+    @FunctionalInterface
+    public interface Task<T> {
+        /**
+         * @param token 取消令牌，任务应在各阶段的边界检查
+         */
+        T run(CancellationToken token) throws Exception;
+    }
+
+    /**
+     * 提交任务
+     * 取消返回的Future时，尚未开始的任务从队列中移除；正在执行的任务被中断，
+     * 同时置位取消令牌，让不响应中断的计算在下一个检查点停止
+     * @param task 任务
+     * @return 任务结果
+     * @throws JobQueueFullException 等待队列已满
+     */
+    public <T> CompletableFuture<T> submit(Task<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CancellationToken token = new CancellationToken();
+        Future<?> running;
+        try {
+            running = executor.submit(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                long start = System.nanoTime();
+                try {
+                    result.complete(task.run(token));
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    record(System.nanoTime() - start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            long retryAfter = getRetryAfterSeconds();
+            logger.warn("任务队列已满，队列: {}, 排队: {}, 建议{}秒后重试", name, executor.getQueue().size(), retryAfter);
+            throw new JobQueueFullException(name, retryAfter);
+        }
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                token.cancel();
+                running.cancel(true);
+                executor.remove((Runnable) running);
+            }
+        });
+        return result;
+    }
+
+    private void record(long nanos) {
+        long average = averageNanos;
+        averageNanos = average + (nanos - average) / 8;
+    }
+
+    /**
+     * 按当前排队和执行中的任务数估算的重试等待时间（秒）
+     */
+    public long getRetryAfterSeconds() {
+        long pending = executor.getQueue().size() + executor.getActiveCount();
+        long seconds = (long) Math.ceil(pending * (double) averageNanos / threads / 1_000_000_000.0);
+        return Math.max(MIN_RETRY_AFTER, Math.min(MAX_RETRY_AFTER, seconds));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 正在等待的任务数
+     */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 正在执行的任务数
+     */
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * 停止接收任务并中断正在执行的任务
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,27 @@
+package com.photochange.job;
+
+/**
+ * 任务队列已满
+ * 接口层据此返回429，并在Retry-After头中给出建议的重试等待时间
+ */
+public class JobQueueFullException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String queue;
+    private final long retryAfterSeconds;
+
+    public JobQueueFullException(String queue, long retryAfterSeconds) {
+        super("任务队列已满，请" + retryAfterSeconds + "秒后重试");
+        this.queue = queue;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,367 @@
+package com.photochange.job;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * 有界的任务状态存储
+ * 每个任务只保存一份快照，更新时复制快照、修改副本后整体替换，读取方拿到的快照不会再被修改。
+ * 快照按状态设置保留时间（从最后一次更新算起），定期清理过期快照；
+ * 条目数超过上限时淘汰最久未访问的已结束快照（单独配置了保留时间的状态），执行中的任务不会被淘汰；
+ * 存储中全是执行中的任务时拒绝新任务（{@link JobQueueFullException}），由接口层返回429。
+ * 挂接 {@link JobJournal} 后每次变化都记入日志，重启后可从日志恢复。
+ *
+ * @param <T> 快照类型
+ */
+public class JobStore<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobStore.class);
+
+    private static final String REASON_TTL = "ttl";
+    private static final String REASON_CAPACITY = "capacity";
+
+    // 存储被执行中的任务占满时建议的重试等待时间
+    private static final long FULL_RETRY_AFTER_SECONDS = 5;
+
+    private static final class Entry<T> {
+        final T snapshot;
+        final long updatedAt;
+        final long expiresAt;
+
+        Entry(T snapshot, long updatedAt, long expiresAt) {
+            this.snapshot = snapshot;
+            this.updatedAt = updatedAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final String name;
+    private final int maxEntries;
+    private final Function<T, String> statusOf;
+    private final UnaryOperator<T> copier;
+    private final Map<String, Long> ttlByStatus;
+    private final long defaultTtl;
+
+    // 访问顺序的LinkedHashMap，所有操作都在该对象锁内完成
+    private final LinkedHashMap<String, Entry<T>> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long expiredCount;
+    private long capacityEvictedCount;
+
+    // 状态日志（可选），写入顺序与内存中的更新顺序一致
+    private JobJournal<T> journal;
+
+    /**
+     * @param name 存储名称（用作指标标签）
+     * @param maxEntries 最大条目数
+     * @param statusOf 取快照的状态
+     * @param copier 复制快照
+     * @param ttlByStatus 各已结束状态的保留时间，这些状态的快照在超出上限时可以被淘汰
+     * @param defaultTtl 未单独配置的状态（如处理中）的保留时间
+     */
+    public JobStore(String name, int maxEntries, Function<T, String> statusOf, UnaryOperator<T> copier,
+                    Map<String, Duration> ttlByStatus, Duration defaultTtl) {
+        this.name = name;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.statusOf = statusOf;
+        this.copier = copier;
+        this.ttlByStatus = new LinkedHashMap<>();
+        ttlByStatus.forEach((status, ttl) -> this.ttlByStatus.put(status, ttl.toMillis()));
+        this.defaultTtl = defaultTtl.toMillis();
+    }
+
+    /**
+     * 保存任务快照（保存的是副本）
+     * @throws JobQueueFullException 新任务无法放入：已达上限且没有可以淘汰的已结束任务
+     */
+    public void put(String id, T value) {
+        T snapshot = copier.apply(value);
+        synchronized (entries) {
+            if (!entries.containsKey(id)) {
+                evictOverCapacity(maxEntries - 1);
+                if (entries.size() >= maxEntries) {
+                    logger.warn("任务状态存储已被执行中的任务占满，存储: {}, 条目数: {}", name, entries.size());
+                    throw new JobQueueFullException(name, FULL_RETRY_AFTER_SECONDS);
+                }
+            }
+            store(id, snapshot);
+        }
+    }
+
+    /**
+     * 获取任务快照
+     * @return 快照（只读），不存在或已过期时返回null
+     */
+    public T get(String id) {
+        synchronized (entries) {
+            Entry<T> entry = entries.get(id);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(id);
+                expiredCount++;
+                return null;
+            }
+            return entry.snapshot;
+        }
+    }
+
+    /**
+     * 更新任务快照
+     * @param change 对副本的修改
+     * @return 更新后的快照，任务不存在时返回null
+     */
+    public T update(String id, Consumer<T> change) {
+        return update(id, snapshot -> true, change);
+    }
+
+    /**
+     * 满足条件时更新任务快照（条件判断和替换是原子的）
+     * @param condition 更新条件，以当前快照为参数
+     * @param change 对副本的修改
+     * @return 更新后的快照；不满足条件时返回当前快照；任务不存在时返回null
+     */
+    public T update(String id, Predicate<T> condition, Consumer<T> change) {
+        synchronized (entries) {
+            Entry<T> entry = entries.get(id);
+            if (entry == null) {
+                return null;
+            }
+            if (!condition.test(entry.snapshot)) {
+                return entry.snapshot;
+            }
+            T updated = copier.apply(entry.snapshot);
+            change.accept(updated);
+            store(id, updated);
+            return updated;
+        }
+    }
+
+    /**
+     * 删除任务快照
+     * @return 被删除的快照，不存在时返回null
+     */
+    public T remove(String id) {
+        synchronized (entries) {
+            Entry<T> entry = entries.remove(id);
+            if (entry != null) {
+                journalRemove(id);
+            }
+            return entry != null ? entry.snapshot : null;
+        }
+    }
+
+    /**
+     * 删除满足条件的任务快照
+     * @return 删除的条目数
+     */
+    public int removeIf(Predicate<T> condition) {
+        int removed = 0;
+        synchronized (entries) {
+            Iterator<Map.Entry<String, Entry<T>>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry<T>> entry = iterator.next();
+                if (condition.test(entry.getValue().snapshot)) {
+                    iterator.remove();
+                    journalRemove(entry.getKey());
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 清理过期的任务快照
+     * @return 清理的条目数
+     */
+    public int evictExpired() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        synchronized (entries) {
+            Iterator<Entry<T>> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().expiresAt <= now) {
+                    iterator.remove();
+                    evicted++;
+                }
+            }
+            expiredCount += evicted;
+        }
+        return evicted;
+    }
+
+    /**
+     * 列出满足条件的任务快照
+     * @return 任务ID -> 快照
+     */
+    public Map<String, T> snapshots(Predicate<T> condition) {
+        Map<String, T> matched = new LinkedHashMap<>();
+        synchronized (entries) {
+            entries.forEach((id, entry) -> {
+                if (condition.test(entry.snapshot)) {
+                    matched.put(id, entry.snapshot);
+                }
+            });
+        }
+        return matched;
+    }
+
+    /**
+     * 挂接状态日志：先从日志恢复快照（已过期的不恢复），之后的每次变化都追加到日志
+     * 淘汰不写日志，恢复时按更新时间重新计算是否过期，超出上限的已结束任务再次淘汰
+     * @return 恢复的任务数
+     */
+    public int attach(JobJournal<T> journal) throws IOException {
+        synchronized (entries) {
+            long now = System.currentTimeMillis();
+            journal.recover(new JobJournal.Replay<T>() {
+                @Override
+                public void put(String id, T snapshot, long updatedAt) {
+                    long expiresAt = updatedAt + ttlOf(snapshot);
+                    if (expiresAt > now) {
+                        entries.put(id, new Entry<>(snapshot, updatedAt, expiresAt));
+                    } else {
+                        entries.remove(id);
+                    }
+                }
+
+                @Override
+                public void remove(String id) {
+                    entries.remove(id);
+                }
+            });
+            evictOverCapacity(maxEntries);
+            this.journal = journal;
+            return entries.size();
+        }
+    }
+
+    /**
+     * 日志自上次压缩以来的写入量超过阈值时，把当前快照写成快照文件并删除旧日志段
+     * @param thresholdBytes 触发压缩的日志写入量
+     * @return 是否执行了压缩
+     */
+    public boolean compactIfNeeded(long thresholdBytes) throws IOException {
+        JobJournal<T> current;
+        long first;
+        List<JobJournal.Record<T>> records = new ArrayList<>();
+        synchronized (entries) {
+            current = journal;
+            if (current == null || current.getBytesSinceCompaction() < thresholdBytes) {
+                return false;
+            }
+            first = current.beginCompaction();
+            entries.forEach((id, entry) -> records.add(new JobJournal.Record<>(id, entry.snapshot, entry.updatedAt)));
+        }
+        // 快照不可变，编码和写文件不需要持有锁
+        current.completeCompaction(first, records);
+        return true;
+    }
+
+    /**
+     * 把状态日志刷到磁盘
+     */
+    public void flush() {
+        JobJournal<T> current;
+        synchronized (entries) {
+            current = journal;
+        }
+        if (current != null) {
+            current.flush();
+        }
+    }
+
+    public void close() {
+        flush();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 注册条目数和淘汰数指标
+     */
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("photochange.jobs.state.size", this, JobStore::size)
+                .description("任务状态存储的条目数")
+                .tag("store", name)
+                .register(registry);
+        FunctionCounter.builder("photochange.jobs.state.evicted", this, store -> store.evictedCount(REASON_TTL))
+                .description("任务状态存储淘汰的条目数")
+                .tag("store", name).tag("reason", REASON_TTL)
+                .register(registry);
+        FunctionCounter.builder("photochange.jobs.state.evicted", this, store -> store.evictedCount(REASON_CAPACITY))
+                .description("任务状态存储淘汰的条目数")
+                .tag("store", name).tag("reason", REASON_CAPACITY)
+                .register(registry);
+    }
+
+    private double evictedCount(String reason) {
+        synchronized (entries) {
+            return REASON_TTL.equals(reason) ? expiredCount : capacityEvictedCount;
+        }
+    }
+
+    private void store(String id, T snapshot) {
+        long now = System.currentTimeMillis();
+        entries.put(id, new Entry<>(snapshot, now, now + ttlOf(snapshot)));
+        if (journal != null) {
+            try {
+                journal.appendPut(id, snapshot, now);
+            } catch (IOException e) {
+                logger.warn("写入任务状态日志失败，存储: {}, 任务ID: {}, 错误: {}", name, id, e.getMessage());
+            }
+        }
+    }
+
+    private void journalRemove(String id) {
+        if (journal != null) {
+            try {
+                journal.appendRemove(id);
+            } catch (IOException e) {
+                logger.warn("写入任务状态日志失败，存储: {}, 任务ID: {}, 错误: {}", name, id, e.getMessage());
+            }
+        }
+    }
+
+    private long ttlOf(T snapshot) {
+        Long ttl = ttlByStatus.get(statusOf.apply(snapshot));
+        return ttl != null ? ttl : defaultTtl;
+    }
+
+    /**
+     * 按最久未访问的顺序淘汰已结束的快照，直到条目数不超过limit；执行中的快照跳过
+     */
+    private void evictOverCapacity(int limit) {
+        Iterator<Entry<T>> iterator = entries.values().iterator();
+        while (entries.size() > limit && iterator.hasNext()) {
+            if (ttlByStatus.containsKey(statusOf.apply(iterator.next().snapshot))) {
+                iterator.remove();
+                capacityEvictedCount++;
+            }
+        }
+    }
+}
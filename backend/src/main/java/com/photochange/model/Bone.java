@@ -0,0 +1,46 @@
+package com.photochange.model;
+
+/**
+ * 骨骼（相连的两个关节）
+ * 方向从起点关节指向终点关节，起点更靠近躯干。
+ */
+public enum Bone {
+    SHOULDERS(Joint.LEFT_SHOULDER, Joint.RIGHT_SHOULDER),
+    HIPS(Joint.LEFT_HIP, Joint.RIGHT_HIP),
+    LEFT_TORSO(Joint.LEFT_SHOULDER, Joint.LEFT_HIP),
+    RIGHT_TORSO(Joint.RIGHT_SHOULDER, Joint.RIGHT_HIP),
+    LEFT_UPPER_ARM(Joint.LEFT_SHOULDER, Joint.LEFT_ELBOW),
+    RIGHT_UPPER_ARM(Joint.RIGHT_SHOULDER, Joint.RIGHT_ELBOW),
+    LEFT_FOREARM(Joint.LEFT_ELBOW, Joint.LEFT_WRIST),
+    RIGHT_FOREARM(Joint.RIGHT_ELBOW, Joint.RIGHT_WRIST),
+    LEFT_THIGH(Joint.LEFT_HIP, Joint.LEFT_KNEE),
+    RIGHT_THIGH(Joint.RIGHT_HIP, Joint.RIGHT_KNEE),
+    LEFT_SHIN(Joint.LEFT_KNEE, Joint.LEFT_ANKLE),
+    RIGHT_SHIN(Joint.RIGHT_KNEE, Joint.RIGHT_ANKLE);
+
+    private static final Bone[] VALUES = values();
+
+    private final Joint from;
+    private final Joint to;
+
+    Bone(Joint from, Joint to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    public Joint getFrom() {
+        return from;
+    }
+
+    public Joint getTo() {
+        return to;
+    }
+
+    public static int count() {
+        return VALUES.length;
+    }
+
+    public static Bone of(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
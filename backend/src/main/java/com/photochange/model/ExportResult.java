@@ -21,6 +21,25 @@ public class ExportResult {
     public ExportResult() {
     }
 
+    /**
+     * 复制构造（任务状态存储按副本更新）
+     */
+    public ExportResult(ExportResult other) {
+        this.exportId = other.exportId;
+        this.transformationId = other.transformationId;
+        this.status = other.status;
+        this.downloadUrl = other.downloadUrl;
+        this.format = other.format;
+        this.quality = other.quality;
+        this.width = other.width;
+        this.height = other.height;
+        this.size = other.size;
+        this.createdAt = other.createdAt;
+        this.completedAt = other.completedAt;
+        this.expiresAt = other.expiresAt;
+        this.error = other.error;
+    }
+
     public ExportResult(String exportId, String transformationId, String status, String downloadUrl,
                        String format, String quality, Integer width, Integer height, Long size,
                        Long createdAt, String error) {
@@ -0,0 +1,77 @@
+package com.photochange.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 人体关节（COCO 17点）
+ * 序号即关节在 {@link Skeleton} 中的位置；JSON中的关键点ID使用小写名称（如left_shoulder）。
+ */
+public enum Joint {
+    NOSE("nose"),
+    LEFT_EYE("left_eye"),
+    RIGHT_EYE("right_eye"),
+    LEFT_EAR("left_ear"),
+    RIGHT_EAR("right_ear"),
+    LEFT_SHOULDER("left_shoulder"),
+    RIGHT_SHOULDER("right_shoulder"),
+    LEFT_ELBOW("left_elbow"),
+    RIGHT_ELBOW("right_elbow"),
+    LEFT_WRIST("left_wrist"),
+    RIGHT_WRIST("right_wrist"),
+    LEFT_HIP("left_hip"),
+    RIGHT_HIP("right_hip"),
+    LEFT_KNEE("left_knee"),
+    RIGHT_KNEE("right_knee"),
+    LEFT_ANKLE("left_ankle"),
+    RIGHT_ANKLE("right_ankle");
+
+    private static final Joint[] VALUES = values();
+    private static final Map<String, Joint> BY_ID = new HashMap<>();
+
+    static {
+        for (Joint joint : VALUES) {
+            BY_ID.put(joint.id, joint);
+        }
+    }
+
+    private final String id;
+
+    Joint(String id) {
+        this.id = id;
+    }
+
+    /**
+     * 关键点ID（JSON中的名称）
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 左右对称的关节，鼻子返回自身
+     */
+    public Joint mirror() {
+        if (this == NOSE) {
+            return NOSE;
+        }
+        // 左右关节成对相邻排列，左在前
+        return VALUES[ordinal() % 2 == 1 ? ordinal() + 1 : ordinal() - 1];
+    }
+
+    /**
+     * 按关键点ID查找关节
+     * @return 未知ID返回null
+     */
+    public static Joint fromId(String id) {
+        return id != null ? BY_ID.get(id) : null;
+    }
+
+    public static int count() {
+        return VALUES.length;
+    }
+
+    public static Joint of(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
@@ -10,7 +10,7 @@ public class PoseDetectionResult {
     private String detectionId;
     private String imageId;
     private String status; // processing, completed, failed
-    private List<Keypoint> keypoints;
+    private Skeleton keypoints;
     private Map<String, List<List<Float>>> segments;
     private Float confidence;
     private Long createdAt;
@@ -20,7 +20,22 @@ public class PoseDetectionResult {
     public PoseDetectionResult() {
     }
 
-    public PoseDetectionResult(String detectionId, String imageId, String status, List<Keypoint> keypoints,
+    /**
+     * 复制构造（任务状态存储按副本更新）
+     */
+    public PoseDetectionResult(PoseDetectionResult other) {
+        this.detectionId = other.detectionId;
+        this.imageId = other.imageId;
+        this.status = other.status;
+        this.keypoints = other.keypoints;
+        this.segments = other.segments;
+        this.confidence = other.confidence;
+        this.createdAt = other.createdAt;
+        this.completedAt = other.completedAt;
+        this.error = other.error;
+    }
+
+    public PoseDetectionResult(String detectionId, String imageId, String status, Skeleton keypoints,
                               Map<String, List<List<Float>>> segments, Float confidence, Long createdAt, String error) {
         this.detectionId = detectionId;
         this.imageId = imageId;
@@ -56,11 +71,11 @@ public class PoseDetectionResult {
         this.status = status;
     }
 
-    public List<Keypoint> getKeypoints() {
+    public Skeleton getKeypoints() {
         return keypoints;
     }
 
-    public void setKeypoints(List<Keypoint> keypoints) {
+    public void setKeypoints(Skeleton keypoints) {
         this.keypoints = keypoints;
     }
 
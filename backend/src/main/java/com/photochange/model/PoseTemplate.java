@@ -13,7 +13,7 @@ public class PoseTemplate {
     private String description;
     private String thumbnailUrl;
     private String previewUrl;
-    private List<Keypoint> keypoints;
+    private Skeleton keypoints;
     private Map<String, List<List<Float>>> segments;
     private Float popularity;
     private Long createdAt;
@@ -69,11 +69,11 @@ public class PoseTemplate {
         this.previewUrl = previewUrl;
     }
 
-    public List<Keypoint> getKeypoints() {
+    public Skeleton getKeypoints() {
         return keypoints;
     }
 
-    public void setKeypoints(List<Keypoint> keypoints) {
+    public void setKeypoints(Skeleton keypoints) {
         this.keypoints = keypoints;
     }
 
@@ -85,6 +85,10 @@ public class PoseTemplate {
         this.segments = segments;
     }
 
+    /**
+     * 模板自带的热度分（随模板数据维护），列表按popularity排序时使用；
+     * 与按近期使用次数统计的热门排名无关
+     */
     public Float getPopularity() {
         return popularity;
     }
@@ -0,0 +1,62 @@
+package com.photochange.model;
+
+/**
+ * 姿势相似的模板
+ */
+public class SimilarTemplate {
+    private PoseTemplate template;
+    private float distance;
+    private float similarity;
+    private boolean mirrored;
+
+    public SimilarTemplate() {
+    }
+
+    public SimilarTemplate(PoseTemplate template, float distance, boolean mirrored) {
+        this.template = template;
+        this.distance = distance;
+        this.similarity = Math.max(0f, 1f - distance / 2f);
+        this.mirrored = mirrored;
+    }
+
+    public PoseTemplate getTemplate() {
+        return template;
+    }
+
+    public void setTemplate(PoseTemplate template) {
+        this.template = template;
+    }
+
+    /**
+     * 归一化姿势向量间的欧氏距离（0-2，越小越相似）
+     */
+    public float getDistance() {
+        return distance;
+    }
+
+    public void setDistance(float distance) {
+        this.distance = distance;
+    }
+
+    /**
+     * 相似度（0-1，1表示姿势相同）
+     */
+    public float getSimilarity() {
+        return similarity;
+    }
+
+    public void setSimilarity(float similarity) {
+        this.similarity = similarity;
+    }
+
+    /**
+     * 是否与模板的镜像姿势相似
+     */
+    public boolean isMirrored() {
+        return mirrored;
+    }
+
+    public void setMirrored(boolean mirrored) {
+        this.mirrored = mirrored;
+    }
+}
@@ -0,0 +1,217 @@
+package com.photochange.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 人体骨架（一组关键点）
+ * 按 {@link Joint} 序号紧凑存放在一个float[]中（每个关节x、y、置信度三个值），
+ * 用位掩码记录哪些关节存在，访问关节无需字符串查找和装箱。创建后不可修改。
+ * JSON格式与关键点列表相同：[{"id":"nose","x":..,"y":..,"confidence":..}, ...]，未知的关键点ID被忽略。
+ */
+@JsonSerialize(using = Skeleton.Serializer.class)
+@JsonDeserialize(using = Skeleton.Deserializer.class)
+public final class Skeleton {
+
+    private static final int STRIDE = 3;
+
+    private static final Skeleton EMPTY = new Skeleton(new float[Joint.count() * STRIDE], 0);
+
+    private final float[] values;
+    private final int present;
+
+    private Skeleton(float[] values, int present) {
+        this.values = values;
+        this.present = present;
+    }
+
+    public static Skeleton empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 由关键点列表创建，未知ID的关键点被忽略，同一关节出现多次时以最后一次为准
+     */
+    public static Skeleton of(List<Keypoint> keypoints) {
+        Builder builder = new Builder();
+        if (keypoints != null) {
+            for (Keypoint keypoint : keypoints) {
+                Joint joint = Joint.fromId(keypoint.getId());
+                if (joint != null) {
+                    builder.set(joint, keypoint.getX(), keypoint.getY(), keypoint.getConfidence());
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    public boolean has(Joint joint) {
+        return (present & (1 << joint.ordinal())) != 0;
+    }
+
+    public float x(Joint joint) {
+        return values[joint.ordinal() * STRIDE];
+    }
+
+    public float y(Joint joint) {
+        return values[joint.ordinal() * STRIDE + 1];
+    }
+
+    /**
+     * 关节置信度，不存在的关节为0
+     */
+    public float confidence(Joint joint) {
+        return values[joint.ordinal() * STRIDE + 2];
+    }
+
+    /**
+     * 存在的关节数
+     */
+    public int size() {
+        return Integer.bitCount(present);
+    }
+
+    public boolean isEmpty() {
+        return present == 0;
+    }
+
+    /**
+     * 转换为关键点列表（按关节序号）
+     */
+    public List<Keypoint> toKeypoints() {
+        List<Keypoint> keypoints = new ArrayList<>(size());
+        for (int i = 0; i < Joint.count(); i++) {
+            if ((present & (1 << i)) != 0) {
+                keypoints.add(new Keypoint(Joint.of(i).getId(),
+                        values[i * STRIDE], values[i * STRIDE + 1], values[i * STRIDE + 2]));
+            }
+        }
+        return keypoints;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Skeleton)) {
+            return false;
+        }
+        Skeleton skeleton = (Skeleton) other;
+        return present == skeleton.present && Arrays.equals(values, skeleton.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * present + Arrays.hashCode(values);
+    }
+
+    /**
+     * 骨架构建器
+     */
+    public static final class Builder {
+        private final float[] values = new float[Joint.count() * STRIDE];
+        private int present;
+
+        private Builder() {
+        }
+
+        public Builder set(Joint joint, float x, float y, float confidence) {
+            int offset = joint.ordinal() * STRIDE;
+            values[offset] = x;
+            values[offset + 1] = y;
+            values[offset + 2] = confidence;
+            present |= 1 << joint.ordinal();
+            return this;
+        }
+
+        public Skeleton build() {
+            return present == 0 ? EMPTY : new Skeleton(values.clone(), present);
+        }
+    }
+
+    /**
+     * 序列化为关键点列表
+     */
+    public static final class Serializer extends JsonSerializer<Skeleton> {
+        @Override
+        public void serialize(Skeleton skeleton, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeStartArray();
+            for (int i = 0; i < Joint.count(); i++) {
+                if ((skeleton.present & (1 << i)) == 0) {
+                    continue;
+                }
+                generator.writeStartObject();
+                generator.writeStringField("id", Joint.of(i).getId());
+                generator.writeNumberField("x", skeleton.values[i * STRIDE]);
+                generator.writeNumberField("y", skeleton.values[i * STRIDE + 1]);
+                generator.writeNumberField("confidence", skeleton.values[i * STRIDE + 2]);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * 由关键点列表反序列化，直接读取字段，不创建中间的Keypoint对象
+     */
+    public static final class Deserializer extends JsonDeserializer<Skeleton> {
+        @Override
+        public Skeleton deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                return (Skeleton) context.handleUnexpectedToken(Skeleton.class, parser);
+            }
+            Builder builder = new Builder();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() != JsonToken.START_OBJECT) {
+                    return (Skeleton) context.handleUnexpectedToken(Skeleton.class, parser);
+                }
+                Joint joint = null;
+                float x = 0;
+                float y = 0;
+                float confidence = 0;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    switch (field) {
+                        case "id":
+                            joint = Joint.fromId(parser.getValueAsString());
+                            break;
+                        case "x":
+                            x = (float) parser.getValueAsDouble();
+                            break;
+                        case "y":
+                            y = (float) parser.getValueAsDouble();
+                            break;
+                        case "confidence":
+                            confidence = (float) parser.getValueAsDouble();
+                            break;
+                        default:
+                            parser.skipChildren();
+                    }
+                }
+                if (joint != null) {
+                    builder.set(joint, x, y, confidence);
+                }
+            }
+            return builder.build();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.photochange.model;
+
+import java.util.List;
+
+/**
+ * 模板缩略图图集
+ * 同一类别的模板缩略图拼在一张WebP图片中，客户端按各模板的位置裁切显示。
+ * 图片和位置清单的URL都带内容摘要，内容不变时URL不变，可以永久缓存。
+ */
+public class TemplateAtlas {
+    private String category;
+    private String version;
+    private String imageUrl;
+    private String manifestUrl;
+    private int width;
+    private int height;
+    private List<Sprite> sprites;
+
+    public TemplateAtlas() {
+    }
+
+    public TemplateAtlas(String category, String version, int width, int height, List<Sprite> sprites) {
+        this.category = category;
+        this.version = version;
+        this.imageUrl = "/api/v1/templates/atlases/" + version + ".webp";
+        this.manifestUrl = "/api/v1/templates/atlases/" + version + ".json";
+        this.width = width;
+        this.height = height;
+        this.sprites = sprites;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    /**
+     * 图集图片的内容摘要
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    public void setImageUrl(String imageUrl) {
+        this.imageUrl = imageUrl;
+    }
+
+    /**
+     * 位置清单（本对象的JSON）的URL
+     */
+    public String getManifestUrl() {
+        return manifestUrl;
+    }
+
+    public void setManifestUrl(String manifestUrl) {
+        this.manifestUrl = manifestUrl;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    public List<Sprite> getSprites() {
+        return sprites;
+    }
+
+    public void setSprites(List<Sprite> sprites) {
+        this.sprites = sprites;
+    }
+
+    /**
+     * 单个模板缩略图在图集中的位置（像素）
+     */
+    public static class Sprite {
+        private String templateId;
+        private int x;
+        private int y;
+        private int width;
+        private int height;
+
+        public Sprite() {
+        }
+
+        public Sprite(String templateId, int x, int y, int width, int height) {
+            this.templateId = templateId;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        public String getTemplateId() {
+            return templateId;
+        }
+
+        public void setTemplateId(String templateId) {
+            this.templateId = templateId;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public void setX(int x) {
+            this.x = x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public void setY(int y) {
+            this.y = y;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public void setWidth(int width) {
+            this.width = width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public void setHeight(int height) {
+            this.height = height;
+        }
+    }
+}
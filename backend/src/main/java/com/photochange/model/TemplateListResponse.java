@@ -11,6 +11,8 @@ public class TemplateListResponse {
     private int page;
     private int limit;
     private int pages;
+    // 下一页的游标，没有更多数据时为null
+    private String nextCursor;
 
     public TemplateListResponse() {
     }
@@ -62,4 +64,12 @@ public class TemplateListResponse {
     public void setPages(int pages) {
         this.pages = pages;
     }
-}
\ No newline at end of file
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
@@ -1,14 +1,12 @@
 package com.photochange.model;
 
-import java.util.List;
-
 /**
  * 姿势变换请求
  */
 public class TransformationRequest {
     private String imageId;
     private String templateId;
-    private List<Keypoint> customKeypoints;
+    private Skeleton customKeypoints;
 
     public String getImageId() {
         return imageId;
@@ -26,11 +24,11 @@ public class TransformationRequest {
         this.templateId = templateId;
     }
 
-    public List<Keypoint> getCustomKeypoints() {
+    public Skeleton getCustomKeypoints() {
         return customKeypoints;
     }
 
-    public void setCustomKeypoints(List<Keypoint> customKeypoints) {
+    public void setCustomKeypoints(Skeleton customKeypoints) {
         this.customKeypoints = customKeypoints;
     }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.photochange.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /**
  * 姿势变换结果
  */
@@ -7,6 +9,7 @@ public class TransformationResult {
     private String transformationId;
     private String imageId;
     private String templateId;
+    private Skeleton customKeypoints; // 自定义关键点（可选），重启后重新执行任务时使用，只写入状态日志
     private String status; // processing, completed, failed
     private String resultUrl;
     private String thumbnailUrl;
@@ -19,6 +22,24 @@ public class TransformationResult {
     public TransformationResult() {
     }
 
+    /**
+     * 复制构造（任务状态存储按副本更新）
+     */
+    public TransformationResult(TransformationResult other) {
+        this.transformationId = other.transformationId;
+        this.imageId = other.imageId;
+        this.templateId = other.templateId;
+        this.customKeypoints = other.customKeypoints;
+        this.status = other.status;
+        this.resultUrl = other.resultUrl;
+        this.thumbnailUrl = other.thumbnailUrl;
+        this.width = other.width;
+        this.height = other.height;
+        this.createdAt = other.createdAt;
+        this.completedAt = other.completedAt;
+        this.error = other.error;
+    }
+
     public TransformationResult(String transformationId, String imageId, String templateId, String status,
                                String resultUrl, String thumbnailUrl, Integer width, Integer height, String error) {
         this.transformationId = transformationId;
@@ -56,6 +77,15 @@ public class TransformationResult {
         this.templateId = templateId;
     }
 
+    @JsonIgnore
+    public Skeleton getCustomKeypoints() {
+        return customKeypoints;
+    }
+
+    public void setCustomKeypoints(Skeleton customKeypoints) {
+        this.customKeypoints = customKeypoints;
+    }
+
     public String getStatus() {
         return status;
     }
@@ -1,18 +1,16 @@
 package com.photochange.model;
 
-import java.util.List;
-
 /**
  * 更新变换请求
  */
 public class UpdateTransformationRequest {
-    private List<Keypoint> customKeypoints;
+    private Skeleton customKeypoints;
 
-    public List<Keypoint> getCustomKeypoints() {
+    public Skeleton getCustomKeypoints() {
         return customKeypoints;
     }
 
-    public void setCustomKeypoints(List<Keypoint> customKeypoints) {
+    public void setCustomKeypoints(Skeleton customKeypoints) {
         this.customKeypoints = customKeypoints;
     }
 }
\ No newline at end of file
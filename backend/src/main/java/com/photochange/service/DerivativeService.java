@@ -0,0 +1,39 @@
+package com.photochange.service;
+
+import com.photochange.service.ImageStorageService.StoredFile;
+import com.photochange.storage.ImageIndex;
+
+/**
+ * 派生图片服务接口
+ * 负责按需生成上传图片、结果图片和模板素材的缩略图等派生图片，并缓存在磁盘上
+ */
+public interface DerivativeService {
+
+    /**
+     * 获取图片的缩略图，首次请求时生成
+     * @param kind 源图片类别（上传图片或结果图片）
+     * @param id 图片ID或变换任务ID
+     * @param width 最大宽度
+     * @param height 最大高度
+     * @return 缩略图文件描述，源图片不存在时返回null
+     * @throws IllegalArgumentException 源文件不是可解码的图片
+     */
+    StoredFile getThumbnail(ImageIndex.Kind kind, String id, int width, int height);
+
+    /**
+     * 获取模板素材的预览图，首次请求时生成
+     * @param assetName 模板素材文件名
+     * @param width 最大宽度
+     * @param height 最大高度
+     * @return 预览图文件描述，素材不存在时返回null
+     * @throws IllegalArgumentException 素材不是可解码的图片
+     */
+    StoredFile getTemplatePreview(String assetName, int width, int height);
+
+    /**
+     * 按最近最少使用顺序淘汰缓存的派生图片，派生图片之后再次请求时重新生成
+     * @param bytes 需要释放的字节数
+     * @return 实际释放的字节数
+     */
+    long trimCache(long bytes);
+}
@@ -1,11 +1,10 @@
 package com.photochange.service;
 
+import com.photochange.job.CancellationToken;
 import com.photochange.model.ExportRequest;
 import com.photochange.model.ExportResponse;
 import com.photochange.model.ExportResult;
 
-import java.util.concurrent.CompletableFuture;
-
 /**
  * 导出服务接口
  * 负责处理结果图片导出相关的业务逻辑
@@ -14,8 +13,11 @@ public interface ExportService {
 
     /**
      * 创建导出任务
+     * 任务提交到导出队列后立即返回，不等待导出完成
      * @param request 导出请求
      * @return 导出响应，包含任务ID和状态
+     * @throws com.photochange.job.JobQueueFullException 导出队列已满，或任务状态存储被执行中的任务占满
+     * @throws IllegalArgumentException 变换任务不存在，或导出格式不是jpg、jpeg、png、webp之一
      */
     ExportResponse createExport(ExportRequest request);
 
@@ -27,17 +29,18 @@ public interface ExportService {
     ExportResult getExportResult(String exportId);
 
     /**
-     * 异步处理导出任务
+     * 处理导出任务（在导出队列的工作线程中执行）
      * @param transformationId 变换任务ID
      * @param format 导出格式
      * @param quality 导出质量
      * @param width 宽度（可选）
      * @param height 高度（可选）
      * @param exportId 导出任务ID
-     * @return 异步任务
+     * @param token 取消令牌，任务被取消后在下一个检查点停止
+     * @return 导出结果，失败时状态为failed
      */
-    CompletableFuture<ExportResult> processExport(String transformationId, String format, 
-                                                String quality, Integer width, Integer height, String exportId);
+    ExportResult processExport(String transformationId, String format, String quality,
+                               Integer width, Integer height, String exportId, CancellationToken token);
 
     /**
      * 取消导出任务
@@ -1,10 +1,19 @@
 package com.photochange.service;
 
+import com.photochange.imaging.DecodedImage;
+import com.photochange.imaging.TiledPyramid;
+import com.photochange.job.CancellationToken;
+import com.photochange.model.ExportResult;
 import com.photochange.model.ImageUploadResponse;
+import com.photochange.storage.ImageIndex;
 
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.File;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
 
 /**
  * 图片存储服务接口
@@ -19,6 +28,23 @@ public interface ImageStorageService {
      */
     ImageUploadResponse uploadImage(MultipartFile file);
 
+    /**
+     * 存储上传的图片文件
+     * @param file 上传的图片文件
+     * @param imageId 图片ID
+     * @return 图片URL
+     */
+    String storeImage(MultipartFile file, String imageId);
+
+    /**
+     * 以流式方式存储图片，数据只读取一次
+     * @param data 图片数据流
+     * @param imageId 图片ID
+     * @return 图片URL
+     * @throws IllegalArgumentException 数据不是支持的图片格式或超过大小上限
+     */
+    String storeImage(InputStream data, String imageId);
+
     /**
      * 保存图片数据
      * @param imageData 图片数据流
@@ -37,6 +63,59 @@ public interface ImageStorageService {
      */
     String saveResultImage(InputStream imageData, String transformationId, String contentType);
 
+    /**
+     * 保存内存中的结果图片，内容与已有文件相同时不重复写入
+     * @param imageData 图片数据
+     * @param transformationId 变换任务ID
+     * @param contentType 内容类型
+     * @return 结果图片URL
+     */
+    String saveResultImage(byte[] imageData, String transformationId, String contentType);
+
+    /**
+     * 保存内存中的结果图片，任务已被取消时不写入
+     * 取消检查与写入是原子的，被取消的旧运行不会覆盖重新提交后的运行保存的结果
+     * @param imageData 图片数据
+     * @param transformationId 变换任务ID
+     * @param contentType 内容类型
+     * @param token 本次运行的取消令牌
+     * @return 结果图片URL
+     * @throws java.util.concurrent.CancellationException 任务已被取消
+     */
+    String saveResultImage(byte[] imageData, String transformationId, String contentType, CancellationToken token);
+
+    /**
+     * 等待结果图片落盘（延迟写入时saveResultImage返回后数据可能还在内存中）
+     * @param transformationId 变换任务ID
+     * @throws RuntimeException 延迟写入失败
+     */
+    void awaitResultPersisted(String transformationId);
+
+    /**
+     * 保存导出文件
+     * @param data 导出文件数据流
+     * @param exportId 导出任务ID
+     * @param format 导出格式（jpg, jpeg, png, webp）
+     * @return 导出文件路径
+     * @throws IllegalArgumentException 不支持的格式
+     */
+    Path saveExportFile(InputStream data, String exportId, String format);
+
+    /**
+     * 导出结果图片（同步执行，由导出队列的工作线程调用）
+     * 格式和尺寸都不变时直接引用结果内容，否则缩放并重新编码
+     * @param exportId 导出任务ID
+     * @param transformationId 变换任务ID
+     * @param format 导出格式（jpg, jpeg, png, webp），其他格式抛出IllegalArgumentException
+     * @param quality 导出质量（high, medium, low）
+     * @param width 最大宽度（可选）
+     * @param height 最大高度（可选）
+     * @param token 取消令牌，任务被取消后在下一个检查点停止
+     * @return 导出结果
+     */
+    ExportResult exportImage(String exportId, String transformationId, String format, String quality,
+                             Integer width, Integer height, CancellationToken token);
+
     /**
      * 生成缩略图
      * @param imageId 图片ID
@@ -53,13 +132,31 @@ public interface ImageStorageService {
      */
     String getImageUrl(String imageId);
 
+    /**
+     * 获取已存储文件内容的只读视图
+     * 已落盘的文件以内存映射方式返回，由页缓存直接提供，不在Java堆中复制；
+     * 尚未落盘的结果图片返回内存数据的只读包装。
+     * @param kind 存储类别
+     * @param id 图片ID、变换任务ID或导出任务ID
+     * @return 只读缓冲区，不存在时返回null
+     */
+    ByteBuffer mapStored(ImageIndex.Kind kind, String id);
+
     /**
      * 获取图片数据流
+     * 需要完整内容（如解码、摘要计算）时应使用 {@link #mapStored}，避免经由Java堆复制
      * @param imageId 图片ID
      * @return 图片数据流
      */
     InputStream getImageData(String imageId);
 
+    /**
+     * 获取图片文件
+     * @param imageId 图片ID
+     * @return 图片文件，不存在时返回null
+     */
+    File getImageFile(String imageId);
+
     /**
      * 删除图片
      * @param imageId 图片ID
@@ -67,6 +164,21 @@ public interface ImageStorageService {
      */
     boolean deleteImage(String imageId);
 
+    /**
+     * 删除已存储的文件（上传图片、结果图片或导出文件）
+     * @param kind 存储类别
+     * @param id 对象ID
+     * @return 释放的磁盘字节数（含上传图片的金字塔，内容仍被其他ID引用时为0），对象不存在时返回-1
+     */
+    long deleteStored(ImageIndex.Kind kind, String id);
+
+    /**
+     * 列出某一类别的已存储文件
+     * @param kind 存储类别
+     * @return 索引条目快照
+     */
+    List<ImageIndex.Entry> listStored(ImageIndex.Kind kind);
+
     /**
      * 检查图片是否存在
      * @param imageId 图片ID
@@ -74,10 +186,35 @@ public interface ImageStorageService {
      */
     boolean imageExists(String imageId);
 
+    /**
+     * 获取已存储文件的描述（路径、大小、内容哈希等），用于下载
+     * @param kind 存储类别（上传图片、结果图片、导出文件）
+     * @param id 图片ID、变换任务ID或导出任务ID
+     * @return 文件描述，不存在时返回null
+     */
+    StoredFile getStoredFile(ImageIndex.Kind kind, String id);
+
+    /**
+     * 获取解码后的图片，同一图片在各处理阶段共享一份像素数据
+     * @param kind 存储类别（上传图片或结果图片）
+     * @param id 图片ID或变换任务ID
+     * @return 解码图片句柄，调用方使用完毕必须关闭
+     * @throws IllegalArgumentException 图片不存在
+     */
+    DecodedImage openDecodedImage(ImageIndex.Kind kind, String id);
+
+    /**
+     * 获取上传图片的分块金字塔
+     * @param kind 存储类别（目前只有上传图片会转码）
+     * @param id 图片ID
+     * @return 金字塔，尚未生成时返回null（同时安排后台转码）
+     */
+    TiledPyramid openPyramid(ImageIndex.Kind kind, String id);
+
     /**
      * 获取图片元数据
      * @param imageId 图片ID
-     * @return 图片元数据（宽度、高度、格式等）
+     * @return 图片元数据（宽度、高度、格式、EXIF方向等）
      */
     ImageMetadata getImageMetadata(String imageId);
 
@@ -90,13 +227,19 @@ public interface ImageStorageService {
         private String format;
         private long size;
         private String contentType;
+        private int orientation;
 
         public ImageMetadata(int width, int height, String format, long size, String contentType) {
+            this(width, height, format, size, contentType, 1);
+        }
+
+        public ImageMetadata(int width, int height, String format, long size, String contentType, int orientation) {
             this.width = width;
             this.height = height;
             this.format = format;
             this.size = size;
             this.contentType = contentType;
+            this.orientation = orientation;
         }
 
         public int getWidth() {
@@ -118,5 +261,94 @@ public interface ImageStorageService {
         public String getContentType() {
             return contentType;
         }
+
+        /**
+         * EXIF方向（1-8）
+         */
+        public int getOrientation() {
+            return orientation;
+        }
+
+        /**
+         * 应用EXIF方向后的显示宽度
+         */
+        public int getDisplayWidth() {
+            return orientation >= 5 ? height : width;
+        }
+
+        /**
+         * 应用EXIF方向后的显示高度
+         */
+        public int getDisplayHeight() {
+            return orientation >= 5 ? width : height;
+        }
+    }
+
+    /**
+     * 已存储文件描述类
+     * 尚未落盘的结果图片没有文件路径，内容直接来自内存
+     */
+    class StoredFile {
+        private final Path path;
+        private final byte[] data;
+        private final long size;
+        private final String contentHash;
+        private final String contentType;
+        private final long lastModified;
+
+        public StoredFile(Path path, long size, String contentHash, String contentType, long lastModified) {
+            this(path, null, size, contentHash, contentType, lastModified);
+        }
+
+        public StoredFile(byte[] data, String contentHash, String contentType, long lastModified) {
+            this(null, data, data.length, contentHash, contentType, lastModified);
+        }
+
+        private StoredFile(Path path, byte[] data, long size, String contentHash, String contentType,
+                           long lastModified) {
+            this.path = path;
+            this.data = data;
+            this.size = size;
+            this.contentHash = contentHash;
+            this.contentType = contentType;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * 文件路径，内容在内存中时为null
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * 尚未落盘的内容，已落盘时为null
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        public boolean isInMemory() {
+            return data != null;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * 内容SHA-256摘要，可作为强ETag
+         */
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,11 +1,10 @@
 package com.photochange.service;
 
+import com.photochange.job.CancellationToken;
 import com.photochange.model.PoseDetectionRequest;
 import com.photochange.model.PoseDetectionResponse;
 import com.photochange.model.PoseDetectionResult;
 
-import java.util.concurrent.CompletableFuture;
-
 /**
  * 姿势检测服务接口
  * 负责处理人体姿势检测相关的业务逻辑
@@ -14,8 +13,10 @@ public interface PoseDetectionService {
 
     /**
      * 异步检测图片中的人体姿势
+     * 任务提交到检测队列后立即返回
      * @param request 姿势检测请求
      * @return 姿势检测响应，包含任务ID和状态
+     * @throws com.photochange.job.JobQueueFullException 检测队列已满，或任务状态存储被执行中的任务占满
      */
     PoseDetectionResponse detectPose(PoseDetectionRequest request);
 
@@ -27,12 +28,13 @@ public interface PoseDetectionService {
     PoseDetectionResult getDetectionResult(String detectionId);
 
     /**
-     * 异步处理姿势检测任务
+     * 处理姿势检测任务（在检测队列的工作线程中执行）
      * @param imageId 图片ID
      * @param detectionId 检测任务ID
-     * @return 异步任务
+     * @param token 取消令牌，任务被取消后在下一个检查点停止
+     * @return 检测结果，失败时状态为failed
      */
-    CompletableFuture<PoseDetectionResult> processPoseDetection(String imageId, String detectionId);
+    PoseDetectionResult processPoseDetection(String imageId, String detectionId, CancellationToken token);
 
     /**
      * 取消姿势检测任务
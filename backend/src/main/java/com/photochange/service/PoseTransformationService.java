@@ -1,13 +1,11 @@
 package com.photochange.service;
 
-import com.photochange.model.Keypoint;
+import com.photochange.job.CancellationToken;
+import com.photochange.model.Skeleton;
 import com.photochange.model.TransformationRequest;
 import com.photochange.model.TransformationResponse;
 import com.photochange.model.TransformationResult;
 
-import java.util.List;
-import java.util.concurrent.CompletableFuture;
-
 /**
  * 姿势变换服务接口
  * 负责处理人体姿势变换相关的业务逻辑
@@ -16,8 +14,10 @@ public interface PoseTransformationService {
 
     /**
      * 创建姿势变换任务
+     * 任务提交到变换队列后立即返回，不等待变换完成
      * @param request 变换请求，包含源图片ID和目标模板ID
      * @return 变换响应，包含任务ID和状态
+     * @throws com.photochange.job.JobQueueFullException 变换队列已满，或任务状态存储被执行中的任务占满
      */
     TransformationResponse createTransformation(TransformationRequest request);
 
@@ -29,23 +29,25 @@ public interface PoseTransformationService {
     TransformationResult getTransformationResult(String transformationId);
 
     /**
-     * 异步处理姿势变换任务
+     * 处理姿势变换任务（在变换队列的工作线程中执行）
      * @param imageId 源图片ID
      * @param templateId 目标模板ID
      * @param customKeypoints 自定义关键点（可选）
      * @param transformationId 变换任务ID
-     * @return 异步任务
+     * @param token 取消令牌，任务被取消后在下一个检查点停止
+     * @return 变换结果，失败时状态为failed
      */
-    CompletableFuture<TransformationResult> processTransformation(String imageId, String templateId, 
-                                                               List<Keypoint> customKeypoints, String transformationId);
+    TransformationResult processTransformation(String imageId, String templateId, Skeleton customKeypoints,
+                                               String transformationId, CancellationToken token);
 
     /**
      * 更新变换任务的自定义关键点
      * @param transformationId 变换任务ID
      * @param customKeypoints 自定义关键点列表
      * @return 更新后的变换响应
+     * @throws com.photochange.job.JobQueueFullException 变换队列已满
      */
-    TransformationResponse updateTransformation(String transformationId, List<Keypoint> customKeypoints);
+    TransformationResponse updateTransformation(String transformationId, Skeleton customKeypoints);
 
     /**
      * 取消变换任务
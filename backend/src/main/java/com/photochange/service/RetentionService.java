@@ -0,0 +1,14 @@
+package com.photochange.service;
+
+/**
+ * 存储回收服务接口
+ * 负责按保留期限删除过期的上传图片、结果图片和导出文件，并在磁盘使用率超过高水位时按LRU淘汰
+ */
+public interface RetentionService {
+
+    /**
+     * 执行一轮回收
+     * @return 本轮释放的磁盘字节数
+     */
+    long sweep();
+}
@@ -0,0 +1,36 @@
+package com.photochange.service;
+
+import com.photochange.model.TemplateAtlas;
+import com.photochange.service.ImageStorageService.StoredFile;
+import com.photochange.template.TemplateSnapshot;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 模板图集服务接口
+ * 按类别把模板素材的缩略图拼成WebP图集，客户端每个类别只需请求一张图片
+ */
+public interface TemplateAtlasService {
+
+    /**
+     * 模板快照变化后重建图集（异步执行，连续多次变化只按最后一次重建）
+     * @param snapshot 新的模板快照
+     * @param assets 模板ID -> 素材文件
+     */
+    void rebuild(TemplateSnapshot snapshot, Map<String, Path> assets);
+
+    /**
+     * 获取当前各类别的图集（按类别名称排序）
+     * @return 图集列表，尚未生成时为空列表
+     */
+    List<TemplateAtlas> getAtlases();
+
+    /**
+     * 获取图集文件
+     * @param fileName 文件名（版本号.webp或版本号.json）
+     * @return 文件描述，不是当前图集的文件时返回null
+     */
+    StoredFile getAtlasFile(String fileName);
+}
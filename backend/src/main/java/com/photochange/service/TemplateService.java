@@ -1,7 +1,10 @@
 package com.photochange.service;
 
 import com.photochange.model.PoseTemplate;
+import com.photochange.model.SimilarTemplate;
+import com.photochange.model.Skeleton;
 import com.photochange.model.TemplateListResponse;
+import com.photochange.template.TemplateRig;
 
 import java.util.List;
 
@@ -16,11 +19,24 @@ public interface TemplateService {
      * @param page 页码（从1开始）
      * @param limit 每页数量
      * @param category 分类（可选）
-     * @param sortBy 排序字段（可选，如popularity, createdAt）
+     * @param sortBy 排序字段（可选，如popularity, name, createdAt；popularity按模板自带的热度分，
+     *               不是 {@link #getPopularTemplates} 使用的近期使用排名）
      * @return 模板列表响应
      */
     TemplateListResponse getTemplates(int page, int limit, String category, String sortBy);
 
+    /**
+     * 按游标获取模板列表（keyset分页）
+     * 从游标指向的模板之后开始返回，列表在翻页期间变化时不会重复或遗漏
+     * @param cursor 上一页响应中的nextCursor，为空时从第一条开始
+     * @param limit 每页数量
+     * @param category 分类（可选）
+     * @param sortBy 排序字段（可选，有游标时以游标中的排序方式为准）
+     * @return 模板列表响应
+     * @throws IllegalArgumentException 游标格式不正确
+     */
+    TemplateListResponse getTemplatesAfter(String cursor, int limit, String category, String sortBy);
+
     /**
      * 获取指定ID的模板详情
      * @param templateId 模板ID
@@ -36,12 +52,25 @@ public interface TemplateService {
     List<PoseTemplate> getRecommendedTemplates(int limit);
 
     /**
-     * 获取热门模板列表
+     * 获取热门模板列表（按近期使用次数衰减后的排名，排名不足时以模板自带的热度分补齐）
      * @param limit 数量限制
      * @return 热门模板列表
      */
     List<PoseTemplate> getPopularTemplates(int limit);
 
+    /**
+     * 记录一次模板使用（姿势变换完成时调用），用于统计热门模板
+     * @param templateId 模板ID
+     */
+    void recordTemplateUsage(String templateId);
+
+    /**
+     * 获取模板的重定向数据（随模板加载预先计算，模板关键点不变时不会重新计算）
+     * @param templateId 模板ID
+     * @return 模板不存在时返回null
+     */
+    TemplateRig getTemplateRig(String templateId);
+
     /**
      * 获取最新模板列表
      * @param limit 数量限制
@@ -58,6 +87,27 @@ public interface TemplateService {
      */
     TemplateListResponse searchTemplates(String keyword, int page, int limit);
 
+    /**
+     * 查找与给定姿势相似的模板
+     * 比较与位置、大小无关，只看关节的相对布局
+     * @param keypoints 关键点（如姿势检测结果，图片上的像素坐标）
+     * @param width 图片宽度（按EXIF方向旋转后）
+     * @param height 图片高度（按EXIF方向旋转后）
+     * @param limit 数量限制
+     * @param mirror 是否把左右镜像的姿势视为相同
+     * @return 按相似度从高到低排列，可见关键点不足时返回空列表
+     */
+    List<SimilarTemplate> findSimilarTemplates(Skeleton keypoints, int width, int height, int limit, boolean mirror);
+
+    /**
+     * 查找与指定模板姿势相似的其他模板
+     * @param templateId 模板ID
+     * @param limit 数量限制
+     * @param mirror 是否把左右镜像的姿势视为相同
+     * @return 按相似度从高到低排列，模板不存在时返回null
+     */
+    List<SimilarTemplate> findSimilarTemplates(String templateId, int limit, boolean mirror);
+
     /**
      * 创建新模板（管理员功能）
      * @param template 模板信息
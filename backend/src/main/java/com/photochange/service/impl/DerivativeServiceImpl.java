@@ -0,0 +1,254 @@
+package com.photochange.service.impl;
+
+import com.photochange.imaging.ImageResizer;
+import com.photochange.imaging.TiledPyramid;
+import com.photochange.service.DerivativeService;
+import com.photochange.service.ImageStorageService;
+import com.photochange.service.ImageStorageService.StoredFile;
+import com.photochange.storage.DerivativeCache;
+import com.photochange.storage.ImageHeader;
+import com.photochange.storage.ImageHeaderReader;
+import com.photochange.storage.ImageIndex;
+import com.photochange.storage.UnsupportedImageException;
+import com.photochange.storage.UploadPipeline;
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 派生图片服务实现类
+ * 缩略图在首次请求时用区域平均缩放生成，写入有大小上限的LRU磁盘缓存。
+ * 缓存键由源内容摘要和目标尺寸组成，源图片内容变化后自然生成新的派生图片。
+ * 同一派生图片的并发请求合并为一次生成，其余请求等待同一结果。
+ */
+@Service
+public class DerivativeServiceImpl implements DerivativeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DerivativeServiceImpl.class);
+
+    private static final int MIN_DIMENSION = 16;
+
+    // 缓存文件在查找和读取属性之间被淘汰时重试的次数
+    private static final int EVICTION_RETRIES = 3;
+
+    @Autowired
+    private ImageStorageService imageStorageService;
+
+    @Value("${app.image.storage.path}")
+    private String storageLocation;
+
+    @Value("${app.template.storage.path}")
+    private String templateLocation;
+
+    @Value("${app.derivative.cache.max-size:536870912}")
+    private long cacheMaxSize;
+
+    @Value("${app.derivative.max-dimension:1024}")
+    private int maxDimension;
+
+    @Value("${app.derivative.jpeg-quality:85}")
+    private int jpegQuality;
+
+    private DerivativeCache cache;
+
+    // 正在生成的派生图片：缓存键 -> 生成结果
+    private final ConcurrentHashMap<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 初始化派生图片缓存目录（存储根目录下的隐藏目录，不进入图片索引）
+     */
+    @PostConstruct
+    public void init() {
+        cache = new DerivativeCache(Paths.get(storageLocation).resolve(".derivatives"), cacheMaxSize);
+        try {
+            cache.load();
+        } catch (IOException e) {
+            throw new RuntimeException("无法初始化派生图片缓存", e);
+        }
+    }
+
+    /**
+     * 获取图片的缩略图
+     * @param kind 源图片类别
+     * @param id 图片ID或变换任务ID
+     * @param width 最大宽度
+     * @param height 最大高度
+     * @return 缩略图文件描述，源图片不存在时返回null
+     */
+    @Override
+    public StoredFile getThumbnail(ImageIndex.Kind kind, String id, int width, int height) {
+        StoredFile source = imageStorageService.getStoredFile(kind, id);
+        if (source == null) {
+            return null;
+        }
+        // 上传图片已转码为金字塔时从合适的层级缩放，不再解码源文件
+        TiledPyramid pyramid = source.isInMemory() ? null : imageStorageService.openPyramid(kind, id);
+        return derive(source, pyramid, width, height);
+    }
+
+    /**
+     * 获取模板素材的预览图
+     * 素材文件由运维放置，以文件名、大小和修改时间作为版本
+     * @param assetName 模板素材文件名
+     * @param width 最大宽度
+     * @param height 最大高度
+     * @return 预览图文件描述，素材不存在时返回null
+     */
+    @Override
+    public StoredFile getTemplatePreview(String assetName, int width, int height) {
+        Path directory = Paths.get(templateLocation).toAbsolutePath().normalize();
+        Path source = directory.resolve(assetName).normalize();
+        if (!source.startsWith(directory) || !Files.isRegularFile(source)) {
+            return null;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+            String version = assetName + ":" + attributes.size() + ":" + attributes.lastModifiedTime().toMillis();
+            String versionHash = UploadPipeline.hash(version.getBytes(StandardCharsets.UTF_8));
+            return derive(new StoredFile(source, attributes.size(), versionHash, null,
+                    attributes.lastModifiedTime().toMillis()), null, width, height);
+        } catch (IOException e) {
+            throw new RuntimeException("读取模板素材失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 按最近最少使用顺序淘汰缓存的派生图片
+     * @param bytes 需要释放的字节数
+     * @return 实际释放的字节数
+     */
+    @Override
+    public long trimCache(long bytes) {
+        long freed = cache.trim(bytes);
+        logger.info("派生图片缓存已淘汰: {}KB, 剩余: {}KB", freed / 1024, cache.getTotalBytes() / 1024);
+        return freed;
+    }
+
+    /**
+     * 查找或生成派生图片
+     * 源图片可能尚未落盘（延迟写入的结果图片），此时直接从内存数据生成
+     */
+    private StoredFile derive(StoredFile source, TiledPyramid pyramid, int width, int height) {
+        int targetWidth = clamp(width);
+        int targetHeight = clamp(height);
+        String key = targetWidth + "x" + targetHeight + "_" + source.getContentHash().substring(0, 32);
+
+        // LRU可能在查到文件之后、读取属性之前把它淘汰，此时重新查找或生成
+        for (int attempt = 1; ; attempt++) {
+            Path file = cache.get(key);
+            if (file == null) {
+                file = generateOnce(key, source, pyramid, targetWidth, targetHeight);
+            }
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                return new StoredFile(file, attributes.size(), key, "image/jpeg",
+                        attributes.lastModifiedTime().toMillis());
+            } catch (NoSuchFileException e) {
+                if (attempt >= EVICTION_RETRIES) {
+                    throw new RuntimeException("读取缩略图失败，缓存文件已被淘汰: " + key, e);
+                }
+                logger.debug("缩略图已被淘汰，重新生成，键: {}", key);
+            } catch (IOException e) {
+                throw new RuntimeException("读取缩略图失败: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 同一缓存键同时只生成一次，后到的请求等待先到请求的结果
+     */
+    private Path generateOnce(String key, StoredFile source, TiledPyramid pyramid, int width, int height) {
+        CompletableFuture<Path> created = new CompletableFuture<>();
+        CompletableFuture<Path> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException("生成缩略图失败: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        try {
+            // 上一轮生成可能在本次查缓存之后刚刚完成
+            Path file = cache.get(key);
+            if (file == null) {
+                file = generate(key, source, pyramid, width, height);
+            }
+            created.complete(file);
+            return file;
+        } catch (RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    private Path generate(String key, StoredFile source, TiledPyramid pyramid, int width, int height) {
+        long start = System.currentTimeMillis();
+        Path temp = cache.newTempFile(".jpg");
+        try {
+            if (pyramid != null) {
+                Mat level = pyramid.readLevel(pyramid.levelFor(width, height));
+                try {
+                    ImageResizer.resize(level, temp, width, height, jpegQuality);
+                } finally {
+                    level.release();
+                }
+                Path file = cache.put(key, temp);
+                logger.debug("由金字塔生成缩略图完成，键: {}, 耗时: {}ms", key, System.currentTimeMillis() - start);
+                return file;
+            }
+
+            ImageHeader header = source.isInMemory()
+                    ? ImageHeaderReader.parse(source.getData(), source.getData().length)
+                    : ImageHeaderReader.read(source.getPath());
+            if (header == null) {
+                throw new UnsupportedImageException("无法解析图片头");
+            }
+            int sourceWidth = header.isTransposed() ? header.getHeight() : header.getWidth();
+            int sourceHeight = header.isTransposed() ? header.getWidth() : header.getHeight();
+            if (source.isInMemory()) {
+                ImageResizer.resize(source.getData(), temp, sourceWidth, sourceHeight, width, height, jpegQuality);
+            } else {
+                ImageResizer.resize(source.getPath(), temp, sourceWidth, sourceHeight, width, height, jpegQuality);
+            }
+            Path file = cache.put(key, temp);
+            logger.debug("生成缩略图完成，键: {}, 耗时: {}ms", key, System.currentTimeMillis() - start);
+            return file;
+        } catch (UnsupportedImageException e) {
+            // 源文件不是可解码的图片（如放错的模板素材），接口层返回415
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new RuntimeException("生成缩略图失败: " + e.getMessage(), e);
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                logger.warn("删除缩略图临时文件失败，文件: {}", temp);
+            }
+        }
+    }
+
+    private int clamp(int dimension) {
+        return Math.max(MIN_DIMENSION, Math.min(maxDimension, dimension));
+    }
+}
@@ -1,5 +1,10 @@
 package com.photochange.service.impl;
 
+import com.photochange.imaging.ImageCodec;
+import com.photochange.job.CancellationToken;
+import com.photochange.job.JobQueue;
+import com.photochange.job.JobQueueFullException;
+import com.photochange.job.JobStore;
 import com.photochange.model.ExportRequest;
 import com.photochange.model.ExportResponse;
 import com.photochange.model.ExportResult;
@@ -7,42 +12,52 @@ import com.photochange.model.TransformationResult;
 import com.photochange.service.ExportService;
 import com.photochange.service.ImageStorageService;
 import com.photochange.service.PoseTransformationService;
+import com.photochange.storage.ImageIndex;
+import com.photochange.storage.StoredObjectDeletedEvent;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 导出服务实现类
+ * 导出任务在专用的有界队列中执行，提交请求立即返回
  */
 @Service
 public class ExportServiceImpl implements ExportService {
 
     private static final Logger logger = LoggerFactory.getLogger(ExportServiceImpl.class);
 
-    private final Map<String, ExportResult> exportResults = new ConcurrentHashMap<>();
     private final Map<String, CompletableFuture<ExportResult>> runningTasks = new ConcurrentHashMap<>();
 
+    @Autowired
+    private JobStore<ExportResult> exportResults;
+
     @Autowired
     private ImageStorageService imageStorageService;
     
     @Autowired
     private PoseTransformationService transformationService;
 
+    @Autowired
+    @Qualifier("exportJobs")
+    private JobQueue exportJobs;
+
     /**
      * 创建导出任务
      * @param request 导出请求
@@ -52,6 +67,9 @@ public class ExportServiceImpl implements ExportService {
     public ExportResponse createExport(ExportRequest request) {
         logger.info("创建导出任务，变换ID: {}, 格式: {}", request.getTransformationId(), request.getFormat());
 
+        // 验证导出格式（接口层对IllegalArgumentException返回400）
+        String format = ImageCodec.normalizeFormat(request.getFormat() != null ? request.getFormat() : "jpg");
+
         // 验证变换任务是否存在且已完成
         TransformationResult transformationResult = transformationService.getTransformationResult(request.getTransformationId());
         if (transformationResult == null) {
@@ -73,7 +91,7 @@ public class ExportServiceImpl implements ExportService {
                 request.getTransformationId(),
                 "processing",
                 null,
-                request.getFormat() != null ? request.getFormat() : "jpg",
+                format,
                 request.getQuality() != null ? request.getQuality() : "high",
                 request.getWidth(),
                 request.getHeight(),
@@ -83,16 +101,14 @@ public class ExportServiceImpl implements ExportService {
         );
         exportResults.put(exportId, initialResult);
 
-        // 异步处理导出任务
-        CompletableFuture<ExportResult> future = processExport(
-                request.getTransformationId(),
-                request.getFormat(),
-                request.getQuality(),
-                request.getWidth(),
-                request.getHeight(),
-                exportId
-        );
-        runningTasks.put(exportId, future);
+        // 提交到导出队列，队列已满时不保留任务记录
+        try {
+            submit(request.getTransformationId(), format, request.getQuality(),
+                    request.getWidth(), request.getHeight(), exportId);
+        } catch (JobQueueFullException e) {
+            exportResults.remove(exportId);
+            throw e;
+        }
 
         // 返回响应
         return new ExportResponse(
@@ -104,6 +120,17 @@ public class ExportServiceImpl implements ExportService {
         );
     }
 
+    /**
+     * 把导出任务提交到导出队列并登记，任务结束后自动注销
+     */
+    private void submit(String transformationId, String format, String quality,
+                        Integer width, Integer height, String exportId) {
+        CompletableFuture<ExportResult> future = exportJobs.submit(
+                token -> processExport(transformationId, format, quality, width, height, exportId, token));
+        runningTasks.put(exportId, future);
+        future.whenComplete((result, error) -> runningTasks.remove(exportId, future));
+    }
+
     /**
      * 获取导出结果
      * @param exportId 导出任务ID
@@ -120,56 +147,53 @@ public class ExportServiceImpl implements ExportService {
     }
 
     /**
-     * 异步处理导出任务
+     * 处理导出任务（在导出队列的工作线程中执行）
      * @param transformationId 变换任务ID
      * @param format 导出格式
      * @param quality 导出质量
      * @param width 宽度（可选）
      * @param height 高度（可选）
      * @param exportId 导出任务ID
-     * @return 异步任务
+     * @param token 取消令牌
+     * @return 导出结果，失败时状态为failed
      */
     @Override
-    @Async
-    public CompletableFuture<ExportResult> processExport(String transformationId, String format, 
-                                                      String quality, Integer width, Integer height, String exportId) {
+    public ExportResult processExport(String transformationId, String format, String quality,
+                                      Integer width, Integer height, String exportId, CancellationToken token) {
         logger.info("开始处理导出任务，变换ID: {}, 导出ID: {}", transformationId, exportId);
 
         try {
             // 调用图片存储服务进行导出处理
-            imageStorageService.exportImageAsync(exportId, transformationId, format, quality, width, height);
-            
-            // 等待导出完成
-            Thread.sleep(3000); // 模拟处理时间
-            
-            // 获取导出结果
-            ExportResult result = imageStorageService.getExportResult(exportId);
-            if (result == null) {
-                throw new IllegalStateException("导出处理失败，无法获取结果");
-            }
-            
-            // 更新导出结果
-            exportResults.put(exportId, result);
-            logger.info("导出任务完成，导出ID: {}", exportId);
+            ExportResult exported = imageStorageService.exportImage(
+                    exportId, transformationId, format, quality, width, height, token);
 
-            return CompletableFuture.completedFuture(result);
+            // 任务已被取消或删除时不再覆盖
+            ExportResult result = exportResults.update(exportId, current -> isCurrent(current, token), updated -> {
+                updated.setStatus(exported.getStatus());
+                updated.setDownloadUrl(exported.getDownloadUrl());
+                updated.setFormat(exported.getFormat());
+                updated.setQuality(exported.getQuality());
+                updated.setWidth(exported.getWidth());
+                updated.setHeight(exported.getHeight());
+                updated.setSize(exported.getSize());
+                updated.setCompletedAt(exported.getCompletedAt());
+                updated.setExpiresAt(exported.getExpiresAt());
+            });
+            logger.info("导出任务完成，导出ID: {}", exportId);
+            return result;
 
+        } catch (CancellationException e) {
+            logger.info("导出任务已取消，导出ID: {}", exportId);
+            return exportResults.get(exportId);
         } catch (Exception e) {
             logger.error("导出任务失败，导出ID: {}, 错误: {}", exportId, e.getMessage(), e);
 
             // 更新导出结果为失败状态
-            ExportResult result = exportResults.get(exportId);
-            result.setStatus("failed");
-            result.setError(e.getMessage());
-            result.setCompletedAt(Instant.now().toEpochMilli());
-
-            exportResults.put(exportId, result);
-
-            CompletableFuture<ExportResult> future = new CompletableFuture<>();
-            future.completeExceptionally(e);
-            return future;
-        } finally {
-            runningTasks.remove(exportId);
+            return exportResults.update(exportId, current -> isCurrent(current, token), updated -> {
+                updated.setStatus("failed");
+                updated.setError(e.getMessage());
+                updated.setCompletedAt(Instant.now().toEpochMilli());
+            });
         }
     }
 
@@ -184,17 +208,13 @@ public class ExportServiceImpl implements ExportService {
 
         CompletableFuture<ExportResult> future = runningTasks.get(exportId);
         if (future != null && !future.isDone()) {
+            // 先标记为已取消，执行中的任务结束时不会再覆盖状态
+            exportResults.update(exportId, ExportServiceImpl::isProcessing, updated -> {
+                updated.setStatus("cancelled");
+                updated.setCompletedAt(Instant.now().toEpochMilli());
+            });
             future.cancel(true);
             runningTasks.remove(exportId);
-
-            // 更新导出结果状态
-            ExportResult result = exportResults.get(exportId);
-            if (result != null) {
-                result.setStatus("cancelled");
-                result.setCompletedAt(Instant.now().toEpochMilli());
-                exportResults.put(exportId, result);
-            }
-
             return true;
         }
 
@@ -249,7 +269,8 @@ public class ExportServiceImpl implements ExportService {
             return false;
         }
         
-        // TODO: 实际项目中应删除导出文件
+        // 删除导出文件（与结果图片共享内容时只移除引用）
+        imageStorageService.deleteStored(ImageIndex.Kind.EXPORT, exportId);
         
         return true;
     }
@@ -276,23 +297,59 @@ public class ExportServiceImpl implements ExportService {
                 throw new RuntimeException("图片不存在: " + imageId);
             }
             
-            // 创建导出目录
-            Path exportDir = Paths.get("./exports");
-            if (!Files.exists(exportDir)) {
-                Files.createDirectories(exportDir);
+            // 写入导出目录（实际应用中可能需要格式转换）
+            try (InputStream data = Files.newInputStream(sourceFile.toPath())) {
+                return imageStorageService.saveExportFile(data, "export_" + imageId, format).toString();
             }
             
-            // 构建导出文件路径
-            String exportFilename = "export_" + imageId + "." + format.toLowerCase();
-            Path exportPath = exportDir.resolve(exportFilename);
-            
-            // 复制文件（实际应用中可能需要格式转换）
-            Files.copy(sourceFile.toPath(), exportPath, StandardCopyOption.REPLACE_EXISTING);
-            
-            return exportPath.toString();
-            
         } catch (IOException e) {
             throw new RuntimeException("导出图片失败", e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 导出文件被删除（如过期回收）后移除对应的导出结果
+     */
+    @EventListener
+    public void onStoredObjectDeleted(StoredObjectDeletedEvent event) {
+        if (event.getKind() == ImageIndex.Kind.EXPORT) {
+            exportResults.remove(event.getId());
+        }
+    }
+
+    /**
+     * 启动后重新提交上次停机时未完成的任务（状态从日志恢复），队列已满时标记为失败
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterruptedExports() {
+        Map<String, ExportResult> interrupted = exportResults.snapshots(ExportServiceImpl::isProcessing);
+        for (Map.Entry<String, ExportResult> entry : interrupted.entrySet()) {
+            String exportId = entry.getKey();
+            ExportResult result = entry.getValue();
+            try {
+                submit(result.getTransformationId(), result.getFormat(), result.getQuality(),
+                        result.getWidth(), result.getHeight(), exportId);
+            } catch (JobQueueFullException e) {
+                exportResults.update(exportId, ExportServiceImpl::isProcessing, updated -> {
+                    updated.setStatus("failed");
+                    updated.setError(e.getMessage());
+                    updated.setCompletedAt(Instant.now().toEpochMilli());
+                });
+            }
+        }
+        if (!interrupted.isEmpty()) {
+            logger.info("重新提交未完成的导出任务: {}个", interrupted.size());
+        }
+    }
+
+    private static boolean isProcessing(ExportResult result) {
+        return "processing".equals(result.getStatus());
+    }
+
+    /**
+     * 工作线程只更新仍在处理、且没有被取消的任务
+     */
+    private static boolean isCurrent(ExportResult result, CancellationToken token) {
+        return isProcessing(result) && !token.isCancelled();
+    }
+}
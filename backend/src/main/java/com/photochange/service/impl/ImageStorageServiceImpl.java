@@ -1,46 +1,413 @@
 package com.photochange.service.impl;
 
+import com.photochange.imaging.DecodedImage;
+import com.photochange.imaging.DecodedImageCache;
+import com.photochange.imaging.ImageCodec;
+import com.photochange.imaging.ImageResizer;
+import com.photochange.imaging.PyramidStore;
+import com.photochange.imaging.TiledPyramid;
+import com.photochange.job.CancellationToken;
 import com.photochange.model.ExportResult;
 import com.photochange.model.ImageUploadResponse;
 import com.photochange.service.ImageStorageService;
+import com.photochange.storage.BlobStore;
+import com.photochange.storage.ContentStore;
+import com.photochange.storage.ImageHeader;
+import com.photochange.storage.ImageHeaderReader;
+import com.photochange.storage.ImageIndex;
+import com.photochange.storage.LayoutMigrator;
+import com.photochange.storage.MappedFiles;
+import com.photochange.storage.ShardedLayout;
+import com.photochange.storage.StoredObjectDeletedEvent;
+import com.photochange.storage.UploadPipeline;
+import com.photochange.storage.WriteBehindWriter;
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
 
 /**
  * 图片存储服务实现类
  */
 @Service
 public class ImageStorageServiceImpl implements ImageStorageService {
-    
-    private final Map<String, ExportResult> exportResults = new HashMap<>();
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageStorageServiceImpl.class);
+
+    private final ImageIndex imageIndex = new ImageIndex();
 
     @Value("${app.image.storage.path}")
     private String storageLocation;
 
+    @Value("${app.image.upload.max-size:10485760}")
+    private long maxUploadSize;
+
+    @Value("${app.image.upload.buffer-size:262144}")
+    private int uploadBufferSize;
+
+    private UploadPipeline uploadPipeline;
+
+    @Value("${app.storage.layout.migrate-on-startup:false}")
+    private boolean migrateOnStartup;
+
+    @Value("${app.storage.layout.migration-threads:4}")
+    private int migrationThreads;
+
+    // 布局迁移进行中时，索引中的旧路径可能已被移动，需要回退查找
+    private volatile boolean migrating;
+
+    @Value("${app.image.decoded-cache.max-size:268435456}")
+    private long decodedCacheSize;
+
+    private DecodedImageCache decodedImageCache;
+
+    private ContentStore contentStore;
+
+    @Value("${app.retention.export-ttl:24h}")
+    private Duration exportTtl;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    // 本服务生成的ID（图片ID、变换任务ID、导出任务ID）的字符集，其他形式的ID不回源
+    private static final Pattern REMOTE_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    @Value("${app.storage.remote.miss-ttl-ms:10000}")
+    private long remoteMissTtl;
+
+    @Value("${app.storage.remote.miss-cache-size:10000}")
+    private int remoteMissCacheSize;
+
+    // 对象存储后端中不存在的ID：类别:ID -> 过期时间，过期前不再回源（访问该对象锁内完成）
+    private final LinkedHashMap<String, Long> remoteMisses = new LinkedHashMap<>(64, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > remoteMissCacheSize;
+        }
+    };
+
+    @Value("${app.image.result.write-behind.enabled:true}")
+    private boolean writeBehindEnabled;
+
+    @Value("${app.image.result.write-behind.queue-capacity:256}")
+    private int writeBehindCapacity;
+
+    @Value("${app.image.result.write-behind.group-window-ms:5}")
+    private long writeBehindWindow;
+
+    // 结果图片的延迟写入：计算线程提交后立即返回，落盘前从内存读取
+    private WriteBehindWriter resultWriter;
+
+    @Value("${app.image.pyramid.enabled:true}")
+    private boolean pyramidEnabled;
+
+    @Value("${app.image.pyramid.tile-size:256}")
+    private int pyramidTileSize;
+
+    @Value("${app.image.pyramid.max-dimension:4096}")
+    private int pyramidMaxDimension;
+
+    @Value("${app.image.pyramid.compress:true}")
+    private boolean pyramidCompress;
+
+    @Value("${app.image.pyramid.queue-capacity:64}")
+    private int pyramidQueueCapacity;
+
+    // 上传图片的分块金字塔：后台转码一次，之后按层级和区域读取
+    private PyramidStore pyramidStore;
+
+    private static final int RESULT_LOCK_STRIPES = 64;
+
+    // 按变换任务ID分段加锁，保存结果图片时取消检查与写入不被其他运行穿插
+    private final ReentrantLock[] resultLocks = new ReentrantLock[RESULT_LOCK_STRIPES];
+
     /**
-     * 初始化存储目录
+     * 初始化存储目录，并从磁盘重建图片索引
      */
+    @PostConstruct
     public void init() {
+        Path root = Paths.get(storageLocation);
         try {
-            Path storagePath = Paths.get(storageLocation);
-            if (!Files.exists(storagePath)) {
-                Files.createDirectories(storagePath);
+            for (ImageIndex.Kind kind : ImageIndex.Kind.values()) {
+                Files.createDirectories(kind.resolve(root));
+                cleanupTempFiles(kind.resolve(root));
             }
+            contentStore = new ContentStore(root.resolve(".blobs"), blobStore);
+            contentStore.init();
+            pyramidStore = new PyramidStore(root.resolve(".pyramids"), pyramidTileSize,
+                    pyramidMaxDimension, pyramidCompress, pyramidQueueCapacity);
+            pyramidStore.init();
         } catch (IOException e) {
             throw new RuntimeException("无法初始化存储目录", e);
         }
+        uploadPipeline = new UploadPipeline(maxUploadSize, uploadBufferSize);
+        for (int i = 0; i < resultLocks.length; i++) {
+            resultLocks[i] = new ReentrantLock();
+        }
+        decodedImageCache = new DecodedImageCache(decodedCacheSize);
+        resultWriter = new WriteBehindWriter("result-writer", writeBehindCapacity, writeBehindWindow,
+                new ResultSink());
+        resultWriter.start();
+
+        imageIndex.rebuild(root, ImageIndex.Kind.UPLOAD, Set.of(
+                ImageIndex.Kind.RESULT.getDirectory(), ImageIndex.Kind.EXPORT.getDirectory()));
+        imageIndex.rebuild(root, ImageIndex.Kind.RESULT, Set.of());
+        imageIndex.rebuild(root, ImageIndex.Kind.EXPORT, Set.of());
+        logger.info("存储目录初始化完成，上传图片: {}, 结果图片: {}, 导出文件: {}",
+                imageIndex.size(ImageIndex.Kind.UPLOAD), imageIndex.size(ImageIndex.Kind.RESULT),
+                imageIndex.size(ImageIndex.Kind.EXPORT));
+
+        // 回收上次运行中未及时释放的内容文件
+        Thread sweep = new Thread(this::sweepContent, "content-sweep");
+        sweep.setDaemon(true);
+        sweep.start();
+
+        if (migrateOnStartup) {
+            Thread migration = new Thread(this::migrateLayout, "layout-migration");
+            migration.setDaemon(true);
+            migration.start();
+        }
+    }
+
+    /**
+     * 将尚未落盘的结果图片写完，并释放解码缓存占用的本地内存
+     */
+    @PreDestroy
+    public void destroy() {
+        pyramidStore.close();
+        resultWriter.close();
+        decodedImageCache.clear();
+    }
+
+    /**
+     * 结果图片的落盘目标，在IO线程中执行
+     */
+    private class ResultSink implements WriteBehindWriter.Sink {
+        @Override
+        public Path linkExisting(WriteBehindWriter.PendingWrite write) throws IOException {
+            Path targetPath = resolveTarget(ImageIndex.Kind.RESULT, write.getId(), write.getExtension());
+            if (!contentStore.linkExisting(write.getContentHash(), targetPath)) {
+                return null;
+            }
+            register(ImageIndex.Kind.RESULT, write.getId(), write.getExtension(), targetPath,
+                    write.getData().length, write.getHeader(), write.getContentHash());
+            return targetPath;
+        }
+
+        @Override
+        public Path tempDirectory(WriteBehindWriter.PendingWrite write) {
+            return ImageIndex.Kind.RESULT.resolve(Paths.get(storageLocation));
+        }
+
+        @Override
+        public Path commit(WriteBehindWriter.PendingWrite write, Path syncedTemp) throws IOException {
+            Path targetPath = resolveTarget(ImageIndex.Kind.RESULT, write.getId(), write.getExtension());
+            contentStore.commit(syncedTemp, write.getContentHash(), targetPath, true);
+            register(ImageIndex.Kind.RESULT, write.getId(), write.getExtension(), targetPath,
+                    write.getData().length, write.getHeader(), write.getContentHash());
+            return targetPath;
+        }
+    }
+
+    /**
+     * 等待结果图片的延迟写入落盘（写入失败时不抛出，调用方按不存在处理）
+     */
+    private void awaitPersisted(String transformationId) {
+        WriteBehindWriter.PendingWrite pending = resultWriter.get(transformationId);
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.getPersisted().join();
+        } catch (CompletionException e) {
+            logger.warn("结果图片落盘失败，变换任务ID: {}", transformationId);
+        }
+    }
+
+    @Override
+    public void awaitResultPersisted(String transformationId) {
+        WriteBehindWriter.PendingWrite pending = resultWriter.get(transformationId);
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.getPersisted().join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new RuntimeException("结果图片落盘失败: " + cause.getMessage(), cause);
+        }
+    }
+
+    private void sweepContent() {
+        try {
+            long removed = contentStore.sweep();
+            logger.info("内容存储回收完成，回收文件数: {}", removed);
+            if (contentStore.isDeduplicating()) {
+                // 源内容已被回收的金字塔一并删除
+                long pyramids = pyramidStore.sweep(contentStore::contains);
+                logger.info("金字塔回收完成，回收文件数: {}", pyramids);
+            }
+        } catch (IOException e) {
+            logger.warn("内容存储回收失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 清理上次异常退出时遗留的上传临时文件
+     */
+    private void cleanupTempFiles(Path directory) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, ".upload-*.tmp")) {
+            for (Path temp : stream) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * 将平铺存放的旧文件迁移到分片目录布局
+     * 迁移期间服务照常读写，两种布局的文件都可访问
+     * @return 迁移的文件数
+     */
+    public long migrateLayout() {
+        migrating = true;
+        try {
+            return new LayoutMigrator(imageIndex, Paths.get(storageLocation), migrationThreads).migrate();
+        } finally {
+            migrating = false;
+        }
+    }
+
+    /**
+     * 计算新文件的分片存储路径并确保目录存在
+     */
+    private Path resolveTarget(ImageIndex.Kind kind, String id, String extension) throws IOException {
+        Path targetPath = ShardedLayout.resolve(kind.resolve(Paths.get(storageLocation)), id, extension);
+        Files.createDirectories(targetPath.getParent());
+        return targetPath;
+    }
+
+    /**
+     * 查找索引条目并记录访问时间
+     * 本节点没有而对象存储后端有（由其他节点写入）时回源到本地
+     * 迁移进行中时，若旧路径已被移走则改用分片路径并刷新索引
+     */
+    private ImageIndex.Entry locate(ImageIndex.Kind kind, String id) {
+        ImageIndex.Entry entry = imageIndex.get(kind, id);
+        if (entry == null) {
+            return blobStore.isRemote() ? fetchRemote(kind, id) : null;
+        }
+        entry.touch();
+        if (!migrating || Files.exists(entry.getPath())) {
+            return entry;
+        }
+        Path sharded = ShardedLayout.resolve(kind.resolve(Paths.get(storageLocation)), id, entry.getExtension());
+        try {
+            ImageIndex.Entry moved = ImageIndex.fromFile(kind, sharded)
+                    .withHeader(entry.getHeader())
+                    .withContentHash(entry.getContentHash());
+            imageIndex.put(moved);
+            return moved;
+        } catch (IOException e) {
+            return entry;
+        }
+    }
+
+    /**
+     * 从对象存储后端读取ID引用，并把内容拉取到本地
+     * 后端没有的ID在短时间内记为不存在，重复请求不必每次都同步访问后端；
+     * 期间由其他节点新写入的对象最多延迟这段时间才能在本节点读到
+     * @return 后端也没有该对象时返回null
+     */
+    private ImageIndex.Entry fetchRemote(ImageIndex.Kind kind, String id) {
+        if (id == null || !REMOTE_ID.matcher(id).matches()) {
+            return null;
+        }
+        String missKey = kind + ":" + id;
+        synchronized (remoteMisses) {
+            Long expiresAt = remoteMisses.get(missKey);
+            if (expiresAt != null) {
+                if (expiresAt > System.currentTimeMillis()) {
+                    return null;
+                }
+                remoteMisses.remove(missKey);
+            }
+        }
+        try {
+            byte[] reference = blobStore.getBytes(refKey(kind, id));
+            if (reference == null) {
+                rememberRemoteMiss(missKey);
+                return null;
+            }
+            String[] fields = new String(reference, StandardCharsets.UTF_8).split("\n");
+            String contentHash = fields[0];
+            String extension = fields[1];
+            Path targetPath = resolveTarget(kind, id, extension);
+            if (!contentStore.fetch(contentHash, targetPath)) {
+                logger.warn("对象存储中缺少内容，类别: {}, ID: {}, 摘要: {}", kind, id, contentHash);
+                rememberRemoteMiss(missKey);
+                return null;
+            }
+            ImageIndex.Entry entry = ImageIndex.fromFile(kind, targetPath).withContentHash(contentHash);
+            imageIndex.put(entry);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            // 后端访问失败可能是暂时的，不记为不存在
+            logger.warn("从对象存储回源失败，类别: {}, ID: {}, 错误: {}", kind, id, e.getMessage());
+            return null;
+        }
+    }
+
+    private void rememberRemoteMiss(String missKey) {
+        synchronized (remoteMisses) {
+            remoteMisses.put(missKey, System.currentTimeMillis() + remoteMissTtl);
+        }
+    }
+
+    /**
+     * 把ID引用写入对象存储后端，供其他节点回源
+     */
+    private void publishReference(ImageIndex.Entry entry) throws IOException {
+        if (!blobStore.isRemote()) {
+            return;
+        }
+        String reference = entry.getContentHash() + "\n" + entry.getExtension() + "\n" + entry.getSize();
+        blobStore.put(refKey(entry.getKind(), entry.getId()),
+                reference.getBytes(StandardCharsets.UTF_8), "text/plain");
+    }
+
+    private static String refKey(ImageIndex.Kind kind, String id) {
+        return "refs/" + kind.name().toLowerCase() + "/" + id;
     }
 
     /**
@@ -51,32 +418,93 @@ public class ImageStorageServiceImpl implements ImageStorageService {
      */
     @Override
     public String storeImage(MultipartFile file, String imageId) {
+        try (InputStream data = file.getInputStream()) {
+            return storeImage(data, imageId);
+        } catch (IOException e) {
+            throw new RuntimeException("存储图片失败", e);
+        }
+    }
+
+    /**
+     * 以流式方式存储图片
+     * 数据只读取一次：校验魔数、计算哈希、解析文件头并写入临时文件，完成后原子重命名。
+     * 扩展名由实际图片格式决定，而不是客户端提供的文件名。
+     * @param data 图片数据流
+     * @param imageId 图片ID
+     * @return 图片URL
+     */
+    @Override
+    public String storeImage(InputStream data, String imageId) {
         try {
-            // 确保存储目录存在
-            init();
-            
-            // 获取文件扩展名
-            String originalFilename = file.getOriginalFilename();
-            String extension = "";
-            if (originalFilename != null && originalFilename.contains(".")) {
-                extension = originalFilename.substring(originalFilename.lastIndexOf("."));
-            }
-            
-            // 构建文件路径
-            String filename = imageId + extension;
-            Path targetPath = Paths.get(storageLocation).resolve(filename);
-            
-            // 保存文件
-            Files.copy(file.getInputStream(), targetPath);
-            
-            // 返回图片URL
-            return "/api/v1/images/" + filename;
-            
+            UploadPipeline.Result written = uploadPipeline.write(
+                    data, ImageIndex.Kind.UPLOAD.resolve(Paths.get(storageLocation)), true);
+            String extension = "." + written.getHeader().getFormat();
+            commit(ImageIndex.Kind.UPLOAD, imageId, extension, written);
+            schedulePyramid(imageId, written.getContentHash());
+            return "/api/v1/images/" + imageId + extension;
         } catch (IOException e) {
             throw new RuntimeException("存储图片失败", e);
         }
     }
 
+    /**
+     * 将管道写好的临时文件提交到内容存储，在分片位置建立引用并加入索引
+     * 相同内容已存在时不再写盘，只新增一个引用
+     */
+    private ImageIndex.Entry commit(ImageIndex.Kind kind, String id, String extension,
+                                    UploadPipeline.Result written) throws IOException {
+        Path targetPath = resolveTarget(kind, id, extension);
+        try {
+            contentStore.commit(written.getFile(), written.getContentHash(), targetPath);
+        } catch (IOException e) {
+            Files.deleteIfExists(written.getFile());
+            throw e;
+        }
+        return register(kind, id, extension, targetPath, written.getSize(),
+                written.getHeader(), written.getContentHash());
+    }
+
+    /**
+     * 相同内容已存在时直接建立引用
+     * @return 内容不存在时返回null，调用方需要写入数据
+     */
+    private ImageIndex.Entry linkExisting(ImageIndex.Kind kind, String id, String extension,
+                                          ImageIndex.Entry source) throws IOException {
+        String contentHash = source.getContentHash();
+        if (contentHash == null) {
+            return null;
+        }
+        Path targetPath = resolveTarget(kind, id, extension);
+        if (!contentStore.linkExisting(contentHash, targetPath)) {
+            return null;
+        }
+        return register(kind, id, extension, targetPath, source.getSize(), source.getHeader(), contentHash);
+    }
+
+    /**
+     * 更新索引，并释放被替换的旧引用
+     */
+    private ImageIndex.Entry register(ImageIndex.Kind kind, String id, String extension, Path targetPath,
+                                      long size, ImageHeader header, String contentHash) throws IOException {
+        ImageIndex.Entry entry = new ImageIndex.Entry(id, kind, targetPath, extension,
+                size, System.currentTimeMillis())
+                .withHeader(header)
+                .withContentHash(contentHash);
+        publishReference(entry);
+        ImageIndex.Entry previous = imageIndex.put(entry);
+        decodedImageCache.invalidate(decodedKey(kind, id));
+        if (previous != null) {
+            if (!previous.getPath().equals(targetPath)) {
+                // 同一ID以不同格式重写时删除旧引用
+                contentStore.delete(previous.getPath(), previous.getContentHash());
+            } else if (!contentHash.equals(previous.getContentHash())) {
+                // 同一位置已被新引用替换，释放旧内容
+                contentStore.release(previous.getContentHash());
+            }
+        }
+        return entry;
+    }
+
     /**
      * 获取图片文件
      * @param imageId 图片ID
@@ -84,19 +512,8 @@ public class ImageStorageServiceImpl implements ImageStorageService {
      */
     @Override
     public File getImageFile(String imageId) {
-        try {
-            // 查找所有可能的扩展名
-            File directory = new File(storageLocation);
-            File[] files = directory.listFiles((dir, name) -> name.startsWith(imageId + "."));
-            
-            if (files != null && files.length > 0) {
-                return files[0];
-            }
-            
-            return null;
-        } catch (Exception e) {
-            throw new RuntimeException("获取图片文件失败", e);
-        }
+        ImageIndex.Entry entry = locate(ImageIndex.Kind.UPLOAD, imageId);
+        return entry != null ? entry.getPath().toFile() : null;
     }
 
     /**
@@ -106,9 +523,7 @@ public class ImageStorageServiceImpl implements ImageStorageService {
      */
     @Override
     public boolean imageExists(String imageId) {
-        File directory = new File(storageLocation);
-        File[] files = directory.listFiles((dir, name) -> name.startsWith(imageId + "."));
-        return files != null && files.length > 0;
+        return locate(ImageIndex.Kind.UPLOAD, imageId) != null;
     }
 
     /**
@@ -118,17 +533,56 @@ public class ImageStorageServiceImpl implements ImageStorageService {
      */
     @Override
     public boolean deleteImage(String imageId) {
+        return deleteStored(ImageIndex.Kind.UPLOAD, imageId) >= 0;
+    }
+
+    /**
+     * 删除已存储的文件，内容不再被引用时释放磁盘空间（上传图片连同其金字塔），并发布删除事件
+     * @param kind 存储类别
+     * @param id 对象ID
+     * @return 释放的磁盘字节数，对象不存在时返回-1
+     */
+    @Override
+    public long deleteStored(ImageIndex.Kind kind, String id) {
+        // 先取消尚未落盘的结果图片，正在提交时等待提交完成后再删除
+        boolean cancelled = kind == ImageIndex.Kind.RESULT && resultWriter.cancel(id);
+        ImageIndex.Entry entry = imageIndex.remove(kind, id);
+        if (entry == null) {
+            if (!cancelled) {
+                return -1;
+            }
+            decodedImageCache.invalidate(decodedKey(kind, id));
+            eventPublisher.publishEvent(new StoredObjectDeletedEvent(kind, id));
+            return 0;
+        }
+        decodedImageCache.invalidate(decodedKey(kind, id));
         try {
-            File imageFile = getImageFile(imageId);
-            if (imageFile != null && imageFile.exists()) {
-                return imageFile.delete();
+            String contentHash = Files.exists(entry.getPath()) ? contentHashOf(entry) : entry.getContentHash();
+            long reclaimed = contentStore.delete(entry.getPath(), contentHash);
+            if (kind == ImageIndex.Kind.UPLOAD && reclaimed > 0 && contentHash != null) {
+                reclaimed += pyramidStore.delete(contentHash);
             }
-            return false;
-        } catch (Exception e) {
-            throw new RuntimeException("删除图片失败", e);
+            if (blobStore.isRemote()) {
+                // 后端的内容可能仍被其他节点或ID引用，只删除引用，内容交给存储桶生命周期规则回收
+                blobStore.delete(refKey(kind, id));
+            }
+            eventPublisher.publishEvent(new StoredObjectDeletedEvent(kind, id));
+            return reclaimed;
+        } catch (IOException e) {
+            throw new RuntimeException("删除文件失败: " + e.getMessage(), e);
         }
     }
-    
+
+    /**
+     * 列出某一类别的已存储文件
+     * @param kind 存储类别
+     * @return 索引条目快照
+     */
+    @Override
+    public List<ImageIndex.Entry> listStored(ImageIndex.Kind kind) {
+        return new ArrayList<>(imageIndex.entries(kind));
+    }
+
     /**
      * 上传图片
      * @param file 上传的图片文件
@@ -156,18 +610,7 @@ public class ImageStorageServiceImpl implements ImageStorageService {
     public ImageUploadResponse saveImage(InputStream imageData, String fileName, String contentType) {
         try {
             String imageId = "img_" + java.util.UUID.randomUUID().toString().replace("-", "");
-            String extension = getExtensionFromContentType(contentType);
-            Path targetPath = Paths.get(storageLocation, imageId + extension);
-
-            try (FileOutputStream outputStream = new FileOutputStream(targetPath.toFile())) {
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = imageData.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                }
-            }
-
-            String imageUrl = "/api/v1/images/" + imageId;
+            String imageUrl = storeImage(imageData, imageId);
             return new ImageUploadResponse(imageId, imageUrl, "图片上传成功");
         } catch (Exception e) {
             return new ImageUploadResponse(null, null, "图片上传失败: " + e.getMessage());
@@ -183,38 +626,148 @@ public class ImageStorageServiceImpl implements ImageStorageService {
      */
     @Override
     public String saveResultImage(InputStream imageData, String transformationId, String contentType) {
+        // 同步写入前先等待同一任务之前的延迟写入，避免旧内容在之后落盘覆盖新内容
+        awaitPersisted(transformationId);
         try {
-            String extension = getExtensionFromContentType(contentType);
-            Path targetPath = Paths.get(storageLocation, "results", transformationId + extension);
-            
-            // 确保目录存在
-            Files.createDirectories(targetPath.getParent());
-
-            try (FileOutputStream outputStream = new FileOutputStream(targetPath.toFile())) {
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = imageData.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                }
-            }
+            UploadPipeline.Result written = uploadPipeline.write(
+                    imageData, ImageIndex.Kind.RESULT.resolve(Paths.get(storageLocation)), false);
+            commit(ImageIndex.Kind.RESULT, transformationId, getExtensionFromContentType(contentType), written);
 
-            return "/api/v1/results/" + transformationId;
+            // 同一变换任务更新关键点后会重写结果，URL带上内容版本以便客户端长期缓存
+            return "/api/v1/results/" + transformationId + "?v=" + written.getContentHash().substring(0, 16);
         } catch (Exception e) {
             throw new RuntimeException("保存结果图片失败: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * 保存内存中的结果图片
+     * 先计算摘要：与当前结果相同时直接返回。
+     * 其余情况交给IO线程延迟写入（内容已存在时只建立引用），调用线程不等待磁盘，结果立即可读；
+     * 写入队列已满时退化为同步写入。
+     * @param imageData 图片数据
+     * @param transformationId 变换任务ID
+     * @param contentType 内容类型
+     * @return 结果图片URL
+     */
+    @Override
+    public String saveResultImage(byte[] imageData, String transformationId, String contentType) {
+        return saveResultImage(imageData, transformationId, contentType, CancellationToken.NONE);
+    }
+
+    /**
+     * 保存内存中的结果图片，任务已被取消时不写入
+     * 取消检查和写入（提交延迟写入或同步写入）在同一任务ID的锁内完成：
+     * 取消发生在检查之后时，重新提交的任务要等这次写入提交后才能写入，旧结果不会覆盖新结果。
+     * @param imageData 图片数据
+     * @param transformationId 变换任务ID
+     * @param contentType 内容类型
+     * @param token 取消令牌
+     * @return 结果图片URL
+     * @throws java.util.concurrent.CancellationException 任务已被取消
+     */
+    @Override
+    public String saveResultImage(byte[] imageData, String transformationId, String contentType,
+                                  CancellationToken token) {
+        String contentHash = UploadPipeline.hash(imageData);
+        String extension = getExtensionFromContentType(contentType);
+        String resultUrl = "/api/v1/results/" + transformationId + "?v=" + contentHash.substring(0, 16);
+        ImageHeader header;
+        try {
+            header = ImageHeaderReader.parse(imageData, imageData.length);
+        } catch (IllegalArgumentException e) {
+            header = null;
+        }
+
+        ReentrantLock lock = resultLocks[Math.floorMod(transformationId.hashCode(), resultLocks.length)];
+        lock.lock();
+        try {
+            token.throwIfCancelled();
+            return writeResultImage(imageData, transformationId, contentType, extension, contentHash, header,
+                    resultUrl);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写入结果图片（调用方需持有该任务ID的锁）
+     */
+    private String writeResultImage(byte[] imageData, String transformationId, String contentType,
+                                    String extension, String contentHash, ImageHeader header, String resultUrl) {
+        WriteBehindWriter.PendingWrite pending = resultWriter.get(transformationId);
+        if (pending != null) {
+            if (contentHash.equals(pending.getContentHash()) && extension.equals(pending.getExtension())) {
+                return resultUrl;
+            }
+        } else {
+            ImageIndex.Entry current = imageIndex.get(ImageIndex.Kind.RESULT, transformationId);
+            if (current != null && contentHash.equals(current.getContentHash())
+                    && extension.equals(current.getExtension())) {
+                return resultUrl;
+            }
+        }
+
+        if (writeBehindEnabled && resultWriter.submit(transformationId, transformationId, extension,
+                imageData, contentHash, header) != null) {
+            decodedImageCache.invalidate(decodedKey(ImageIndex.Kind.RESULT, transformationId));
+            return resultUrl;
+        }
+
+        awaitPersisted(transformationId);
+        try {
+            Path targetPath = resolveTarget(ImageIndex.Kind.RESULT, transformationId, extension);
+            if (contentStore.linkExisting(contentHash, targetPath)) {
+                register(ImageIndex.Kind.RESULT, transformationId, extension, targetPath,
+                        imageData.length, header, contentHash);
+                return resultUrl;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("保存结果图片失败: " + e.getMessage(), e);
+        }
+        return saveResultImage(new ByteArrayInputStream(imageData), transformationId, contentType);
+    }
+
+    /**
+     * 保存导出文件
+     * @param data 导出文件数据流
+     * @param exportId 导出任务ID
+     * @param format 导出格式（jpg, jpeg, png, webp）
+     * @return 导出文件路径
+     * @throws IllegalArgumentException 不支持的格式
+     */
+    @Override
+    public Path saveExportFile(InputStream data, String exportId, String format) {
+        // 格式用作扩展名，先校验，不接受任意字符串
+        String extension = "." + ImageCodec.normalizeFormat(format);
+        try {
+            UploadPipeline.Result written = uploadPipeline.write(
+                    data, ImageIndex.Kind.EXPORT.resolve(Paths.get(storageLocation)), false);
+            return commit(ImageIndex.Kind.EXPORT, exportId, extension, written).getPath();
+        } catch (IOException e) {
+            throw new RuntimeException("保存导出文件失败: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * 生成缩略图
      * @param imageId 图片ID
      * @param width 宽度
      * @param height 高度
-     * @return 缩略图URL
+     * @return 缩略图URL（缩略图在首次请求该URL时生成）
      */
     @Override
     public String generateThumbnail(String imageId, int width, int height) {
-        // 简化实现，实际应使用图像处理库生成缩略图
-        return getImageUrl(imageId) + "?width=" + width + "&height=" + height;
+        String size = "?width=" + width + "&height=" + height;
+        if (imageIndex.contains(ImageIndex.Kind.UPLOAD, imageId)) {
+            return getImageUrl(imageId) + "/thumbnail" + size;
+        }
+        StoredFile result = getStoredFile(ImageIndex.Kind.RESULT, imageId);
+        if (result == null) {
+            throw new IllegalArgumentException("图片不存在");
+        }
+        // 结果图片可能被重写，URL带上内容版本
+        return "/api/v1/results/" + imageId + "/thumbnail" + size + "&v=" + result.getContentHash().substring(0, 16);
     }
 
     /**
@@ -245,6 +798,177 @@ public class ImageStorageServiceImpl implements ImageStorageService {
         }
     }
 
+    /**
+     * 获取已存储文件内容的只读视图
+     * @param kind 存储类别
+     * @param id 对象ID
+     * @return 只读缓冲区（已落盘的文件为内存映射），不存在时返回null
+     */
+    @Override
+    public ByteBuffer mapStored(ImageIndex.Kind kind, String id) {
+        WriteBehindWriter.PendingWrite pending = pendingResult(kind, id);
+        if (pending != null) {
+            return ByteBuffer.wrap(pending.getData()).asReadOnlyBuffer();
+        }
+        ImageIndex.Entry entry = locate(kind, id);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return MappedFiles.map(entry.getPath());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("映射文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 获取已存储文件的描述
+     * 重建索引得到的条目没有内容哈希，首次下载时计算一次并缓存
+     * @param kind 存储类别
+     * @param id 对象ID
+     * @return 文件描述，不存在时返回null
+     */
+    @Override
+    public StoredFile getStoredFile(ImageIndex.Kind kind, String id) {
+        WriteBehindWriter.PendingWrite pending = pendingResult(kind, id);
+        if (pending != null) {
+            ImageHeader header = pending.getHeader();
+            return new StoredFile(pending.getData(), pending.getContentHash(),
+                    header != null ? header.getContentType() : getContentTypeFromExtension(pending.getExtension()),
+                    pending.getCreatedAt());
+        }
+
+        ImageIndex.Entry entry = locate(kind, id);
+        if (entry == null) {
+            return null;
+        }
+
+        String contentHash;
+        try {
+            contentHash = contentHashOf(entry);
+        } catch (IOException e) {
+            throw new RuntimeException("计算文件摘要失败: " + e.getMessage(), e);
+        }
+
+        ImageHeader header = entry.getHeader();
+        String contentType = header != null
+                ? header.getContentType()
+                : getContentTypeFromExtension(entry.getExtension());
+        return new StoredFile(entry.getPath(), entry.getSize(), contentHash, contentType, entry.getLastModified());
+    }
+
+    /**
+     * 内容摘要，重建索引得到的条目首次使用时计算并缓存
+     */
+    private String contentHashOf(ImageIndex.Entry entry) throws IOException {
+        String contentHash = entry.getContentHash();
+        if (contentHash == null) {
+            contentHash = UploadPipeline.hash(MappedFiles.map(entry.getPath()));
+            entry.withContentHash(contentHash);
+        }
+        return contentHash;
+    }
+
+    /**
+     * 获取解码后的图片
+     * 首次访问时解码并缓存，之后的检测、变换、导出阶段共享同一份像素数据
+     * @param kind 存储类别
+     * @param id 图片ID或变换任务ID
+     * @return 解码图片句柄，调用方使用完毕必须关闭
+     */
+    @Override
+    public DecodedImage openDecodedImage(ImageIndex.Kind kind, String id) {
+        WriteBehindWriter.PendingWrite pending = pendingResult(kind, id);
+        if (pending != null) {
+            try {
+                return decodedImageCache.acquire(decodedKey(kind, id), () -> ImageCodec.decode(pending.getData()));
+            } catch (IOException e) {
+                throw new RuntimeException("解码图片失败: " + e.getMessage(), e);
+            }
+        }
+
+        ImageIndex.Entry entry = locate(kind, id);
+        if (entry == null) {
+            throw new IllegalArgumentException("图片不存在");
+        }
+        try {
+            return decodedImageCache.acquire(decodedKey(kind, id), () -> decode(entry));
+        } catch (IOException e) {
+            throw new RuntimeException("解码图片失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 解码图片：上传图片已有完整分辨率的金字塔时直接读取第0层，不再解码源文件
+     */
+    private Mat decode(ImageIndex.Entry entry) throws IOException {
+        if (pyramidEnabled && entry.getKind() == ImageIndex.Kind.UPLOAD && entry.getContentHash() != null) {
+            TiledPyramid pyramid = pyramidStore.get(entry.getContentHash());
+            if (pyramid != null && pyramid.isFullResolution()) {
+                return pyramid.readLevel(0);
+            }
+        }
+        return ImageCodec.decode(entry.getPath());
+    }
+
+    /**
+     * 获取上传图片的分块金字塔，尚未生成时安排后台转码
+     * @param kind 存储类别
+     * @param id 图片ID
+     * @return 金字塔，尚未生成、未启用或不是上传图片时返回null
+     */
+    @Override
+    public TiledPyramid openPyramid(ImageIndex.Kind kind, String id) {
+        if (!pyramidEnabled || kind != ImageIndex.Kind.UPLOAD) {
+            return null;
+        }
+        ImageIndex.Entry entry = locate(kind, id);
+        if (entry == null) {
+            return null;
+        }
+        String contentHash;
+        try {
+            contentHash = contentHashOf(entry);
+        } catch (IOException e) {
+            throw new RuntimeException("计算文件摘要失败: " + e.getMessage(), e);
+        }
+        TiledPyramid pyramid = pyramidStore.get(contentHash);
+        if (pyramid == null) {
+            schedulePyramid(id, contentHash);
+        }
+        return pyramid;
+    }
+
+    /**
+     * 安排上传图片的后台转码，解码结果经由解码缓存与随后的检测共享
+     */
+    private void schedulePyramid(String imageId, String contentHash) {
+        if (!pyramidEnabled) {
+            return;
+        }
+        pyramidStore.schedule(contentHash, () -> {
+            ImageIndex.Entry entry = imageIndex.get(ImageIndex.Kind.UPLOAD, imageId);
+            if (entry == null || !contentHash.equals(entry.getContentHash())) {
+                throw new IOException("源图片已变化: " + imageId);
+            }
+            return decodedImageCache.acquire(decodedKey(ImageIndex.Kind.UPLOAD, imageId),
+                    () -> ImageCodec.decode(entry.getPath()));
+        });
+    }
+
+    private static String decodedKey(ImageIndex.Kind kind, String id) {
+        return kind.name() + ":" + id;
+    }
+
+    /**
+     * 尚未落盘的结果图片
+     */
+    private WriteBehindWriter.PendingWrite pendingResult(ImageIndex.Kind kind, String id) {
+        return kind == ImageIndex.Kind.RESULT && id != null ? resultWriter.get(id) : null;
+    }
+
     /**
      * 获取图片元数据
      * @param imageId 图片ID
@@ -252,10 +976,50 @@ public class ImageStorageServiceImpl implements ImageStorageService {
      */
     @Override
     public ImageMetadata getImageMetadata(String imageId) {
-        // 简化实现，实际应读取图片文件获取元数据
-        return new ImageMetadata(800, 600, "jpg", 1024 * 1024, "image/jpeg");
+        ImageIndex.Entry entry = locate(ImageIndex.Kind.UPLOAD, imageId);
+        if (entry == null) {
+            WriteBehindWriter.PendingWrite pending = pendingResult(ImageIndex.Kind.RESULT, imageId);
+            if (pending != null && pending.getHeader() != null) {
+                ImageHeader header = pending.getHeader();
+                return new ImageMetadata(header.getWidth(), header.getHeight(), header.getFormat(),
+                        pending.getData().length, header.getContentType(), header.getOrientation());
+            }
+            entry = locate(ImageIndex.Kind.RESULT, imageId);
+        }
+        if (entry == null) {
+            throw new IllegalArgumentException("图片不存在");
+        }
+
+        // 首次访问时只解析文件头，结果缓存在索引条目中
+        ImageHeader header = entry.getHeader();
+        if (header == null) {
+            try {
+                header = ImageHeaderReader.read(entry.getPath());
+                entry.withHeader(header);
+            } catch (IOException e) {
+                throw new RuntimeException("读取图片元数据失败: " + e.getMessage(), e);
+            }
+        }
+        return new ImageMetadata(header.getWidth(), header.getHeight(), header.getFormat(),
+                entry.getSize(), header.getContentType(), header.getOrientation());
     }
-    
+
+    private String getContentTypeFromExtension(String extension) {
+        switch (extension.toLowerCase()) {
+            case ".png":
+                return "image/png";
+            case ".gif":
+                return "image/gif";
+            case ".webp":
+                return "image/webp";
+            case ".jpg":
+            case ".jpeg":
+                return "image/jpeg";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
     private String getExtensionFromContentType(String contentType) {
         if (contentType == null) {
             return ".jpg";
@@ -277,66 +1041,97 @@ public class ImageStorageServiceImpl implements ImageStorageService {
     }
     
     /**
-     * 异步导出图片
+     * 导出结果图片（在调用线程中执行）
      * @param exportId 导出ID
      * @param transformationId 变换任务ID
      * @param format 格式
      * @param quality 质量
      * @param width 宽度
      * @param height 高度
+     * @param token 取消令牌
+     * @return 导出结果
      */
-    public void exportImageAsync(String exportId, String transformationId, 
-                                String format, String quality, Integer width, Integer height) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                // 模拟导出处理
-                Thread.sleep(2000);
-                
-                // 创建导出结果
-                ExportResult result = new ExportResult(
-                        exportId,
-                        transformationId,
-                        "completed",
-                        "/api/v1/exports/" + exportId + "/download",
-                        format != null ? format : "jpg",
-                        quality != null ? quality : "high",
-                        width != null ? width : 800,
-                        height != null ? height : 600,
-                        1024L * 1024L,
-                        System.currentTimeMillis(),
-                        null
-                );
-                
-                result.setCompletedAt(System.currentTimeMillis());
-                result.setExpiresAt(System.currentTimeMillis() + 86400000); // 24小时后过期
-                
-                // 保存结果
-                exportResults.put(exportId, result);
-            } catch (Exception e) {
-                ExportResult errorResult = new ExportResult(
-                        exportId,
-                        transformationId,
-                        "failed",
-                        null,
-                        format,
-                        quality,
-                        width,
-                        height,
-                        null,
-                        System.currentTimeMillis(),
-                        e.getMessage()
-                );
-                exportResults.put(exportId, errorResult);
+    @Override
+    public ExportResult exportImage(String exportId, String transformationId, String format, String quality,
+                                    Integer width, Integer height, CancellationToken token) {
+        try {
+            // 导出结果图片（格式或尺寸变化时重新编码）
+            String exportFormat = ImageCodec.normalizeFormat(format != null ? format : "jpg");
+            // 直接引用结果内容需要结果图片已经落盘
+            awaitPersisted(transformationId);
+            token.throwIfCancelled();
+            ImageIndex.Entry source = locate(ImageIndex.Kind.RESULT, transformationId);
+            if (source == null) {
+                throw new IllegalStateException("结果图片不存在");
             }
-        });
+            Path exportPath;
+            if (width == null && height == null && source.getExtension().equals("." + exportFormat)) {
+                // 格式和尺寸都不变时直接引用结果内容，内容摘要未知时复制文件
+                ImageIndex.Entry linked = linkExisting(ImageIndex.Kind.EXPORT, exportId, source.getExtension(), source);
+                if (linked != null) {
+                    exportPath = linked.getPath();
+                } else {
+                    try (InputStream data = Files.newInputStream(source.getPath())) {
+                        exportPath = saveExportFile(data, exportId, exportFormat);
+                    }
+                }
+            } else {
+                byte[] rendered = renderExport(transformationId, exportFormat, quality, width, height, token);
+                token.throwIfCancelled();
+                exportPath = saveExportFile(new ByteArrayInputStream(rendered), exportId, exportFormat);
+            }
+
+            // 创建导出结果
+            ExportResult result = new ExportResult(
+                    exportId,
+                    transformationId,
+                    "completed",
+                    "/api/v1/exports/" + exportId + "/download",
+                    exportFormat,
+                    quality != null ? quality : "high",
+                    width != null ? width : 800,
+                    height != null ? height : 600,
+                    Files.size(exportPath),
+                    System.currentTimeMillis(),
+                    null
+            );
+
+            result.setCompletedAt(System.currentTimeMillis());
+            result.setExpiresAt(System.currentTimeMillis() + exportTtl.toMillis()); // 过期后由回收任务删除
+            return result;
+        } catch (IOException e) {
+            throw new RuntimeException("导出图片失败: " + e.getMessage(), e);
+        }
     }
 
     /**
-     * 获取导出结果
-     * @param exportId 导出ID
-     * @return 导出结果
+     * 按导出参数缩放并重新编码结果图片，像素来自解码缓存
      */
-    public ExportResult getExportResult(String exportId) {
-        return exportResults.get(exportId);
+    private byte[] renderExport(String transformationId, String format, String quality,
+                                Integer width, Integer height, CancellationToken token) throws IOException {
+        try (DecodedImage image = openDecodedImage(ImageIndex.Kind.RESULT, transformationId)) {
+            token.throwIfCancelled();
+            Mat source = image.getMat();
+            Mat scaled = ImageResizer.fitWithin(source,
+                    width != null ? width : source.cols(), height != null ? height : source.rows());
+            try {
+                token.throwIfCancelled();
+                return ImageCodec.encode(scaled, format, qualityOf(quality));
+            } finally {
+                if (scaled != source) {
+                    scaled.release();
+                }
+            }
+        }
+    }
+
+    private static int qualityOf(String quality) {
+        if ("low".equalsIgnoreCase(quality)) {
+            return 70;
+        }
+        if ("medium".equalsIgnoreCase(quality)) {
+            return 85;
+        }
+        return 95;
     }
-}
\ No newline at end of file
+}
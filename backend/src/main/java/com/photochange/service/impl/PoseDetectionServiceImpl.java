@@ -1,78 +1,55 @@
 package com.photochange.service.impl;
 
-import com.photochange.model.Keypoint;
+import com.photochange.imaging.DecodedImage;
+import com.photochange.job.CancellationToken;
+import com.photochange.job.JobQueue;
+import com.photochange.job.JobQueueFullException;
+import com.photochange.job.JobStore;
+import com.photochange.model.Joint;
 import com.photochange.model.PoseDetectionRequest;
 import com.photochange.model.PoseDetectionResponse;
 import com.photochange.model.PoseDetectionResult;
+import com.photochange.model.Skeleton;
 import com.photochange.service.ImageStorageService;
 import com.photochange.service.PoseDetectionService;
+import com.photochange.storage.ImageIndex;
+import com.photochange.storage.StoredObjectDeletedEvent;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
-import java.io.InputStream;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 姿势检测服务实现类
+ * 检测任务在专用的有界队列中执行，提交请求立即返回
  */
 @Service
 public class PoseDetectionServiceImpl implements PoseDetectionService {
 
     private static final Logger logger = LoggerFactory.getLogger(PoseDetectionServiceImpl.class);
 
-    private final Map<String, PoseDetectionResult> detectionResults = new ConcurrentHashMap<>();
     private final Map<String, CompletableFuture<PoseDetectionResult>> runningTasks = new ConcurrentHashMap<>();
 
     @Autowired
-    private ImageStorageService imageStorageService;
-
-    @Override
-    public PoseDetectionResponse detectPoseAsync(String imageId, String userId) {
-        logger.info("开始异步姿势检测，图片ID: {}, 用户ID: {}", imageId, userId);
-
-        // 验证图片是否存在
-        if (!imageStorageService.imageExists(imageId)) {
-            logger.error("图片不存在，图片ID: {}", imageId);
-            throw new IllegalArgumentException("图片不存在");
-        }
-
-        // 生成检测任务ID
-        String detectionId = UUID.randomUUID().toString();
+    private JobStore<PoseDetectionResult> detectionResults;
 
-        // 创建初始检测结果
-        PoseDetectionResult initialResult = new PoseDetectionResult(
-                detectionId,
-                imageId,
-                "processing",
-                null,
-                null,
-                null,
-                Instant.now().toEpochMilli(),
-                null
-        );
-        detectionResults.put(detectionId, initialResult);
+    @Autowired
+    private ImageStorageService imageStorageService;
 
-        // 异步处理检测任务
-        CompletableFuture<PoseDetectionResult> future = processPoseDetection(imageId, detectionId);
-        runningTasks.put(detectionId, future);
+    @Autowired
+    @Qualifier("detectionJobs")
+    private JobQueue detectionJobs;
 
-        // 返回响应
-        return new PoseDetectionResponse(
-                detectionId,
-                imageId,
-                "processing",
-                "姿势检测任务已创建，正在处理中",
-                5 // 预估处理时间（秒）
-        );
-    }
-    
     @Override
     public PoseDetectionResponse detectPose(PoseDetectionRequest request) {
         logger.info("开始姿势检测，图片ID: {}", request.getImageId());
@@ -99,9 +76,13 @@ public class PoseDetectionServiceImpl implements PoseDetectionService {
         );
         detectionResults.put(detectionId, initialResult);
 
-        // 异步处理检测任务
-        CompletableFuture<PoseDetectionResult> future = processPoseDetection(request.getImageId(), detectionId);
-        runningTasks.put(detectionId, future);
+        // 提交到检测队列，队列已满时不保留任务记录
+        try {
+            submit(request.getImageId(), detectionId);
+        } catch (JobQueueFullException e) {
+            detectionResults.remove(detectionId);
+            throw e;
+        }
 
         // 返回响应
         return new PoseDetectionResponse(
@@ -123,55 +104,57 @@ public class PoseDetectionServiceImpl implements PoseDetectionService {
         return result;
     }
 
+    /**
+     * 把检测任务提交到检测队列并登记，任务结束后自动注销
+     */
+    private void submit(String imageId, String detectionId) {
+        CompletableFuture<PoseDetectionResult> future = detectionJobs.submit(
+                token -> processPoseDetection(imageId, detectionId, token));
+        runningTasks.put(detectionId, future);
+        future.whenComplete((result, error) -> runningTasks.remove(detectionId, future));
+    }
+
     @Override
-    @Async
-    public CompletableFuture<PoseDetectionResult> processPoseDetection(String imageId, String detectionId) {
+    public PoseDetectionResult processPoseDetection(String imageId, String detectionId, CancellationToken token) {
         logger.info("开始处理姿势检测任务，图片ID: {}, 检测ID: {}", imageId, detectionId);
 
         try {
-            // 获取图片数据
-            InputStream imageData = imageStorageService.getImageData(imageId);
-            if (imageData == null) {
-                throw new IllegalArgumentException("无法获取图片数据");
+            // 获取解码后的图片（与变换、导出阶段共享同一份像素数据）
+            Skeleton keypoints;
+            Map<String, List<List<Float>>> segments;
+            try (DecodedImage image = imageStorageService.openDecodedImage(ImageIndex.Kind.UPLOAD, imageId)) {
+                token.throwIfCancelled();
+                // TODO: 调用MediaPipe或其他姿态估计库进行人体姿势检测
+                // 这里使用模拟数据进行演示
+                keypoints = simulatePoseDetection(image.getWidth(), image.getHeight());
+                token.throwIfCancelled();
+                segments = simulateSegmentation(image.getWidth(), image.getHeight());
             }
 
-            // 获取图片元数据
-            ImageStorageService.ImageMetadata metadata = imageStorageService.getImageMetadata(imageId);
-
-            // TODO: 调用MediaPipe或其他姿态估计库进行人体姿势检测
-            // 这里使用模拟数据进行演示
-            List<Keypoint> keypoints = simulatePoseDetection(metadata.getWidth(), metadata.getHeight());
-            Map<String, List<List<Float>>> segments = simulateSegmentation(metadata.getWidth(), metadata.getHeight());
-
-            // 更新检测结果
-            PoseDetectionResult result = detectionResults.get(detectionId);
-            result.setKeypoints(keypoints);
-            result.setSegments(segments);
-            result.setStatus("completed");
-            result.setConfidence(0.95f);
-            result.setCompletedAt(Instant.now().toEpochMilli());
-
-            detectionResults.put(detectionId, result);
+            // 任务已被取消时不再覆盖状态
+            PoseDetectionResult result = detectionResults.update(detectionId, current -> isCurrent(current, token),
+                    updated -> {
+                        updated.setKeypoints(keypoints);
+                        updated.setSegments(segments);
+                        updated.setStatus("completed");
+                        updated.setConfidence(0.95f);
+                        updated.setCompletedAt(Instant.now().toEpochMilli());
+                    });
             logger.info("姿势检测任务完成，检测ID: {}", detectionId);
+            return result;
 
-            return CompletableFuture.completedFuture(result);
-
+        } catch (CancellationException e) {
+            logger.info("姿势检测任务已取消，检测ID: {}", detectionId);
+            return detectionResults.get(detectionId);
         } catch (Exception e) {
             logger.error("姿势检测任务失败，检测ID: {}, 错误: {}", detectionId, e.getMessage(), e);
 
             // 更新检测结果为失败状态
-            PoseDetectionResult result = detectionResults.get(detectionId);
-            result.setStatus("failed");
-            result.setError(e.getMessage());
-            result.setCompletedAt(Instant.now().toEpochMilli());
-
-            detectionResults.put(detectionId, result);
-
-            CompletableFuture<PoseDetectionResult> future = new CompletableFuture<>();
-            future.completeExceptionally(e);
-            return future;
-        } finally {
-            runningTasks.remove(detectionId);
+            return detectionResults.update(detectionId, current -> isCurrent(current, token), updated -> {
+                updated.setStatus("failed");
+                updated.setError(e.getMessage());
+                updated.setCompletedAt(Instant.now().toEpochMilli());
+            });
         }
     }
 
@@ -181,17 +164,13 @@ public class PoseDetectionServiceImpl implements PoseDetectionService {
 
         CompletableFuture<PoseDetectionResult> future = runningTasks.get(detectionId);
         if (future != null && !future.isDone()) {
+            // 先标记为已取消，执行中的任务结束时不会再覆盖状态
+            detectionResults.update(detectionId, PoseDetectionServiceImpl::isProcessing, updated -> {
+                updated.setStatus("cancelled");
+                updated.setCompletedAt(Instant.now().toEpochMilli());
+            });
             future.cancel(true);
             runningTasks.remove(detectionId);
-
-            // 更新检测结果状态
-            PoseDetectionResult result = detectionResults.get(detectionId);
-            if (result != null) {
-                result.setStatus("cancelled");
-                result.setCompletedAt(Instant.now().toEpochMilli());
-                detectionResults.put(detectionId, result);
-            }
-
             return true;
         }
 
@@ -211,29 +190,29 @@ public class PoseDetectionServiceImpl implements PoseDetectionService {
      * 模拟姿势检测，生成关键点数据
      * 实际项目中应替换为真实的姿态估计算法
      */
-    private List<Keypoint> simulatePoseDetection(int width, int height) {
-        List<Keypoint> keypoints = new ArrayList<>();
+    private Skeleton simulatePoseDetection(int width, int height) {
+        Skeleton.Builder keypoints = Skeleton.builder();
 
         // 模拟人体关键点（实际项目中应使用MediaPipe等库进行真实检测）
-        keypoints.add(new Keypoint("nose", width * 0.5f, height * 0.2f, 0.98f));
-        keypoints.add(new Keypoint("left_eye", width * 0.45f, height * 0.18f, 0.96f));
-        keypoints.add(new Keypoint("right_eye", width * 0.55f, height * 0.18f, 0.97f));
-        keypoints.add(new Keypoint("left_ear", width * 0.4f, height * 0.2f, 0.9f));
-        keypoints.add(new Keypoint("right_ear", width * 0.6f, height * 0.2f, 0.91f));
-        keypoints.add(new Keypoint("left_shoulder", width * 0.35f, height * 0.3f, 0.94f));
-        keypoints.add(new Keypoint("right_shoulder", width * 0.65f, height * 0.3f, 0.95f));
-        keypoints.add(new Keypoint("left_elbow", width * 0.3f, height * 0.45f, 0.92f));
-        keypoints.add(new Keypoint("right_elbow", width * 0.7f, height * 0.45f, 0.93f));
-        keypoints.add(new Keypoint("left_wrist", width * 0.25f, height * 0.6f, 0.9f));
-        keypoints.add(new Keypoint("right_wrist", width * 0.75f, height * 0.6f, 0.91f));
-        keypoints.add(new Keypoint("left_hip", width * 0.4f, height * 0.6f, 0.95f));
-        keypoints.add(new Keypoint("right_hip", width * 0.6f, height * 0.6f, 0.96f));
-        keypoints.add(new Keypoint("left_knee", width * 0.4f, height * 0.75f, 0.94f));
-        keypoints.add(new Keypoint("right_knee", width * 0.6f, height * 0.75f, 0.93f));
-        keypoints.add(new Keypoint("left_ankle", width * 0.4f, height * 0.9f, 0.91f));
-        keypoints.add(new Keypoint("right_ankle", width * 0.6f, height * 0.9f, 0.92f));
-
-        return keypoints;
+        keypoints.set(Joint.NOSE, width * 0.5f, height * 0.2f, 0.98f);
+        keypoints.set(Joint.LEFT_EYE, width * 0.45f, height * 0.18f, 0.96f);
+        keypoints.set(Joint.RIGHT_EYE, width * 0.55f, height * 0.18f, 0.97f);
+        keypoints.set(Joint.LEFT_EAR, width * 0.4f, height * 0.2f, 0.9f);
+        keypoints.set(Joint.RIGHT_EAR, width * 0.6f, height * 0.2f, 0.91f);
+        keypoints.set(Joint.LEFT_SHOULDER, width * 0.35f, height * 0.3f, 0.94f);
+        keypoints.set(Joint.RIGHT_SHOULDER, width * 0.65f, height * 0.3f, 0.95f);
+        keypoints.set(Joint.LEFT_ELBOW, width * 0.3f, height * 0.45f, 0.92f);
+        keypoints.set(Joint.RIGHT_ELBOW, width * 0.7f, height * 0.45f, 0.93f);
+        keypoints.set(Joint.LEFT_WRIST, width * 0.25f, height * 0.6f, 0.9f);
+        keypoints.set(Joint.RIGHT_WRIST, width * 0.75f, height * 0.6f, 0.91f);
+        keypoints.set(Joint.LEFT_HIP, width * 0.4f, height * 0.6f, 0.95f);
+        keypoints.set(Joint.RIGHT_HIP, width * 0.6f, height * 0.6f, 0.96f);
+        keypoints.set(Joint.LEFT_KNEE, width * 0.4f, height * 0.75f, 0.94f);
+        keypoints.set(Joint.RIGHT_KNEE, width * 0.6f, height * 0.75f, 0.93f);
+        keypoints.set(Joint.LEFT_ANKLE, width * 0.4f, height * 0.9f, 0.91f);
+        keypoints.set(Joint.RIGHT_ANKLE, width * 0.6f, height * 0.9f, 0.92f);
+
+        return keypoints.build();
     }
 
     /**
@@ -261,4 +240,48 @@ public class PoseDetectionServiceImpl implements PoseDetectionService {
 
         return segments;
     }
-}
\ No newline at end of file
+
+    /**
+     * 上传图片被删除后移除对应的检测结果
+     */
+    @EventListener
+    public void onStoredObjectDeleted(StoredObjectDeletedEvent event) {
+        if (event.getKind() == ImageIndex.Kind.UPLOAD) {
+            detectionResults.removeIf(result -> event.getId().equals(result.getImageId()));
+        }
+    }
+
+    /**
+     * 启动后重新提交上次停机时未完成的任务（状态从日志恢复），队列已满时标记为失败
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterruptedDetections() {
+        Map<String, PoseDetectionResult> interrupted = detectionResults.snapshots(PoseDetectionServiceImpl::isProcessing);
+        for (Map.Entry<String, PoseDetectionResult> entry : interrupted.entrySet()) {
+            String detectionId = entry.getKey();
+            try {
+                submit(entry.getValue().getImageId(), detectionId);
+            } catch (JobQueueFullException e) {
+                detectionResults.update(detectionId, PoseDetectionServiceImpl::isProcessing, updated -> {
+                    updated.setStatus("failed");
+                    updated.setError(e.getMessage());
+                    updated.setCompletedAt(Instant.now().toEpochMilli());
+                });
+            }
+        }
+        if (!interrupted.isEmpty()) {
+            logger.info("重新提交未完成的姿势检测任务: {}个", interrupted.size());
+        }
+    }
+
+    private static boolean isProcessing(PoseDetectionResult result) {
+        return "processing".equals(result.getStatus());
+    }
+
+    /**
+     * 工作线程只更新仍在处理、且没有被取消的任务
+     */
+    private static boolean isCurrent(PoseDetectionResult result, CancellationToken token) {
+        return isProcessing(result) && !token.isCancelled();
+    }
+}
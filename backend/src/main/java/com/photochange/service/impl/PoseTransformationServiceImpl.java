@@ -1,8 +1,14 @@
 package com.photochange.service.impl;
 
-import com.photochange.model.Keypoint;
+import com.photochange.imaging.DecodedImage;
+import com.photochange.imaging.ImageCodec;
+import com.photochange.job.CancellationToken;
+import com.photochange.job.JobQueue;
+import com.photochange.job.JobQueueFullException;
+import com.photochange.job.JobStore;
 import com.photochange.model.PoseDetectionResult;
 import com.photochange.model.PoseTemplate;
+import com.photochange.model.Skeleton;
 import com.photochange.model.TransformationRequest;
 import com.photochange.model.TransformationResponse;
 import com.photochange.model.TransformationResult;
@@ -10,33 +16,48 @@ import com.photochange.service.ImageStorageService;
 import com.photochange.service.PoseDetectionService;
 import com.photochange.service.PoseTransformationService;
 import com.photochange.service.TemplateService;
+import com.photochange.storage.ImageIndex;
+import com.photochange.storage.StoredObjectDeletedEvent;
+import com.photochange.template.TemplateRig;
 
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import java.io.IOException;
 import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map;
 
 /**
  * 姿势变换服务实现类
+ * 变换任务在专用的有界队列中执行，提交请求立即返回
  */
 @Service
 public class PoseTransformationServiceImpl implements PoseTransformationService {
 
     private static final Logger logger = LoggerFactory.getLogger(PoseTransformationServiceImpl.class);
 
-    private final Map<String, TransformationResult> transformationResults = new ConcurrentHashMap<>();
+    // 模拟变换的网格间距、求解迭代次数和重映射分块边长（像素）
+    private static final int MESH_STEP = 32;
+    private static final int SOLVER_ITERATIONS = 10;
+    private static final int REMAP_TILE = 256;
+
     private final Map<String, CompletableFuture<TransformationResult>> runningTasks = new ConcurrentHashMap<>();
 
+    @Autowired
+    private JobStore<TransformationResult> transformationResults;
+
     @Autowired
     private PoseDetectionService poseDetectionService;
 
@@ -46,62 +67,10 @@ public class PoseTransformationServiceImpl implements PoseTransformationService
     @Autowired
     private ImageStorageService imageStorageService;
 
-    @Override
-    public TransformationResponse createTransformationAsync(String imageId, String templateId, List<Keypoint> customKeypoints) {
-        logger.info("创建异步姿势变换任务，图片ID: {}, 模板ID: {}", imageId, templateId);
-
-        // 验证图片是否存在
-        if (!imageStorageService.imageExists(imageId)) {
-            logger.error("图片不存在，图片ID: {}", imageId);
-            throw new IllegalArgumentException("图片不存在");
-        }
-
-        // 验证模板是否存在
-        PoseTemplate template = templateService.getTemplateById(templateId);
-        if (template == null) {
-            logger.error("模板不存在，模板ID: {}", templateId);
-            throw new IllegalArgumentException("模板不存在");
-        }
-
-        // 生成变换任务ID
-        String transformationId = UUID.randomUUID().toString();
-
-        // 创建初始变换结果
-        TransformationResult initialResult = new TransformationResult(
-                transformationId,
-                imageId,
-                templateId,
-                "processing",
-                null,
-                null,
-                null,
-                null,
-                null
-        );
-        initialResult.setCreatedAt(Instant.now().toEpochMilli());
-        transformationResults.put(transformationId, initialResult);
-
-        // 异步处理变换任务
-        CompletableFuture<TransformationResult> future = processTransformation(
-                imageId,
-                templateId,
-                customKeypoints,
-                transformationId
-        );
-        runningTasks.put(transformationId, future);
+    @Autowired
+    @Qualifier("transformationJobs")
+    private JobQueue transformationJobs;
 
-        // 返回响应
-        return new TransformationResponse(
-                transformationId,
-                imageId,
-                templateId,
-                "processing",
-                "姿势变换任务已创建，正在处理中",
-                10, // 预估处理时间（秒）
-                Instant.now().toEpochMilli()
-        );
-    }
-    
     @Override
     public TransformationResponse createTransformation(TransformationRequest request) {
         logger.info("创建姿势变换任务，图片ID: {}, 模板ID: {}", request.getImageId(), request.getTemplateId());
@@ -134,17 +103,17 @@ public class PoseTransformationServiceImpl implements PoseTransformationService
                 null,
                 null
         );
+        initialResult.setCustomKeypoints(request.getCustomKeypoints());
         initialResult.setCreatedAt(Instant.now().toEpochMilli());
         transformationResults.put(transformationId, initialResult);
 
-        // 异步处理变换任务
-        CompletableFuture<TransformationResult> future = processTransformation(
-                request.getImageId(),
-                request.getTemplateId(),
-                request.getCustomKeypoints(),
-                transformationId
-        );
-        runningTasks.put(transformationId, future);
+        // 提交到变换队列，队列已满时不保留任务记录
+        try {
+            submit(request.getImageId(), request.getTemplateId(), request.getCustomKeypoints(), transformationId);
+        } catch (JobQueueFullException e) {
+            transformationResults.remove(transformationId);
+            throw e;
+        }
 
         // 返回响应
         return new TransformationResponse(
@@ -168,30 +137,30 @@ public class PoseTransformationServiceImpl implements PoseTransformationService
         return result;
     }
 
+    /**
+     * 把变换任务提交到变换队列并登记，任务结束后自动注销
+     */
+    private void submit(String imageId, String templateId, Skeleton customKeypoints, String transformationId) {
+        CompletableFuture<TransformationResult> future = transformationJobs.submit(
+                token -> processTransformation(imageId, templateId, customKeypoints, transformationId, token));
+        runningTasks.put(transformationId, future);
+        future.whenComplete((result, error) -> runningTasks.remove(transformationId, future));
+    }
+
     @Override
-    @Async
-    public CompletableFuture<TransformationResult> processTransformation(String imageId, String templateId,
-                                                                      List<Keypoint> customKeypoints, String transformationId) {
+    public TransformationResult processTransformation(String imageId, String templateId, Skeleton customKeypoints,
+                                                      String transformationId, CancellationToken token) {
         logger.info("开始处理姿势变换任务，图片ID: {}, 模板ID: {}, 变换ID: {}", imageId, templateId, transformationId);
 
         try {
-            // 获取图片数据
-            InputStream imageData = imageStorageService.getImageData(imageId);
-            if (imageData == null) {
-                throw new IllegalArgumentException("无法获取图片数据");
-            }
-
-            // 获取图片元数据
-            ImageStorageService.ImageMetadata metadata = imageStorageService.getImageMetadata(imageId);
-
             // 获取模板数据
-            PoseTemplate template = templateService.getTemplateById(templateId);
-            if (template == null) {
+            TemplateRig rig = templateService.getTemplateRig(templateId);
+            if (rig == null) {
                 throw new IllegalArgumentException("无法获取模板数据");
             }
 
             // 如果没有提供自定义关键点，则需要先进行姿势检测
-            List<Keypoint> sourceKeypoints = customKeypoints;
+            Skeleton sourceKeypoints = customKeypoints;
             if (sourceKeypoints == null || sourceKeypoints.isEmpty()) {
                 // 获取姿势检测结果
                 PoseDetectionResult detectionResult = null;
@@ -203,58 +172,73 @@ public class PoseTransformationServiceImpl implements PoseTransformationService
                 sourceKeypoints = detectionResult.getKeypoints();
             }
 
-            // 获取目标关键点
-            List<Keypoint> targetKeypoints = template.getKeypoints();
-
-            // TODO: 调用姿势变换算法（如ARAP）进行图像变换
-            // 这里使用模拟数据进行演示
-            byte[] resultImageData = simulatePoseTransformation(imageData, sourceKeypoints, targetKeypoints, metadata);
+            // 获取解码后的图片（检测阶段已解码时直接复用），变换完成后立即释放句柄
+            byte[] resultImageData;
+            int width;
+            int height;
+            try (DecodedImage image = imageStorageService.openDecodedImage(ImageIndex.Kind.UPLOAD, imageId)) {
+                token.throwIfCancelled();
+                width = image.getWidth();
+                height = image.getHeight();
+                // 模板侧的重定向数据已预先计算，这里只需按源骨架放置
+                Skeleton targetKeypoints = rig.placeOnto(sourceKeypoints);
+                if (targetKeypoints == null) {
+                    targetKeypoints = rig.toPixels(width, height);
+                }
+                // TODO: 调用姿势变换算法（如ARAP）进行图像变换
+                // 这里使用模拟数据进行演示
+                resultImageData = simulatePoseTransformation(image.getMat(), sourceKeypoints, targetKeypoints, token);
+            }
 
-            // 保存结果图片
+            // 保存结果图片：取消检查与写入原子完成，被取消的旧任务不能覆盖重新提交后的结果图片
             String resultUrl = imageStorageService.saveResultImage(
-                    new ByteArrayInputStream(resultImageData),
+                    resultImageData,
                     transformationId,
-                    metadata.getContentType()
+                    "image/jpeg",
+                    token
             );
 
             // 生成缩略图
             String thumbnailUrl = imageStorageService.generateThumbnail(transformationId, 300, 300);
 
-            // 更新变换结果
-            TransformationResult result = transformationResults.get(transformationId);
-            result.setResultUrl(resultUrl);
-            result.setThumbnailUrl(thumbnailUrl);
-            result.setWidth(metadata.getWidth());
-            result.setHeight(metadata.getHeight());
-            result.setStatus("completed");
-            result.setCompletedAt(Instant.now().toEpochMilli());
-
-            transformationResults.put(transformationId, result);
-            logger.info("姿势变换任务完成，变换ID: {}", transformationId);
+            // 结果图片落盘后才标记完成，否则停机后日志里是已完成、磁盘上却没有图片（写入失败时任务失败）
+            imageStorageService.awaitResultPersisted(transformationId);
+
+            // 更新变换结果（任务已被取消时不再覆盖状态）
+            TransformationResult result = transformationResults.update(transformationId,
+                    current -> isCurrent(current, token), updated -> {
+                        updated.setResultUrl(resultUrl);
+                        updated.setThumbnailUrl(thumbnailUrl);
+                        updated.setWidth(width);
+                        updated.setHeight(height);
+                        updated.setStatus("completed");
+                        updated.setCompletedAt(Instant.now().toEpochMilli());
+                    });
+            if (result != null && "completed".equals(result.getStatus())) {
+                templateService.recordTemplateUsage(templateId);
+                logger.info("姿势变换任务完成，变换ID: {}", transformationId);
+            }
 
-            return CompletableFuture.completedFuture(result);
+            return result;
 
+        } catch (CancellationException e) {
+            logger.info("姿势变换任务已取消，变换ID: {}", transformationId);
+            return transformationResults.get(transformationId);
         } catch (Exception e) {
             logger.error("姿势变换任务失败，变换ID: {}, 错误: {}", transformationId, e.getMessage(), e);
 
-            // 更新变换结果为失败状态
-            TransformationResult result = transformationResults.get(transformationId);
-            result.setStatus("failed");
-            result.setError(e.getMessage());
-            result.setCompletedAt(Instant.now().toEpochMilli());
-
-            transformationResults.put(transformationId, result);
-
-            CompletableFuture<TransformationResult> future = new CompletableFuture<>();
-            future.completeExceptionally(e);
-            return future;
-        } finally {
-            runningTasks.remove(transformationId);
+            // 更新变换结果为失败状态（已取消的任务保持取消状态）
+            return transformationResults.update(transformationId, current -> isCurrent(current, token),
+                    updated -> {
+                        updated.setStatus("failed");
+                        updated.setError(e.getMessage());
+                        updated.setCompletedAt(Instant.now().toEpochMilli());
+                    });
         }
     }
 
     @Override
-    public TransformationResponse updateTransformation(String transformationId, List<Keypoint> customKeypoints) {
+    public TransformationResponse updateTransformation(String transformationId, Skeleton customKeypoints) {
         logger.info("更新姿势变换任务，变换ID: {}", transformationId);
 
         // 检查变换任务是否存在
@@ -275,18 +259,24 @@ public class PoseTransformationServiceImpl implements PoseTransformationService
         cancelTransformation(transformationId);
 
         // 重置任务状态
-        existingResult.setStatus("processing");
-        existingResult.setError(null);
-        transformationResults.put(transformationId, existingResult);
-
-        // 重新启动变换任务
-        CompletableFuture<TransformationResult> future = processTransformation(
-                existingResult.getImageId(),
-                existingResult.getTemplateId(),
-                customKeypoints,
-                transformationId
-        );
-        runningTasks.put(transformationId, future);
+        transformationResults.update(transformationId, updated -> {
+            updated.setCustomKeypoints(customKeypoints);
+            updated.setStatus("processing");
+            updated.setError(null);
+            updated.setCompletedAt(null);
+        });
+
+        // 重新提交变换任务，队列已满时任务标记为失败
+        try {
+            submit(existingResult.getImageId(), existingResult.getTemplateId(), customKeypoints, transformationId);
+        } catch (JobQueueFullException e) {
+            transformationResults.update(transformationId, updated -> {
+                updated.setStatus("failed");
+                updated.setError(e.getMessage());
+                updated.setCompletedAt(Instant.now().toEpochMilli());
+            });
+            throw e;
+        }
 
         // 返回响应
         return new TransformationResponse(
@@ -306,17 +296,13 @@ public class PoseTransformationServiceImpl implements PoseTransformationService
 
         CompletableFuture<TransformationResult> future = runningTasks.get(transformationId);
         if (future != null && !future.isDone()) {
+            // 先标记为已取消，执行中的任务结束时不会再覆盖状态
+            transformationResults.update(transformationId, PoseTransformationServiceImpl::isProcessing, updated -> {
+                updated.setStatus("cancelled");
+                updated.setCompletedAt(Instant.now().toEpochMilli());
+            });
             future.cancel(true);
             runningTasks.remove(transformationId);
-
-            // 更新变换结果状态
-            TransformationResult result = transformationResults.get(transformationId);
-            if (result != null) {
-                result.setStatus("cancelled");
-                result.setCompletedAt(Instant.now().toEpochMilli());
-                transformationResults.put(transformationId, result);
-            }
-
             return true;
         }
 
@@ -334,15 +320,93 @@ public class PoseTransformationServiceImpl implements PoseTransformationService
 
     /**
      * 模拟姿势变换，生成结果图片数据
-     * 实际项目中应替换为真实的姿势变换算法（如ARAP）
+     * 按真实算法（如ARAP）的阶段执行：建网格、迭代求解、分块重映射，每个阶段的检查点响应取消；
+     * 模拟求解不移动网格顶点，重映射结果与源图相同
+     */
+    private byte[] simulatePoseTransformation(Mat sourceImage, Skeleton sourceKeypoints,
+                                             Skeleton targetKeypoints, CancellationToken token) throws IOException {
+        int width = sourceImage.cols();
+        int height = sourceImage.rows();
+
+        // 建网格：按固定间距铺设顶点
+        int columns = (width + MESH_STEP - 1) / MESH_STEP + 1;
+        int rows = (height + MESH_STEP - 1) / MESH_STEP + 1;
+        logger.debug("模拟变换网格: {}x{}个顶点, 关键点: {} -> {}", columns, rows,
+                sourceKeypoints.size(), targetKeypoints.size());
+        token.throwIfCancelled();
+
+        // 迭代求解：真实算法在每轮中按源、目标关键点约束更新顶点，收敛后提前结束
+        for (int iteration = 0; iteration < SOLVER_ITERATIONS; iteration++) {
+            token.throwIfCancelled();
+        }
+
+        // 分块重映射：每块处理完检查一次，取消时尽快释放结果图
+        Mat result = new Mat(height, width, sourceImage.type());
+        try {
+            for (int y = 0; y < height; y += REMAP_TILE) {
+                for (int x = 0; x < width; x += REMAP_TILE) {
+                    Rect tile = new Rect(x, y, Math.min(REMAP_TILE, width - x), Math.min(REMAP_TILE, height - y));
+                    Mat from = sourceImage.submat(tile);
+                    Mat to = result.submat(tile);
+                    try {
+                        from.copyTo(to);
+                    } finally {
+                        from.release();
+                        to.release();
+                    }
+                    token.throwIfCancelled();
+                }
+            }
+            return ImageCodec.encode(result, "jpg", 90);
+        } finally {
+            result.release();
+        }
+    }
+
+    /**
+     * 结果图片被删除后移除对应的变换结果
+     */
+    @EventListener
+    public void onStoredObjectDeleted(StoredObjectDeletedEvent event) {
+        if (event.getKind() == ImageIndex.Kind.RESULT) {
+            transformationResults.remove(event.getId());
+        }
+    }
+
+    /**
+     * 启动后重新提交上次停机时未完成的任务（状态从日志恢复），队列已满时标记为失败
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterruptedTransformations() {
+        Map<String, TransformationResult> interrupted =
+                transformationResults.snapshots(PoseTransformationServiceImpl::isProcessing);
+        for (Map.Entry<String, TransformationResult> entry : interrupted.entrySet()) {
+            String transformationId = entry.getKey();
+            TransformationResult result = entry.getValue();
+            try {
+                submit(result.getImageId(), result.getTemplateId(), result.getCustomKeypoints(), transformationId);
+            } catch (JobQueueFullException e) {
+                transformationResults.update(transformationId, PoseTransformationServiceImpl::isProcessing, updated -> {
+                    updated.setStatus("failed");
+                    updated.setError(e.getMessage());
+                    updated.setCompletedAt(Instant.now().toEpochMilli());
+                });
+            }
+        }
+        if (!interrupted.isEmpty()) {
+            logger.info("重新提交未完成的姿势变换任务: {}个", interrupted.size());
+        }
+    }
+
+    private static boolean isProcessing(TransformationResult result) {
+        return "processing".equals(result.getStatus());
+    }
+
+    /**
+     * 工作线程只更新仍在处理、且没有被取消的任务；
+     * 重新提交时旧任务的令牌已被取消，不会覆盖新任务的状态
      */
-    private byte[] simulatePoseTransformation(InputStream sourceImage, List<Keypoint> sourceKeypoints,
-                                             List<Keypoint> targetKeypoints, ImageStorageService.ImageMetadata metadata) {
-        // 模拟姿势变换过程
-        // 实际项目中应使用ARAP或其他变换算法实现
-        // 这里简单返回一个模拟的图片数据
-        byte[] resultData = new byte[1024]; // 模拟数据
-        // TODO: 实现真实的姿势变换算法
-        return resultData;
+    private static boolean isCurrent(TransformationResult result, CancellationToken token) {
+        return isProcessing(result) && !token.isCancelled();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,313 @@
+package com.photochange.service.impl;
+
+import com.photochange.job.JobStore;
+import com.photochange.model.ExportResult;
+import com.photochange.model.PoseDetectionResult;
+import com.photochange.model.TransformationResult;
+import com.photochange.service.DerivativeService;
+import com.photochange.service.ImageStorageService;
+import com.photochange.service.RetentionService;
+import com.photochange.storage.ImageIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 存储回收服务实现类
+ * 后台定时执行：先按各类别的保留期限删除过期文件，再检查存储所在磁盘的使用率，
+ * 超过高水位时先清空派生图片缓存，仍不够再按最近访问时间从旧到新分批淘汰，
+ * 每批之后重新读取磁盘使用率，降到低水位以下或一批未释放任何空间时停止。
+ * 排队或执行中的任务仍在使用的文件不会被删除。
+ * 删除操作按每秒上限限速，避免回收时产生I/O尖峰。
+ */
+@Service
+public class RetentionServiceImpl implements RetentionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetentionServiceImpl.class);
+
+    private static final String REASON_TTL = "ttl";
+    private static final String REASON_WATERMARK = "watermark";
+
+    // 排队中的任务状态同样是processing
+    private static final String PROCESSING = "processing";
+
+    @Autowired
+    private ImageStorageService imageStorageService;
+
+    @Autowired
+    private DerivativeService derivativeService;
+
+    @Autowired
+    private JobStore<PoseDetectionResult> detectionResults;
+
+    @Autowired
+    private JobStore<TransformationResult> transformationResults;
+
+    @Autowired
+    private JobStore<ExportResult> exportResults;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.image.storage.path}")
+    private String storageLocation;
+
+    @Value("${app.retention.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.retention.upload-ttl:7d}")
+    private Duration uploadTtl;
+
+    @Value("${app.retention.result-ttl:7d}")
+    private Duration resultTtl;
+
+    @Value("${app.retention.export-ttl:24h}")
+    private Duration exportTtl;
+
+    @Value("${app.retention.disk.high-watermark:0.90}")
+    private double highWatermark;
+
+    @Value("${app.retention.disk.low-watermark:0.80}")
+    private double lowWatermark;
+
+    @Value("${app.retention.max-deletes-per-second:20}")
+    private int maxDeletesPerSecond;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final Map<ImageIndex.Kind, Duration> ttls = new EnumMap<>(ImageIndex.Kind.class);
+
+    private long nextDeleteAt;
+
+    @PostConstruct
+    public void init() {
+        ttls.put(ImageIndex.Kind.UPLOAD, uploadTtl);
+        ttls.put(ImageIndex.Kind.RESULT, resultTtl);
+        ttls.put(ImageIndex.Kind.EXPORT, exportTtl);
+        nextDeleteAt = System.nanoTime();
+        Gauge.builder("photochange.storage.disk.usage", this, RetentionServiceImpl::diskUsageOrNaN)
+                .description("存储所在磁盘的使用率")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${app.retention.initial-delay-ms:60000}",
+            fixedDelayString = "${app.retention.interval-ms:600000}")
+    public void scheduledSweep() {
+        if (enabled) {
+            sweep();
+        }
+    }
+
+    /**
+     * 执行一轮回收
+     * @return 本轮释放的磁盘字节数
+     */
+    @Override
+    public long sweep() {
+        if (!running.compareAndSet(false, true)) {
+            logger.debug("上一轮存储回收仍在进行，跳过本轮");
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            long reclaimed = sweepExpired();
+            reclaimed += sweepOverWatermark();
+            logger.info("存储回收完成，释放: {}KB, 耗时: {}ms", reclaimed / 1024, System.currentTimeMillis() - start);
+            return reclaimed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 删除超过保留期限的文件
+     */
+    private long sweepExpired() throws InterruptedException {
+        long reclaimed = 0;
+        long now = System.currentTimeMillis();
+        for (ImageIndex.Kind kind : ImageIndex.Kind.values()) {
+            Duration ttl = ttls.get(kind);
+            if (ttl == null || ttl.isZero() || ttl.isNegative()) {
+                continue;
+            }
+            long deadline = now - ttl.toMillis();
+            Set<String> inUse = inUse(kind);
+            for (ImageIndex.Entry entry : imageStorageService.listStored(kind)) {
+                if (entry.getLastModified() < deadline && !inUse.contains(entry.getId())) {
+                    reclaimed += delete(entry, REASON_TTL);
+                }
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * 磁盘使用率超过高水位时按LRU淘汰
+     * 删除返回的字节数不含其他ID仍在引用的内容，也不含状态日志等不在索引中的数据，
+     * 因此每批之后重新读取磁盘使用率判断是否已降到低水位
+     */
+    private long sweepOverWatermark() throws InterruptedException {
+        FileStore store;
+        long total;
+        long used;
+        try {
+            store = Files.getFileStore(Paths.get(storageLocation));
+            total = store.getTotalSpace();
+            used = total - store.getUsableSpace();
+        } catch (IOException e) {
+            logger.warn("读取磁盘使用率失败: {}", e.getMessage());
+            return 0;
+        }
+        if (total <= 0 || (double) used / total < highWatermark) {
+            return 0;
+        }
+
+        long target = (long) (total * lowWatermark);
+        logger.warn("存储磁盘使用率 {}% 超过高水位，开始按LRU淘汰", used * 100 / total);
+
+        // 派生图片可以随时重新生成，先于原始文件淘汰
+        long reclaimed = derivativeService.trimCache(used - target);
+        used = usedSpace(store, used - reclaimed);
+
+        List<ImageIndex.Entry> candidates = new ArrayList<>();
+        for (ImageIndex.Kind kind : ImageIndex.Kind.values()) {
+            candidates.addAll(imageStorageService.listStored(kind));
+        }
+        candidates.sort(Comparator.comparingLong(ImageIndex.Entry::getLastAccessed));
+
+        int batchSize = Math.max(1, maxDeletesPerSecond);
+        int next = 0;
+        while (used > target && next < candidates.size()) {
+            Map<ImageIndex.Kind, Set<String>> inUse = new EnumMap<>(ImageIndex.Kind.class);
+            long before = used;
+            long freed = 0;
+            int deleted = 0;
+            while (deleted < batchSize && next < candidates.size()) {
+                ImageIndex.Entry entry = candidates.get(next++);
+                if (inUse.computeIfAbsent(entry.getKind(), this::inUse).contains(entry.getId())) {
+                    continue;
+                }
+                freed += delete(entry, REASON_WATERMARK);
+                deleted++;
+            }
+            reclaimed += freed;
+            used = usedSpace(store, used - freed);
+            if (freed == 0 && used >= before) {
+                logger.warn("本批淘汰未释放磁盘空间，停止淘汰，磁盘使用率: {}%", used * 100 / total);
+                break;
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * 重新读取磁盘已用空间，读取失败时使用估算值
+     */
+    private long usedSpace(FileStore store, long estimate) {
+        try {
+            return store.getTotalSpace() - store.getUsableSpace();
+        } catch (IOException e) {
+            logger.warn("读取磁盘使用率失败: {}", e.getMessage());
+            return estimate;
+        }
+    }
+
+    /**
+     * 排队或执行中的任务仍在使用的对象ID
+     * 检测和变换任务读取上传图片，变换任务写入自己的结果图片，导出任务读取结果图片并写入导出文件
+     */
+    private Set<String> inUse(ImageIndex.Kind kind) {
+        Set<String> ids = new HashSet<>();
+        switch (kind) {
+            case UPLOAD:
+                detectionResults.snapshots(result -> PROCESSING.equals(result.getStatus()))
+                        .values().forEach(result -> ids.add(result.getImageId()));
+                transformationResults.snapshots(result -> PROCESSING.equals(result.getStatus()))
+                        .values().forEach(result -> ids.add(result.getImageId()));
+                break;
+            case RESULT:
+                ids.addAll(transformationResults.snapshots(result -> PROCESSING.equals(result.getStatus())).keySet());
+                exportResults.snapshots(result -> PROCESSING.equals(result.getStatus()))
+                        .values().forEach(result -> ids.add(result.getTransformationId()));
+                break;
+            case EXPORT:
+                ids.addAll(exportResults.snapshots(result -> PROCESSING.equals(result.getStatus())).keySet());
+                break;
+        }
+        return ids;
+    }
+
+    private long delete(ImageIndex.Entry entry, String reason) throws InterruptedException {
+        throttle();
+        try {
+            long reclaimed = imageStorageService.deleteStored(entry.getKind(), entry.getId());
+            if (reclaimed < 0) {
+                return 0;
+            }
+            String kind = entry.getKind().name().toLowerCase();
+            Counter.builder("photochange.retention.deleted")
+                    .description("回收删除的文件数")
+                    .tag("kind", kind).tag("reason", reason)
+                    .register(meterRegistry).increment();
+            Counter.builder("photochange.retention.reclaimed.bytes")
+                    .description("回收释放的磁盘字节数")
+                    .baseUnit("bytes")
+                    .tag("kind", kind).tag("reason", reason)
+                    .register(meterRegistry).increment(reclaimed);
+            logger.debug("回收文件，类别: {}, ID: {}, 原因: {}, 释放: {}B", kind, entry.getId(), reason, reclaimed);
+            return reclaimed;
+        } catch (RuntimeException e) {
+            logger.warn("回收文件失败，类别: {}, ID: {}, 错误: {}", entry.getKind(), entry.getId(), e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * 按每秒删除上限限速
+     */
+    private void throttle() throws InterruptedException {
+        if (maxDeletesPerSecond <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long wait = nextDeleteAt - now;
+        if (wait > 0) {
+            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+        }
+        nextDeleteAt = Math.max(now, nextDeleteAt) + 1_000_000_000L / maxDeletesPerSecond;
+    }
+
+    private double diskUsageOrNaN() {
+        try {
+            FileStore store = Files.getFileStore(Paths.get(storageLocation));
+            long total = store.getTotalSpace();
+            return total > 0 ? (double) (total - store.getUsableSpace()) / total : Double.NaN;
+        } catch (IOException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package com.photochange.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.photochange.imaging.ImageCodec;
+import com.photochange.imaging.ImageResizer;
+import com.photochange.imaging.OpenCvLoader;
+import com.photochange.model.PoseTemplate;
+import com.photochange.model.TemplateAtlas;
+import com.photochange.service.ImageStorageService.StoredFile;
+import com.photochange.service.TemplateAtlasService;
+import com.photochange.storage.ImageHeader;
+import com.photochange.storage.ImageHeaderReader;
+import com.photochange.storage.UploadPipeline;
+import com.photochange.template.TemplateOrder;
+import com.photochange.template.TemplateSnapshot;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 模板图集服务实现类
+ * 模板快照变化后在后台线程中按类别重建图集：各模板素材缩小到固定大小的格子内，按网格拼成一张WebP，
+ * 同时写出记录各模板位置的JSON清单。两个文件以内容摘要命名，内容不变时URL不变，可以永久缓存。
+ * 类别的输入（模板ID及素材的文件名、大小、修改时间）未变化时直接沿用上次生成的图集。
+ * 被替换的旧版本文件保留一段时间再删除，刚拿到旧清单的客户端仍能取到对应的图片。
+ */
+@Service
+public class TemplateAtlasServiceImpl implements TemplateAtlasService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TemplateAtlasServiceImpl.class);
+
+    // WebP图片的最大边长
+    private static final int MAX_WEBP_DIMENSION = 16383;
+
+    private static final String WEBP = ".webp";
+    private static final String JSON = ".json";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${app.image.storage.path}")
+    private String storageLocation;
+
+    @Value("${app.template.atlas.cell-size:128}")
+    private int cellSize;
+
+    @Value("${app.template.atlas.quality:80}")
+    private int quality;
+
+    @Value("${app.template.atlas.retain-ms:600000}")
+    private long retainMillis;
+
+    /**
+     * 已生成的图集
+     */
+    private static final class Built {
+        final String inputs;
+        final TemplateAtlas atlas;
+        final Path image;
+        final Path manifest;
+
+        Built(String inputs, TemplateAtlas atlas, Path image, Path manifest) {
+            this.inputs = inputs;
+            this.atlas = atlas;
+            this.image = image;
+            this.manifest = manifest;
+        }
+    }
+
+    /**
+     * 重建请求
+     */
+    private static final class Request {
+        final TemplateSnapshot snapshot;
+        final Map<String, Path> assets;
+
+        Request(TemplateSnapshot snapshot, Map<String, Path> assets) {
+            this.snapshot = snapshot;
+            this.assets = assets;
+        }
+    }
+
+    private Path directory;
+
+    // 类别 -> 图集，整体替换
+    private volatile Map<String, Built> atlases = Collections.emptyMap();
+
+    // 已被替换的图集文件 -> 替换时间，保留期内仍可访问
+    private final Map<Path, Long> retired = new ConcurrentHashMap<>();
+
+    // 等待重建的快照，连续多次变化时只保留最后一次
+    private final AtomicReference<Request> pending = new AtomicReference<>();
+
+    // 重建和过期文件清理都在这个线程中进行
+    private final ScheduledExecutorService builder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "template-atlas");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 初始化图集目录（存储根目录下的隐藏目录，不进入图片索引）
+     */
+    @PostConstruct
+    public void init() {
+        directory = Paths.get(storageLocation).resolve(".atlases");
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("无法创建模板图集目录", e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        builder.shutdownNow();
+    }
+
+    /**
+     * 模板快照变化后重建图集
+     * @param snapshot 新的模板快照
+     * @param assets 模板ID -> 素材文件
+     */
+    @Override
+    public void rebuild(TemplateSnapshot snapshot, Map<String, Path> assets) {
+        if (pending.getAndSet(new Request(snapshot, assets)) == null) {
+            builder.execute(this::rebuildPending);
+        }
+    }
+
+    /**
+     * 获取当前各类别的图集
+     * @return 图集列表
+     */
+    @Override
+    public List<TemplateAtlas> getAtlases() {
+        List<TemplateAtlas> result = new ArrayList<>();
+        for (Built built : atlases.values()) {
+            result.add(built.atlas);
+        }
+        return result;
+    }
+
+    /**
+     * 获取图集文件
+     * @param fileName 文件名
+     * @return 文件描述，既不是当前图集、也不是保留期内旧图集的文件时返回null
+     */
+    @Override
+    public StoredFile getAtlasFile(String fileName) {
+        Path file = null;
+        for (Built built : atlases.values()) {
+            if (fileName.equals(built.image.getFileName().toString())) {
+                file = built.image;
+            } else if (fileName.equals(built.manifest.getFileName().toString())) {
+                file = built.manifest;
+            }
+        }
+        if (file == null) {
+            // 只接受登记过的旧文件（按路径字面比较），不会解析出图集目录以外的路径
+            Path old = directory.resolve(fileName);
+            if (retired.containsKey(old)) {
+                file = old;
+            }
+        }
+        if (file == null) {
+            return null;
+        }
+        String contentType = fileName.endsWith(WEBP) ? "image/webp" : "application/json";
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            // 文件名即版本号，图片和清单的ETag互不相同
+            return new StoredFile(file, attributes.size(), fileName, contentType,
+                    attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            logger.warn("读取模板图集文件失败，文件: {}, 错误: {}", fileName, e.getMessage());
+            return null;
+        }
+    }
+
+    private void rebuildPending() {
+        Request request = pending.getAndSet(null);
+        if (request == null) {
+            return;
+        }
+        try {
+            rebuildAll(request.snapshot, request.assets);
+        } catch (RuntimeException e) {
+            logger.error("模板图集重建失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private void rebuildAll(TemplateSnapshot snapshot, Map<String, Path> assets) {
+        long start = System.currentTimeMillis();
+        Map<String, Built> previous = atlases;
+        Map<String, Built> current = new TreeMap<>();
+        int generated = 0;
+        for (String category : snapshot.categories()) {
+            List<PoseTemplate> templates = new ArrayList<>();
+            for (PoseTemplate template : snapshot.list(category, TemplateOrder.LATEST)) {
+                if (assets.containsKey(template.getTemplateId())) {
+                    templates.add(template);
+                }
+            }
+            if (templates.isEmpty()) {
+                continue;
+            }
+            String inputs = inputsOf(templates, assets);
+            Built built = previous.get(category);
+            if (built == null || !built.inputs.equals(inputs)) {
+                try {
+                    built = build(category, templates, assets, inputs);
+                    generated++;
+                } catch (IOException | RuntimeException e) {
+                    // 保留上一版图集继续提供服务
+                    logger.warn("模板图集生成失败，类别: {}, 错误: {}", category, e.getMessage());
+                }
+            }
+            if (built != null) {
+                current.put(category, built);
+            }
+        }
+        atlases = Collections.unmodifiableMap(current);
+        retire(previous, current);
+        deleteUnused();
+        logger.info("模板图集已更新，类别数: {}, 重新生成: {}, 耗时: {}ms",
+                current.size(), generated, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 类别的输入描述：格子大小、质量，以及按顺序排列的模板ID和素材版本
+     */
+    private String inputsOf(List<PoseTemplate> templates, Map<String, Path> assets) {
+        StringBuilder inputs = new StringBuilder().append(cellSize).append(':').append(quality);
+        for (PoseTemplate template : templates) {
+            Path asset = assets.get(template.getTemplateId());
+            inputs.append('|').append(template.getTemplateId()).append(':').append(asset.getFileName());
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(asset, BasicFileAttributes.class);
+                inputs.append(':').append(attributes.size())
+                        .append(':').append(attributes.lastModifiedTime().toMillis());
+            } catch (IOException e) {
+                inputs.append(":missing");
+            }
+        }
+        return inputs.toString();
+    }
+
+    private Built build(String category, List<PoseTemplate> templates, Map<String, Path> assets,
+                        String inputs) throws IOException {
+        int cell = Math.max(16, Math.min(cellSize, MAX_WEBP_DIMENSION));
+        int perSide = MAX_WEBP_DIMENSION / cell;
+        if (templates.size() > perSide * perSide) {
+            logger.warn("类别模板过多，图集只包含前{}个，类别: {}", perSide * perSide, category);
+            templates = templates.subList(0, perSide * perSide);
+        }
+        int columns = (int) Math.ceil(Math.sqrt(templates.size()));
+        int rows = (templates.size() + columns - 1) / columns;
+
+        OpenCvLoader.ensureLoaded();
+        Mat canvas = new Mat(rows * cell, columns * cell, CvType.CV_8UC3, new Scalar(255, 255, 255));
+        List<TemplateAtlas.Sprite> sprites = new ArrayList<>(templates.size());
+        StringBuilder layout = new StringBuilder();
+        byte[] image;
+        try {
+            for (PoseTemplate template : templates) {
+                Path asset = assets.get(template.getTemplateId());
+                Mat thumbnail;
+                try {
+                    ImageHeader header = ImageHeaderReader.read(asset);
+                    if (header == null) {
+                        throw new IOException("无法解析图片头");
+                    }
+                    int width = header.isTransposed() ? header.getHeight() : header.getWidth();
+                    int height = header.isTransposed() ? header.getWidth() : header.getHeight();
+                    thumbnail = ImageResizer.readWithin(asset, width, height, cell, cell);
+                } catch (IOException e) {
+                    logger.warn("模板素材无法加入图集，模板ID: {}, 错误: {}", template.getTemplateId(), e.getMessage());
+                    continue;
+                }
+                int x = sprites.size() % columns * cell;
+                int y = sprites.size() / columns * cell;
+                int width = thumbnail.cols();
+                int height = thumbnail.rows();
+                Mat region = canvas.submat(new Rect(x, y, width, height));
+                try {
+                    thumbnail.copyTo(region);
+                } finally {
+                    region.release();
+                    thumbnail.release();
+                }
+                sprites.add(new TemplateAtlas.Sprite(template.getTemplateId(), x, y, width, height));
+                layout.append(template.getTemplateId()).append(':').append(x).append(',').append(y)
+                        .append(',').append(width).append(',').append(height).append('|');
+            }
+            if (sprites.isEmpty()) {
+                throw new IOException("没有可用的模板素材");
+            }
+            image = ImageCodec.encode(canvas, "webp", quality);
+        } finally {
+            canvas.release();
+        }
+
+        // 版本号覆盖图片内容和各模板的位置
+        byte[] layoutBytes = layout.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] versioned = new byte[image.length + layoutBytes.length];
+        System.arraycopy(image, 0, versioned, 0, image.length);
+        System.arraycopy(layoutBytes, 0, versioned, image.length, layoutBytes.length);
+        String version = UploadPipeline.hash(versioned).substring(0, 16);
+
+        TemplateAtlas atlas = new TemplateAtlas(category, version, columns * cell, rows * cell,
+                Collections.unmodifiableList(sprites));
+        Path imageFile = directory.resolve(version + WEBP);
+        Path manifestFile = directory.resolve(version + JSON);
+        writeIfAbsent(imageFile, image);
+        writeIfAbsent(manifestFile, objectMapper.writeValueAsBytes(atlas));
+        logger.debug("模板图集生成完成，类别: {}, 模板数: {}, 大小: {}字节", category, sprites.size(), image.length);
+        return new Built(inputs, atlas, imageFile, manifestFile);
+    }
+
+    /**
+     * 文件名即内容摘要，已存在的文件内容相同，无需重写
+     */
+    private void writeIfAbsent(Path file, byte[] data) throws IOException {
+        if (Files.exists(file)) {
+            return;
+        }
+        Path temp = directory.resolve(".atlas-" + UUID.randomUUID());
+        try {
+            Files.write(temp, data);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private static Set<Path> filesOf(Map<String, Built> atlases) {
+        Set<Path> files = new HashSet<>();
+        for (Built built : atlases.values()) {
+            files.add(built.image);
+            files.add(built.manifest);
+        }
+        return files;
+    }
+
+    /**
+     * 登记上一版中不再使用的文件，保留期满后再删除；重新被使用的文件取消登记
+     */
+    private void retire(Map<String, Built> previous, Map<String, Built> current) {
+        Set<Path> used = filesOf(current);
+        long now = System.currentTimeMillis();
+        for (Path file : filesOf(previous)) {
+            if (!used.contains(file)) {
+                retired.putIfAbsent(file, now);
+            }
+        }
+        retired.keySet().removeAll(used);
+        if (!retired.isEmpty()) {
+            // 之后没有新的重建时也要按时清理
+            builder.schedule(this::deleteUnused, retainMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 删除保留期已过、且不属于当前图集的文件
+     * 未登记的文件（如上次运行遗留的旧版本）按修改时间判断是否过期
+     */
+    private void deleteUnused() {
+        Set<Path> used = filesOf(atlases);
+        long expiredBefore = System.currentTimeMillis() - retainMillis;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                if (used.contains(file)) {
+                    continue;
+                }
+                Long retiredAt = retired.get(file);
+                long since = retiredAt != null ? retiredAt
+                        : Files.getLastModifiedTime(file).toMillis();
+                if (since <= expiredBefore) {
+                    Files.deleteIfExists(file);
+                    retired.remove(file);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("清理模板图集文件失败: {}", e.getMessage());
+        }
+    }
+}
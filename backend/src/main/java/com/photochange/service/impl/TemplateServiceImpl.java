@@ -1,159 +1,541 @@
 package com.photochange.service.impl;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.photochange.model.PoseTemplate;
+import com.photochange.model.SimilarTemplate;
+import com.photochange.model.Skeleton;
+import com.photochange.model.TemplateListResponse;
+import com.photochange.service.TemplateAtlasService;
 import com.photochange.service.TemplateService;
+import com.photochange.template.PoseIndex;
+import com.photochange.template.PopularityTracker;
+import com.photochange.template.PoseVector;
+import com.photochange.template.TemplateCursor;
+import com.photochange.template.TemplateLoader;
+import com.photochange.template.TemplateOrder;
+import com.photochange.template.TemplateRig;
+import com.photochange.template.TemplateSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 /**
  * 姿势模板服务实现类
+ * 模板从模板目录的JSON文件加载到不可变快照中，读取无锁；
+ * 目录变化时由后台线程重新加载并原子替换快照。
+ * 热门模板按实际使用次数（随时间衰减）排名，定期刷新并保存到存储目录。
  */
 @Service
 public class TemplateServiceImpl implements TemplateService {
 
+    private static final Logger logger = LoggerFactory.getLogger(TemplateServiceImpl.class);
+
+    private static final String SEED_TEMPLATES = "classpath:seed-templates/*.json";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private TemplateAtlasService atlasService;
+
     @Value("${app.template.storage.path}")
     private String templateStoragePath;
 
-    // 模拟模板数据
-    private final Map<String, PoseTemplate> templates = new HashMap<>();
-
-    // 初始化一些模板数据
-    public TemplateServiceImpl() {
-        // 站立姿势
-        PoseTemplate standing = new PoseTemplate();
-        standing.setId("tpl_standing_01");
-        standing.setName("基本站立姿势");
-        standing.setCategory("standing");
-        standing.setThumbnailUrl("/templates/standing_01.jpg");
-        standing.setDescription("自然站立的姿势，适合各种场景");
-        Map<String, List<Double>> standingKeypoints = new HashMap<>();
-        // 模拟关键点数据
-        standingKeypoints.put("nose", List.of(0.5, 0.2));
-        standingKeypoints.put("left_shoulder", List.of(0.4, 0.3));
-        standingKeypoints.put("right_shoulder", List.of(0.6, 0.3));
-        standingKeypoints.put("left_elbow", List.of(0.3, 0.4));
-        standingKeypoints.put("right_elbow", List.of(0.7, 0.4));
-        standingKeypoints.put("left_wrist", List.of(0.3, 0.5));
-        standingKeypoints.put("right_wrist", List.of(0.7, 0.5));
-        standingKeypoints.put("left_hip", List.of(0.45, 0.6));
-        standingKeypoints.put("right_hip", List.of(0.55, 0.6));
-        standingKeypoints.put("left_knee", List.of(0.45, 0.75));
-        standingKeypoints.put("right_knee", List.of(0.55, 0.75));
-        standingKeypoints.put("left_ankle", List.of(0.45, 0.9));
-        standingKeypoints.put("right_ankle", List.of(0.55, 0.9));
-        standing.setKeypoints(standingKeypoints);
-        templates.put(standing.getId(), standing);
-
-        // 坐姿
-        PoseTemplate sitting = new PoseTemplate();
-        sitting.setId("tpl_sitting_01");
-        sitting.setName("基本坐姿");
-        sitting.setCategory("sitting");
-        sitting.setThumbnailUrl("/templates/sitting_01.jpg");
-        sitting.setDescription("自然坐姿，适合办公、学习场景");
-        Map<String, List<Double>> sittingKeypoints = new HashMap<>();
-        // 模拟关键点数据
-        sittingKeypoints.put("nose", List.of(0.5, 0.2));
-        sittingKeypoints.put("left_shoulder", List.of(0.4, 0.3));
-        sittingKeypoints.put("right_shoulder", List.of(0.6, 0.3));
-        sittingKeypoints.put("left_elbow", List.of(0.3, 0.4));
-        sittingKeypoints.put("right_elbow", List.of(0.7, 0.4));
-        sittingKeypoints.put("left_wrist", List.of(0.3, 0.5));
-        sittingKeypoints.put("right_wrist", List.of(0.7, 0.5));
-        sittingKeypoints.put("left_hip", List.of(0.45, 0.6));
-        sittingKeypoints.put("right_hip", List.of(0.55, 0.6));
-        sittingKeypoints.put("left_knee", List.of(0.4, 0.7));
-        sittingKeypoints.put("right_knee", List.of(0.6, 0.7));
-        sittingKeypoints.put("left_ankle", List.of(0.35, 0.8));
-        sittingKeypoints.put("right_ankle", List.of(0.65, 0.8));
-        sitting.setKeypoints(sittingKeypoints);
-        templates.put(sitting.getId(), sitting);
-
-        // 举手姿势
-        PoseTemplate handRaised = new PoseTemplate();
-        handRaised.setId("tpl_hand_raised_01");
-        handRaised.setName("举手姿势");
-        handRaised.setCategory("action");
-        handRaised.setThumbnailUrl("/templates/hand_raised_01.jpg");
-        handRaised.setDescription("举起一只手的姿势，适合互动场景");
-        Map<String, List<Double>> handRaisedKeypoints = new HashMap<>();
-        // 模拟关键点数据
-        handRaisedKeypoints.put("nose", List.of(0.5, 0.2));
-        handRaisedKeypoints.put("left_shoulder", List.of(0.4, 0.3));
-        handRaisedKeypoints.put("right_shoulder", List.of(0.6, 0.3));
-        handRaisedKeypoints.put("left_elbow", List.of(0.3, 0.4));
-        handRaisedKeypoints.put("right_elbow", List.of(0.7, 0.2));
-        handRaisedKeypoints.put("left_wrist", List.of(0.3, 0.5));
-        handRaisedKeypoints.put("right_wrist", List.of(0.7, 0.1));
-        handRaisedKeypoints.put("left_hip", List.of(0.45, 0.6));
-        handRaisedKeypoints.put("right_hip", List.of(0.55, 0.6));
-        handRaisedKeypoints.put("left_knee", List.of(0.45, 0.75));
-        handRaisedKeypoints.put("right_knee", List.of(0.55, 0.75));
-        handRaisedKeypoints.put("left_ankle", List.of(0.45, 0.9));
-        handRaisedKeypoints.put("right_ankle", List.of(0.55, 0.9));
-        handRaised.setKeypoints(handRaisedKeypoints);
-        templates.put(handRaised.getId(), handRaised);
-    }
-
-    /**
-     * 获取模板列表
-     * @param category 类别（可选）
-     * @param page 页码
+    @Value("${app.template.watch.enabled:true}")
+    private boolean watchEnabled;
+
+    @Value("${app.template.reload-debounce-ms:500}")
+    private long reloadDebounceMs;
+
+    @Value("${app.image.storage.path}")
+    private String storageLocation;
+
+    @Value("${app.template.popularity.half-life:7d}")
+    private Duration popularityHalfLife;
+
+    @Value("${app.template.popularity.top-k:100}")
+    private int popularityTopK;
+
+    private final AtomicReference<TemplateSnapshot> snapshot = new AtomicReference<>(TemplateSnapshot.empty());
+
+    private TemplateLoader loader;
+
+    private WatchService watchService;
+
+    private PopularityTracker popularity;
+
+    private Path popularityFile;
+
+    @PostConstruct
+    public void init() {
+        Path directory = Paths.get(templateStoragePath).toAbsolutePath().normalize();
+        try {
+            Files.createDirectories(directory);
+            seedIfEmpty(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("无法初始化模板目录: " + e.getMessage(), e);
+        }
+        loader = new TemplateLoader(directory, objectMapper);
+        reload();
+
+        popularity = new PopularityTracker(popularityHalfLife.toMillis(), popularityTopK);
+        popularityFile = Paths.get(storageLocation).resolve(".template-popularity");
+        try {
+            popularity.load(popularityFile);
+        } catch (IOException e) {
+            logger.warn("模板热度文件读取失败，热度从零开始统计，错误: {}", e.getMessage());
+        }
+        popularity.refresh(this::isLive);
+
+        if (watchEnabled) {
+            try {
+                watchService = directory.getFileSystem().newWatchService();
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                Thread watcher = new Thread(this::watch, "template-watcher");
+                watcher.setDaemon(true);
+                watcher.start();
+            } catch (IOException e) {
+                logger.warn("无法监听模板目录，模板变更需重启后生效，错误: {}", e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        refreshPopularity();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("关闭模板目录监听失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 模板目录中没有任何模板时写入内置的示例模板
+     */
+    private void seedIfEmpty(Path directory) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+            if (stream.iterator().hasNext()) {
+                return;
+            }
+        }
+        Resource[] seeds = new PathMatchingResourcePatternResolver().getResources(SEED_TEMPLATES);
+        for (Resource seed : seeds) {
+            try (InputStream in = seed.getInputStream()) {
+                Files.copy(in, directory.resolve(seed.getFilename()));
+            }
+        }
+        logger.info("模板目录为空，已写入示例模板: {}个", seeds.length);
+    }
+
+    /**
+     * 监听模板目录，变化平息一段时间后重新加载
+     * 批量复制文件时会连续产生大量事件，合并为一次加载
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                key.pollEvents();
+                key.reset();
+                // 等待事件平息
+                while ((key = watchService.poll(reloadDebounceMs, TimeUnit.MILLISECONDS)) != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                reload();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            logger.debug("模板目录监听已停止");
+        }
+    }
+
+    /**
+     * 重新加载模板目录并替换快照，只重新解析发生变化的文件
+     */
+    private synchronized void reload() {
+        long start = System.currentTimeMillis();
+        try {
+            List<PoseTemplate> templates = loader.load();
+            TemplateSnapshot current = TemplateSnapshot.next(templates, snapshot.get());
+            snapshot.set(current);
+            atlasService.rebuild(current, loader.getAssetFiles());
+            logger.info("模板加载完成，数量: {}, 版本: {}, 耗时: {}ms",
+                    current.size(), current.getVersion(), System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            // 保留上一个快照继续提供服务
+            logger.error("模板目录读取失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 刷新热门模板排名并保存得分
+     */
+    @Scheduled(initialDelayString = "${app.template.popularity.refresh-ms:60000}",
+            fixedDelayString = "${app.template.popularity.refresh-ms:60000}")
+    public void refreshPopularity() {
+        PopularityTracker.Ranking ranking = popularity.refresh(this::isLive);
+        try {
+            popularity.save(popularityFile);
+        } catch (IOException e) {
+            logger.warn("模板热度保存失败: {}", e.getMessage());
+        }
+        logger.debug("模板热度排名已刷新，上榜模板: {}", ranking.size());
+    }
+
+    private boolean isLive(String templateId) {
+        return snapshot.get().get(templateId) != null;
+    }
+
+    /**
+     * 获取所有姿势模板列表
+     * @param page 页码（从1开始）
      * @param limit 每页数量
-     * @return 模板列表
+     * @param category 分类（可选）
+     * @param sortBy 排序字段（可选，popularity（模板自带热度分）、name或createdAt，默认createdAt）
+     * @return 模板列表响应
      */
     @Override
-    public List<PoseTemplate> getTemplates(String category, int page, int limit) {
-        List<PoseTemplate> filteredTemplates;
-        
-        if (category != null && !category.isEmpty()) {
-            filteredTemplates = templates.values().stream()
-                    .filter(template -> category.equals(template.getCategory()))
-                    .collect(Collectors.toList());
+    public TemplateListResponse getTemplates(int page, int limit, String category, String sortBy) {
+        TemplateOrder order = TemplateOrder.parse(sortBy);
+        return page(snapshot.get().list(category, order), order, page, limit);
+    }
+
+    /**
+     * 按游标获取模板列表
+     * @param cursor 上一页响应中的nextCursor，为空时从第一条开始
+     * @param limit 每页数量
+     * @param category 分类（可选）
+     * @param sortBy 排序字段（可选，有游标时以游标中的排序方式为准）
+     * @return 模板列表响应（page和pages为0）
+     */
+    @Override
+    public TemplateListResponse getTemplatesAfter(String cursor, int limit, String category, String sortBy) {
+        limit = Math.max(1, limit);
+        TemplateSnapshot current = snapshot.get();
+        TemplateOrder order;
+        int start;
+        if (cursor == null || cursor.isEmpty()) {
+            order = TemplateOrder.parse(sortBy);
+            start = 0;
         } else {
-            filteredTemplates = new ArrayList<>(templates.values());
-        }
-        
-        // 分页
-        int start = (page - 1) * limit;
-        int end = Math.min(start + limit, filteredTemplates.size());
-        
-        if (start >= filteredTemplates.size()) {
+            TemplateCursor position = TemplateCursor.decode(cursor);
+            order = position.getOrder();
+            start = current.indexAfter(category, position);
+        }
+        List<PoseTemplate> templates = current.list(category, order);
+        List<PoseTemplate> items = templates.subList(Math.min(start, templates.size()),
+                Math.min(templates.size(), start + limit));
+        TemplateListResponse response = new TemplateListResponse(items, templates.size(), 0, limit, 0);
+        response.setNextCursor(nextCursor(order, templates, start + items.size(), items));
+        return response;
+    }
+
+    /**
+     * 获取指定ID的模板详情
+     * @param templateId 模板ID
+     * @return 模板详情，不存在时返回null
+     */
+    @Override
+    public PoseTemplate getTemplateById(String templateId) {
+        return snapshot.get().get(templateId);
+    }
+
+    /**
+     * 获取推荐模板列表
+     * 各类别轮流取热度最高的模板，避免结果集中在单一类别
+     * @param limit 数量限制
+     * @return 推荐模板列表
+     */
+    @Override
+    public List<PoseTemplate> getRecommendedTemplates(int limit) {
+        Map<String, Deque<PoseTemplate>> queues = new LinkedHashMap<>();
+        for (PoseTemplate template : byPopularity(snapshot.get(), Integer.MAX_VALUE)) {
+            String category = template.getCategory() != null ? template.getCategory() : "";
+            queues.computeIfAbsent(category, key -> new ArrayDeque<>()).add(template);
+        }
+        List<PoseTemplate> recommended = new ArrayList<>(Math.max(0, Math.min(limit, 100)));
+        while (recommended.size() < limit && !queues.isEmpty()) {
+            queues.values().removeIf(queue -> {
+                if (recommended.size() < limit) {
+                    recommended.add(queue.poll());
+                }
+                return queue.isEmpty();
+            });
+        }
+        return recommended;
+    }
+
+    /**
+     * 获取热门模板列表
+     * @param limit 数量限制
+     * @return 热门模板列表
+     */
+    @Override
+    public List<PoseTemplate> getPopularTemplates(int limit) {
+        return byPopularity(snapshot.get(), limit);
+    }
+
+    /**
+     * 记录一次模板使用
+     * @param templateId 模板ID
+     */
+    @Override
+    public void recordTemplateUsage(String templateId) {
+        if (templateId != null) {
+            popularity.record(templateId);
+        }
+    }
+
+    /**
+     * 获取模板的重定向数据
+     * @param templateId 模板ID
+     * @return 模板不存在时返回null
+     */
+    @Override
+    public TemplateRig getTemplateRig(String templateId) {
+        return snapshot.get().rig(templateId);
+    }
+
+    /**
+     * 按热度排列的模板：先取使用次数排名，使用记录不足时按模板自带的热度补足
+     */
+    private List<PoseTemplate> byPopularity(TemplateSnapshot current, int limit) {
+        PopularityTracker.Ranking ranking = popularity.getRanking();
+        List<PoseTemplate> templates = new ArrayList<>(Math.max(0, Math.min(limit, current.size())));
+        for (int rank = 0; rank < ranking.size() && templates.size() < limit; rank++) {
+            PoseTemplate template = current.get(ranking.id(rank));
+            if (template != null) {
+                templates.add(template);
+            }
+        }
+        for (PoseTemplate template : current.list(null, TemplateOrder.POPULAR)) {
+            if (templates.size() >= limit) {
+                break;
+            }
+            if (!ranking.contains(template.getTemplateId())) {
+                templates.add(template);
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * 获取最新模板列表
+     * @param limit 数量限制
+     * @return 最新模板列表
+     */
+    @Override
+    public List<PoseTemplate> getLatestTemplates(int limit) {
+        return head(snapshot.get().list(null, TemplateOrder.LATEST), limit);
+    }
+
+    /**
+     * 搜索模板
+     * 中文按单字和二字组、英文按单词匹配名称、类别和描述，所有词都命中的模板按BM25相关度排序，
+     * 最后一个英文单词按前缀匹配。相关度排序不支持游标翻页，响应中没有nextCursor。
+     * @param keyword 关键词，为空时返回全部模板
+     * @param page 页码
+     * @param limit 每页数量
+     * @return 模板列表响应
+     */
+    @Override
+    public TemplateListResponse searchTemplates(String keyword, int page, int limit) {
+        if (keyword == null || keyword.trim().isEmpty()) {
+            return getTemplates(page, limit, null, null);
+        }
+        List<PoseTemplate> matched = snapshot.get().searchIndex().search(keyword);
+        return page(matched, null, page, limit);
+    }
+
+    /**
+     * 查找与给定姿势相似的模板
+     * @param keypoints 关键点（如姿势检测结果）
+     * @param limit 数量限制
+     * @param mirror 是否把左右镜像的姿势视为相同
+     * @return 按相似度从高到低排列，可见关键点不足时返回空列表
+     */
+    @Override
+    public List<SimilarTemplate> findSimilarTemplates(Skeleton keypoints, int width, int height,
+                                                      int limit, boolean mirror) {
+        // 像素坐标映射到模板使用的正方形画布，保持照片的长宽比
+        float[] query = PoseVector.embed(keypoints, width, height);
+        if (query == null) {
             return new ArrayList<>();
         }
-        
-        return filteredTemplates.subList(start, end);
+        return similar(snapshot.get(), query, limit, mirror, null);
     }
 
     /**
-     * 获取模板详情
+     * 查找与指定模板姿势相似的其他模板
      * @param templateId 模板ID
-     * @return 模板详情
+     * @param limit 数量限制
+     * @param mirror 是否把左右镜像的姿势视为相同
+     * @return 按相似度从高到低排列，模板不存在时返回null
      */
     @Override
-    public PoseTemplate getTemplate(String templateId) {
-        return templates.get(templateId);
+    public List<SimilarTemplate> findSimilarTemplates(String templateId, int limit, boolean mirror) {
+        TemplateSnapshot current = snapshot.get();
+        PoseTemplate template = current.get(templateId);
+        if (template == null) {
+            return null;
+        }
+        float[] query = PoseVector.embed(template.getKeypoints());
+        if (query == null) {
+            return new ArrayList<>();
+        }
+        // 多取一个，结果中排除模板自身
+        return similar(current, query, limit + 1, mirror, templateId).stream()
+                .limit(Math.max(0, limit))
+                .collect(Collectors.toList());
+    }
+
+    private static List<SimilarTemplate> similar(TemplateSnapshot current, float[] query, int limit,
+                                                 boolean mirror, String exclude) {
+        List<SimilarTemplate> similar = new ArrayList<>();
+        for (PoseIndex.Match match : current.poseIndex().nearest(query, limit, mirror)) {
+            if (!match.getTemplateId().equals(exclude)) {
+                similar.add(new SimilarTemplate(current.get(match.getTemplateId()),
+                        match.getDistance(), match.isMirrored()));
+            }
+        }
+        return similar;
     }
 
     /**
-     * 统计模板数量
-     * @param category 类别（可选）
-     * @return 模板数量
+     * 创建新模板（管理员功能）
+     * @param template 模板信息，未指定ID时自动生成
+     * @return 创建的模板
+     * @throws IllegalArgumentException 模板ID不合法或已存在
      */
     @Override
-    public int countTemplates(String category) {
-        if (category != null && !category.isEmpty()) {
-            return (int) templates.values().stream()
-                    .filter(template -> category.equals(template.getCategory()))
-                    .count();
-        } else {
-            return templates.size();
+    public synchronized PoseTemplate createTemplate(PoseTemplate template) {
+        if (template.getTemplateId() == null || template.getTemplateId().isEmpty()) {
+            template.setTemplateId("tpl_" + UUID.randomUUID().toString().replace("-", "").substring(0, 12));
+        }
+        if (!TemplateLoader.isValidId(template.getTemplateId())) {
+            throw new IllegalArgumentException("模板ID不合法: " + template.getTemplateId());
+        }
+        if (getTemplateById(template.getTemplateId()) != null) {
+            throw new IllegalArgumentException("模板已存在: " + template.getTemplateId());
         }
+        if (template.getCreatedAt() == null) {
+            template.setCreatedAt(System.currentTimeMillis());
+        }
+        persist(template);
+        return getTemplateById(template.getTemplateId());
+    }
+
+    /**
+     * 更新模板信息（管理员功能）
+     * @param templateId 模板ID
+     * @param template 更新的模板信息
+     * @return 更新后的模板，模板不存在时返回null
+     */
+    @Override
+    public synchronized PoseTemplate updateTemplate(String templateId, PoseTemplate template) {
+        PoseTemplate existing = getTemplateById(templateId);
+        if (existing == null) {
+            return null;
+        }
+        template.setTemplateId(templateId);
+        if (template.getCreatedAt() == null) {
+            template.setCreatedAt(existing.getCreatedAt());
+        }
+        persist(template);
+        return getTemplateById(templateId);
+    }
+
+    /**
+     * 删除模板（管理员功能）
+     * @param templateId 模板ID
+     * @return 是否删除成功
+     */
+    @Override
+    public synchronized boolean deleteTemplate(String templateId) {
+        try {
+            if (!loader.delete(templateId)) {
+                return false;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("删除模板失败: " + e.getMessage(), e);
+        }
+        reload();
+        return true;
+    }
+
+    /**
+     * 写入模板文件并立即重新加载，不等待目录监听
+     */
+    private void persist(PoseTemplate template) {
+        try {
+            loader.write(template);
+        } catch (IOException e) {
+            throw new RuntimeException("保存模板失败: " + e.getMessage(), e);
+        }
+        reload();
+    }
+
+    private static TemplateListResponse page(List<PoseTemplate> templates, TemplateOrder order, int page, int limit) {
+        page = Math.max(1, page);
+        limit = Math.max(1, limit);
+        int total = templates.size();
+        int pages = (total + limit - 1) / limit;
+        long start = (long) (page - 1) * limit;
+        List<PoseTemplate> items = start >= total
+                ? Collections.emptyList()
+                : templates.subList((int) start, (int) Math.min(total, start + limit));
+        TemplateListResponse response = new TemplateListResponse(items, total, page, limit, pages);
+        // 客户端可以从任意一页切换到游标翻页（仅限固定排序的列表）
+        if (order != null) {
+            response.setNextCursor(nextCursor(order, templates, (int) start + items.size(), items));
+        }
+        return response;
+    }
+
+    private static String nextCursor(TemplateOrder order, List<PoseTemplate> templates, int end,
+                                     List<PoseTemplate> items) {
+        if (items.isEmpty() || end >= templates.size()) {
+            return null;
+        }
+        return TemplateCursor.encode(order, items.get(items.size() - 1));
+    }
+
+    private static List<PoseTemplate> head(List<PoseTemplate> templates, int limit) {
+        return templates.subList(0, Math.max(0, Math.min(limit, templates.size())));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,64 @@
+package com.photochange.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * 对象存储后端
+ * 以键寻址的不可变对象存储，内容文件和ID引用都保存在这里，多个API节点共享同一后端。
+ * 键使用"/"分隔的相对路径，例如 ab/cd/摘要 或 refs/results/任务ID。
+ */
+public interface BlobStore {
+
+    /**
+     * 是否为节点之外的共享存储
+     * 本地后端与节点存储目录相同，不需要复制或回源
+     */
+    boolean isRemote();
+
+    /**
+     * 对象大小
+     * @return 对象不存在时返回-1
+     */
+    long size(String key) throws IOException;
+
+    /**
+     * 上传文件，大文件分片并行上传
+     * @param key 对象键
+     * @param file 本地文件
+     * @param contentType 内容类型
+     */
+    void put(String key, Path file, String contentType) throws IOException;
+
+    /**
+     * 上传小对象
+     */
+    void put(String key, byte[] data, String contentType) throws IOException;
+
+    /**
+     * 读取对象的一段字节
+     * @param key 对象键
+     * @param start 起始位置
+     * @param end 结束位置（含），小于0表示读到末尾
+     * @return 数据流，对象不存在时返回null
+     */
+    InputStream get(String key, long start, long end) throws IOException;
+
+    /**
+     * 读取完整的小对象
+     * @return 对象内容，不存在时返回null
+     */
+    byte[] getBytes(String key) throws IOException;
+
+    /**
+     * 下载对象到本地文件，大对象分段并行下载
+     * @return 对象不存在时返回false
+     */
+    boolean download(String key, Path target) throws IOException;
+
+    /**
+     * 删除对象，不存在时忽略
+     */
+    void delete(String key) throws IOException;
+}
@@ -0,0 +1,431 @@
+package com.photochange.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * 内容寻址存储
+ * 文件内容按SHA-256摘要只存一份（.blobs/ab/cd/摘要），图片ID、变换任务ID、导出任务ID对应的文件
+ * 都是指向内容的硬链接，因此下载、索引、迁移等逻辑无需感知去重。
+ * 引用计数即内容文件的硬链接数减一，由文件系统持久化，重启后无需重建；
+ * 同一摘要上的写入、引用和释放在按摘要分段的锁内串行化，保证删除安全；
+ * 与对象存储后端之间的上传和下载在锁外进行，不阻塞其他摘要的本地操作。
+ * 文件系统不支持硬链接时退化为每个ID独立存储。
+ * 对象存储后端为共享存储（S3等）时，本目录相当于节点的本地缓存：新内容同步上传，缺失内容按需回源。
+ */
+public class ContentStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentStore.class);
+
+    private final Path directory;
+    private final BlobStore blobStore;
+
+    private static final int LOCK_STRIPES = 256;
+
+    // 按内容摘要分段加锁，锁内只做本地文件操作
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    // 正在从后端下载的内容：同一摘要的并发回源只下载一次
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> downloads = new ConcurrentHashMap<>();
+
+    private volatile boolean deduplicating;
+
+    private final LongAdder deduplicated = new LongAdder();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * @param directory 内容文件目录（应与各类别目录在同一文件系统）
+     * @param blobStore 对象存储后端，为共享存储时新内容写入后同步上传，本地缺失的内容从后端回源
+     */
+    public ContentStore(Path directory, BlobStore blobStore) {
+        this.directory = directory;
+        this.blobStore = blobStore;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * 创建目录、清理遗留临时文件，并检测文件系统是否支持硬链接
+     */
+    public void init() throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, ".{link,fetch}-*")) {
+            for (Path temp : stream) {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        deduplicating = false;
+        if (Files.getFileStore(directory).supportsFileAttributeView("unix")) {
+            Path probe = directory.resolve(".link-" + UUID.randomUUID());
+            Path link = directory.resolve(".link-" + UUID.randomUUID());
+            try {
+                Files.createFile(probe);
+                Files.createLink(link, probe);
+                deduplicating = true;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                logger.warn("文件系统不支持硬链接，内容去重已停用: {}", e.getMessage());
+            } finally {
+                Files.deleteIfExists(link);
+                Files.deleteIfExists(probe);
+            }
+        }
+    }
+
+    public boolean isDeduplicating() {
+        return deduplicating;
+    }
+
+    /**
+     * 将临时文件以引用的形式放到目标位置
+     * 相同内容已存在时丢弃临时文件（不刷盘），只新增一个硬链接
+     * @param temp 已写好的临时文件（与目标在同一文件系统）
+     * @param hash 内容摘要
+     * @param target 目标文件（已存在时原子替换）
+     * @return 是否命中已有内容
+     */
+    public boolean commit(Path temp, String hash, Path target) throws IOException {
+        return commit(temp, hash, target, false);
+    }
+
+    /**
+     * 将临时文件以引用的形式放到目标位置
+     * @param synced 临时文件是否已由调用方刷盘（如延迟写入的集中刷盘）
+     */
+    public boolean commit(Path temp, String hash, Path target, boolean synced) throws IOException {
+        if (!deduplicating) {
+            if (!synced) {
+                force(temp);
+            }
+            if (blobStore.isRemote()) {
+                blobStore.put(blobKey(hash), temp, null);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return false;
+        }
+
+        boolean[] hit = new boolean[1];
+        withLock(hash, blob -> {
+            if (Files.exists(blob)) {
+                discard(temp);
+                link(blob, target);
+                hit[0] = true;
+            }
+        });
+        if (hit[0]) {
+            return true;
+        }
+
+        if (!synced) {
+            force(temp);
+        }
+        if (blobStore.isRemote()) {
+            // 上传成功后才在本地生效，上传失败时调用方删除临时文件；
+            // 对象键由内容决定，同一内容的并发上传写入的是相同的数据，不需要加锁
+            blobStore.put(blobKey(hash), temp, null);
+        }
+        withLock(hash, blob -> {
+            if (Files.exists(blob)) {
+                // 上传期间其他请求已提交同一内容
+                discard(temp);
+                hit[0] = true;
+            } else {
+                Files.createDirectories(blob.getParent());
+                Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+            }
+            link(blob, target);
+        });
+        return hit[0];
+    }
+
+    /**
+     * 为目标建立引用，本地没有该内容时从对象存储后端下载
+     * @param hash 内容摘要
+     * @param target 目标文件
+     * @return 本地和后端都没有该内容时返回false
+     */
+    public boolean fetch(String hash, Path target) throws IOException {
+        if (!deduplicating) {
+            return blobStore.isRemote() && blobStore.download(blobKey(hash), target);
+        }
+        if (linkIfPresent(hash, target)) {
+            return true;
+        }
+        if (!blobStore.isRemote()) {
+            return false;
+        }
+
+        CompletableFuture<Boolean> created = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = downloads.putIfAbsent(hash, created);
+        if (existing != null) {
+            // 等待同一内容的下载完成后再建立引用
+            return await(existing) && linkIfPresent(hash, target);
+        }
+        try {
+            boolean downloaded = download(hash, target);
+            created.complete(downloaded);
+            return downloaded;
+        } catch (IOException | RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            downloads.remove(hash, created);
+        }
+    }
+
+    /**
+     * 在锁外把内容下载到临时文件，再在锁内放入内容目录并建立引用
+     */
+    private boolean download(String hash, Path target) throws IOException {
+        Path temp = directory.resolve(".fetch-" + UUID.randomUUID());
+        try {
+            if (!blobStore.download(blobKey(hash), temp)) {
+                return false;
+            }
+            withLock(hash, blob -> {
+                if (Files.exists(blob)) {
+                    Files.delete(temp);
+                } else {
+                    Files.createDirectories(blob.getParent());
+                    Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+                }
+                link(blob, target);
+            });
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private boolean linkIfPresent(String hash, Path target) throws IOException {
+        boolean[] linked = new boolean[1];
+        withLock(hash, blob -> {
+            if (Files.exists(blob)) {
+                link(blob, target);
+                linked[0] = true;
+            }
+        });
+        return linked[0];
+    }
+
+    /**
+     * 内容已存在时直接为目标建立引用，不写入任何数据
+     * @param hash 内容摘要
+     * @param target 目标文件（已存在时原子替换）
+     * @return 内容不存在（或未启用去重）时返回false，调用方需要自行写入
+     */
+    public boolean linkExisting(String hash, Path target) throws IOException {
+        if (!deduplicating || hash == null) {
+            return false;
+        }
+        boolean[] linked = new boolean[1];
+        withLock(hash, blob -> {
+            if (Files.exists(blob)) {
+                link(blob, target);
+                linked[0] = true;
+                deduplicated.increment();
+                bytesSaved.addAndGet(Files.size(blob));
+            }
+        });
+        return linked[0];
+    }
+
+    /**
+     * 删除引用，内容不再被引用时一并删除
+     * @param reference 引用文件
+     * @param hash 内容摘要，未知时只删除引用，内容由 {@link #sweep()} 回收
+     * @return 实际释放的磁盘字节数（内容仍被其他ID引用时为0）
+     */
+    public long delete(Path reference, String hash) throws IOException {
+        if (!deduplicating || hash == null) {
+            long size = Files.exists(reference) ? Files.size(reference) : 0;
+            // 未知摘要时内容可能仍被其他ID引用，释放的空间在回收时才能确定
+            return Files.deleteIfExists(reference) && !deduplicating ? size : 0;
+        }
+        long[] reclaimed = new long[1];
+        withLock(hash, blob -> {
+            Files.deleteIfExists(reference);
+            long size = Files.exists(blob) ? Files.size(blob) : 0;
+            if (releaseIfUnreferenced(blob)) {
+                reclaimed[0] = size;
+            }
+        });
+        return reclaimed[0];
+    }
+
+    /**
+     * 释放内容（引用文件已被替换或移除后调用）
+     * @param hash 内容摘要
+     */
+    public void release(String hash) throws IOException {
+        if (!deduplicating || hash == null) {
+            return;
+        }
+        withLock(hash, this::releaseIfUnreferenced);
+    }
+
+    /**
+     * 本地是否存有该内容
+     */
+    public boolean contains(String hash) {
+        return Files.exists(blobPath(hash));
+    }
+
+    /**
+     * 内容的引用数
+     */
+    public int referenceCount(String hash) throws IOException {
+        Path blob = blobPath(hash);
+        return deduplicating && Files.exists(blob) ? linkCount(blob) - 1 : 0;
+    }
+
+    /**
+     * 回收不再被任何ID引用的内容文件
+     * @return 回收的文件数
+     */
+    public long sweep() throws IOException {
+        if (!deduplicating) {
+            return 0;
+        }
+        long removed = 0;
+        try (Stream<Path> stream = Files.walk(directory)) {
+            Iterator<Path> iterator = stream.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path blob = iterator.next();
+                String hash = blob.getFileName().toString();
+                if (hash.startsWith(".")) {
+                    continue;
+                }
+                boolean[] deleted = new boolean[1];
+                withLock(hash, locked -> deleted[0] = releaseIfUnreferenced(locked));
+                if (deleted[0]) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 因命中已有内容而省去的写入次数
+     */
+    public long getDeduplicated() {
+        return deduplicated.sum();
+    }
+
+    /**
+     * 因去重而节省的字节数
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    private interface LockedOperation {
+        void run(Path blob) throws IOException;
+    }
+
+    private void withLock(String hash, LockedOperation operation) throws IOException {
+        ReentrantLock lock = locks[Math.floorMod(hash.hashCode(), locks.length)];
+        lock.lock();
+        try {
+            operation.run(blobPath(hash));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 内容已存在时丢弃新写入的临时文件（调用方需持有锁）
+     */
+    private void discard(Path temp) throws IOException {
+        long size = Files.size(temp);
+        Files.delete(temp);
+        deduplicated.increment();
+        bytesSaved.addAndGet(size);
+    }
+
+    private static boolean await(CompletableFuture<Boolean> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("下载内容失败", cause);
+        }
+    }
+
+    /**
+     * 只剩内容文件自身的链接时删除内容
+     */
+    private boolean releaseIfUnreferenced(Path blob) throws IOException {
+        if (Files.exists(blob) && linkCount(blob) <= 1) {
+            return Files.deleteIfExists(blob);
+        }
+        return false;
+    }
+
+    /**
+     * 先在目标目录创建临时链接再原子替换，读者不会看到缺失的目标文件
+     * 所有引用共享同一修改时间，新增引用时刷新为当前时间，避免新引用按旧内容的时间被提前回收
+     */
+    private static void link(Path blob, Path target) throws IOException {
+        Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+        if (Files.exists(target) && Files.isSameFile(blob, target)) {
+            return;
+        }
+        Path temp = target.resolveSibling(".link-" + UUID.randomUUID());
+        Files.createLink(temp, blob);
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+    }
+
+    private static int linkCount(Path blob) throws IOException {
+        return (Integer) Files.getAttribute(blob, "unix:nlink");
+    }
+
+    private Path blobPath(String hash) {
+        return ShardedLayout.resolve(directory, hash, "");
+    }
+
+    /**
+     * 内容在对象存储后端中的键，与本地目录布局一致
+     */
+    public static String blobKey(String hash) {
+        return ShardedLayout.shardOf(hash) + "/" + hash;
+    }
+}
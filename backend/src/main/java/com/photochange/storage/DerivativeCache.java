@@ -0,0 +1,205 @@
+package com.photochange.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * 派生图片磁盘缓存
+ * 缩略图等派生文件按键存放在分片目录中，总大小超过上限时按最近最少使用顺序淘汰。
+ * 启动时按文件修改时间重建访问顺序。
+ */
+public class DerivativeCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(DerivativeCache.class);
+
+    private final Path directory;
+    private final long maxBytes;
+
+    // 访问顺序的LinkedHashMap：键 -> 文件大小
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * @param directory 缓存目录
+     * @param maxBytes 缓存总大小上限（字节）
+     */
+    public DerivativeCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 创建缓存目录，清理遗留的临时文件，并从磁盘恢复缓存条目
+     */
+    public void load() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(directory)) {
+            Iterator<Path> iterator = stream.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                if (file.getFileName().toString().startsWith(".")) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                files.add(file);
+                attributes.add(Files.readAttributes(file, BasicFileAttributes.class));
+            }
+        }
+
+        Integer[] order = new Integer[files.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> attributes.get(i).lastModifiedTime()));
+
+        List<Path> evicted;
+        synchronized (this) {
+            entries.clear();
+            totalBytes = 0;
+            for (int i : order) {
+                entries.put(keyOf(files.get(i)), attributes.get(i).size());
+                totalBytes += attributes.get(i).size();
+            }
+            evicted = evictOverflow();
+        }
+        delete(evicted);
+        logger.info("派生图片缓存加载完成，条目数: {}, 占用: {}KB", entries.size(), totalBytes / 1024);
+    }
+
+    /**
+     * 查找缓存的派生文件，命中时刷新其访问顺序
+     * @param key 缓存键（不含扩展名）
+     * @return 文件路径，未命中时返回null
+     */
+    public Path get(String key) {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                return null;
+            }
+        }
+        Path file = pathOf(key);
+        if (Files.exists(file)) {
+            return file;
+        }
+        // 文件被外部删除，修正记账
+        synchronized (this) {
+            Long size = entries.remove(key);
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 为新派生文件分配同一文件系统上的临时文件路径
+     */
+    public Path newTempFile(String extension) {
+        return directory.resolve(".derive-" + UUID.randomUUID() + extension);
+    }
+
+    /**
+     * 将临时文件原子移动到缓存位置，必要时淘汰最久未使用的条目
+     * @param key 缓存键
+     * @param temp 已写好的临时文件
+     * @return 缓存中的文件路径
+     */
+    public Path put(String key, Path temp) throws IOException {
+        Path target = pathOf(key);
+        Files.createDirectories(target.getParent());
+        long size = Files.size(temp);
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        List<Path> evicted;
+        synchronized (this) {
+            Long previous = entries.put(key, size);
+            totalBytes += size - (previous != null ? previous : 0);
+            evicted = evictOverflow();
+        }
+        delete(evicted);
+        return target;
+    }
+
+    /**
+     * 按最近最少使用顺序淘汰条目，直到释放指定字节数或缓存清空（磁盘空间不足时由存储回收调用）
+     * @param bytes 需要释放的字节数
+     * @return 实际释放的字节数
+     */
+    public long trim(long bytes) {
+        List<Path> evicted = new ArrayList<>();
+        long freed = 0;
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (freed < bytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                freed += eldest.getValue();
+                totalBytes -= eldest.getValue();
+                evicted.add(pathOf(eldest.getKey()));
+                iterator.remove();
+            }
+        }
+        delete(evicted);
+        return freed;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * 淘汰最久未使用的条目直到总大小不超过上限（最新写入的条目保留）
+     * 调用方需持有锁
+     */
+    private List<Path> evictOverflow() {
+        List<Path> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.size() > 1 && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            totalBytes -= eldest.getValue();
+            evicted.add(pathOf(eldest.getKey()));
+            iterator.remove();
+        }
+        return evicted;
+    }
+
+    private void delete(List<Path> files) {
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("删除派生图片缓存文件失败，文件: {}, 错误: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private Path pathOf(String key) {
+        return ShardedLayout.resolve(directory, key, ".jpg");
+    }
+
+    private static String keyOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
@@ -0,0 +1,61 @@
+package com.photochange.storage;
+
+/**
+ * 图片头信息
+ * 仅由文件头解析得到，不涉及像素解码
+ */
+public final class ImageHeader {
+
+    private final String format;
+    private final String contentType;
+    private final int width;
+    private final int height;
+    private final int orientation;
+
+    public ImageHeader(String format, String contentType, int width, int height, int orientation) {
+        this.format = format;
+        this.contentType = contentType;
+        this.width = width;
+        this.height = height;
+        this.orientation = orientation;
+    }
+
+    /**
+     * 图片格式（jpg, png, gif, webp）
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * 编码宽度（未应用EXIF方向）
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * 编码高度（未应用EXIF方向）
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * EXIF方向（1-8，无EXIF时为1）
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * 方向5-8表示图片需要旋转90度显示，宽高互换
+     */
+    public boolean isTransposed() {
+        return orientation >= 5 && orientation <= 8;
+    }
+}
@@ -0,0 +1,303 @@
+package com.photochange.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 图片头解析器
+ * 只解析文件头字节获取格式、尺寸和EXIF方向，从不解码像素：
+ * JPEG读取SOFn段和APP1(EXIF)，PNG读取IHDR，WebP读取VP8/VP8L/VP8X，GIF读取逻辑屏幕描述符。
+ */
+public final class ImageHeaderReader {
+
+    /**
+     * 识别格式所需的最少字节数
+     */
+    public static final int MAGIC_LENGTH = 12;
+
+    private static final int INITIAL_READ = 64 * 1024;
+    private static final int MAX_READ = 2 * 1024 * 1024;
+
+    private ImageHeaderReader() {
+    }
+
+    /**
+     * 根据魔数识别图片格式
+     * @param data 文件开头的字节
+     * @param length 有效字节数
+     * @return 格式（jpg, png, gif, webp），无法识别时返回null
+     */
+    public static String detectFormat(byte[] data, int length) {
+        if (length >= 3 && u8(data, 0) == 0xFF && u8(data, 1) == 0xD8 && u8(data, 2) == 0xFF) {
+            return "jpg";
+        }
+        if (length >= 8 && u8(data, 0) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G'
+                && data[4] == '\r' && data[5] == '\n' && u8(data, 6) == 0x1A && data[7] == '\n') {
+            return "png";
+        }
+        if (length >= 6 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F' && data[3] == '8'
+                && (data[4] == '7' || data[4] == '9') && data[5] == 'a') {
+            return "gif";
+        }
+        if (length >= 12 && fourcc(data, 0, "RIFF") && fourcc(data, 8, "WEBP")) {
+            return "webp";
+        }
+        return null;
+    }
+
+    /**
+     * 格式对应的内容类型
+     */
+    public static String contentTypeOf(String format) {
+        switch (format) {
+            case "png":
+                return "image/png";
+            case "gif":
+                return "image/gif";
+            case "webp":
+                return "image/webp";
+            default:
+                return "image/jpeg";
+        }
+    }
+
+    /**
+     * 解析文件头
+     * @param data 文件开头的字节
+     * @param length 有效字节数
+     * @return 头信息；字节不足以完成解析时返回null，调用方应提供更多字节后重试
+     * @throws IllegalArgumentException 不是支持的图片格式或文件头损坏
+     */
+    public static ImageHeader parse(byte[] data, int length) {
+        if (length < MAGIC_LENGTH) {
+            return null;
+        }
+        String format = detectFormat(data, length);
+        if (format == null) {
+            throw new IllegalArgumentException("不支持的图片格式");
+        }
+        switch (format) {
+            case "jpg":
+                return parseJpeg(data, length);
+            case "png":
+                return parsePng(data, length);
+            case "gif":
+                return header(format, u16le(data, 6), u16le(data, 8), 1);
+            default:
+                return parseWebp(data, length);
+        }
+    }
+
+    /**
+     * 读取文件头
+     * 先读取64KB，JPEG的APP段较大时逐步加倍，最多读取2MB
+     * @param file 图片文件
+     * @return 头信息
+     * @throws UnsupportedImageException 不是支持的图片格式、文件头损坏，或在读取上限内无法完成解析
+     * @throws IOException 读取失败
+     */
+    public static ImageHeader read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            int limit = (int) Math.min(fileSize, INITIAL_READ);
+            while (true) {
+                ByteBuffer buffer = ByteBuffer.allocate(limit);
+                while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+                    // 读满缓冲区
+                }
+                ImageHeader header;
+                try {
+                    header = parse(buffer.array(), buffer.position());
+                } catch (IllegalArgumentException e) {
+                    throw new UnsupportedImageException(e.getMessage() + ": " + file.getFileName(), e);
+                }
+                if (header != null) {
+                    return header;
+                }
+                if (limit >= fileSize || limit >= MAX_READ) {
+                    throw new UnsupportedImageException("无法解析图片头: " + file.getFileName());
+                }
+                limit = (int) Math.min(fileSize, Math.min((long) limit * 2, MAX_READ));
+            }
+        }
+    }
+
+    private static ImageHeader parseJpeg(byte[] data, int length) {
+        int orientation = 1;
+        int pos = 2;
+        while (true) {
+            // 跳过填充字节
+            while (pos < length && u8(data, pos) != 0xFF) {
+                pos++;
+            }
+            while (pos < length && u8(data, pos) == 0xFF) {
+                pos++;
+            }
+            if (pos >= length) {
+                return null;
+            }
+            int marker = u8(data, pos++);
+            if (marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                throw new IllegalArgumentException("JPEG缺少SOF段");
+            }
+            if (pos + 2 > length) {
+                return null;
+            }
+            int segmentLength = u16be(data, pos);
+            if (segmentLength < 2) {
+                throw new IllegalArgumentException("JPEG段长度错误");
+            }
+            if (isSof(marker)) {
+                if (pos + 7 > length) {
+                    return null;
+                }
+                int height = u16be(data, pos + 3);
+                int width = u16be(data, pos + 5);
+                return header("jpg", width, height, orientation);
+            }
+            if (marker == 0xE1) {
+                if (pos + segmentLength > length) {
+                    return null;
+                }
+                orientation = exifOrientation(data, pos + 2, pos + segmentLength, orientation);
+            }
+            pos += segmentLength;
+        }
+    }
+
+    private static boolean isSof(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * 解析APP1段中的EXIF方向（IFD0中的0x0112标签）
+     */
+    private static int exifOrientation(byte[] data, int start, int end, int fallback) {
+        if (end - start < 14 || !(data[start] == 'E' && data[start + 1] == 'x' && data[start + 2] == 'i'
+                && data[start + 3] == 'f' && data[start + 4] == 0 && data[start + 5] == 0)) {
+            return fallback;
+        }
+        int tiff = start + 6;
+        boolean little;
+        if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+            little = true;
+        } else if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+            little = false;
+        } else {
+            return fallback;
+        }
+        // 偏移量来自文件内容，比较在long中进行，避免构造的偏移量使下标溢出
+        long ifdOffset = u32(data, tiff + 4, little);
+        if (ifdOffset < 8 || ifdOffset > (long) end - tiff - 2) {
+            return fallback;
+        }
+        int ifd = tiff + (int) ifdOffset;
+        int count = u16(data, ifd, little);
+        for (int i = 0; i < count; i++) {
+            long entry = ifd + 2 + 12L * i;
+            if (entry + 12 > end) {
+                break;
+            }
+            if (u16(data, (int) entry, little) == 0x0112) {
+                int value = u16(data, (int) entry + 8, little);
+                return value >= 1 && value <= 8 ? value : fallback;
+            }
+        }
+        return fallback;
+    }
+
+    private static ImageHeader parsePng(byte[] data, int length) {
+        if (length < 24) {
+            return null;
+        }
+        if (!fourcc(data, 12, "IHDR")) {
+            throw new IllegalArgumentException("PNG缺少IHDR块");
+        }
+        return header("png", (int) u32(data, 16, false), (int) u32(data, 20, false), 1);
+    }
+
+    private static ImageHeader parseWebp(byte[] data, int length) {
+        if (length < 16) {
+            return null;
+        }
+        if (fourcc(data, 12, "VP8 ")) {
+            if (length < 30) {
+                return null;
+            }
+            if (u8(data, 23) != 0x9D || u8(data, 24) != 0x01 || u8(data, 25) != 0x2A) {
+                throw new IllegalArgumentException("WebP VP8帧头错误");
+            }
+            return header("webp", u16le(data, 26) & 0x3FFF, u16le(data, 28) & 0x3FFF, 1);
+        }
+        if (fourcc(data, 12, "VP8L")) {
+            if (length < 25) {
+                return null;
+            }
+            if (u8(data, 20) != 0x2F) {
+                throw new IllegalArgumentException("WebP VP8L签名错误");
+            }
+            long bits = u32(data, 21, true);
+            int width = (int) (bits & 0x3FFF) + 1;
+            int height = (int) ((bits >> 14) & 0x3FFF) + 1;
+            return header("webp", width, height, 1);
+        }
+        if (fourcc(data, 12, "VP8X")) {
+            if (length < 30) {
+                return null;
+            }
+            int width = u24le(data, 24) + 1;
+            int height = u24le(data, 27) + 1;
+            return header("webp", width, height, 1);
+        }
+        throw new IllegalArgumentException("不支持的WebP编码");
+    }
+
+    private static ImageHeader header(String format, int width, int height, int orientation) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("图片尺寸无效");
+        }
+        return new ImageHeader(format, contentTypeOf(format), width, height, orientation);
+    }
+
+    private static boolean fourcc(byte[] data, int offset, String code) {
+        for (int i = 0; i < 4; i++) {
+            if (data[offset + i] != code.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int u8(byte[] data, int offset) {
+        return data[offset] & 0xFF;
+    }
+
+    private static int u16be(byte[] data, int offset) {
+        return (u8(data, offset) << 8) | u8(data, offset + 1);
+    }
+
+    private static int u16le(byte[] data, int offset) {
+        return u8(data, offset) | (u8(data, offset + 1) << 8);
+    }
+
+    private static int u24le(byte[] data, int offset) {
+        return u8(data, offset) | (u8(data, offset + 1) << 8) | (u8(data, offset + 2) << 16);
+    }
+
+    private static int u16(byte[] data, int offset, boolean little) {
+        return little ? u16le(data, offset) : u16be(data, offset);
+    }
+
+    private static long u32(byte[] data, int offset, boolean little) {
+        if (little) {
+            return (long) u16le(data, offset) | ((long) u16le(data, offset + 2) << 16);
+        }
+        return ((long) u16be(data, offset) << 16) | u16be(data, offset + 2);
+    }
+}
@@ -0,0 +1,274 @@
+package com.photochange.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 图片内存索引
+ * 维护 图片ID -> 文件路径/扩展名/元数据 的映射，避免每次查询都扫描存储目录。
+ * 启动时并行遍历磁盘重建，之后由存储服务在写入和删除时增量维护。
+ */
+public class ImageIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageIndex.class);
+
+    /**
+     * 存储对象类别，每个类别对应存储根目录下的一个子目录
+     */
+    public enum Kind {
+        UPLOAD(""),
+        RESULT("results"),
+        EXPORT("exports");
+
+        private final String directory;
+
+        Kind(String directory) {
+            this.directory = directory;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        /**
+         * 解析该类别在存储根目录下的目录
+         */
+        public Path resolve(Path root) {
+            return directory.isEmpty() ? root : root.resolve(directory);
+        }
+    }
+
+    /**
+     * 索引条目
+     */
+    public static final class Entry {
+        private final String id;
+        private final Kind kind;
+        private final Path path;
+        private final String extension;
+        private final long size;
+        private final long lastModified;
+        // 图片头信息在上传时写入，重建索引得到的条目首次访问时再解析
+        private volatile ImageHeader header;
+        // 内容SHA-256摘要，写入时计算；重建索引得到的条目按需计算
+        private volatile String contentHash;
+        // 最近访问时间，用于磁盘水位超限时按LRU淘汰；初始为修改时间
+        private volatile long lastAccessed;
+
+        public Entry(String id, Kind kind, Path path, String extension, long size, long lastModified) {
+            this.id = id;
+            this.kind = kind;
+            this.path = path;
+            this.extension = extension;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.lastAccessed = lastModified;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public String getFilename() {
+            return id + extension;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getLastAccessed() {
+            return lastAccessed;
+        }
+
+        /**
+         * 记录一次访问
+         */
+        public void touch() {
+            lastAccessed = System.currentTimeMillis();
+        }
+
+        public ImageHeader getHeader() {
+            return header;
+        }
+
+        public Entry withHeader(ImageHeader header) {
+            this.header = header;
+            return this;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public Entry withContentHash(String contentHash) {
+            this.contentHash = contentHash;
+            return this;
+        }
+    }
+
+    private final Map<Kind, Map<String, Entry>> entries = new ConcurrentHashMap<>();
+
+    public ImageIndex() {
+        for (Kind kind : Kind.values()) {
+            entries.put(kind, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * 查找条目
+     * @param kind 类别
+     * @param id 图片ID或变换任务ID
+     * @return 条目，不存在时返回null
+     */
+    public Entry get(Kind kind, String id) {
+        if (id == null) {
+            return null;
+        }
+        return entries.get(kind).get(id);
+    }
+
+    public boolean contains(Kind kind, String id) {
+        return get(kind, id) != null;
+    }
+
+    /**
+     * 加入或替换条目
+     * @return 被替换的旧条目，没有时返回null
+     */
+    public Entry put(Entry entry) {
+        return entries.get(entry.getKind()).put(entry.getId(), entry);
+    }
+
+    /**
+     * 条目仍是expected时替换为replacement（按对象比较，期间被删除或替换过时不替换）
+     * @return 是否替换
+     */
+    public boolean replace(Entry expected, Entry replacement) {
+        return entries.get(expected.getKind()).replace(expected.getId(), expected, replacement);
+    }
+
+    public Entry remove(Kind kind, String id) {
+        return entries.get(kind).remove(id);
+    }
+
+    public int size(Kind kind) {
+        return entries.get(kind).size();
+    }
+
+    public Collection<Entry> entries(Kind kind) {
+        return entries.get(kind).values();
+    }
+
+    /**
+     * 为磁盘上已存在的文件创建条目
+     */
+    public static Entry fromFile(Kind kind, Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String id = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        return new Entry(id, kind, file, extension, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * 从磁盘重建某一类别的索引
+     * 每个目录作为一个ForkJoin任务，子目录并行遍历
+     * @param root 存储根目录
+     * @param kind 类别
+     * @param excludedDirectories 需要跳过的目录名（如其他类别的子目录）
+     * @return 索引到的文件数
+     */
+    public long rebuild(Path root, Kind kind, Set<String> excludedDirectories) {
+        Path directory = kind.resolve(root);
+        Map<String, Entry> target = entries.get(kind);
+        target.clear();
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+
+        LongAdder counter = new LongAdder();
+        long start = System.currentTimeMillis();
+        ForkJoinPool.commonPool().invoke(new ScanTask(directory, kind, target, excludedDirectories, counter));
+        logger.info("图片索引重建完成，类别: {}, 文件数: {}, 耗时: {}ms",
+                kind, counter.sum(), System.currentTimeMillis() - start);
+        return counter.sum();
+    }
+
+    private static final class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final Kind kind;
+        private final Map<String, Entry> target;
+        private final Set<String> excludedDirectories;
+        private final LongAdder counter;
+
+        ScanTask(Path directory, Kind kind, Map<String, Entry> target,
+                 Set<String> excludedDirectories, LongAdder counter) {
+            this.directory = directory;
+            this.kind = kind;
+            this.target = target;
+            this.excludedDirectories = excludedDirectories;
+            this.counter = counter;
+        }
+
+        @Override
+        protected void compute() {
+            List<ScanTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path child : stream) {
+                    String name = child.getFileName().toString();
+                    // 隐藏文件和临时文件不进入索引
+                    if (name.startsWith(".")) {
+                        continue;
+                    }
+                    if (Files.isDirectory(child)) {
+                        if (!excludedDirectories.contains(name)) {
+                            subtasks.add(new ScanTask(child, kind, target, Set.of(), counter));
+                        }
+                        continue;
+                    }
+                    Entry entry = fromFile(kind, child);
+                    target.put(entry.getId(), entry);
+                    counter.increment();
+                }
+            } catch (IOException e) {
+                logger.warn("遍历存储目录失败，目录: {}, 错误: {}", directory, e.getMessage());
+            }
+            invokeAll(subtasks);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.photochange.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 存储布局在线迁移工具
+ * 将平铺在类别目录下的旧文件并行移动到分片目录，并同步更新索引。
+ * 迁移期间服务继续运行：新文件直接写入分片目录，旧文件在移动完成前仍可按原路径读取。
+ * 移动不覆盖分片目录中已有的文件：已有文件是迁移期间写入的新内容，旧文件直接丢弃。
+ */
+public class LayoutMigrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(LayoutMigrator.class);
+
+    private final ImageIndex imageIndex;
+    private final Path root;
+    private final int parallelism;
+
+    private final AtomicLong migrated = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public LayoutMigrator(ImageIndex imageIndex, Path root, int parallelism) {
+        this.imageIndex = imageIndex;
+        this.root = root;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * 迁移所有类别的平铺文件
+     * @return 迁移的文件数
+     */
+    public long migrate() {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "layout-migrator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 限制在途任务数量，避免一次性把整个目录列表压入队列
+        Semaphore inFlight = new Semaphore(parallelism * 4);
+
+        try {
+            for (ImageIndex.Kind kind : ImageIndex.Kind.values()) {
+                migrateKind(kind, executor, inFlight);
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+
+        logger.info("存储布局迁移完成，迁移文件数: {}, 失败: {}, 耗时: {}ms",
+                migrated.get(), failed.get(), System.currentTimeMillis() - start);
+        return migrated.get();
+    }
+
+    private void migrateKind(ImageIndex.Kind kind, ExecutorService executor, Semaphore inFlight)
+            throws InterruptedException {
+        Path directory = kind.resolve(root);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().startsWith(".")) {
+                    continue;
+                }
+                inFlight.acquire();
+                executor.execute(() -> {
+                    try {
+                        moveFile(kind, directory, file);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } catch (IOException e) {
+            logger.error("遍历待迁移目录失败，目录: {}, 错误: {}", directory, e.getMessage());
+        }
+    }
+
+    private void moveFile(ImageIndex.Kind kind, Path directory, Path file) {
+        try {
+            ImageIndex.Entry entry = ImageIndex.fromFile(kind, file);
+            Path target = ShardedLayout.resolve(directory, entry.getId(), entry.getExtension());
+            Files.createDirectories(target.getParent());
+            if (!moveIfAbsent(file, target)) {
+                keepExistingTarget(kind, entry.getId(), file, target);
+                return;
+            }
+            // 只替换仍存在的条目：移动期间条目被删除（或被其他写入替换）时不能复活它，移动过去的文件也一并删除
+            while (true) {
+                ImageIndex.Entry previous = imageIndex.get(kind, entry.getId());
+                if (previous == null || !previous.getPath().equals(file)) {
+                    if (previous == null || !previous.getPath().equals(target)) {
+                        Files.deleteIfExists(target);
+                    }
+                    Files.deleteIfExists(file);
+                    logger.debug("迁移期间条目已删除或已替换，丢弃移动的文件: {}", target);
+                    return;
+                }
+                ImageIndex.Entry moved = new ImageIndex.Entry(entry.getId(), kind, target, entry.getExtension(),
+                        entry.getSize(), entry.getLastModified())
+                        .withHeader(previous.getHeader())
+                        .withContentHash(previous.getContentHash());
+                if (imageIndex.replace(previous, moved)) {
+                    break;
+                }
+            }
+            Files.deleteIfExists(file);
+            migrated.incrementAndGet();
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            logger.warn("迁移文件失败，文件: {}, 错误: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * 不覆盖地把文件放到目标位置：先建硬链接（目标已存在时失败），旧路径在索引更新后再删除；
+     * 文件系统不支持硬链接时退回到不替换的移动
+     * @return 目标已存在时返回false，文件保持原样
+     */
+    private static boolean moveIfAbsent(Path file, Path target) throws IOException {
+        try {
+            Files.createLink(target, file);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            try {
+                Files.move(file, target);
+                return true;
+            } catch (FileAlreadyExistsException exists) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 分片目录中已有新写入的文件：索引仍指向旧文件时改为指向已有文件（摘要在首次使用时重新计算），然后删除旧文件
+     */
+    private void keepExistingTarget(ImageIndex.Kind kind, String id, Path file, Path target) throws IOException {
+        while (true) {
+            ImageIndex.Entry previous = imageIndex.get(kind, id);
+            if (previous == null || !previous.getPath().equals(file)
+                    || imageIndex.replace(previous, ImageIndex.fromFile(kind, target))) {
+                break;
+            }
+        }
+        Files.deleteIfExists(file);
+        logger.debug("分片目录中已有文件，丢弃旧文件: {}", file);
+    }
+
+    public long getMigrated() {
+        return migrated.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+}
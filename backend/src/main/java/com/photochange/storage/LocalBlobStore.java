@@ -0,0 +1,121 @@
+package com.photochange.storage;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * 本地文件系统对象存储
+ * 对象键映射为目录下的相对路径。默认与内容存储目录相同，此时上传内容文件是空操作；
+ * 指向共享卷时可供多个节点共用。
+ */
+public class LocalBlobStore implements BlobStore {
+
+    private final Path directory;
+    private final boolean remote;
+
+    /**
+     * @param directory 对象存储目录
+     * @param remote 目录是否为节点之外的共享卷
+     */
+    public LocalBlobStore(Path directory, boolean remote) {
+        this.directory = directory;
+        this.remote = remote;
+    }
+
+    @Override
+    public boolean isRemote() {
+        return remote;
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        Path file = resolve(key);
+        return Files.exists(file) ? Files.size(file) : -1;
+    }
+
+    @Override
+    public void put(String key, Path file, String contentType) throws IOException {
+        Path target = resolve(key);
+        if (Files.exists(target) && Files.isSameFile(file, target)) {
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(".put-" + UUID.randomUUID());
+        try {
+            Files.copy(file, temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] data, String contentType) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(".put-" + UUID.randomUUID());
+        try {
+            Files.write(temp, data);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long start, long end) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(resolve(key), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        channel.position(start);
+        InputStream input = Channels.newInputStream(channel);
+        if (end < 0) {
+            return input;
+        }
+        return new BoundedInputStream(input, end - start + 1);
+    }
+
+    @Override
+    public byte[] getBytes(String key) throws IOException {
+        Path file = resolve(key);
+        return Files.exists(file) ? Files.readAllBytes(file) : null;
+    }
+
+    @Override
+    public boolean download(String key, Path target) throws IOException {
+        Path source = resolve(key);
+        if (!Files.exists(source)) {
+            return false;
+        }
+        if (!(Files.exists(target) && Files.isSameFile(source, target))) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    private Path resolve(String key) {
+        Path file = directory.resolve(key).normalize();
+        if (!file.startsWith(directory.normalize())) {
+            throw new IllegalArgumentException("非法的对象键: " + key);
+        }
+        return file;
+    }
+}
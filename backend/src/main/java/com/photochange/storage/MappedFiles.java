@@ -0,0 +1,33 @@
+package com.photochange.storage;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 只读内存映射
+ * 文件内容由操作系统页缓存直接提供，读取时不在Java堆中分配数组；
+ * 映射在缓冲区对象被回收时解除，期间文件被删除或原子替换不影响已映射的内容。
+ */
+public final class MappedFiles {
+
+    private MappedFiles() {
+    }
+
+    /**
+     * 以只读方式映射整个文件
+     * @param file 文件（不超过2GB）
+     * @return 只读映射视图
+     */
+    public static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("文件过大，无法映射: " + file.getFileName());
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.photochange.storage;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * S3兼容对象存储（AWS S3、MinIO等）
+ * 大文件分片上传，各分片直接从文件区间流式读取并并行传输，失败时中止分片上传；
+ * 大对象按字节范围分段并行下载，直接写入目标文件的对应位置。
+ */
+public class S3BlobStore implements BlobStore, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3BlobStore.class);
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final S3Client client;
+    private final String bucket;
+    private final String prefix;
+    private final long partSize;
+    private final ExecutorService transferExecutor;
+
+    /**
+     * @param client S3客户端
+     * @param bucket 存储桶
+     * @param prefix 对象键前缀（可为空）
+     * @param partSize 分片大小（S3要求除最后一片外不小于5MB）
+     * @param parallelism 并行传输的分片数
+     */
+    public S3BlobStore(S3Client client, String bucket, String prefix, long partSize, int parallelism) {
+        this.client = client;
+        this.bucket = bucket;
+        this.prefix = prefix == null || prefix.isEmpty() || prefix.endsWith("/") ? nullToEmpty(prefix) : prefix + "/";
+        this.partSize = Math.max(5L * 1024 * 1024, partSize);
+        this.transferExecutor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "s3-transfer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public boolean isRemote() {
+        return true;
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        try {
+            return client.headObject(b -> b.bucket(bucket).key(prefix + key)).contentLength();
+        } catch (NoSuchKeyException e) {
+            return -1;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return -1;
+            }
+            throw new IOException("查询对象失败: " + key, e);
+        }
+    }
+
+    @Override
+    public void put(String key, Path file, String contentType) throws IOException {
+        long size = Files.size(file);
+        try {
+            if (size <= partSize) {
+                client.putObject(b -> b.bucket(bucket).key(prefix + key).contentType(contentType),
+                        RequestBody.fromFile(file));
+                return;
+            }
+            putMultipart(key, file, size, contentType);
+        } catch (S3Exception | UncheckedIOException e) {
+            throw new IOException("上传对象失败: " + key, e);
+        }
+    }
+
+    /**
+     * 分片上传：各分片并行从文件区间读取，SDK重试时重新打开同一区间
+     */
+    private void putMultipart(String key, Path file, long size, String contentType) throws IOException {
+        String objectKey = prefix + key;
+        String uploadId = client.createMultipartUpload(
+                b -> b.bucket(bucket).key(objectKey).contentType(contentType)).uploadId();
+        long start = System.currentTimeMillis();
+        try {
+            int partCount = (int) ((size + partSize - 1) / partSize);
+            List<Future<CompletedPart>> futures = new ArrayList<>(partCount);
+            for (int i = 0; i < partCount; i++) {
+                int partNumber = i + 1;
+                long offset = i * partSize;
+                long length = Math.min(partSize, size - offset);
+                futures.add(transferExecutor.submit(() -> {
+                    String eTag = client.uploadPart(
+                            b -> b.bucket(bucket).key(objectKey).uploadId(uploadId).partNumber(partNumber),
+                            RequestBody.fromContentProvider(() -> openSlice(file, offset, length), length,
+                                    contentType != null ? contentType : "application/octet-stream")).eTag();
+                    return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+                }));
+            }
+
+            List<CompletedPart> parts = new ArrayList<>(partCount);
+            for (Future<CompletedPart> future : futures) {
+                parts.add(await(future));
+            }
+            client.completeMultipartUpload(b -> b.bucket(bucket).key(objectKey).uploadId(uploadId)
+                    .multipartUpload(m -> m.parts(parts)));
+            logger.debug("分片上传完成，对象: {}, 分片数: {}, 耗时: {}ms",
+                    objectKey, partCount, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            try {
+                client.abortMultipartUpload(b -> b.bucket(bucket).key(objectKey).uploadId(uploadId));
+            } catch (S3Exception abortError) {
+                logger.warn("中止分片上传失败，对象: {}, 错误: {}", objectKey, abortError.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] data, String contentType) throws IOException {
+        try {
+            client.putObject(b -> b.bucket(bucket).key(prefix + key).contentType(contentType),
+                    RequestBody.fromBytes(data));
+        } catch (S3Exception e) {
+            throw new IOException("上传对象失败: " + key, e);
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long start, long end) throws IOException {
+        String range = "bytes=" + start + "-" + (end >= 0 ? String.valueOf(end) : "");
+        try {
+            return client.getObject(b -> b.bucket(bucket).key(prefix + key).range(range));
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (S3Exception e) {
+            throw new IOException("读取对象失败: " + key, e);
+        }
+    }
+
+    @Override
+    public byte[] getBytes(String key) throws IOException {
+        try {
+            return client.getObjectAsBytes(b -> b.bucket(bucket).key(prefix + key)).asByteArray();
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (S3Exception e) {
+            throw new IOException("读取对象失败: " + key, e);
+        }
+    }
+
+    @Override
+    public boolean download(String key, Path target) throws IOException {
+        long size = size(key);
+        if (size < 0) {
+            return false;
+        }
+
+        Path temp = target.resolveSibling(".download-" + UUID.randomUUID());
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            int partCount = (int) Math.max(1, (size + partSize - 1) / partSize);
+            List<Future<Void>> futures = new ArrayList<>(partCount);
+            for (int i = 0; i < partCount; i++) {
+                long offset = i * partSize;
+                long end = Math.min(size, offset + partSize) - 1;
+                futures.add(transferExecutor.submit(() -> {
+                    downloadRange(key, channel, offset, end);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                await(future);
+            }
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    /**
+     * 下载一个字节范围并写入文件的对应位置（FileChannel按位置写入可并发）
+     */
+    private void downloadRange(String key, FileChannel channel, long start, long end) throws IOException {
+        String range = "bytes=" + start + "-" + end;
+        try (ResponseInputStream<GetObjectResponse> input =
+                     client.getObject(b -> b.bucket(bucket).key(prefix + key).range(range))) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            long position = start;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    position += channel.write(chunk, position);
+                }
+            }
+            if (position != end + 1) {
+                throw new IOException("下载对象不完整: " + key);
+            }
+        } catch (S3Exception e) {
+            throw new IOException("下载对象失败: " + key, e);
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        try {
+            client.deleteObject(b -> b.bucket(bucket).key(prefix + key));
+        } catch (S3Exception e) {
+            throw new IOException("删除对象失败: " + key, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        transferExecutor.shutdownNow();
+        client.close();
+    }
+
+    private static InputStream openSlice(Path file, long offset, long length) {
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            channel.position(offset);
+            return new BoundedInputStream(Channels.newInputStream(channel), length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("对象传输被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("对象传输失败", cause);
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+}
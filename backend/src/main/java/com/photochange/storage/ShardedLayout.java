@@ -0,0 +1,59 @@
+package com.photochange.storage;
+
+import java.nio.file.Path;
+
+/**
+ * 两级哈希前缀目录布局
+ * 例如 img_abcd1234.jpg 存放在 ab/cd/img_abcd1234.jpg，避免单个目录下文件数过多。
+ */
+public final class ShardedLayout {
+
+    private ShardedLayout() {
+    }
+
+    /**
+     * 计算ID对应的分片前缀
+     * ID中包含至少4位十六进制字符时直接取前4位（便于人工定位），否则对ID做哈希
+     * @param id 图片ID、变换任务ID或导出任务ID
+     * @return 形如 "ab/cd" 的分片前缀
+     */
+    public static String shardOf(String id) {
+        String body = id.substring(id.lastIndexOf('_') + 1).replace("-", "");
+        if (body.length() >= 4 && isHex(body, 4)) {
+            String prefix = body.substring(0, 4).toLowerCase();
+            return prefix.substring(0, 2) + "/" + prefix.substring(2, 4);
+        }
+        int h = mix(id.hashCode());
+        return String.format("%02x/%02x", (h >>> 8) & 0xff, h & 0xff);
+    }
+
+    /**
+     * 解析文件在分片布局下的路径
+     * @param directory 类别目录
+     * @param id 对象ID
+     * @param extension 扩展名（含"."，可为空）
+     * @return 分片后的文件路径
+     */
+    public static Path resolve(Path directory, String id, String extension) {
+        String shard = shardOf(id);
+        return directory.resolve(shard.substring(0, 2)).resolve(shard.substring(3)).resolve(id + extension);
+    }
+
+    private static boolean isHex(String s, int length) {
+        for (int i = 0; i < length; i++) {
+            if (Character.digit(s.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,25 @@
+package com.photochange.storage;
+
+/**
+ * 存储对象删除事件
+ * 上传图片、结果图片或导出文件被删除（手动删除或过期回收）后发布，
+ * 各业务服务据此清理内存中对应的任务结果
+ */
+public class StoredObjectDeletedEvent {
+
+    private final ImageIndex.Kind kind;
+    private final String id;
+
+    public StoredObjectDeletedEvent(ImageIndex.Kind kind, String id) {
+        this.kind = kind;
+        this.id = id;
+    }
+
+    public ImageIndex.Kind getKind() {
+        return kind;
+    }
+
+    public String getId() {
+        return id;
+    }
+}
@@ -0,0 +1,20 @@
+package com.photochange.storage;
+
+import java.io.IOException;
+
+/**
+ * 文件不是支持的图片格式或无法解码
+ * 与读写失败区分开：前者是请求的内容问题，接口层返回415，后者是服务端错误
+ */
+public class UnsupportedImageException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public UnsupportedImageException(String message) {
+        super(message);
+    }
+
+    public UnsupportedImageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,208 @@
+package com.photochange.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * 单遍流式写入管道
+ * 上传数据只读取一次，在同一遍中完成：魔数校验、内容哈希、文件头解析、写入临时文件。
+ * 非图片数据在读到前12个字节时即被拒绝，超出大小上限的数据在越界时立即中止。
+ */
+public class UploadPipeline {
+
+    private static final int HEADER_LIMIT = 2 * 1024 * 1024;
+
+    private final long maxBytes;
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    /**
+     * @param maxBytes 允许的最大字节数（小于等于0表示不限制）
+     * @param bufferSize 每个线程复用的直接缓冲区大小
+     */
+    public UploadPipeline(long maxBytes, int bufferSize) {
+        this.maxBytes = maxBytes;
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    /**
+     * 写入结果
+     */
+    public static final class Result {
+        private final Path file;
+        private final String contentHash;
+        private final long size;
+        private final ImageHeader header;
+
+        Result(Path file, String contentHash, long size, ImageHeader header) {
+            this.file = file;
+            this.contentHash = contentHash;
+            this.size = size;
+            this.header = header;
+        }
+
+        /**
+         * 临时文件（尚未刷盘），调用方负责刷盘并原子重命名到最终位置
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * 内容的SHA-256十六进制摘要
+         */
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * 图片头信息，不要求图片格式时可能为null
+         */
+        public ImageHeader getHeader() {
+            return header;
+        }
+    }
+
+    /**
+     * 将数据流写入目录下的临时文件
+     * @param input 数据流
+     * @param directory 临时文件所在目录（应与最终位置在同一文件系统，以便原子重命名）
+     * @param requireImage 是否要求数据为可识别的图片
+     * @return 写入结果
+     * @throws IllegalArgumentException 数据不是图片或超过大小上限
+     * @throws IOException 读写失败
+     */
+    public Result write(InputStream input, Path directory, boolean requireImage) throws IOException {
+        Path temp = directory.resolve(".upload-" + UUID.randomUUID() + ".tmp");
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = buffers.get();
+        byte[] headerBytes = new byte[4096];
+        int headerLength = 0;
+        ImageHeader header = null;
+        boolean headerDone = !requireImage;
+        long size = 0;
+
+        boolean success = false;
+        try (ReadableByteChannel source = Channels.newChannel(input);
+             FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (true) {
+                buffer.clear();
+                int read = source.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                if (read == 0) {
+                    continue;
+                }
+                buffer.flip();
+
+                size += read;
+                if (maxBytes > 0 && size > maxBytes) {
+                    throw new IllegalArgumentException("文件过大，最大支持" + (maxBytes / 1024 / 1024) + "MB");
+                }
+
+                // 文件头阶段：累积开头的字节直到能完成校验和解析
+                if (!headerDone) {
+                    int take = Math.min(read, HEADER_LIMIT - headerLength);
+                    if (headerLength + take > headerBytes.length) {
+                        headerBytes = Arrays.copyOf(headerBytes,
+                                Math.min(HEADER_LIMIT, Math.max(headerBytes.length * 2, headerLength + take)));
+                    }
+                    buffer.duplicate().get(headerBytes, headerLength, take);
+                    headerLength += take;
+
+                    if (headerLength >= ImageHeaderReader.MAGIC_LENGTH
+                            && ImageHeaderReader.detectFormat(headerBytes, headerLength) == null) {
+                        throw new IllegalArgumentException("不支持的文件类型，请上传图片文件");
+                    }
+                    header = ImageHeaderReader.parse(headerBytes, headerLength);
+                    if (header != null) {
+                        headerDone = true;
+                        headerBytes = null;
+                    } else if (headerLength >= HEADER_LIMIT) {
+                        throw new IllegalArgumentException("无法解析图片头");
+                    }
+                }
+
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+            }
+
+            if (!headerDone) {
+                throw new IllegalArgumentException(headerLength < ImageHeaderReader.MAGIC_LENGTH
+                        ? "不支持的文件类型，请上传图片文件" : "图片文件不完整");
+            }
+            // 不在这里刷盘：内容已存在时临时文件会被直接丢弃，由内容存储决定是否刷盘
+            success = true;
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        return new Result(temp, toHex(digest.digest()), size, header);
+    }
+
+    /**
+     * 计算字节数组的SHA-256十六进制摘要
+     */
+    public static String hash(byte[] data) {
+        return toHex(sha256().digest(data));
+    }
+
+    /**
+     * 计算缓冲区剩余内容的SHA-256十六进制摘要（不改变缓冲区位置）
+     * 直接缓冲区（如内存映射）的内容不会整体复制到Java堆
+     */
+    public static String hash(ByteBuffer data) {
+        MessageDigest digest = sha256();
+        digest.update(data.duplicate());
+        return toHex(digest.digest());
+    }
+
+    /**
+     * 计算数据流的SHA-256十六进制摘要
+     */
+    public static String hash(InputStream input) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            chars[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(chars);
+    }
+}
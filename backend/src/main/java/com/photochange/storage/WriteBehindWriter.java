@@ -0,0 +1,404 @@
+package com.photochange.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 延迟写入器
+ * 计算线程把编码好的数据交给有界队列后立即返回，数据在落盘前可以从内存读取；
+ * 专用IO线程在一个短时间窗口内收集一批写入，整块写入临时文件后集中刷盘，再逐个提交到最终位置，
+ * 最后对本批涉及的每个目录刷一次盘（使改名和链接持久化），之后才通知写入已落盘。
+ * 同一键的写入按提交顺序落盘，内存中始终是最新一次写入。
+ */
+public class WriteBehindWriter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindWriter.class);
+
+    private static final int MAX_BATCH = 64;
+
+    /**
+     * 落盘目标，由IO线程调用
+     */
+    public interface Sink {
+        /**
+         * 相同内容已存在时直接建立引用，不写数据
+         * @return 已完成提交时返回最终文件路径，否则返回null
+         */
+        Path linkExisting(PendingWrite write) throws IOException;
+
+        /**
+         * 临时文件所在目录（应与最终位置在同一文件系统）
+         */
+        Path tempDirectory(PendingWrite write);
+
+        /**
+         * 提交已刷盘的临时文件
+         * @return 最终文件路径（其所在目录由写入器统一刷盘）
+         */
+        Path commit(PendingWrite write, Path syncedTemp) throws IOException;
+    }
+
+    /**
+     * 尚未落盘的写入
+     */
+    public static final class PendingWrite {
+        private final String key;
+        private final String id;
+        private final String extension;
+        private final byte[] data;
+        private final String contentHash;
+        private final ImageHeader header;
+        private final long createdAt = System.currentTimeMillis();
+        private final CompletableFuture<Void> persisted = new CompletableFuture<>();
+        // 在本对象锁内读写，保证取消与提交互斥
+        private boolean cancelled;
+
+        PendingWrite(String key, String id, String extension, byte[] data, String contentHash, ImageHeader header) {
+            this.key = key;
+            this.id = id;
+            this.extension = extension;
+            this.data = data;
+            this.contentHash = contentHash;
+            this.header = header;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        /**
+         * 图片头信息，数据无法识别时为null
+         */
+        public ImageHeader getHeader() {
+            return header;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        /**
+         * 落盘完成（或被取消）时完成；写入失败时异常完成
+         */
+        public CompletableFuture<Void> getPersisted() {
+            return persisted;
+        }
+    }
+
+    // 关闭时放入队列的结束标记，IO线程处理完它之前的写入后退出
+    private static final PendingWrite POISON = new PendingWrite(null, null, null, null, null, null);
+
+    private final BlockingQueue<PendingWrite> queue;
+    private final ConcurrentHashMap<String, PendingWrite> pending = new ConcurrentHashMap<>();
+    private final long groupWindowNanos;
+    private final Sink sink;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder syncBatches = new LongAdder();
+
+    /**
+     * @param name IO线程名
+     * @param capacity 队列容量
+     * @param groupWindowMillis 集中刷盘的收集窗口
+     * @param sink 落盘目标
+     */
+    public WriteBehindWriter(String name, int capacity, long groupWindowMillis, Sink sink) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.groupWindowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, groupWindowMillis));
+        this.sink = sink;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+    }
+
+    public void start() {
+        worker.start();
+    }
+
+    /**
+     * 提交一次写入
+     * @return 待落盘的写入；队列已满时返回null，调用方应同步写入
+     */
+    public PendingWrite submit(String key, String id, String extension, byte[] data,
+                               String contentHash, ImageHeader header) {
+        if (!running) {
+            return null;
+        }
+        PendingWrite write = new PendingWrite(key, id, extension, data, contentHash, header);
+        // 先放入内存再入队，IO线程处理时内存中一定可见
+        PendingWrite previous = pending.put(key, write);
+        if (!queue.offer(write)) {
+            // 恢复上一次写入，但它在此期间已经落盘（或失败）时不能恢复，否则内存中会一直留着旧数据；
+            // complete()先完成persisted再移除，与这里的原子判断配合，不会漏掉正在完成的写入
+            pending.compute(key, (k, current) -> current != write ? current
+                    : previous != null && !previous.persisted.isDone() ? previous : null);
+            return null;
+        }
+        return write;
+    }
+
+    /**
+     * 查找尚未落盘的最新写入
+     */
+    public PendingWrite get(String key) {
+        return pending.get(key);
+    }
+
+    /**
+     * 取消尚未落盘的写入，正在提交时等待提交完成
+     * @return 是否存在待落盘的写入
+     */
+    public boolean cancel(String key) {
+        PendingWrite write = pending.remove(key);
+        if (write == null) {
+            return false;
+        }
+        synchronized (write) {
+            write.cancelled = true;
+        }
+        write.persisted.complete(null);
+        return true;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getSyncBatches() {
+        return syncBatches.sum();
+    }
+
+    /**
+     * 停止接收新写入，并把队列中的写入全部落盘
+     */
+    @Override
+    public void close() {
+        // 不中断IO线程：中断会关闭正在写入的FileChannel。放入结束标记，等它处理完之前的写入后自行退出
+        running = false;
+        boolean interrupted = false;
+        if (worker.isAlive()) {
+            boolean signalled = false;
+            while (!signalled) {
+                try {
+                    queue.put(POISON);
+                    signalled = true;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        // IO线程已退出，在结束标记之后才入队的写入由当前线程落盘
+        List<PendingWrite> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.remove(POISON);
+        if (!remaining.isEmpty()) {
+            flush(remaining);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(MAX_BATCH);
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                PendingWrite first = queue.take();
+                if (first == POISON) {
+                    break;
+                }
+                batch.add(first);
+                // 在窗口内继续收集，合并刷盘
+                long deadline = System.nanoTime() + groupWindowNanos;
+                while (batch.size() < MAX_BATCH) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == POISON) {
+                        stopping = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // 不恢复中断标记，否则本批次的文件写入会失败；剩余写入由close()在本线程退出后落盘
+                stopping = true;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 写入一批数据：先全部写入临时文件，再集中刷盘，然后逐个提交，
+     * 最后每个目录刷一次盘，全部完成后才通知写入已落盘
+     */
+    private void flush(List<PendingWrite> batch) {
+        List<PendingWrite> toCommit = new ArrayList<>(batch.size());
+        List<Path> temps = new ArrayList<>(batch.size());
+        List<PendingWrite> committed = new ArrayList<>(batch.size());
+        Set<Path> directories = new LinkedHashSet<>();
+        for (PendingWrite write : batch) {
+            try {
+                Path linked;
+                synchronized (write) {
+                    if (write.cancelled) {
+                        continue;
+                    }
+                    linked = sink.linkExisting(write);
+                }
+                if (linked != null) {
+                    directories.add(linked.getParent());
+                    committed.add(write);
+                    continue;
+                }
+                temps.add(writeTemp(write));
+                toCommit.add(write);
+            } catch (IOException | RuntimeException e) {
+                fail(write, e);
+            }
+        }
+
+        // 数据需要逐个文件刷盘（Java没有按文件系统刷盘的接口），在全部写完之后集中进行
+        for (int i = 0; i < toCommit.size(); i++) {
+            try (FileChannel channel = FileChannel.open(temps.get(i), StandardOpenOption.WRITE)) {
+                channel.force(false);
+            } catch (IOException e) {
+                deleteQuietly(temps.get(i));
+                fail(toCommit.get(i), e);
+                toCommit.set(i, null);
+            }
+        }
+
+        for (int i = 0; i < toCommit.size(); i++) {
+            PendingWrite write = toCommit.get(i);
+            if (write == null) {
+                continue;
+            }
+            Path temp = temps.get(i);
+            try {
+                Path target;
+                synchronized (write) {
+                    if (write.cancelled) {
+                        deleteQuietly(temp);
+                        continue;
+                    }
+                    target = sink.commit(write, temp);
+                }
+                directories.add(target.getParent());
+                written.increment();
+                committed.add(write);
+            } catch (IOException | RuntimeException e) {
+                deleteQuietly(temp);
+                fail(write, e);
+            }
+        }
+
+        for (Path directory : directories) {
+            syncDirectory(directory);
+        }
+        syncBatches.increment();
+        for (PendingWrite write : committed) {
+            complete(write);
+        }
+    }
+
+    /**
+     * 刷新目录项，使改名和新建的链接在断电后仍然存在
+     * 不支持打开目录的平台（如Windows）上跳过
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("目录刷盘失败，目录: {}, 错误: {}", directory, e.getMessage());
+        }
+    }
+
+    private Path writeTemp(PendingWrite write) throws IOException {
+        Path temp = sink.tempDirectory(write).resolve(".upload-" + UUID.randomUUID() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(write.data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            deleteQuietly(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    /**
+     * 先完成persisted再从内存移除，submit()队列满时据此判断上一次写入能否恢复
+     */
+    private void complete(PendingWrite write) {
+        write.persisted.complete(null);
+        pending.remove(write.key, write);
+    }
+
+    private void fail(PendingWrite write, Exception e) {
+        logger.error("延迟写入失败，键: {}, 错误: {}", write.key, e.getMessage());
+        write.persisted.completeExceptionally(e);
+        pending.remove(write.key, write);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("删除临时文件失败，文件: {}", file);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.photochange.template;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * 模板热度统计
+ * 每次使用模板只对该模板的LongAdder计数加一，并发记录互不竞争；
+ * 定期刷新时把各计数器累计到按半衰期指数衰减的得分中，并用小顶堆选出前K名，
+ * 发布为不可变的排名，读取热门模板时直接使用。得分可保存到文件，重启后继续累计。
+ */
+public class PopularityTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopularityTracker.class);
+
+    private static final int MAGIC = 0x54504f50; // "TPOP"
+    private static final int VERSION = 1;
+
+    // 衰减到此值以下的得分被丢弃
+    private static final double MIN_SCORE = 0.01;
+
+    /**
+     * 热度排名（从高到低），发布后不再修改
+     */
+    public static final class Ranking {
+        static final Ranking EMPTY = new Ranking(new String[0], new double[0]);
+
+        private final String[] ids;
+        private final double[] scores;
+        private final Set<String> members;
+
+        Ranking(String[] ids, double[] scores) {
+            this.ids = ids;
+            this.scores = scores;
+            this.members = new HashSet<>(Arrays.asList(ids));
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        public String id(int rank) {
+            return ids[rank];
+        }
+
+        public double score(int rank) {
+            return scores[rank];
+        }
+
+        public boolean contains(String templateId) {
+            return members.contains(templateId);
+        }
+    }
+
+    private final long halfLifeMillis;
+    private final int topK;
+
+    // 上次刷新以来的使用次数
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    // 衰减后的累计得分，只在持有锁时访问
+    private final Map<String, Double> scores = new HashMap<>();
+    private long decayedAt = System.currentTimeMillis();
+
+    private volatile Ranking ranking = Ranking.EMPTY;
+
+    /**
+     * @param halfLifeMillis 得分半衰期
+     * @param topK 排名保留的模板数
+     */
+    public PopularityTracker(long halfLifeMillis, int topK) {
+        this.halfLifeMillis = Math.max(1, halfLifeMillis);
+        this.topK = Math.max(1, topK);
+    }
+
+    /**
+     * 记录一次模板使用
+     */
+    public void record(String templateId) {
+        LongAdder counter = counters.get(templateId);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(templateId, key -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    public Ranking getRanking() {
+        return ranking;
+    }
+
+    /**
+     * 衰减已有得分、累计新的使用次数并重新计算排名
+     * @param live 模板是否仍然存在，已删除模板的得分被丢弃
+     * @return 新的排名
+     */
+    public synchronized Ranking refresh(Predicate<String> live) {
+        long now = System.currentTimeMillis();
+        decay(now);
+
+        Iterator<Map.Entry<String, LongAdder>> counterIterator = counters.entrySet().iterator();
+        while (counterIterator.hasNext()) {
+            Map.Entry<String, LongAdder> entry = counterIterator.next();
+            if (!live.test(entry.getKey())) {
+                // 计数器数量以模板数为上限，只移除已删除模板的计数器
+                counterIterator.remove();
+                continue;
+            }
+            long count = entry.getValue().sumThenReset();
+            if (count > 0) {
+                scores.merge(entry.getKey(), (double) count, Double::sum);
+            }
+        }
+
+        PriorityQueue<Map.Entry<String, Double>> heap = new PriorityQueue<>(topK + 1, Map.Entry.comparingByValue());
+        Iterator<Map.Entry<String, Double>> scoreIterator = scores.entrySet().iterator();
+        while (scoreIterator.hasNext()) {
+            Map.Entry<String, Double> entry = scoreIterator.next();
+            if (entry.getValue() < MIN_SCORE || !live.test(entry.getKey())) {
+                scoreIterator.remove();
+                continue;
+            }
+            heap.offer(entry);
+            if (heap.size() > topK) {
+                heap.poll();
+            }
+        }
+
+        String[] ids = new String[heap.size()];
+        double[] values = new double[heap.size()];
+        for (int i = ids.length - 1; i >= 0; i--) {
+            Map.Entry<String, Double> entry = heap.poll();
+            ids[i] = entry.getKey();
+            values[i] = entry.getValue();
+        }
+        ranking = new Ranking(ids, values);
+        return ranking;
+    }
+
+    private void decay(long now) {
+        if (now <= decayedAt) {
+            return;
+        }
+        double factor = Math.pow(0.5, (double) (now - decayedAt) / halfLifeMillis);
+        scores.replaceAll((id, score) -> score * factor);
+        decayedAt = now;
+    }
+
+    /**
+     * 保存得分（先写临时文件再原子替换）
+     * 尚未刷新的计数不包含在内，最多丢失一个刷新周期的使用记录
+     */
+    public synchronized void save(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(".popularity-" + UUID.randomUUID());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(decayedAt);
+            out.writeInt(scores.size());
+            for (Map.Entry<String, Double> entry : scores.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeDouble(entry.getValue());
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 加载保存的得分，停机期间按半衰期补做衰减
+     * 文件不存在时忽略
+     */
+    public synchronized void load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.warn("模板热度文件格式不正确，忽略: {}", file);
+                return;
+            }
+            long savedAt = in.readLong();
+            int count = in.readInt();
+            Map<String, Double> loaded = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                loaded.put(in.readUTF(), in.readDouble());
+            }
+            scores.clear();
+            scores.putAll(loaded);
+            decayedAt = Math.min(savedAt, System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.photochange.template;
+
+import com.photochange.model.PoseTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 模板姿势向量索引
+ * 所有模板的姿势向量按行存放在一个float[]矩阵中。模板数量较少时逐行计算距离（数据连续、无分支，最快）；
+ * 超过阈值时在矩阵上构建VP树，按三角不等式剪枝，只访问查询点附近的模板。
+ * 随快照一起构建，构建后不再修改。
+ */
+public final class PoseIndex {
+
+    /**
+     * 超过此数量的模板时使用VP树
+     */
+    static final int BRUTE_FORCE_LIMIT = 1024;
+
+    private static final PoseIndex EMPTY = new PoseIndex(new String[0], new float[0], false);
+
+    private final String[] ids;
+    private final float[] matrix;
+
+    // VP树按区间存放在order中：区间[lo, hi)的第一个元素是该节点的观察点，
+    // [lo + 1, split[lo])到观察点的距离不大于radius[lo]，[split[lo], hi)不小于
+    private final int[] order;
+    private final int[] split;
+    private final float[] radius;
+
+    /**
+     * 查询结果
+     */
+    public static final class Match {
+        private final String templateId;
+        private final float distance;
+        private final boolean mirrored;
+
+        Match(String templateId, float distance, boolean mirrored) {
+            this.templateId = templateId;
+            this.distance = distance;
+            this.mirrored = mirrored;
+        }
+
+        public String getTemplateId() {
+            return templateId;
+        }
+
+        /**
+         * 归一化姿势向量间的欧氏距离，范围[0, 2]
+         */
+        public float getDistance() {
+            return distance;
+        }
+
+        /**
+         * 是否与模板的镜像姿势匹配
+         */
+        public boolean isMirrored() {
+            return mirrored;
+        }
+    }
+
+    private PoseIndex(String[] ids, float[] matrix, boolean tree) {
+        this.ids = ids;
+        this.matrix = matrix;
+        if (tree) {
+            int size = ids.length;
+            this.order = new int[size];
+            this.split = new int[size];
+            this.radius = new float[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            build(0, size, new float[size]);
+        } else {
+            this.order = null;
+            this.split = null;
+            this.radius = null;
+        }
+    }
+
+    public static PoseIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 构建索引，关键点不足的模板不参与
+     */
+    public static PoseIndex of(Collection<PoseTemplate> templates) {
+        List<String> ids = new ArrayList<>(templates.size());
+        float[] matrix = new float[templates.size() * PoseVector.DIMENSION];
+        for (PoseTemplate template : templates) {
+            float[] vector = PoseVector.embed(template.getKeypoints());
+            if (vector != null) {
+                System.arraycopy(vector, 0, matrix, ids.size() * PoseVector.DIMENSION, PoseVector.DIMENSION);
+                ids.add(template.getTemplateId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return EMPTY;
+        }
+        return new PoseIndex(ids.toArray(new String[0]),
+                Arrays.copyOf(matrix, ids.size() * PoseVector.DIMENSION),
+                ids.size() > BRUTE_FORCE_LIMIT);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * 查找最相近的模板
+     * @param query 查询姿势向量（{@link PoseVector#embed}的结果）
+     * @param limit 返回数量
+     * @param mirror 是否同时与镜像姿势比较（取两者中较近的）
+     * @return 按距离从近到远排列
+     */
+    public List<Match> nearest(float[] query, int limit, boolean mirror) {
+        int k = Math.min(limit, ids.length);
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        TopK direct = search(query, k);
+        if (!mirror) {
+            List<Match> matches = new ArrayList<>(direct.size);
+            for (int i = 0; i < direct.size; i++) {
+                matches.add(new Match(ids[direct.rows[i]], (float) Math.sqrt(direct.distances[i]), false));
+            }
+            return matches;
+        }
+
+        // 合并两次查询，同一模板只保留较近的一次
+        TopK mirrored = search(PoseVector.mirror(query), k);
+        TopK merged = new TopK(k);
+        for (int i = 0; i < direct.size; i++) {
+            float squared = Math.min(direct.distances[i], mirrored.distanceOf(direct.rows[i]));
+            merged.offer(direct.rows[i], squared);
+        }
+        for (int i = 0; i < mirrored.size; i++) {
+            if (direct.distanceOf(mirrored.rows[i]) == Float.MAX_VALUE) {
+                merged.offer(mirrored.rows[i], mirrored.distances[i]);
+            }
+        }
+        List<Match> matches = new ArrayList<>(merged.size);
+        for (int i = 0; i < merged.size; i++) {
+            int row = merged.rows[i];
+            matches.add(new Match(ids[row], (float) Math.sqrt(merged.distances[i]),
+                    mirrored.distanceOf(row) < direct.distanceOf(row)));
+        }
+        return matches;
+    }
+
+    private TopK search(float[] query, int k) {
+        TopK top = new TopK(k);
+        if (order == null) {
+            for (int row = 0; row < ids.length; row++) {
+                top.offer(row, PoseVector.distanceSquared(matrix, row, query));
+            }
+        } else {
+            searchTree(0, ids.length, query, top);
+        }
+        return top;
+    }
+
+    /**
+     * VP树k近邻查询，距离平方存入结果，剪枝使用距离本身（满足三角不等式）
+     */
+    private void searchTree(int lo, int hi, float[] query, TopK top) {
+        if (lo >= hi) {
+            return;
+        }
+        int vantage = order[lo];
+        float squared = PoseVector.distanceSquared(matrix, vantage, query);
+        top.offer(vantage, squared);
+        if (hi - lo == 1) {
+            return;
+        }
+        float distance = (float) Math.sqrt(squared);
+        float mu = radius[lo];
+        int mid = split[lo];
+        if (distance < mu) {
+            searchTree(lo + 1, mid, query, top);
+            if (distance + top.bound() >= mu) {
+                searchTree(mid, hi, query, top);
+            }
+        } else {
+            searchTree(mid, hi, query, top);
+            if (distance - top.bound() < mu) {
+                searchTree(lo + 1, mid, query, top);
+            }
+        }
+    }
+
+    /**
+     * 在order[lo, hi)上递归构建VP树：以第一个元素为观察点，按到观察点距离的中位数划分其余元素
+     */
+    private void build(int lo, int hi, float[] distances) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int vantage = order[lo];
+        float[] vantageVector = Arrays.copyOfRange(matrix, vantage * PoseVector.DIMENSION,
+                (vantage + 1) * PoseVector.DIMENSION);
+        for (int i = lo + 1; i < hi; i++) {
+            distances[i] = (float) Math.sqrt(PoseVector.distanceSquared(matrix, order[i], vantageVector));
+        }
+        int mid = (lo + 1 + hi) >>> 1;
+        select(distances, lo + 1, hi, mid);
+        radius[lo] = distances[mid];
+        split[lo] = mid;
+        build(lo + 1, mid, distances);
+        build(mid, hi, distances);
+    }
+
+    /**
+     * 快速选择：把第n小的距离放到位置n，之前的都不大于它，之后的都不小于它（order同步交换）
+     */
+    private void select(float[] distances, int lo, int hi, int n) {
+        int left = lo;
+        int right = hi - 1;
+        while (left < right) {
+            float pivot = distances[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (distances[i] < pivot) {
+                    i++;
+                }
+                while (distances[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(distances, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (n <= j) {
+                right = j;
+            } else if (n >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(float[] distances, int i, int j) {
+        float distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+        int row = order[i];
+        order[i] = order[j];
+        order[j] = row;
+    }
+
+    /**
+     * 固定容量的最近结果集合，按距离升序插入
+     */
+    private static final class TopK {
+        final int[] rows;
+        final float[] distances;
+        int size;
+
+        TopK(int k) {
+            this.rows = new int[k];
+            this.distances = new float[k];
+        }
+
+        void offer(int row, float squared) {
+            if (size == rows.length && squared >= distances[size - 1]) {
+                return;
+            }
+            int i = size < rows.length ? size++ : size - 1;
+            while (i > 0 && distances[i - 1] > squared) {
+                rows[i] = rows[i - 1];
+                distances[i] = distances[i - 1];
+                i--;
+            }
+            rows[i] = row;
+            distances[i] = squared;
+        }
+
+        /**
+         * 某行的距离平方，不在结果中时为Float.MAX_VALUE
+         */
+        float distanceOf(int row) {
+            for (int i = 0; i < size; i++) {
+                if (rows[i] == row) {
+                    return distances[i];
+                }
+            }
+            return Float.MAX_VALUE;
+        }
+
+        /**
+         * 当前第k近的距离，未满时为无穷大
+         */
+        float bound() {
+            return size < rows.length ? Float.MAX_VALUE : (float) Math.sqrt(distances[size - 1]);
+        }
+    }
+}
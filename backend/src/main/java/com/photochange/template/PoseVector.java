@@ -0,0 +1,172 @@
+package com.photochange.template;
+
+import com.photochange.model.Joint;
+import com.photochange.model.Skeleton;
+
+import java.util.Arrays;
+
+/**
+ * 姿势向量
+ * 把一组关键点嵌入为固定维度的向量：平移到可见关节的质心、按到质心的距离归一化为单位长度，
+ * 因此与人物在画面中的位置和大小无关，两个向量的欧氏距离在[0, 2]之间。
+ * 只对等比缩放不变：输入坐标的x、y必须使用同一尺度。模板关键点是正方形画布上的归一化坐标，
+ * 照片上的像素坐标先映射到同样的正方形画布（{@link #embed(Skeleton, int, int)}），
+ * 不能按宽、高分别归一化，否则非正方形照片的长宽比会被扭曲。
+ * 只使用身体的13个关节（鼻子、肩、肘、腕、髋、膝、踝），眼睛和耳朵对姿势的区分度很小，且模板通常不标注。
+ */
+public final class PoseVector {
+
+    /**
+     * 参与比较的关节，顺序与向量中的位置一一对应
+     */
+    public static final Joint[] JOINTS = {
+            Joint.NOSE,
+            Joint.LEFT_SHOULDER, Joint.RIGHT_SHOULDER,
+            Joint.LEFT_ELBOW, Joint.RIGHT_ELBOW,
+            Joint.LEFT_WRIST, Joint.RIGHT_WRIST,
+            Joint.LEFT_HIP, Joint.RIGHT_HIP,
+            Joint.LEFT_KNEE, Joint.RIGHT_KNEE,
+            Joint.LEFT_ANKLE, Joint.RIGHT_ANKLE
+    };
+
+    /**
+     * 向量维度（每个关节x、y两个分量）
+     */
+    public static final int DIMENSION = JOINTS.length * 2;
+
+    // 镜像时左右关节互换（JOINTS中的位置）
+    private static final int[] MIRROR = new int[JOINTS.length];
+
+    static {
+        for (int i = 0; i < JOINTS.length; i++) {
+            MIRROR[i] = Arrays.asList(JOINTS).indexOf(JOINTS[i].mirror());
+        }
+    }
+
+    // 置信度低于此值的关节视为不可见
+    private static final float MIN_CONFIDENCE = 0.3f;
+
+    // 可见关节少于此数量时无法可靠比较
+    private static final int MIN_VISIBLE = 4;
+
+    private PoseVector() {
+    }
+
+    /**
+     * 嵌入图片上的关键点：先把像素坐标映射到正方形画布（长边为1，短边方向居中），再嵌入
+     * @param skeleton 骨架（像素坐标）
+     * @param width 图片宽度（按EXIF方向旋转后）
+     * @param height 图片高度（按EXIF方向旋转后）
+     * @return 单位向量，可见关节不足或所有关节重合时返回null
+     */
+    public static float[] embed(Skeleton skeleton, int width, int height) {
+        if (skeleton == null || width <= 0 || height <= 0) {
+            return null;
+        }
+        float side = Math.max(width, height);
+        float offsetX = (side - width) / 2;
+        float offsetY = (side - height) / 2;
+        Skeleton.Builder square = Skeleton.builder();
+        for (Joint joint : JOINTS) {
+            if (skeleton.has(joint)) {
+                square.set(joint, (skeleton.x(joint) + offsetX) / side, (skeleton.y(joint) + offsetY) / side,
+                        skeleton.confidence(joint));
+            }
+        }
+        return embed(square.build());
+    }
+
+    /**
+     * 嵌入关键点
+     * 不可见的关节放在质心（向量分量为0）
+     * @param skeleton 骨架（正方形画布上的归一化坐标，如模板关键点）
+     * @return 单位向量，可见关节不足或所有关节重合时返回null
+     */
+    public static float[] embed(Skeleton skeleton) {
+        if (skeleton == null) {
+            return null;
+        }
+        float[] vector = new float[DIMENSION];
+        boolean[] visible = new boolean[JOINTS.length];
+        int count = 0;
+        double sumX = 0;
+        double sumY = 0;
+        for (int i = 0; i < JOINTS.length; i++) {
+            Joint joint = JOINTS[i];
+            if (!skeleton.has(joint) || skeleton.confidence(joint) < MIN_CONFIDENCE) {
+                continue;
+            }
+            visible[i] = true;
+            vector[i * 2] = skeleton.x(joint);
+            vector[i * 2 + 1] = skeleton.y(joint);
+            sumX += vector[i * 2];
+            sumY += vector[i * 2 + 1];
+            count++;
+        }
+        if (count < MIN_VISIBLE) {
+            return null;
+        }
+
+        float centerX = (float) (sumX / count);
+        float centerY = (float) (sumY / count);
+        double norm = 0;
+        for (int joint = 0; joint < JOINTS.length; joint++) {
+            if (visible[joint]) {
+                vector[joint * 2] -= centerX;
+                vector[joint * 2 + 1] -= centerY;
+                norm += vector[joint * 2] * vector[joint * 2] + vector[joint * 2 + 1] * vector[joint * 2 + 1];
+            }
+        }
+        if (norm == 0) {
+            return null;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    /**
+     * 水平镜像：x取反并交换左右关节，质心和长度不变
+     */
+    public static float[] mirror(float[] vector) {
+        float[] mirrored = new float[DIMENSION];
+        for (int joint = 0; joint < JOINTS.length; joint++) {
+            mirrored[joint * 2] = -vector[MIRROR[joint] * 2];
+            mirrored[joint * 2 + 1] = vector[MIRROR[joint] * 2 + 1];
+        }
+        return mirrored;
+    }
+
+    /**
+     * 查询向量与矩阵中一行的欧氏距离平方
+     * 四路累加打破加法的依赖链，内层循环可以并行执行
+     * @param matrix 行优先存放的向量矩阵
+     * @param row 行号
+     * @param query 查询向量
+     */
+    static float distanceSquared(float[] matrix, int row, float[] query) {
+        int offset = row * DIMENSION;
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int i = 0;
+        for (; i + 3 < DIMENSION; i += 4) {
+            float d0 = matrix[offset + i] - query[i];
+            float d1 = matrix[offset + i + 1] - query[i + 1];
+            float d2 = matrix[offset + i + 2] - query[i + 2];
+            float d3 = matrix[offset + i + 3] - query[i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < DIMENSION; i++) {
+            float d = matrix[offset + i] - query[i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
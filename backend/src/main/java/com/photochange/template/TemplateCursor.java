@@ -0,0 +1,71 @@
+package com.photochange.template;
+
+import com.photochange.model.PoseTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 模板列表游标
+ * 记录上一页最后一个模板的排序键，下一页从排在它之后的位置开始（keyset分页）。
+ * 游标不依赖模板在列表中的位置，快照替换、模板增删后翻页也不会重复或跳过。
+ */
+public final class TemplateCursor {
+
+    private static final char SEPARATOR = '\u0000';
+
+    private final TemplateOrder order;
+    // 只填充排序键的探针，用于在有序列表中二分查找
+    private final PoseTemplate probe;
+
+    private TemplateCursor(TemplateOrder order, PoseTemplate probe) {
+        this.order = order;
+        this.probe = probe;
+    }
+
+    public TemplateOrder getOrder() {
+        return order;
+    }
+
+    PoseTemplate getProbe() {
+        return probe;
+    }
+
+    /**
+     * 生成指向某个模板之后的游标
+     * @param order 排序方式
+     * @param last 当前页最后一个模板
+     * @return URL安全的游标字符串
+     */
+    public static String encode(TemplateOrder order, PoseTemplate last) {
+        String raw = order.name()
+                + SEPARATOR + (last.getCreatedAt() != null ? last.getCreatedAt() : "")
+                + SEPARATOR + (last.getPopularity() != null ? last.getPopularity() : "")
+                + SEPARATOR + last.getTemplateId()
+                // 名称加前缀，以区分空字符串和无名称
+                + SEPARATOR + (last.getName() != null ? "=" + last.getName() : "");
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标
+     * @throws IllegalArgumentException 游标格式不正确
+     */
+    public static TemplateCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] fields = raw.split(String.valueOf(SEPARATOR), 5);
+            if (fields.length != 5) {
+                throw new IllegalArgumentException("字段数量不正确");
+            }
+            PoseTemplate probe = new PoseTemplate();
+            probe.setCreatedAt(fields[1].isEmpty() ? null : Long.valueOf(fields[1]));
+            probe.setPopularity(fields[2].isEmpty() ? null : Float.valueOf(fields[2]));
+            probe.setTemplateId(fields[3]);
+            probe.setName(fields[4].isEmpty() ? null : fields[4].substring(1));
+            return new TemplateCursor(TemplateOrder.valueOf(fields[0]), probe);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("无效的分页游标: " + cursor, e);
+        }
+    }
+}
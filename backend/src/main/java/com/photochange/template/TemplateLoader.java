@@ -0,0 +1,224 @@
+package com.photochange.template;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.photochange.model.PoseTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 模板目录加载器
+ * 目录下每个 *.json 文件描述一个模板，同名的图片文件（如 tpl_standing_01.jpg）作为模板素材。
+ * 文件并行解析；记录每个文件的大小和修改时间，重新加载时只解析发生变化的文件。
+ */
+public class TemplateLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(TemplateLoader.class);
+
+    private static final String JSON = ".json";
+    private static final String[] ASSET_EXTENSIONS = {".jpg", ".jpeg", ".png", ".webp"};
+
+    /**
+     * 已解析的文件
+     */
+    private static final class Loaded {
+        final long size;
+        final long lastModified;
+        final PoseTemplate template;
+
+        Loaded(long size, long lastModified, PoseTemplate template) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.template = template;
+        }
+    }
+
+    private final Path directory;
+    private final ObjectMapper mapper;
+    private final ConcurrentHashMap<Path, Loaded> loaded = new ConcurrentHashMap<>();
+    // 模板ID -> 来源文件，用于更新和删除
+    private volatile Map<String, Path> sources = Collections.emptyMap();
+    // 模板ID -> 同名素材文件，用于生成预览图和图集
+    private volatile Map<String, Path> assetFiles = Collections.emptyMap();
+
+    /**
+     * @param directory 模板目录
+     * @param mapper JSON映射器（未知字段被忽略）
+     */
+    public TemplateLoader(Path directory, ObjectMapper mapper) {
+        this.directory = directory;
+        this.mapper = mapper.copy().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 上次加载时各模板的同名素材文件（模板ID -> 文件）
+     */
+    public Map<String, Path> getAssetFiles() {
+        return assetFiles;
+    }
+
+    /**
+     * 加载目录下的全部模板
+     * 解析失败的文件记录警告后跳过，不影响其他模板
+     * @return 模板列表
+     */
+    public List<PoseTemplate> load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Map<String, String> assets = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                // 隐藏文件和写入中的临时文件不加载
+                if (name.startsWith(".") || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                String lower = name.toLowerCase();
+                if (lower.endsWith(JSON)) {
+                    files.add(file);
+                    continue;
+                }
+                for (String extension : ASSET_EXTENSIONS) {
+                    if (lower.endsWith(extension)) {
+                        assets.putIfAbsent(name.substring(0, name.length() - extension.length()), name);
+                    }
+                }
+            }
+        }
+        Collections.sort(files);
+        loaded.keySet().retainAll(Set.copyOf(files));
+
+        List<Map.Entry<Path, PoseTemplate>> parsed = files.parallelStream()
+                .map(file -> {
+                    PoseTemplate template = loadFile(file);
+                    return template != null ? Map.entry(file, template) : null;
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+
+        Map<String, Path> ids = new HashMap<>();
+        Map<String, Path> assetIds = new HashMap<>();
+        Map<String, PoseTemplate> templates = new LinkedHashMap<>();
+        for (Map.Entry<Path, PoseTemplate> entry : parsed) {
+            PoseTemplate template = entry.getValue();
+            Path previous = ids.put(template.getTemplateId(), entry.getKey());
+            if (previous != null) {
+                logger.warn("模板ID重复，使用后加载的文件，模板ID: {}, 文件: {}, {}",
+                        template.getTemplateId(), previous.getFileName(), entry.getKey().getFileName());
+            }
+            templates.put(template.getTemplateId(), withAssets(template, assets));
+            String asset = assets.get(template.getTemplateId());
+            if (asset != null) {
+                assetIds.put(template.getTemplateId(), directory.resolve(asset));
+            }
+        }
+        sources = ids;
+        assetFiles = assetIds;
+        return new ArrayList<>(templates.values());
+    }
+
+    /**
+     * 解析单个文件，大小和修改时间未变时直接复用上次结果
+     */
+    private PoseTemplate loadFile(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            Loaded previous = loaded.get(file);
+            if (previous != null && previous.size == attributes.size() && previous.lastModified == lastModified) {
+                return previous.template;
+            }
+
+            PoseTemplate template = mapper.readValue(file.toFile(), PoseTemplate.class);
+            String name = file.getFileName().toString();
+            if (template.getTemplateId() == null || template.getTemplateId().isEmpty()) {
+                template.setTemplateId(name.substring(0, name.length() - JSON.length()));
+            }
+            if (template.getCreatedAt() == null) {
+                template.setCreatedAt(lastModified);
+            }
+            loaded.put(file, new Loaded(attributes.size(), lastModified, template));
+            return template;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("模板文件解析失败，文件: {}, 错误: {}", file.getFileName(), e.getMessage());
+            loaded.remove(file);
+            return null;
+        }
+    }
+
+    /**
+     * 模板未指定缩略图时使用同名素材的预览图
+     */
+    private static PoseTemplate withAssets(PoseTemplate template, Map<String, String> assets) {
+        String asset = assets.get(template.getTemplateId());
+        if (asset == null) {
+            return template;
+        }
+        if (template.getThumbnailUrl() == null) {
+            template.setThumbnailUrl("/api/v1/templates/previews/" + asset + "?width=300&height=300");
+        }
+        if (template.getPreviewUrl() == null) {
+            template.setPreviewUrl("/api/v1/templates/previews/" + asset + "?width=1024&height=1024");
+        }
+        return template;
+    }
+
+    /**
+     * 把模板写入目录（先写临时文件再原子替换）
+     * @return 模板文件
+     */
+    public Path write(PoseTemplate template) throws IOException {
+        Path target = sources.get(template.getTemplateId());
+        if (target == null) {
+            target = directory.resolve(template.getTemplateId() + JSON);
+        }
+        Path temp = directory.resolve(".template-" + UUID.randomUUID());
+        try {
+            mapper.writerWithDefaultPrettyPrinter().writeValue(temp.toFile(), template);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        // 同一毫秒内写入大小相同的内容时修改时间无法区分，直接丢弃缓存
+        loaded.remove(target);
+        return target;
+    }
+
+    /**
+     * 删除模板文件
+     * @return 模板不存在时返回false
+     */
+    public boolean delete(String templateId) throws IOException {
+        Path source = sources.get(templateId);
+        return source != null && Files.deleteIfExists(source);
+    }
+
+    /**
+     * 模板ID是否可以安全地用作文件名
+     */
+    public static boolean isValidId(String templateId) {
+        return templateId != null && templateId.matches("[A-Za-z0-9_-]{1,64}");
+    }
+}
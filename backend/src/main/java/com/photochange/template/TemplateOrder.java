@@ -0,0 +1,61 @@
+package com.photochange.template;
+
+import com.photochange.model.PoseTemplate;
+
+import java.util.Comparator;
+
+/**
+ * 模板列表排序方式
+ * 每种排序都以模板ID作为最后的比较键，顺序是全序的，分页和游标翻页都不会重复或遗漏。
+ */
+public enum TemplateOrder {
+
+    /**
+     * 最新优先
+     */
+    LATEST(Comparator
+            .comparing((PoseTemplate template) -> template.getCreatedAt() != null ? template.getCreatedAt() : 0L)
+            .reversed()
+            .thenComparing(PoseTemplate::getTemplateId)),
+
+    /**
+     * 模板自带的热度分（{@link PoseTemplate#getPopularity()}，随模板数据维护）优先，相同时最新优先
+     * 不使用按近期使用次数衰减的排名：该排名每个刷新周期都会变化，列表会在翻页期间重排；
+     * 按使用排名的热门模板见热门模板和推荐模板接口
+     */
+    POPULAR(Comparator
+            .comparing((PoseTemplate template) -> template.getPopularity() != null ? template.getPopularity() : 0f)
+            .reversed()
+            .thenComparing(LATEST.comparator)),
+
+    /**
+     * 按名称排序（不区分大小写），无名称的排在最后
+     */
+    NAME(Comparator
+            .comparing(PoseTemplate::getName, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER))
+            .thenComparing(PoseTemplate::getTemplateId));
+
+    private final Comparator<PoseTemplate> comparator;
+
+    TemplateOrder(Comparator<PoseTemplate> comparator) {
+        this.comparator = comparator;
+    }
+
+    public Comparator<PoseTemplate> comparator() {
+        return comparator;
+    }
+
+    /**
+     * 解析请求中的排序字段
+     * @param sortBy popularity（模板自带热度分）、name或createdAt，为空或无法识别时按创建时间
+     */
+    public static TemplateOrder parse(String sortBy) {
+        if ("popularity".equalsIgnoreCase(sortBy)) {
+            return POPULAR;
+        }
+        if ("name".equalsIgnoreCase(sortBy)) {
+            return NAME;
+        }
+        return LATEST;
+    }
+}
@@ -0,0 +1,233 @@
+package com.photochange.template;
+
+import com.photochange.model.Bone;
+import com.photochange.model.Joint;
+import com.photochange.model.Skeleton;
+
+/**
+ * 模板重定向数据
+ * 姿势变换中只与模板有关的部分：各骨骼的单位方向和长度、骨骼长度与躯干长度的比例，
+ * 以及各关节相对锚点（髋部中点，缺少髋部时为肩部中点）的偏移。模板关键点不变时结果不变，
+ * 随模板快照预先计算，变换时只需测量源骨架的锚点和躯干长度即可把模板姿势放到源图上。
+ * 模板坐标为归一化坐标，按正方形画布解释。
+ */
+public final class TemplateRig {
+
+    // 锚点及尺度参考类型，源骨架必须按与模板相同的类型测量
+    private static final int ANCHOR_NONE = 0;
+    // 锚点为髋部中点，尺度为肩部中点到髋部中点的距离
+    private static final int ANCHOR_TORSO = 1;
+    // 锚点为髋部中点，尺度为髋宽
+    private static final int ANCHOR_HIPS = 2;
+    // 锚点为肩部中点，尺度为肩宽
+    private static final int ANCHOR_SHOULDERS = 3;
+
+    private final Skeleton keypoints;
+
+    // 两端关节都存在的骨骼（按Bone序号的位掩码）
+    private final int bones;
+    private final float[] directions = new float[Bone.count() * 2];
+    private final float[] lengths = new float[Bone.count()];
+    private final float[] ratios = new float[Bone.count()];
+
+    private final int anchor;
+    private final float reference;
+    // 各关节相对锚点的偏移（以reference为单位），只对存在的关节有意义
+    private final float[] offsets = new float[Joint.count() * 2];
+
+    private TemplateRig(Skeleton keypoints) {
+        this.keypoints = keypoints;
+
+        int mask = 0;
+        for (Bone bone : Bone.values()) {
+            if (!keypoints.has(bone.getFrom()) || !keypoints.has(bone.getTo())) {
+                continue;
+            }
+            float dx = keypoints.x(bone.getTo()) - keypoints.x(bone.getFrom());
+            float dy = keypoints.y(bone.getTo()) - keypoints.y(bone.getFrom());
+            float length = (float) Math.sqrt(dx * dx + dy * dy);
+            int i = bone.ordinal();
+            lengths[i] = length;
+            if (length > 0) {
+                directions[i * 2] = dx / length;
+                directions[i * 2 + 1] = dy / length;
+            }
+            mask |= 1 << i;
+        }
+        this.bones = mask;
+
+        this.anchor = anchorOf(keypoints);
+        this.reference = referenceOf(keypoints, anchor);
+        if (reference > 0) {
+            float anchorX = anchorX(keypoints, anchor);
+            float anchorY = anchorY(keypoints, anchor);
+            for (int i = 0; i < Joint.count(); i++) {
+                Joint joint = Joint.of(i);
+                if (keypoints.has(joint)) {
+                    offsets[i * 2] = (keypoints.x(joint) - anchorX) / reference;
+                    offsets[i * 2 + 1] = (keypoints.y(joint) - anchorY) / reference;
+                }
+            }
+            for (int i = 0; i < Bone.count(); i++) {
+                ratios[i] = lengths[i] / reference;
+            }
+        }
+    }
+
+    /**
+     * @param keypoints 模板关键点，为null时视为空骨架
+     */
+    public static TemplateRig of(Skeleton keypoints) {
+        return new TemplateRig(keypoints != null ? keypoints : Skeleton.empty());
+    }
+
+    public Skeleton getKeypoints() {
+        return keypoints;
+    }
+
+    public boolean hasBone(Bone bone) {
+        return (bones & (1 << bone.ordinal())) != 0;
+    }
+
+    /**
+     * 骨骼单位方向的x分量，骨骼不存在或长度为0时为0
+     */
+    public float directionX(Bone bone) {
+        return directions[bone.ordinal() * 2];
+    }
+
+    public float directionY(Bone bone) {
+        return directions[bone.ordinal() * 2 + 1];
+    }
+
+    /**
+     * 骨骼长度（归一化坐标）
+     */
+    public float length(Bone bone) {
+        return lengths[bone.ordinal()];
+    }
+
+    /**
+     * 骨骼长度与尺度参考长度（通常为躯干长度）之比，模板不可放置时为0
+     */
+    public float lengthRatio(Bone bone) {
+        return ratios[bone.ordinal()];
+    }
+
+    /**
+     * 是否可以按源骨架放置（模板有髋部或肩部锚点）
+     */
+    public boolean isPlaceable() {
+        return reference > 0;
+    }
+
+    /**
+     * 归一化坐标换算为像素坐标
+     * @param width 图片宽度
+     * @param height 图片高度
+     */
+    public Skeleton toPixels(int width, int height) {
+        Skeleton.Builder builder = Skeleton.builder();
+        for (int i = 0; i < Joint.count(); i++) {
+            Joint joint = Joint.of(i);
+            if (keypoints.has(joint)) {
+                builder.set(joint, keypoints.x(joint) * width, keypoints.y(joint) * height,
+                        keypoints.confidence(joint));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * 把模板姿势放到源骨架上：与源骨架的锚点对齐，并按源骨架的躯干长度缩放
+     * @param source 源骨架（像素坐标）
+     * @return 像素坐标的目标骨架，模板不可放置或源骨架缺少对应的锚点关节时返回null
+     */
+    public Skeleton placeOnto(Skeleton source) {
+        if (reference <= 0 || source == null) {
+            return null;
+        }
+        float scale = referenceOf(source, anchor);
+        if (scale <= 0) {
+            return null;
+        }
+        float anchorX = anchorX(source, anchor);
+        float anchorY = anchorY(source, anchor);
+        Skeleton.Builder builder = Skeleton.builder();
+        for (int i = 0; i < Joint.count(); i++) {
+            Joint joint = Joint.of(i);
+            if (keypoints.has(joint)) {
+                builder.set(joint, anchorX + offsets[i * 2] * scale, anchorY + offsets[i * 2 + 1] * scale,
+                        keypoints.confidence(joint));
+            }
+        }
+        return builder.build();
+    }
+
+    private static int anchorOf(Skeleton skeleton) {
+        boolean hips = skeleton.has(Joint.LEFT_HIP) && skeleton.has(Joint.RIGHT_HIP);
+        boolean shoulders = skeleton.has(Joint.LEFT_SHOULDER) && skeleton.has(Joint.RIGHT_SHOULDER);
+        if (hips && shoulders) {
+            return ANCHOR_TORSO;
+        }
+        if (hips) {
+            return ANCHOR_HIPS;
+        }
+        return shoulders ? ANCHOR_SHOULDERS : ANCHOR_NONE;
+    }
+
+    /**
+     * 按给定类型测量尺度参考长度，骨架缺少所需关节时为0
+     */
+    private static float referenceOf(Skeleton skeleton, int anchor) {
+        boolean hips = skeleton.has(Joint.LEFT_HIP) && skeleton.has(Joint.RIGHT_HIP);
+        boolean shoulders = skeleton.has(Joint.LEFT_SHOULDER) && skeleton.has(Joint.RIGHT_SHOULDER);
+        switch (anchor) {
+            case ANCHOR_TORSO:
+                return hips && shoulders
+                        ? distance(midX(skeleton, Joint.LEFT_SHOULDER, Joint.RIGHT_SHOULDER),
+                                midY(skeleton, Joint.LEFT_SHOULDER, Joint.RIGHT_SHOULDER),
+                                midX(skeleton, Joint.LEFT_HIP, Joint.RIGHT_HIP),
+                                midY(skeleton, Joint.LEFT_HIP, Joint.RIGHT_HIP))
+                        : 0;
+            case ANCHOR_HIPS:
+                return hips
+                        ? distance(skeleton.x(Joint.LEFT_HIP), skeleton.y(Joint.LEFT_HIP),
+                                skeleton.x(Joint.RIGHT_HIP), skeleton.y(Joint.RIGHT_HIP))
+                        : 0;
+            case ANCHOR_SHOULDERS:
+                return shoulders
+                        ? distance(skeleton.x(Joint.LEFT_SHOULDER), skeleton.y(Joint.LEFT_SHOULDER),
+                                skeleton.x(Joint.RIGHT_SHOULDER), skeleton.y(Joint.RIGHT_SHOULDER))
+                        : 0;
+            default:
+                return 0;
+        }
+    }
+
+    private static float anchorX(Skeleton skeleton, int anchor) {
+        return anchor == ANCHOR_SHOULDERS
+                ? midX(skeleton, Joint.LEFT_SHOULDER, Joint.RIGHT_SHOULDER)
+                : midX(skeleton, Joint.LEFT_HIP, Joint.RIGHT_HIP);
+    }
+
+    private static float anchorY(Skeleton skeleton, int anchor) {
+        return anchor == ANCHOR_SHOULDERS
+                ? midY(skeleton, Joint.LEFT_SHOULDER, Joint.RIGHT_SHOULDER)
+                : midY(skeleton, Joint.LEFT_HIP, Joint.RIGHT_HIP);
+    }
+
+    private static float midX(Skeleton skeleton, Joint a, Joint b) {
+        return (skeleton.x(a) + skeleton.x(b)) / 2;
+    }
+
+    private static float midY(Skeleton skeleton, Joint a, Joint b) {
+        return (skeleton.y(a) + skeleton.y(b)) / 2;
+    }
+
+    private static float distance(float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+}
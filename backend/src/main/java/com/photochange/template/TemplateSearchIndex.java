@@ -0,0 +1,332 @@
+package com.photochange.template;
+
+import com.photochange.model.PoseTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 模板全文索引
+ * 名称、类别、描述分词后建立倒排表：中日韩文字切成单字和相邻二字组，拉丁字母和数字按单词切分。
+ * 每个词的倒排表是按文档号排序的int[]，多个查询词时从最短的表开始求交集，结果按BM25得分排序。
+ * 查询的最后一个拉丁单词按前缀匹配，便于边输入边搜索。随快照一起构建，构建后不再修改。
+ */
+public final class TemplateSearchIndex {
+
+    // 字段权重：名称命中比描述命中更重要
+    private static final float NAME_WEIGHT = 3f;
+    private static final float CATEGORY_WEIGHT = 2f;
+    private static final float DESCRIPTION_WEIGHT = 1f;
+
+    // BM25参数
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    // 前缀最多展开的词数
+    private static final int MAX_PREFIX_TERMS = 64;
+
+    private static final int[] NO_DOCS = new int[0];
+
+    private final PoseTemplate[] documents;
+    private final float[] lengths;
+    private final float averageLength;
+
+    // 按字典序排列的词，以及对应的倒排表
+    private final String[] terms;
+    private final int[][] postings;
+    private final float[][] frequencies;
+
+    /**
+     * 倒排表（构建中）
+     */
+    private static final class Posting {
+        int[] docs = new int[4];
+        float[] frequencies = new float[4];
+        int size;
+
+        void add(int doc, float weight) {
+            if (size > 0 && docs[size - 1] == doc) {
+                frequencies[size - 1] += weight;
+                return;
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            docs[size] = doc;
+            frequencies[size] = weight;
+            size++;
+        }
+    }
+
+    /**
+     * @param templates 模板，列表中的顺序即得分相同时的结果顺序
+     */
+    public TemplateSearchIndex(List<PoseTemplate> templates) {
+        this.documents = templates.toArray(new PoseTemplate[0]);
+        this.lengths = new float[documents.length];
+        Map<String, Posting> index = new HashMap<>();
+        float totalLength = 0;
+        for (int doc = 0; doc < documents.length; doc++) {
+            PoseTemplate template = documents[doc];
+            lengths[doc] = addField(index, doc, template.getName(), NAME_WEIGHT)
+                    + addField(index, doc, template.getCategory(), CATEGORY_WEIGHT)
+                    + addField(index, doc, template.getDescription(), DESCRIPTION_WEIGHT);
+            totalLength += lengths[doc];
+        }
+        this.averageLength = documents.length > 0 ? Math.max(1f, totalLength / documents.length) : 1f;
+
+        this.terms = index.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        this.postings = new int[terms.length][];
+        this.frequencies = new float[terms.length][];
+        for (int i = 0; i < terms.length; i++) {
+            Posting posting = index.get(terms[i]);
+            postings[i] = Arrays.copyOf(posting.docs, posting.size);
+            frequencies[i] = Arrays.copyOf(posting.frequencies, posting.size);
+        }
+    }
+
+    private static float addField(Map<String, Posting> index, int doc, String text, float weight) {
+        List<String> tokens = tokenize(text, true);
+        for (String token : tokens) {
+            index.computeIfAbsent(token, key -> new Posting()).add(doc, weight);
+        }
+        return tokens.size() * weight;
+    }
+
+    /**
+     * 搜索模板，所有查询词都必须命中
+     * @param query 查询文本
+     * @return 按相关度从高到低排列的模板，查询中没有可检索的词时返回空列表
+     */
+    public List<PoseTemplate> search(String query) {
+        List<String> tokens = tokenize(query, false);
+        if (tokens.isEmpty() || documents.length == 0) {
+            return new ArrayList<>();
+        }
+
+        // 每个查询词对应一个或多个索引词（前缀展开）
+        int[][] termGroups = new int[tokens.size()][];
+        boolean prefix = isPrefixCandidate(query, tokens.get(tokens.size() - 1));
+        for (int i = 0; i < tokens.size(); i++) {
+            termGroups[i] = i == tokens.size() - 1 && prefix ? prefixTerms(tokens.get(i)) : exactTerm(tokens.get(i));
+            if (termGroups[i].length == 0) {
+                return new ArrayList<>();
+            }
+        }
+
+        int[][] groupDocs = new int[termGroups.length][];
+        for (int i = 0; i < termGroups.length; i++) {
+            groupDocs[i] = union(termGroups[i]);
+        }
+        Integer[] order = new Integer[groupDocs.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // 从最短的倒排表开始求交集，候选集尽快缩小
+        Arrays.sort(order, (a, b) -> Integer.compare(groupDocs[a].length, groupDocs[b].length));
+        int[] matched = groupDocs[order[0]];
+        for (int i = 1; i < order.length && matched.length > 0; i++) {
+            matched = intersect(matched, groupDocs[order[i]]);
+        }
+        if (matched.length == 0) {
+            return new ArrayList<>();
+        }
+
+        float[] scores = new float[matched.length];
+        for (int[] group : termGroups) {
+            for (int term : group) {
+                accumulate(term, matched, scores);
+            }
+        }
+        // 得分（正数的位模式与大小同序）取反放在高32位、候选位置放在低32位，
+        // 对long数组排序即按得分从高到低、得分相同时保持文档顺序，无需装箱
+        long[] ranked = new long[matched.length];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = (long) (Integer.MAX_VALUE - Float.floatToIntBits(scores[i])) << 32 | i;
+        }
+        Arrays.sort(ranked);
+        List<PoseTemplate> results = new ArrayList<>(ranked.length);
+        for (long key : ranked) {
+            results.add(documents[matched[(int) key]]);
+        }
+        return results;
+    }
+
+    /**
+     * 把一个词的BM25得分累加到命中的候选文档上（两个有序数组归并）
+     */
+    private void accumulate(int term, int[] matched, float[] scores) {
+        int[] docs = postings[term];
+        float[] tf = frequencies[term];
+        float idf = (float) Math.log(1 + (documents.length - docs.length + 0.5) / (docs.length + 0.5));
+        int i = 0;
+        int j = 0;
+        while (i < docs.length && j < matched.length) {
+            if (docs[i] < matched[j]) {
+                i++;
+            } else if (docs[i] > matched[j]) {
+                j++;
+            } else {
+                float norm = K1 * (1 - B + B * lengths[docs[i]] / averageLength);
+                scores[j] += idf * tf[i] * (K1 + 1) / (tf[i] + norm);
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private int[] exactTerm(String token) {
+        int index = Arrays.binarySearch(terms, token);
+        return index >= 0 ? new int[]{index} : NO_DOCS;
+    }
+
+    private int[] prefixTerms(String prefix) {
+        int start = Arrays.binarySearch(terms, prefix);
+        if (start < 0) {
+            start = -start - 1;
+        }
+        int end = start;
+        while (end < terms.length && end - start < MAX_PREFIX_TERMS && terms[end].startsWith(prefix)) {
+            end++;
+        }
+        int[] range = new int[end - start];
+        for (int i = 0; i < range.length; i++) {
+            range[i] = start + i;
+        }
+        return range;
+    }
+
+    /**
+     * 多个倒排表的并集（前缀展开时使用）
+     */
+    private int[] union(int[] group) {
+        if (group.length == 1) {
+            return postings[group[0]];
+        }
+        boolean[] hit = new boolean[documents.length];
+        int count = 0;
+        for (int term : group) {
+            for (int doc : postings[term]) {
+                if (!hit[doc]) {
+                    hit[doc] = true;
+                    count++;
+                }
+            }
+        }
+        int[] docs = new int[count];
+        for (int doc = 0, i = 0; doc < hit.length; doc++) {
+            if (hit[doc]) {
+                docs[i++] = doc;
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * 有序数组求交集；长度相差悬殊时对长数组做倍增查找
+     */
+    static int[] intersect(int[] small, int[] large) {
+        if (small.length > large.length) {
+            return intersect(large, small);
+        }
+        int[] result = new int[small.length];
+        int count = 0;
+        int from = 0;
+        for (int doc : small) {
+            // 倍增确定范围后二分
+            int step = 1;
+            int to = from;
+            while (to < large.length && large[to] < doc) {
+                from = to;
+                to += step;
+                step <<= 1;
+            }
+            int index = Arrays.binarySearch(large, from, Math.min(to + 1, large.length), doc);
+            if (index >= 0) {
+                result[count++] = doc;
+                from = index + 1;
+            } else {
+                from = -index - 1;
+            }
+            if (from >= large.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * 查询以拉丁字母或数字结尾（而不是空格或标点）时，最后一个词可能还没输入完整
+     */
+    private static boolean isPrefixCandidate(String query, String lastToken) {
+        String trimmed = query.toLowerCase(Locale.ROOT);
+        return !trimmed.isEmpty() && trimmed.endsWith(lastToken) && !isCjk(lastToken.codePointAt(0));
+    }
+
+    /**
+     * 分词
+     * @param text 文本
+     * @param indexing 建索引时为中日韩文字同时输出单字和二字组；查询时只有单字的片段用单字，否则用二字组
+     */
+    static List<String> tokenize(String text, boolean indexing) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        StringBuilder word = new StringBuilder();
+        List<String> cjk = new ArrayList<>();
+        int i = 0;
+        while (i < lower.length()) {
+            int codePoint = lower.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (isCjk(codePoint)) {
+                flushWord(word, tokens);
+                cjk.add(new String(Character.toChars(codePoint)));
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                flushCjk(cjk, tokens, indexing);
+                word.appendCodePoint(codePoint);
+            } else {
+                flushWord(word, tokens);
+                flushCjk(cjk, tokens, indexing);
+            }
+        }
+        flushWord(word, tokens);
+        flushCjk(cjk, tokens, indexing);
+        return tokens;
+    }
+
+    private static void flushWord(StringBuilder word, List<String> tokens) {
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static void flushCjk(List<String> run, List<String> tokens, boolean indexing) {
+        if (run.isEmpty()) {
+            return;
+        }
+        if (indexing || run.size() == 1) {
+            tokens.addAll(run);
+        }
+        for (int i = 0; i + 1 < run.size(); i++) {
+            tokens.add(run.get(i) + run.get(i + 1));
+        }
+        run.clear();
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
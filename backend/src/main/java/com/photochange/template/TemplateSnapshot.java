@@ -0,0 +1,174 @@
+package com.photochange.template;
+
+import com.photochange.model.PoseTemplate;
+import com.photochange.model.Skeleton;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 模板快照
+ * 加载完成后不再修改，读取无需加锁；目录变化时整体构建新快照并原子替换。
+ * 按ID的映射，以及全部模板和每个类别在各排序方式下的有序列表都在构建时算好，
+ * 列表查询只是取已有列表的视图，数量统计为O(1)。姿势相似度索引、全文索引和各模板的重定向数据也随快照一起构建，
+ * 重定向数据并行计算，关键点未变的模板直接沿用上一个快照的结果。
+ */
+public final class TemplateSnapshot {
+
+    private static final TemplateSnapshot EMPTY = new TemplateSnapshot(Collections.emptyList(), 0, null);
+
+    private final long version;
+    private final Map<String, PoseTemplate> byId;
+    private final Map<TemplateOrder, List<PoseTemplate>> all;
+    private final Map<String, Map<TemplateOrder, List<PoseTemplate>>> byCategory;
+    private final PoseIndex poseIndex;
+    private final TemplateSearchIndex searchIndex;
+    private final Map<String, TemplateRig> rigs;
+
+    private TemplateSnapshot(Collection<PoseTemplate> templates, long version, TemplateSnapshot previous) {
+        this.version = version;
+        Map<String, PoseTemplate> ids = new HashMap<>(templates.size() * 2);
+        for (PoseTemplate template : templates) {
+            ids.put(template.getTemplateId(), template);
+        }
+        this.byId = Collections.unmodifiableMap(ids);
+
+        PoseTemplate[] values = ids.values().toArray(new PoseTemplate[0]);
+        Map<TemplateOrder, List<PoseTemplate>> orders = new EnumMap<>(TemplateOrder.class);
+        Map<String, Map<TemplateOrder, List<PoseTemplate>>> categories = new TreeMap<>();
+        for (TemplateOrder order : TemplateOrder.values()) {
+            PoseTemplate[] sorted = values.clone();
+            Arrays.sort(sorted, order.comparator());
+            orders.put(order, List.of(sorted));
+
+            // 按类别拆分有序数组，各类别内仍保持该排序
+            Map<String, List<PoseTemplate>> split = new HashMap<>();
+            for (PoseTemplate template : sorted) {
+                if (template.getCategory() != null) {
+                    split.computeIfAbsent(template.getCategory(), key -> new ArrayList<>()).add(template);
+                }
+            }
+            split.forEach((category, list) -> categories
+                    .computeIfAbsent(category, key -> new EnumMap<>(TemplateOrder.class))
+                    .put(order, List.copyOf(list)));
+        }
+        this.all = orders;
+        this.byCategory = Collections.unmodifiableMap(categories);
+        this.poseIndex = PoseIndex.of(orders.get(TemplateOrder.LATEST));
+        this.searchIndex = new TemplateSearchIndex(orders.get(TemplateOrder.LATEST));
+
+        Map<String, TemplateRig> prepared = new ConcurrentHashMap<>(values.length * 2);
+        Arrays.stream(values).parallel().forEach(template -> prepared.put(template.getTemplateId(),
+                rigOf(template, previous)));
+        this.rigs = Collections.unmodifiableMap(prepared);
+    }
+
+    private static TemplateRig rigOf(PoseTemplate template, TemplateSnapshot previous) {
+        TemplateRig rig = previous != null ? previous.rigs.get(template.getTemplateId()) : null;
+        if (rig != null && rig.getKeypoints().equals(
+                template.getKeypoints() != null ? template.getKeypoints() : Skeleton.empty())) {
+            return rig;
+        }
+        return TemplateRig.of(template.getKeypoints());
+    }
+
+    public static TemplateSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 构建下一个版本的快照，关键点未变的模板沿用上一个快照的重定向数据
+     * @param templates 模板（ID重复时后者覆盖前者）
+     * @param previous 当前快照
+     */
+    public static TemplateSnapshot next(Collection<PoseTemplate> templates, TemplateSnapshot previous) {
+        return new TemplateSnapshot(templates, previous.getVersion() + 1, previous);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public PoseTemplate get(String templateId) {
+        return templateId != null ? byId.get(templateId) : null;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * 有序模板列表（不可修改）
+     * @param category 类别，为空时返回全部模板；类别不存在时返回空列表
+     * @param order 排序方式
+     */
+    public List<PoseTemplate> list(String category, TemplateOrder order) {
+        if (category == null || category.isEmpty()) {
+            return all.get(order);
+        }
+        Map<TemplateOrder, List<PoseTemplate>> orders = byCategory.get(category);
+        return orders != null ? orders.get(order) : Collections.emptyList();
+    }
+
+    /**
+     * 模板数量
+     * @param category 类别，为空时统计全部模板
+     */
+    public int count(String category) {
+        return list(category, TemplateOrder.LATEST).size();
+    }
+
+    /**
+     * 游标之后第一个模板在有序列表中的位置
+     * 游标指向的模板已被删除或排序键已变化时，从原排序键之后继续
+     * @param category 类别，为空时为全部模板
+     * @param cursor 游标
+     */
+    public int indexAfter(String category, TemplateCursor cursor) {
+        List<PoseTemplate> templates = list(category, cursor.getOrder());
+        int index = Collections.binarySearch(templates, cursor.getProbe(), cursor.getOrder().comparator());
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * 模板姿势向量索引
+     */
+    public PoseIndex poseIndex() {
+        return poseIndex;
+    }
+
+    /**
+     * 模板全文索引（相关度相同时按最新排序）
+     */
+    public TemplateSearchIndex searchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * 模板重定向数据
+     * @return 模板不存在时返回null
+     */
+    public TemplateRig rig(String templateId) {
+        return templateId != null ? rigs.get(templateId) : null;
+    }
+
+    /**
+     * 类别名称（按字典序）
+     */
+    public Set<String> categories() {
+        return byCategory.keySet();
+    }
+
+    public Collection<PoseTemplate> all() {
+        return byId.values();
+    }
+}
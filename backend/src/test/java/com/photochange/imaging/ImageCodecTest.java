@@ -0,0 +1,26 @@
+package com.photochange.imaging;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ImageCodecTest {
+
+    @Test
+    void normalizesSupportedFormats() {
+        assertEquals("jpg", ImageCodec.normalizeFormat("JPEG"));
+        assertEquals("jpg", ImageCodec.normalizeFormat("jpg"));
+        assertEquals("png", ImageCodec.normalizeFormat("PNG"));
+        assertEquals("webp", ImageCodec.normalizeFormat("webp"));
+    }
+
+    @Test
+    void rejectsFormatsThatCannotBeEncoded() {
+        assertThrows(IllegalArgumentException.class, () -> ImageCodec.normalizeFormat("gif"));
+        assertThrows(IllegalArgumentException.class, () -> ImageCodec.normalizeFormat("bmp"));
+        assertThrows(IllegalArgumentException.class, () -> ImageCodec.normalizeFormat("jpg/../../x"));
+        assertThrows(IllegalArgumentException.class, () -> ImageCodec.normalizeFormat(null));
+        assertThrows(IllegalArgumentException.class, () -> ImageCodec.encode(null, "gif", 90));
+    }
+}
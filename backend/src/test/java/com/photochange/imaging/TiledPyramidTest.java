@@ -0,0 +1,94 @@
+package com.photochange.imaging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TiledPyramidTest {
+
+    @TempDir
+    Path root;
+
+    /**
+     * 渐变加少量噪点，接近照片的可压缩程度
+     */
+    private static Mat gradient(int width, int height) {
+        OpenCvLoader.ensureLoaded();
+        byte[] pixels = new byte[width * height * 3];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = (y * width + x) * 3;
+                pixels[i] = (byte) (x * 255 / width);
+                pixels[i + 1] = (byte) (y * 255 / height);
+                pixels[i + 2] = (byte) ((x ^ y) & 0x0F);
+            }
+        }
+        Mat mat = new Mat(height, width, CvType.CV_8UC3);
+        mat.put(0, 0, pixels);
+        return mat;
+    }
+
+    private static byte[] bytesOf(Mat mat) {
+        byte[] data = new byte[(int) mat.total() * mat.channels()];
+        mat.get(0, 0, data);
+        return data;
+    }
+
+    private void assertRegionsMatch(boolean compress) throws Exception {
+        Mat image = gradient(700, 530);
+        Path file = root.resolve(compress ? "deflate.tpyr" : "raw.tpyr");
+        TiledPyramid.write(image, file, 256, 4096, compress);
+
+        TiledPyramid pyramid = TiledPyramid.open(file);
+        assertTrue(pyramid.isFullResolution());
+        assertEquals(3, pyramid.getLevelCount());
+        assertArrayEquals(bytesOf(image), bytesOf(pyramid.readLevel(0)));
+        // 跨越分块边界的区域
+        Mat region = pyramid.readRegion(0, 250, 200, 300, 320);
+        assertArrayEquals(bytesOf(image.submat(200, 520, 250, 550)), bytesOf(region));
+        assertEquals(pyramid.getWidth(2), pyramid.readLevel(2).cols());
+    }
+
+    @Test
+    void uncompressedTilesRoundTrip() throws Exception {
+        assertRegionsMatch(false);
+    }
+
+    @Test
+    void compressedTilesRoundTrip() throws Exception {
+        assertRegionsMatch(true);
+    }
+
+    @Test
+    void compressedPyramidIsSmaller() throws Exception {
+        Mat image = gradient(1024, 768);
+        Path raw = root.resolve("raw.tpyr");
+        Path deflate = root.resolve("deflate.tpyr");
+
+        TiledPyramid.write(image, raw, 256, 4096, false);
+        TiledPyramid.write(image, deflate, 256, 4096, true);
+
+        assertTrue(Files.size(deflate) * 2 < Files.size(raw));
+    }
+
+    @Test
+    void rejectsTruncatedFiles() throws Exception {
+        Path file = root.resolve("truncated.tpyr");
+        TiledPyramid.write(gradient(300, 300), file, 256, 4096, true);
+        byte[] data = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(data, data.length - 100));
+
+        assertThrows(IOException.class, () -> TiledPyramid.open(file));
+    }
+}
@@ -0,0 +1,104 @@
+package com.photochange.job;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JobJournalTest {
+
+    @TempDir
+    Path root;
+
+    private static final JobJournal.Codec<String> CODEC = new JobJournal.Codec<String>() {
+        @Override
+        public byte[] encode(String snapshot) {
+            return snapshot.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] data) {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+    };
+
+    private JobJournal<String> open(Map<String, String> recovered) throws IOException {
+        JobJournal<String> journal = new JobJournal<>(root, 4096, CODEC);
+        journal.recover(new JobJournal.Replay<String>() {
+            @Override
+            public void put(String id, String snapshot, long updatedAt) {
+                recovered.put(id, snapshot);
+            }
+
+            @Override
+            public void remove(String id) {
+                recovered.remove(id);
+            }
+        });
+        return journal;
+    }
+
+    @Test
+    void restartsContinueInTheLastSegment() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            JobJournal<String> journal = open(new LinkedHashMap<>());
+            journal.appendPut("job" + i, "state" + i, i);
+            journal.close();
+        }
+
+        Map<String, String> recovered = new LinkedHashMap<>();
+        open(recovered).close();
+
+        assertEquals(5, recovered.size());
+        assertEquals("state4", recovered.get("job4"));
+        assertEquals(1, segmentCount());
+    }
+
+    @Test
+    void tornTailIsOverwritten() throws Exception {
+        JobJournal<String> journal = open(new LinkedHashMap<>());
+        journal.appendPut("a", "first", 1);
+        journal.appendPut("b", "a much longer second state that will be torn", 2);
+        journal.close();
+        // 破坏第二条记录的记录体，模拟写到一半时崩溃
+        int second = 8 + (1 + 8 + 2 + 1 + "first".length());
+        try (FileChannel channel = FileChannel.open(onlySegment(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), second + 8 + 1);
+        }
+
+        Map<String, String> afterCrash = new LinkedHashMap<>();
+        journal = open(afterCrash);
+        journal.appendPut("c", "x", 3);
+        journal.close();
+
+        assertEquals(Map.of("a", "first"), afterCrash);
+        Map<String, String> recovered = new LinkedHashMap<>();
+        open(recovered).close();
+        assertEquals(Map.of("a", "first", "c", "x"), recovered);
+        assertEquals(1, segmentCount());
+    }
+
+    private Path onlySegment() throws IOException {
+        try (Stream<Path> files = Files.list(root)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("journal-"))
+                    .findFirst().orElseThrow();
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(root)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("journal-")).count();
+        }
+    }
+}
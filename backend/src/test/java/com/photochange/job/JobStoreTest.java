@@ -0,0 +1,56 @@
+package com.photochange.job;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JobStoreTest {
+
+    private static JobStore<String[]> store(int maxEntries) {
+        // 快照为单元素数组，元素即状态
+        return new JobStore<>("test", maxEntries, snapshot -> snapshot[0], String[]::clone,
+                Map.of("completed", Duration.ofHours(1)), Duration.ofHours(1));
+    }
+
+    @Test
+    void capacityEvictionSkipsLiveJobs() {
+        JobStore<String[]> store = store(3);
+        store.put("a", new String[]{"processing"});
+        store.put("b", new String[]{"completed"});
+        store.put("c", new String[]{"processing"});
+        // 访问b后最久未访问的是执行中的a，淘汰时应跳过它
+        store.get("b");
+
+        store.put("d", new String[]{"processing"});
+
+        assertNotNull(store.get("a"));
+        assertNull(store.get("b"));
+        assertNotNull(store.get("c"));
+        assertNotNull(store.get("d"));
+    }
+
+    @Test
+    void rejectsNewJobsWhenOnlyLiveJobsRemain() {
+        JobStore<String[]> store = store(2);
+        store.put("a", new String[]{"processing"});
+        store.put("b", new String[]{"processing"});
+
+        JobQueueFullException e = assertThrows(JobQueueFullException.class,
+                () -> store.put("c", new String[]{"processing"}));
+
+        assertEquals("test", e.getQueue());
+        assertNull(store.get("c"));
+        assertEquals(2, store.size());
+        // 已有任务仍可更新
+        store.put("a", new String[]{"completed"});
+        store.put("c", new String[]{"processing"});
+        assertNull(store.get("a"));
+        assertNotNull(store.get("c"));
+    }
+}
@@ -0,0 +1,147 @@
+package com.photochange.service.impl;
+
+import com.photochange.job.CancellationToken;
+import com.photochange.service.ImageStorageService.StoredFile;
+import com.photochange.storage.ContentStore;
+import com.photochange.storage.ImageIndex;
+import com.photochange.storage.StubBlobStore;
+import com.photochange.storage.UploadPipeline;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageStorageServiceImplTest {
+
+    @TempDir
+    Path root;
+
+    private StubBlobStore blobStore;
+    private ImageStorageServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        blobStore = new StubBlobStore();
+        service = new ImageStorageServiceImpl();
+        ReflectionTestUtils.setField(service, "storageLocation", root.toString());
+        ReflectionTestUtils.setField(service, "blobStore", blobStore);
+        ReflectionTestUtils.setField(service, "maxUploadSize", 10L * 1024 * 1024);
+        ReflectionTestUtils.setField(service, "uploadBufferSize", 64 * 1024);
+        ReflectionTestUtils.setField(service, "migrationThreads", 1);
+        ReflectionTestUtils.setField(service, "decodedCacheSize", 16L * 1024 * 1024);
+        ReflectionTestUtils.setField(service, "exportTtl", Duration.ofHours(24));
+        ReflectionTestUtils.setField(service, "remoteMissTtl", 60_000L);
+        ReflectionTestUtils.setField(service, "remoteMissCacheSize", 100);
+        ReflectionTestUtils.setField(service, "writeBehindEnabled", true);
+        ReflectionTestUtils.setField(service, "writeBehindCapacity", 16);
+        ReflectionTestUtils.setField(service, "writeBehindWindow", 1L);
+        ReflectionTestUtils.setField(service, "pyramidTileSize", 256);
+        ReflectionTestUtils.setField(service, "pyramidMaxDimension", 4096);
+        ReflectionTestUtils.setField(service, "pyramidQueueCapacity", 4);
+        service.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.destroy();
+    }
+
+    @Test
+    void remembersRemoteMisses() {
+        String id = "img_0123456789abcdef0123456789abcdef";
+
+        assertNull(service.getStoredFile(ImageIndex.Kind.UPLOAD, id));
+        assertNull(service.getStoredFile(ImageIndex.Kind.UPLOAD, id));
+
+        assertEquals(1, blobStore.gets.get());
+    }
+
+    @Test
+    void doesNotFetchMalformedIds() {
+        assertNull(service.getStoredFile(ImageIndex.Kind.UPLOAD, "../../etc/passwd"));
+        assertNull(service.getStoredFile(ImageIndex.Kind.UPLOAD, ""));
+
+        assertEquals(0, blobStore.gets.get());
+    }
+
+    @Test
+    void fetchesObjectsWrittenByOtherNodes() throws Exception {
+        String id = "img_fedcba9876543210fedcba9876543210";
+        byte[] data = "jpeg bytes".getBytes(StandardCharsets.UTF_8);
+        String hash = UploadPipeline.hash(data);
+        blobStore.putObject(ContentStore.blobKey(hash), data);
+        blobStore.putObject("refs/upload/" + id,
+                (hash + "\n.jpg\n" + data.length).getBytes(StandardCharsets.UTF_8));
+
+        StoredFile stored = service.getStoredFile(ImageIndex.Kind.UPLOAD, id);
+
+        assertNotNull(stored);
+        assertArrayEquals(data, Files.readAllBytes(stored.getPath()));
+        // 之后从本地索引读取，不再回源
+        assertNotNull(service.getStoredFile(ImageIndex.Kind.UPLOAD, id));
+        assertEquals(1, blobStore.gets.get());
+        assertEquals(1, blobStore.downloads.get());
+    }
+
+    @Test
+    void resultIsOnDiskOnceAwaitReturns() throws Exception {
+        String id = "0f8fad5b-d9cb-469f-a165-70867728950e";
+        byte[] data = "result bytes".getBytes(StandardCharsets.UTF_8);
+
+        service.saveResultImage(data, id, "image/jpeg");
+        service.awaitResultPersisted(id);
+
+        // 延迟写入的内存副本可能稍后才移除，直接检查索引和磁盘
+        ImageIndex index = (ImageIndex) ReflectionTestUtils.getField(service, "imageIndex");
+        ImageIndex.Entry entry = index.get(ImageIndex.Kind.RESULT, id);
+        assertNotNull(entry);
+        assertArrayEquals(data, Files.readAllBytes(entry.getPath()));
+    }
+
+    @Test
+    void cancelledRunDoesNotOverwriteTheResubmittedResult() throws Exception {
+        String id = "7c9e6679-7425-40de-944b-e07fc1f90ae7";
+        byte[] stale = "stale result".getBytes(StandardCharsets.UTF_8);
+        byte[] fresh = "fresh result".getBytes(StandardCharsets.UTF_8);
+        CancellationToken oldRun = new CancellationToken();
+        ReentrantLock[] locks = (ReentrantLock[]) ReflectionTestUtils.getField(service, "resultLocks");
+        ReentrantLock lock = locks[Math.floorMod(id.hashCode(), locks.length)];
+
+        // 旧运行已通过最后一个检查点、正要保存时被取消，重新提交的运行抢先保存
+        lock.lock();
+        CompletableFuture<String> staleSave;
+        try {
+            staleSave = CompletableFuture.supplyAsync(() -> service.saveResultImage(stale, id, "image/jpeg", oldRun));
+            while (!lock.hasQueuedThreads()) {
+                Thread.onSpinWait();
+            }
+            oldRun.cancel();
+            service.saveResultImage(fresh, id, "image/jpeg", new CancellationToken());
+        } finally {
+            lock.unlock();
+        }
+
+        ExecutionException e = assertThrows(ExecutionException.class, staleSave::get);
+        assertTrue(e.getCause() instanceof CancellationException);
+        service.awaitResultPersisted(id);
+        ImageIndex index = (ImageIndex) ReflectionTestUtils.getField(service, "imageIndex");
+        assertArrayEquals(fresh, Files.readAllBytes(index.get(ImageIndex.Kind.RESULT, id).getPath()));
+    }
+}
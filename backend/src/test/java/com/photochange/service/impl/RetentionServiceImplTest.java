@@ -0,0 +1,127 @@
+package com.photochange.service.impl;
+
+import com.photochange.job.JobStore;
+import com.photochange.model.ExportResult;
+import com.photochange.model.PoseDetectionResult;
+import com.photochange.model.TransformationResult;
+import com.photochange.service.DerivativeService;
+import com.photochange.service.ImageStorageService;
+import com.photochange.storage.ImageIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RetentionServiceImplTest {
+
+    @TempDir
+    Path root;
+
+    private final ImageStorageService imageStorageService = mock(ImageStorageService.class);
+    private final DerivativeService derivativeService = mock(DerivativeService.class);
+
+    private final JobStore<PoseDetectionResult> detectionResults = new JobStore<>("detection", 100,
+            PoseDetectionResult::getStatus, PoseDetectionResult::new, Map.of(), Duration.ofHours(1));
+    private final JobStore<TransformationResult> transformationResults = new JobStore<>("transformation", 100,
+            TransformationResult::getStatus, TransformationResult::new, Map.of(), Duration.ofHours(1));
+    private final JobStore<ExportResult> exportResults = new JobStore<>("export", 100,
+            ExportResult::getStatus, ExportResult::new, Map.of(), Duration.ofHours(1));
+
+    private RetentionServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        service = new RetentionServiceImpl();
+        ReflectionTestUtils.setField(service, "imageStorageService", imageStorageService);
+        ReflectionTestUtils.setField(service, "derivativeService", derivativeService);
+        ReflectionTestUtils.setField(service, "detectionResults", detectionResults);
+        ReflectionTestUtils.setField(service, "transformationResults", transformationResults);
+        ReflectionTestUtils.setField(service, "exportResults", exportResults);
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "storageLocation", root.toString());
+        ReflectionTestUtils.setField(service, "uploadTtl", Duration.ZERO);
+        ReflectionTestUtils.setField(service, "resultTtl", Duration.ZERO);
+        ReflectionTestUtils.setField(service, "exportTtl", Duration.ZERO);
+        // 磁盘使用率总是高于水位，目标为0
+        ReflectionTestUtils.setField(service, "highWatermark", 0.0);
+        ReflectionTestUtils.setField(service, "lowWatermark", 0.0);
+        ReflectionTestUtils.setField(service, "maxDeletesPerSecond", 0);
+        service.init();
+        when(imageStorageService.listStored(any())).thenReturn(List.of());
+    }
+
+    private static ImageIndex.Entry entry(ImageIndex.Kind kind, String id, long lastModified) {
+        return new ImageIndex.Entry(id, kind, Path.of(id + ".jpg"), ".jpg", 100, lastModified);
+    }
+
+    @Test
+    void expiredFilesUsedByRunningJobsAreKept() {
+        ReflectionTestUtils.setField(service, "uploadTtl", Duration.ofDays(1));
+        ReflectionTestUtils.setField(service, "highWatermark", 2.0);
+        service.init();
+        when(imageStorageService.listStored(ImageIndex.Kind.UPLOAD))
+                .thenReturn(List.of(entry(ImageIndex.Kind.UPLOAD, "a", 0), entry(ImageIndex.Kind.UPLOAD, "b", 0)));
+        PoseDetectionResult detection = new PoseDetectionResult();
+        detection.setImageId("a");
+        detection.setStatus("processing");
+        detectionResults.put("det_1", detection);
+
+        service.sweep();
+
+        verify(imageStorageService, never()).deleteStored(ImageIndex.Kind.UPLOAD, "a");
+        verify(imageStorageService).deleteStored(ImageIndex.Kind.UPLOAD, "b");
+    }
+
+    @Test
+    void watermarkSweepStopsWhenABatchFreesNothing() {
+        // 内容都被其他ID引用，删除引用不释放空间
+        when(imageStorageService.listStored(ImageIndex.Kind.UPLOAD)).thenReturn(List.of(
+                entry(ImageIndex.Kind.UPLOAD, "a", 1),
+                entry(ImageIndex.Kind.UPLOAD, "b", 2),
+                entry(ImageIndex.Kind.UPLOAD, "c", 3)));
+        when(imageStorageService.deleteStored(any(), anyString())).thenReturn(0L);
+
+        service.sweep();
+
+        verify(derivativeService).trimCache(anyLong());
+        verify(imageStorageService, times(1)).deleteStored(any(), anyString());
+        verify(imageStorageService).deleteStored(ImageIndex.Kind.UPLOAD, "a");
+    }
+
+    @Test
+    void watermarkSweepSkipsResultsOfRunningJobs() {
+        when(imageStorageService.listStored(ImageIndex.Kind.RESULT)).thenReturn(List.of(
+                entry(ImageIndex.Kind.RESULT, "tr_exported", 1),
+                entry(ImageIndex.Kind.RESULT, "tr_running", 2),
+                entry(ImageIndex.Kind.RESULT, "tr_done", 3)));
+        when(imageStorageService.deleteStored(any(), anyString())).thenReturn(100L);
+        ExportResult export = new ExportResult();
+        export.setTransformationId("tr_exported");
+        export.setStatus("processing");
+        exportResults.put("exp_1", export);
+        TransformationResult transformation = new TransformationResult();
+        transformation.setStatus("processing");
+        transformationResults.put("tr_running", transformation);
+
+        service.sweep();
+
+        verify(imageStorageService, never()).deleteStored(ImageIndex.Kind.RESULT, "tr_exported");
+        verify(imageStorageService, never()).deleteStored(ImageIndex.Kind.RESULT, "tr_running");
+        verify(imageStorageService).deleteStored(ImageIndex.Kind.RESULT, "tr_done");
+    }
+}
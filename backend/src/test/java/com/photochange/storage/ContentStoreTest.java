@@ -0,0 +1,124 @@
+package com.photochange.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentStoreTest {
+
+    @TempDir
+    Path root;
+
+    private StubBlobStore blobStore;
+    private ContentStore contentStore;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        blobStore = new StubBlobStore();
+        contentStore = new ContentStore(root.resolve(".blobs"), blobStore);
+        contentStore.init();
+    }
+
+    @Test
+    void commitUploadsNewContentOnce() throws Exception {
+        byte[] data = "content".getBytes(StandardCharsets.UTF_8);
+        String hash = UploadPipeline.hash(data);
+
+        assertFalse(contentStore.commit(temp(data), hash, root.resolve("a")));
+        assertTrue(contentStore.commit(temp(data), hash, root.resolve("b")));
+
+        assertEquals(1, blobStore.puts.get());
+        assertTrue(blobStore.hasObject(ContentStore.blobKey(hash)));
+        if (contentStore.isDeduplicating()) {
+            assertEquals(2, contentStore.referenceCount(hash));
+        }
+        assertArrayEquals(data, Files.readAllBytes(root.resolve("b")));
+    }
+
+    @Test
+    void fetchReturnsFalseWhenBackendLacksContent() throws Exception {
+        String hash = UploadPipeline.hash("missing".getBytes(StandardCharsets.UTF_8));
+
+        assertFalse(contentStore.fetch(hash, root.resolve("target")));
+        assertFalse(Files.exists(root.resolve("target")));
+    }
+
+    @Test
+    void downloadDoesNotHoldTheContentLock() throws Exception {
+        byte[] data = "remote".getBytes(StandardCharsets.UTF_8);
+        String hash = UploadPipeline.hash(data);
+        blobStore.putObject(ContentStore.blobKey(hash), data);
+        blobStore.downloadGate = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Boolean> fetching = executor.submit(() -> contentStore.fetch(hash, root.resolve("fetched")));
+            assertTrue(blobStore.downloadStarted.await(5, TimeUnit.SECONDS));
+
+            // 下载挂起期间，同一摘要上的本地操作不被阻塞
+            Path reference = root.resolve("other");
+            Files.write(reference, data);
+            Future<Long> deleting = executor.submit(() -> contentStore.delete(reference, hash));
+            assertEquals(0, deleting.get(2, TimeUnit.SECONDS));
+
+            blobStore.downloadGate.countDown();
+            assertTrue(fetching.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertArrayEquals(data, Files.readAllBytes(root.resolve("fetched")));
+    }
+
+    @Test
+    void concurrentFetchesDownloadOnce() throws Exception {
+        if (!contentStore.isDeduplicating()) {
+            return;
+        }
+        byte[] data = "shared".getBytes(StandardCharsets.UTF_8);
+        String hash = UploadPipeline.hash(data);
+        blobStore.putObject(ContentStore.blobKey(hash), data);
+        blobStore.downloadGate = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<Boolean> first = executor.submit(() -> contentStore.fetch(hash, root.resolve("t0")));
+            assertTrue(blobStore.downloadStarted.await(5, TimeUnit.SECONDS));
+            Future<Boolean> second = executor.submit(() -> contentStore.fetch(hash, root.resolve("t1")));
+            Future<Boolean> third = executor.submit(() -> contentStore.fetch(hash, root.resolve("t2")));
+            // 让后到的请求进入等待
+            Thread.sleep(100);
+            blobStore.downloadGate.countDown();
+
+            assertTrue(first.get(5, TimeUnit.SECONDS));
+            assertTrue(second.get(5, TimeUnit.SECONDS));
+            assertTrue(third.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, blobStore.downloads.get());
+        assertEquals(3, contentStore.referenceCount(hash));
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(data, Files.readAllBytes(root.resolve("t" + i)));
+        }
+    }
+
+    private Path temp(byte[] data) throws Exception {
+        Path temp = Files.createTempFile(root, ".upload-", ".tmp");
+        Files.write(temp, data);
+        return temp;
+    }
+}
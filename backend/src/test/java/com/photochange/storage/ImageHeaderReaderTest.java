@@ -0,0 +1,188 @@
+package com.photochange.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ImageHeaderReaderTest {
+
+    @Test
+    void parsesJpegWithExifOrientation() {
+        byte[] data = jpeg(exif(8, 1, 0x0112, 6));
+
+        ImageHeader header = ImageHeaderReader.parse(data, data.length);
+
+        assertEquals("jpg", header.getFormat());
+        assertEquals(640, header.getWidth());
+        assertEquals(480, header.getHeight());
+        assertEquals(6, header.getOrientation());
+    }
+
+    @Test
+    void ignoresOverflowingIfdOffset() {
+        for (long offset : new long[]{0xFFFFFFFFL, 0x7FFFFFFFL, 0x80000000L, 0x7FFFFFF0L, 9, 7}) {
+            byte[] data = jpeg(exif(offset, 1, 0x0112, 6));
+
+            ImageHeader header = ImageHeaderReader.parse(data, data.length);
+
+            assertEquals(1, header.getOrientation(), "IFD偏移: " + offset);
+            assertEquals(640, header.getWidth());
+        }
+    }
+
+    @Test
+    void ignoresIfdEntriesBeyondSegment() {
+        // 声明65535个条目，实际只有一个且不是方向标签
+        byte[] data = jpeg(exif(8, 0xFFFF, 0x0100, 6));
+
+        ImageHeader header = ImageHeaderReader.parse(data, data.length);
+
+        assertEquals(1, header.getOrientation());
+    }
+
+    @Test
+    void ignoresTruncatedExif() {
+        byte[] app1 = exif(8, 1, 0x0112, 6);
+        for (int length = 0; length < app1.length; length++) {
+            byte[] data = jpeg(Arrays.copyOf(app1, length));
+
+            ImageHeader header = ImageHeaderReader.parse(data, data.length);
+
+            assertEquals(640, header.getWidth(), "EXIF长度: " + length);
+        }
+    }
+
+    @Test
+    void requestsMoreBytesForTruncatedJpeg() {
+        byte[] data = jpeg(exif(8, 1, 0x0112, 6));
+        // SOF0段读到宽度为止，之后的4个字节不需要
+        for (int length = ImageHeaderReader.MAGIC_LENGTH; length < data.length - 4; length++) {
+            assertNull(ImageHeaderReader.parse(Arrays.copyOf(data, length), length), "长度: " + length);
+        }
+    }
+
+    @Test
+    void rejectsJpegSegmentLengthBelowTwo() {
+        byte[] data = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 1, 0, 0, 0, 0, 0, 0};
+
+        assertThrows(IllegalArgumentException.class, () -> ImageHeaderReader.parse(data, data.length));
+    }
+
+    @Test
+    void parsesPng() {
+        byte[] data = png(800, 600);
+
+        ImageHeader header = ImageHeaderReader.parse(data, data.length);
+
+        assertEquals("png", header.getFormat());
+        assertEquals(800, header.getWidth());
+        assertEquals(600, header.getHeight());
+    }
+
+    @Test
+    void handlesTruncatedAndOverflowingPng() {
+        byte[] data = png(800, 600);
+        for (int length = ImageHeaderReader.MAGIC_LENGTH; length < 24; length++) {
+            assertNull(ImageHeaderReader.parse(Arrays.copyOf(data, length), length));
+        }
+
+        byte[] huge = png(0x80000000L, 600);
+        assertThrows(IllegalArgumentException.class, () -> ImageHeaderReader.parse(huge, huge.length));
+    }
+
+    @Test
+    void parsesWebpVariants() {
+        byte[] vp8x = webp("VP8X", 18);
+        vp8x[24] = (byte) 0xFF;
+        vp8x[25] = 0x03;
+        vp8x[27] = (byte) 0xDF;
+        vp8x[28] = 0x02;
+        ImageHeader header = ImageHeaderReader.parse(vp8x, vp8x.length);
+        assertEquals(1024, header.getWidth());
+        assertEquals(736, header.getHeight());
+
+        byte[] vp8l = webp("VP8L", 10);
+        vp8l[20] = 0x2F;
+        header = ImageHeaderReader.parse(vp8l, vp8l.length);
+        assertEquals(1, header.getWidth());
+        assertEquals(1, header.getHeight());
+    }
+
+    @Test
+    void handlesTruncatedAndCorruptWebp() {
+        for (String chunk : new String[]{"VP8 ", "VP8L", "VP8X"}) {
+            byte[] data = webp(chunk, 18);
+            for (int length = ImageHeaderReader.MAGIC_LENGTH; length < 25; length++) {
+                assertNull(ImageHeaderReader.parse(Arrays.copyOf(data, length), length), chunk + " 长度: " + length);
+            }
+        }
+
+        byte[] vp8 = webp("VP8 ", 18);
+        assertThrows(IllegalArgumentException.class, () -> ImageHeaderReader.parse(vp8, vp8.length));
+
+        byte[] unknown = webp("ALPH", 18);
+        assertThrows(IllegalArgumentException.class, () -> ImageHeaderReader.parse(unknown, unknown.length));
+    }
+
+    @Test
+    void rejectsUnknownFormat() {
+        byte[] data = new byte[16];
+
+        assertThrows(IllegalArgumentException.class, () -> ImageHeaderReader.parse(data, data.length));
+    }
+
+    /**
+     * 构造只含APP1段和SOF0段的JPEG（640x480）
+     */
+    private static byte[] jpeg(byte[] app1) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        out.write(0xFF);
+        out.write(0xE1);
+        out.write((app1.length + 2) >> 8);
+        out.write((app1.length + 2) & 0xFF);
+        out.writeBytes(app1);
+        out.writeBytes(new byte[]{(byte) 0xFF, (byte) 0xC0, 0, 11, 8, 0x01, (byte) 0xE0, 0x02, (byte) 0x80, 1, 1, 0x11, 0});
+        return out.toByteArray();
+    }
+
+    /**
+     * 构造小端EXIF数据：IFD0只有一个条目
+     */
+    private static byte[] exif(long ifdOffset, int count, int tag, int value) {
+        ByteBuffer buffer = ByteBuffer.allocate(6 + 8 + 2 + 12 + 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        buffer.put(new byte[]{'I', 'I', 42, 0});
+        buffer.putInt((int) ifdOffset);
+        buffer.putShort((short) count);
+        buffer.putShort((short) tag).putShort((short) 3).putInt(1).putShort((short) value).putShort((short) 0);
+        buffer.putInt(0);
+        return buffer.array();
+    }
+
+    private static byte[] png(long width, long height) {
+        ByteBuffer buffer = ByteBuffer.allocate(33);
+        buffer.put(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        buffer.putInt(13).put(new byte[]{'I', 'H', 'D', 'R'});
+        buffer.putInt((int) width).putInt((int) height);
+        return buffer.array();
+    }
+
+    private static byte[] webp(String chunk, int chunkSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(20 + chunkSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(new byte[]{'R', 'I', 'F', 'F'}).putInt(12 + chunkSize).put(new byte[]{'W', 'E', 'B', 'P'});
+        for (int i = 0; i < 4; i++) {
+            buffer.put((byte) chunk.charAt(i));
+        }
+        buffer.putInt(chunkSize);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,81 @@
+package com.photochange.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LayoutMigratorTest {
+
+    @TempDir
+    Path root;
+
+    private final ImageIndex imageIndex = new ImageIndex();
+
+    private Path flatFile(String id, String content) throws Exception {
+        Path directory = ImageIndex.Kind.UPLOAD.resolve(root);
+        Files.createDirectories(directory);
+        Path file = directory.resolve(id + ".jpg");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private Path shardedFile(String id, String content) throws Exception {
+        Path target = ShardedLayout.resolve(ImageIndex.Kind.UPLOAD.resolve(root), id, ".jpg");
+        Files.createDirectories(target.getParent());
+        Files.write(target, content.getBytes(StandardCharsets.UTF_8));
+        return target;
+    }
+
+    @Test
+    void movesFlatFilesAndUpdatesTheIndex() throws Exception {
+        Path file = flatFile("img_a", "old");
+        imageIndex.put(ImageIndex.fromFile(ImageIndex.Kind.UPLOAD, file).withContentHash("hash-a"));
+
+        new LayoutMigrator(imageIndex, root, 2).migrate();
+
+        Path target = ShardedLayout.resolve(ImageIndex.Kind.UPLOAD.resolve(root), "img_a", ".jpg");
+        ImageIndex.Entry entry = imageIndex.get(ImageIndex.Kind.UPLOAD, "img_a");
+        assertEquals(target, entry.getPath());
+        assertEquals("hash-a", entry.getContentHash());
+        assertArrayEquals("old".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(target));
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void doesNotOverwriteContentRewrittenDuringMigration() throws Exception {
+        Path file = flatFile("img_b", "stale");
+        Path target = shardedFile("img_b", "fresh");
+        ImageIndex.Entry fresh = ImageIndex.fromFile(ImageIndex.Kind.UPLOAD, target).withContentHash("hash-fresh");
+        imageIndex.put(fresh);
+
+        new LayoutMigrator(imageIndex, root, 1).migrate();
+
+        assertArrayEquals("fresh".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(target));
+        assertEquals("hash-fresh", imageIndex.get(ImageIndex.Kind.UPLOAD, "img_b").getContentHash());
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void pointsTheIndexAtAnExistingTarget() throws Exception {
+        Path file = flatFile("img_c", "stale");
+        Path target = shardedFile("img_c", "fresh");
+        imageIndex.put(ImageIndex.fromFile(ImageIndex.Kind.UPLOAD, file).withContentHash("hash-stale"));
+
+        new LayoutMigrator(imageIndex, root, 1).migrate();
+
+        ImageIndex.Entry entry = imageIndex.get(ImageIndex.Kind.UPLOAD, "img_c");
+        assertEquals(target, entry.getPath());
+        // 摘要属于旧内容，不能沿用
+        assertNull(entry.getContentHash());
+        assertArrayEquals("fresh".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(target));
+        assertFalse(Files.exists(file));
+    }
+}
@@ -0,0 +1,102 @@
+package com.photochange.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内存中的远程对象存储，记录各操作的调用次数，下载可以被挂起
+ */
+public class StubBlobStore implements BlobStore {
+
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+
+    public final AtomicInteger puts = new AtomicInteger();
+    public final AtomicInteger gets = new AtomicInteger();
+    public final AtomicInteger downloads = new AtomicInteger();
+
+    // 非null时下载在进入后等待该门闩
+    public volatile CountDownLatch downloadGate;
+    public final CountDownLatch downloadStarted = new CountDownLatch(1);
+
+    public void putObject(String key, byte[] data) {
+        objects.put(key, data);
+    }
+
+    public boolean hasObject(String key) {
+        return objects.containsKey(key);
+    }
+
+    @Override
+    public boolean isRemote() {
+        return true;
+    }
+
+    @Override
+    public long size(String key) {
+        byte[] data = objects.get(key);
+        return data != null ? data.length : -1;
+    }
+
+    @Override
+    public void put(String key, Path file, String contentType) throws IOException {
+        puts.incrementAndGet();
+        objects.put(key, Files.readAllBytes(file));
+    }
+
+    @Override
+    public void put(String key, byte[] data, String contentType) {
+        puts.incrementAndGet();
+        objects.put(key, data.clone());
+    }
+
+    @Override
+    public InputStream get(String key, long start, long end) {
+        byte[] data = objects.get(key);
+        if (data == null) {
+            return null;
+        }
+        int to = end < 0 ? data.length : (int) Math.min(data.length, end + 1);
+        return new ByteArrayInputStream(Arrays.copyOfRange(data, (int) start, to));
+    }
+
+    @Override
+    public byte[] getBytes(String key) {
+        gets.incrementAndGet();
+        byte[] data = objects.get(key);
+        return data != null ? data.clone() : null;
+    }
+
+    @Override
+    public boolean download(String key, Path target) throws IOException {
+        downloads.incrementAndGet();
+        downloadStarted.countDown();
+        CountDownLatch gate = downloadGate;
+        if (gate != null) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("下载被中断", e);
+            }
+        }
+        byte[] data = objects.get(key);
+        if (data == null) {
+            return false;
+        }
+        Files.write(target, data);
+        return true;
+    }
+
+    @Override
+    public void delete(String key) {
+        objects.remove(key);
+    }
+}
@@ -0,0 +1,114 @@
+package com.photochange.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteBehindWriterTest {
+
+    @TempDir
+    Path root;
+
+    /**
+     * 把临时文件移动到 root/键，记录提交线程
+     */
+    private class FileSink implements WriteBehindWriter.Sink {
+        final Map<String, String> committedBy = new ConcurrentHashMap<>();
+
+        @Override
+        public Path linkExisting(WriteBehindWriter.PendingWrite write) {
+            return null;
+        }
+
+        @Override
+        public Path tempDirectory(WriteBehindWriter.PendingWrite write) {
+            return root;
+        }
+
+        @Override
+        public Path commit(WriteBehindWriter.PendingWrite write, Path syncedTemp) throws IOException {
+            Path target = root.resolve(write.getKey());
+            Files.move(syncedTemp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            committedBy.put(write.getKey(), Thread.currentThread().getName());
+            return target;
+        }
+    }
+
+    @Test
+    void closePersistsEverythingQueuedOnTheWorker() throws Exception {
+        FileSink sink = new FileSink();
+        WriteBehindWriter writer = new WriteBehindWriter("test-writer", 1024, 5, sink);
+        writer.start();
+        List<WriteBehindWriter.PendingWrite> writes = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            writes.add(writer.submit("k" + i, "k" + i, ".bin", bytes("v" + i), "h" + i, null));
+        }
+
+        writer.close();
+
+        for (int i = 0; i < writes.size(); i++) {
+            assertNotNull(writes.get(i));
+            assertTrue(writes.get(i).getPersisted().isDone());
+            assertArrayEquals(bytes("v" + i), Files.readAllBytes(root.resolve("k" + i)));
+            assertEquals("test-writer", sink.committedBy.get("k" + i));
+            assertNull(writer.get("k" + i));
+        }
+        assertEquals(500, writer.getWritten());
+        assertNull(writer.submit("late", "late", ".bin", bytes("late"), "h", null));
+    }
+
+    @Test
+    void queueFullDoesNotRestoreAPersistedWrite() {
+        // 不启动IO线程，队列容量为1
+        WriteBehindWriter writer = new WriteBehindWriter("test-writer", 1, 0, new FileSink());
+        WriteBehindWriter.PendingWrite first = writer.submit("k", "k", ".bin", bytes("1"), "h1", null);
+        assertNotNull(first);
+        // 模拟IO线程刚完成上一次写入、尚未从内存移除
+        first.getPersisted().complete(null);
+
+        assertNull(writer.submit("k", "k", ".bin", bytes("2"), "h2", null));
+
+        assertNull(writer.get("k"));
+    }
+
+    @Test
+    void queueFullRestoresAnUnpersistedWrite() {
+        WriteBehindWriter writer = new WriteBehindWriter("test-writer", 1, 0, new FileSink());
+        WriteBehindWriter.PendingWrite first = writer.submit("k", "k", ".bin", bytes("1"), "h1", null);
+
+        assertNull(writer.submit("k", "k", ".bin", bytes("2"), "h2", null));
+
+        assertSame(first, writer.get("k"));
+    }
+
+    @Test
+    void closeWithoutStartPersistsQueuedWrites() throws Exception {
+        WriteBehindWriter writer = new WriteBehindWriter("test-writer", 4, 0, new FileSink());
+        WriteBehindWriter.PendingWrite write = writer.submit("k", "k", ".bin", bytes("data"), "h", null);
+
+        writer.close();
+
+        assertTrue(write.getPersisted().isDone());
+        assertArrayEquals(bytes("data"), Files.readAllBytes(root.resolve("k")));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,129 @@
+package com.photochange.template;
+
+import com.photochange.model.Joint;
+import com.photochange.model.PoseTemplate;
+import com.photochange.model.Skeleton;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PoseIndexTest {
+
+    private static final int TEMPLATES = PoseIndex.BRUTE_FORCE_LIMIT * 3;
+
+    private static Skeleton randomPose(Random random) {
+        Skeleton.Builder builder = Skeleton.builder();
+        for (Joint joint : PoseVector.JOINTS) {
+            builder.set(joint, random.nextFloat(), random.nextFloat(), 1f);
+        }
+        return builder.build();
+    }
+
+    private static List<PoseTemplate> randomTemplates(Random random) {
+        List<PoseTemplate> templates = new ArrayList<>();
+        for (int i = 0; i < TEMPLATES; i++) {
+            PoseTemplate template = new PoseTemplate();
+            template.setTemplateId("t" + i);
+            template.setKeypoints(randomPose(random));
+            templates.add(template);
+        }
+        return templates;
+    }
+
+    /**
+     * 逐个比较得到的距离，升序
+     */
+    private static List<Float> bruteForce(List<PoseTemplate> templates, float[] query, int k, boolean mirror) {
+        float[] mirrored = PoseVector.mirror(query);
+        List<Float> distances = new ArrayList<>();
+        for (PoseTemplate template : templates) {
+            float[] vector = PoseVector.embed(template.getKeypoints());
+            float distance = distance(vector, query);
+            if (mirror) {
+                distance = Math.min(distance, distance(vector, mirrored));
+            }
+            distances.add(distance);
+        }
+        distances.sort(Comparator.naturalOrder());
+        return distances.subList(0, k);
+    }
+
+    private static float distance(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += (a[i] - b[i]) * (a[i] - b[i]);
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    private static void assertMatchesBruteForce(boolean mirror) {
+        Random random = new Random(42);
+        List<PoseTemplate> templates = randomTemplates(random);
+        PoseIndex index = PoseIndex.of(templates);
+        assertEquals(TEMPLATES, index.size());
+
+        for (int q = 0; q < 50; q++) {
+            float[] query = PoseVector.embed(randomPose(random));
+            List<PoseIndex.Match> matches = index.nearest(query, 10, mirror);
+            List<Float> expected = bruteForce(templates, query, 10, mirror);
+
+            assertEquals(expected.size(), matches.size());
+            for (int i = 0; i < matches.size(); i++) {
+                assertEquals(expected.get(i), matches.get(i).getDistance(), 1e-4f);
+            }
+        }
+    }
+
+    @Test
+    void treeSearchMatchesBruteForce() {
+        assertMatchesBruteForce(false);
+    }
+
+    @Test
+    void treeSearchWithMirrorMatchesBruteForce() {
+        assertMatchesBruteForce(true);
+    }
+
+    @Test
+    void mirroredPoseIsFoundAsMirrored() {
+        Random random = new Random(7);
+        List<PoseTemplate> templates = randomTemplates(random);
+        PoseIndex index = PoseIndex.of(templates);
+        float[] target = PoseVector.embed(templates.get(123).getKeypoints());
+
+        PoseIndex.Match direct = index.nearest(target, 1, false).get(0);
+        PoseIndex.Match mirrored = index.nearest(PoseVector.mirror(target), 1, true).get(0);
+
+        assertEquals("t123", direct.getTemplateId());
+        assertEquals("t123", mirrored.getTemplateId());
+        assertTrue(mirrored.isMirrored());
+        assertEquals(0f, mirrored.getDistance(), 1e-4f);
+    }
+
+    @Test
+    void pixelCoordinatesKeepTheAspectRatio() {
+        // 同一姿势：800x400照片上的像素坐标，与正方形画布上的模板坐标
+        Random random = new Random(3);
+        Skeleton.Builder pixels = Skeleton.builder();
+        Skeleton.Builder square = Skeleton.builder();
+        for (Joint joint : PoseVector.JOINTS) {
+            float x = random.nextFloat() * 800;
+            float y = random.nextFloat() * 400;
+            pixels.set(joint, x, y, 1f);
+            square.set(joint, x / 800, (y + 200) / 800, 1f);
+        }
+
+        float[] fromPixels = PoseVector.embed(pixels.build(), 800, 400);
+        float[] fromTemplate = PoseVector.embed(square.build());
+
+        assertNotNull(fromPixels);
+        assertEquals(0f, distance(fromPixels, fromTemplate), 1e-5f);
+    }
+}
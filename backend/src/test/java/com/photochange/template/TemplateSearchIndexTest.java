@@ -0,0 +1,68 @@
+package com.photochange.template;
+
+import com.photochange.model.PoseTemplate;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TemplateSearchIndexTest {
+
+    private static PoseTemplate template(String id, String name, String category, String description) {
+        PoseTemplate template = new PoseTemplate();
+        template.setTemplateId(id);
+        template.setName(name);
+        template.setCategory(category);
+        template.setDescription(description);
+        return template;
+    }
+
+    private final TemplateSearchIndex index = new TemplateSearchIndex(List.of(
+            template("a", "Yoga Warrior", "yoga", "standing balance pose"),
+            template("b", "Jumping Jack", "fitness", "full body warm up"),
+            template("c", "站立双手叉腰", "日常", "适合全身照"),
+            template("d", "Tree", "yoga", "balance on one leg")));
+
+    private List<String> ids(String query) {
+        return index.search(query).stream().map(PoseTemplate::getTemplateId).collect(Collectors.toList());
+    }
+
+    @Test
+    void allQueryTermsMustMatch() {
+        assertEquals(List.of("a", "d"), ids("yoga balance "));
+        assertEquals(List.of("d"), ids("balance leg "));
+        assertTrue(ids("yoga jumping ").isEmpty());
+    }
+
+    @Test
+    void nameMatchesRankAboveDescriptionMatches() {
+        List<String> results = ids("tree yoga ");
+
+        assertEquals(List.of("d"), results);
+        assertEquals("a", ids("warrior").get(0));
+    }
+
+    @Test
+    void lastLatinWordMatchesAsPrefix() {
+        assertEquals(List.of("b"), ids("jump"));
+        // 以空格结尾时按完整单词匹配
+        assertTrue(ids("jump ").isEmpty());
+    }
+
+    @Test
+    void cjkTextMatchesByCharactersAndBigrams() {
+        assertEquals(List.of("c"), ids("叉腰"));
+        assertEquals(List.of("c"), ids("站"));
+        assertEquals(List.of("c"), ids("全身"));
+        assertTrue(ids("腰叉").isEmpty());
+    }
+
+    @Test
+    void queriesWithoutTermsReturnNothing() {
+        assertTrue(ids("").isEmpty());
+        assertTrue(ids("  ,. ").isEmpty());
+    }
+}
@@ -0,0 +1,73 @@
+package com.photochange.template;
+
+import com.photochange.model.PoseTemplate;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TemplateSnapshotTest {
+
+    private static List<PoseTemplate> templates(int count) {
+        List<PoseTemplate> templates = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            PoseTemplate template = new PoseTemplate();
+            template.setTemplateId(String.format("t%03d", i));
+            template.setCategory(i % 2 == 0 ? "even" : "odd");
+            // 制造大量相同的排序键，顺序由模板ID决定
+            template.setName(i % 3 == 0 ? null : "name" + i % 5);
+            template.setPopularity((float) (i % 4));
+            template.setCreatedAt(1000L + i % 7);
+            templates.add(template);
+        }
+        return templates;
+    }
+
+    private static List<PoseTemplate> pageThrough(TemplateSnapshot snapshot, String category,
+                                                  TemplateOrder order, int pageSize) {
+        List<PoseTemplate> all = snapshot.list(category, order);
+        List<PoseTemplate> seen = new ArrayList<>();
+        int start = 0;
+        while (start < all.size()) {
+            List<PoseTemplate> page = all.subList(start, Math.min(all.size(), start + pageSize));
+            seen.addAll(page);
+            String cursor = TemplateCursor.encode(order, page.get(page.size() - 1));
+            start = snapshot.indexAfter(category, TemplateCursor.decode(cursor));
+        }
+        return seen;
+    }
+
+    @Test
+    void cursorPagingVisitsEveryTemplateOnce() {
+        TemplateSnapshot snapshot = TemplateSnapshot.next(templates(100), TemplateSnapshot.empty());
+
+        for (TemplateOrder order : TemplateOrder.values()) {
+            assertEquals(snapshot.list(null, order), pageThrough(snapshot, null, order, 7), order.name());
+            assertEquals(snapshot.list("odd", order), pageThrough(snapshot, "odd", order, 6), order.name());
+        }
+    }
+
+    @Test
+    void cursorSurvivesDeletionOfItsTemplate() {
+        List<PoseTemplate> templates = templates(30);
+        TemplateSnapshot before = TemplateSnapshot.next(templates, TemplateSnapshot.empty());
+        List<PoseTemplate> ordered = before.list(null, TemplateOrder.POPULAR);
+        PoseTemplate last = ordered.get(9);
+        String cursor = TemplateCursor.encode(TemplateOrder.POPULAR, last);
+
+        templates.remove(last);
+        TemplateSnapshot after = TemplateSnapshot.next(templates, before);
+        int start = after.indexAfter(null, TemplateCursor.decode(cursor));
+
+        assertEquals(ordered.get(10), after.list(null, TemplateOrder.POPULAR).get(start));
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> TemplateCursor.decode("not a cursor"));
+        assertThrows(IllegalArgumentException.class, () -> TemplateCursor.decode("QUJD"));
+    }
+}